@@ -0,0 +1,60 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.compilers.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thingml.compilers.ThingMLCompiler;
+import org.thingml.compilers.registry.ThingMLCompilerRegistry;
+import org.thingml.utilities.logging.Logger;
+
+/**
+ * Full compilation of the configuration of the synthetic model, with a new compiler instance for each call
+ * (as the command line does for each configuration).
+ *
+ * The output directory is kept between calls, so after the first one the generated files are compared with
+ * the existing ones rather than written: this is the cost of compiling an unchanged model again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompilerBenchmark extends SyntheticModelState {
+
+	@Param({"java", "python_java", "posix", "posixmt", "nodejs", "go"})
+	public String compiler;
+
+	@Benchmark
+	public boolean compile() {
+		final ThingMLCompiler thingmlCompiler = ThingMLCompilerRegistry.getInstance().createCompilerInstanceByName(compiler);
+		thingmlCompiler.setOutputDirectory(new File(dir, "out_" + compiler));
+		thingmlCompiler.setMessageStream(NullOutputStream.NULL_OUTPUT_STREAM);
+		thingmlCompiler.setErrorStream(NullOutputStream.NULL_OUTPUT_STREAM);
+		return thingmlCompiler.compile(cfg, Logger.NULL);
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.compilers.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thingml.compilers.ThingMLCompiler;
+import org.thingml.compilers.utils.ThingMLModelLoader;
+import org.thingml.utilities.logging.Logger;
+import org.thingml.xtext.constraints.ThingMLHelpers;
+import org.thingml.xtext.thingML.ThingMLModel;
+import org.thingml.xtext.validation.Checker;
+
+/**
+ * Front-end of the compilers: parsing, validation and flattening of the synthetic model.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelBenchmark extends SyntheticModelState {
+
+	private final ThingMLModelLoader cachingLoader = new ThingMLModelLoader(true);
+
+	/**
+	 * Parses the file on every call.
+	 */
+	@Benchmark
+	public ThingMLModel loadModel() {
+		return ThingMLCompiler.loadModel(file, Logger.NULL);
+	}
+
+	/**
+	 * Returns the model from the cache of a caching loader, which only checks the modification times of the files.
+	 */
+	@Benchmark
+	public ThingMLModel loadModelCached() {
+		return cachingLoader.load(file, Logger.NULL).model;
+	}
+
+	@Benchmark
+	public boolean validateModel() {
+		return new Checker().validateModel(model);
+	}
+
+	@Benchmark
+	public ThingMLModel flattenModel() {
+		return ThingMLHelpers.flattenModel(model);
+	}
+}
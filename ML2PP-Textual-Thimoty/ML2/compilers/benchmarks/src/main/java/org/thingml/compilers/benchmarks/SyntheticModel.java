@@ -0,0 +1,88 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.compilers.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Generates ThingML models whose size is given by a number of things, states (per thing),
+ * messages and instances (per thing), and which all the compilers accept.
+ *
+ * Each thing receives all the messages on its rx port and sends them on its tx port. Each state has an entry action,
+ * a transition to the next state (sending a message and calling a function) and an internal transition.
+ * The instances are connected in a ring.
+ */
+public class SyntheticModel {
+
+	public static String generate(int things, int states, int messages, int instances) {
+		final StringBuilder b = new StringBuilder();
+		b.append("datatype Int16<2> @type_checker \"Integer\" @c_type \"int16_t\" @java_type \"int\" @js_type \"short\" @go_type \"int16\";\n\n");
+
+		b.append("thing fragment SyntheticMsgs {\n");
+		for (int m = 0; m < messages; m++)
+			b.append("\tmessage m" + m + "(v : Int16)\n");
+		b.append("}\n\n");
+
+		for (int t = 0; t < things; t++) {
+			b.append("thing T" + t + " includes SyntheticMsgs {\n");
+			b.append("\tproperty counter : Int16 = 0\n\n");
+			b.append("\tprovided port rx {\n");
+			for (int m = 0; m < messages; m++)
+				b.append("\t\treceives m" + m + "\n");
+			b.append("\t}\n");
+			b.append("\trequired port tx {\n");
+			for (int m = 0; m < messages; m++)
+				b.append("\t\tsends m" + m + "\n");
+			b.append("\t}\n\n");
+			b.append("\tfunction step(v : Int16) : Int16 do\n\t\treturn v + 1\n\tend\n\n");
+			b.append("\tstatechart sm init S0 {\n");
+			for (int s = 0; s < states; s++) {
+				b.append("\t\tstate S" + s + " {\n");
+				b.append("\t\t\ton entry counter = counter + 1\n");
+				b.append("\t\t\ttransition -> S" + ((s + 1) % states) + " event e : rx?m" + (s % messages) + " guard e.v > 0 action tx!m" + ((s + 1) % messages) + "(step(e.v))\n");
+				b.append("\t\t\tinternal event e : rx?m" + (s % messages) + " guard e.v < 0 action counter = e.v\n");
+				b.append("\t\t}\n");
+			}
+			b.append("\t}\n");
+			b.append("}\n\n");
+		}
+
+		b.append("configuration SyntheticCfg {\n");
+		for (int t = 0; t < things; t++) {
+			for (int i = 0; i < instances; i++)
+				b.append("\tinstance i" + t + "_" + i + " : T" + t + "\n");
+		}
+		final int total = things * instances;
+		if (total > 1) {
+			for (int n = 0; n < total; n++) {
+				final int next = (n + 1) % total;
+				b.append("\tconnector i" + (n / instances) + "_" + (n % instances) + ".tx => i" + (next / instances) + "_" + (next % instances) + ".rx\n");
+			}
+		}
+		b.append("}\n");
+		return b.toString();
+	}
+
+	public static File write(File dir, int things, int states, int messages, int instances) throws IOException {
+		final File file = new File(dir, "Synthetic_" + things + "_" + states + "_" + messages + "_" + instances + ".thingml");
+		Files.write(file.toPath(), generate(things, states, messages, instances).getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.compilers.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.thingml.compilers.ThingMLCompiler;
+import org.thingml.utilities.logging.Logger;
+import org.thingml.xtext.constraints.ThingMLHelpers;
+import org.thingml.xtext.thingML.Configuration;
+import org.thingml.xtext.thingML.ThingMLModel;
+
+/**
+ * Synthetic model shared by the benchmarks, written to a temporary directory and loaded once per trial.
+ * The sizes can be changed from the command line, e.g. -p things=50 -p states=10.
+ */
+@State(Scope.Benchmark)
+public abstract class SyntheticModelState {
+
+	@Param({"2", "20"})
+	public int things;
+
+	@Param({"4", "40"})
+	public int states;
+
+	@Param({"4", "40"})
+	public int messages;
+
+	@Param({"1", "5"})
+	public int instances;
+
+	protected File dir;
+	protected File file;
+	protected ThingMLModel model;
+	protected Configuration cfg;
+
+	@Setup
+	public void loadSyntheticModel() throws IOException {
+		dir = Files.createTempDirectory("thingml-benchmark").toFile();
+		file = SyntheticModel.write(dir, things, states, messages, instances);
+		model = ThingMLCompiler.loadModel(file, Logger.NULL);
+		if (model == null)
+			throw new IllegalStateException("The synthetic model " + file + " contains errors");
+		cfg = ThingMLHelpers.allConfigurations(model).get(0);
+	}
+
+	@TearDown
+	public void deleteSyntheticModel() {
+		FileUtils.deleteQuietly(dir);
+	}
+}
@@ -20,8 +20,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -120,6 +122,8 @@ public class CCfgMainGenerator extends CfgMainGenerator {
 
         ctemplate = ctemplate.replace("/*INIT_CODE*/", initb.toString());
         ctemplate = ctemplate.replace("/*POLL_CODE*/", pollb.toString());
+        // Without polled plugins, the main loop can sleep until a message or a file descriptor event arrives
+        ctemplate = ctemplate.replace("/*POLL_TIMEOUT*/", ctx.getPollCode().trim().isEmpty() ? "-1" : "1");
         ctemplate = ctemplate.replace("/*CLEAN_UP_ON_TERMINATE*/", cleanup.toString());
         ctx.getBuilder(cfg.getName() + "_cfg.c").append(ctemplate);
 
@@ -166,6 +170,17 @@ public class CCfgMainGenerator extends CfgMainGenerator {
         // GENERATE THE RUNTIME HEADER
         String rhtemplate = ctx.getRuntimeHeaderTemplate();
         rhtemplate = rhtemplate.replace("/*NAME*/", cfg.getName());
+        if (fifoStats(cfg)) {
+            rhtemplate = rhtemplate.replaceFirst("byte fifo_dequeue\\(\\);", "byte fifo_dequeue();\n\n"
+                    + "// FIFO statistics (@c_fifo_stats)\n"
+                    + "void fifo_stats_enqueued();\n"
+                    + "void fifo_stats_dropped(uint16_t message);\n"
+                    + "uint32_t fifo_stats_message_drops(uint16_t message);\n"
+                    + "int fifo_stats_high_water();\n"
+                    + "uint32_t fifo_stats_total_drops();\n"
+                    + "uint32_t fifo_stats_drops(uint16_t msg_code);\n"
+                    + "void fifo_stats_reset();");
+        }
         ctx.getBuilder(ctx.getPrefix() + "runtime.h").append(rhtemplate);
 
         // GENERATE THE RUNTIME IMPL
@@ -173,7 +188,10 @@ public class CCfgMainGenerator extends CfgMainGenerator {
         rtemplate = rtemplate.replace("/*NAME*/", cfg.getName());
 
         String fifotemplate = ctx.getTemplateByID("ctemplates/fifo.c");
-        fifotemplate = fifotemplate.replace("#define FIFO_SIZE 256", "#define FIFO_SIZE " + ctx.fifoSize());
+        fifotemplate = fifotemplate.replace("#define FIFO_SIZE 256", "#define FIFO_SIZE " + fifoSize(cfg, ctx));
+        if (fifoStats(cfg)) {
+            fifotemplate = fifotemplate.replace("/*FIFO_STATS*/", "#define FIFO_STATS\n#define FIFO_STATS_MESSAGES " + Math.max(1, fifoMessages(cfg).size()));
+        }
         //fifotemplate = fifotemplate.replace("#define MAX_INSTANCES 32", "#define MAX_INSTANCES " + ConfigurationHelper.allInstances(cfg).size());
         fifotemplate = fifotemplate.replace("#define MAX_INSTANCES 32", "#define MAX_INSTANCES " + ctx.numberInstancesAndPort(cfg));
 
@@ -181,6 +199,171 @@ public class CCfgMainGenerator extends CfgMainGenerator {
         ctx.getBuilder(ctx.getPrefix() + "runtime.c").append(rtemplate);
     }
 
+    protected boolean fifoStats(Configuration cfg) {
+        return AnnotatedElementHelper.isDefined(cfg, "c_fifo_stats", "true");
+    }
+
+    /**
+     * Messages which go through the FIFO: the ones sent on asynchronous ports and the ones received
+     * from external connectors. The index of a message in this list is its slot in the FIFO statistics.
+     */
+    protected List<Message> fifoMessages(Configuration cfg) {
+        final Set<Message> result = new LinkedHashSet<Message>();
+        for (Instance i : cfg.getInstances()) {
+            for (Port p : ThingMLHelpers.allPorts(i.getType())) {
+                if (AnnotatedElementHelper.isDefined(p, "sync_send", "true")) continue;
+                if (!ConfigurationHelper.allMessageDispatch(cfg, i, p).isEmpty()) result.addAll(p.getSends());
+            }
+        }
+        for (ExternalConnector eco : ConfigurationHelper.getExternalConnectors(cfg)) {
+            result.addAll(eco.getPort().getReceives());
+        }
+        return new ArrayList<Message>(result);
+    }
+
+    /**
+     * Size of the FIFO: @c_fifo_size if set, otherwise the platform default, grown to what the configuration needs
+     * on platforms with enough memory (POSIX) or with @c_fifo_auto_size "true".
+     * Every connected (instance, port) and every external connector can have a message waiting in the FIFO
+     * before the main loop gets to process it, so the FIFO should at least hold that many messages of the
+     * biggest size (array parameters are not counted, their size is only known at runtime).
+     */
+    protected int fifoSize(Configuration cfg, CCompilerContext ctx) {
+        int maxSize = 0;
+        int senders = 0;
+        for (Instance i : cfg.getInstances()) {
+            for (Port p : ThingMLHelpers.allPorts(i.getType())) {
+                if (AnnotatedElementHelper.isDefined(p, "sync_send", "true")) continue;
+                if (p.getSends().isEmpty() || ConfigurationHelper.allMessageDispatch(cfg, i, p).isEmpty()) continue;
+                senders++;
+                for (Message m : p.getSends()) maxSize = Math.max(maxSize, zeroCopy(cfg, ctx, m) ? 2 : ctx.getMessageSerializationSize(m));
+            }
+        }
+        for (ExternalConnector eco : ConfigurationHelper.getExternalConnectors(cfg)) {
+            if (eco.getPort().getReceives().isEmpty()) continue;
+            senders++;
+            for (Message m : eco.getPort().getReceives()) maxSize = Math.max(maxSize, ctx.getMessageSerializationSize(m));
+        }
+        final int required = maxSize * senders + 1; // the FIFO keeps one byte free to tell full from empty
+
+        if (AnnotatedElementHelper.hasAnnotation(cfg, "c_fifo_size")) {
+            final String value = AnnotatedElementHelper.annotation(cfg, "c_fifo_size").get(0).trim();
+            int size = 0;
+            try {
+                size = Integer.parseInt(value);
+            } catch (NumberFormatException e) {}
+            if (size >= 2) {
+                if (size < required)
+                    System.out.println("[Warning] @c_fifo_size " + size + " of configuration " + cfg.getName() + " is smaller than the " + required + " bytes needed for " + senders + " senders of messages up to " + maxSize + " bytes");
+                return size;
+            }
+            ctx.getLog().error("@c_fifo_size \"" + value + "\" of configuration " + cfg.getName() + " is not a size in bytes of at least 2, using the default size");
+        }
+        if (required > ctx.fifoSize()) {
+            if (ctx.fifoAutoSize() || AnnotatedElementHelper.isDefined(cfg, "c_fifo_auto_size", "true")) {
+                System.out.println("[Info] FIFO of configuration " + cfg.getName() + " enlarged to " + required + " bytes (" + senders + " senders of messages up to " + maxSize + " bytes)");
+                return required;
+            }
+            System.out.println("[Warning] FIFO of configuration " + cfg.getName() + " (" + ctx.fifoSize() + " bytes) is smaller than the " + required + " bytes needed for " + senders + " senders of messages up to " + maxSize + " bytes, set @c_fifo_size or @c_fifo_auto_size \"true\" to enlarge it");
+        }
+        return ctx.fifoSize();
+    }
+
+    /**
+     * API to read the FIFO statistics (@c_fifo_stats "true") from the application
+     */
+    protected void generateFifoStatsAPI(Configuration cfg, StringBuilder builder, CCompilerContext ctx) {
+        if (!fifoStats(cfg)) return;
+        builder.append("// Number of messages with code msg_code dropped because the FIFO was full\n");
+        builder.append("uint32_t " + getCppNameScope() + "fifo_stats_drops(uint16_t msg_code) {\n");
+        builder.append("switch(msg_code) {\n");
+        final List<Message> messages = fifoMessages(cfg);
+        for (int i = 0; i < messages.size(); i++) {
+            builder.append("case " + ctx.getHandlerCode(cfg, messages.get(i)) + ": return fifo_stats_message_drops(" + i + "); // " + messages.get(i).getName() + "\n");
+        }
+        builder.append("}\n");
+        builder.append("return 0;\n");
+        builder.append("}\n");
+    }
+
+    protected static final int ZERO_COPY_CODE = 0xFFFF;
+
+    /**
+     * With @c_zero_copy "true", messages between instances are written as typed structs in a preallocated
+     * ring of slots instead of being serialized byte by byte in the FIFO. The FIFO only gets a 2 bytes marker
+     * per message, so the order with the messages from external connectors and the wake up of the main loop
+     * are the same as without it.
+     */
+    protected boolean zeroCopy(Configuration cfg, CCompilerContext ctx) {
+        return ctx.zero_copy() && AnnotatedElementHelper.isDefined(cfg, "c_zero_copy", "true");
+    }
+
+    /**
+     * Messages with array parameters (their size is only known at runtime) still go through the FIFO
+     */
+    protected boolean zeroCopy(Configuration cfg, CCompilerContext ctx, Message m) {
+        if (!zeroCopy(cfg, ctx) || ctx.getHandlerCode(cfg, m) == ZERO_COPY_CODE) return false;
+        for (Parameter pt : m.getParameters()) {
+            if (pt.getTypeRef().getCardinality() != null) return false;
+            if (ctx.isPointer(pt.getTypeRef().getType()) && !ctx.getCType(pt.getTypeRef().getType()).equals("char *")) return false;
+        }
+        return true;
+    }
+
+    protected List<Message> zeroCopyMessages(Configuration cfg, CCompilerContext ctx) {
+        final Set<Message> result = new LinkedHashSet<Message>();
+        for (Thing t : ConfigurationHelper.allThings(cfg)) {
+            for (Port p : ThingMLHelpers.allPorts(t)) {
+                if (AnnotatedElementHelper.isDefined(p, "sync_send", "true")) continue;
+                for (Message m : enqueuedMessages(cfg, t, p)) {
+                    if (zeroCopy(cfg, ctx, m)) result.add(m);
+                }
+            }
+        }
+        return new ArrayList<Message>(result);
+    }
+
+    protected static final int ZERO_COPY_SLOTS = 1024;
+
+    /**
+     * The ring is indexed with 16 bits, so it has between 1 and 65535 slots
+     */
+    protected int zeroCopySlots(Configuration cfg, CCompilerContext ctx) {
+        if (!AnnotatedElementHelper.hasAnnotation(cfg, "c_zero_copy_slots")) return ZERO_COPY_SLOTS;
+        final String value = AnnotatedElementHelper.annotation(cfg, "c_zero_copy_slots").get(0).trim();
+        try {
+            final int slots = Integer.parseInt(value);
+            if (slots >= 1 && slots <= 0xFFFF) return slots;
+        } catch (NumberFormatException e) {}
+        ctx.getLog().error("@c_zero_copy_slots \"" + value + "\" of configuration " + cfg.getName() + " is not a number of slots between 1 and 65535, using " + ZERO_COPY_SLOTS + " slots");
+        return ZERO_COPY_SLOTS;
+    }
+
+    protected void generateZeroCopyQueue(Configuration cfg, StringBuilder builder, CCompilerContext ctx) {
+        if (!zeroCopy(cfg, ctx)) return;
+        builder.append("// Messages between instances (@c_zero_copy), taken in the order of their marker in the FIFO\n");
+        builder.append("#define ZERO_COPY_CODE " + ZERO_COPY_CODE + "\n");
+        builder.append("#define ZERO_COPY_SLOTS " + zeroCopySlots(cfg, ctx) + "\n");
+        builder.append("struct zero_copy_msg {\n");
+        builder.append("uint16_t code;\n");
+        builder.append("uint16_t sender; // ID of the source port of the instance\n");
+        builder.append("union {\n");
+        builder.append("uint8_t none;\n");
+        for (Message m : zeroCopyMessages(cfg, ctx)) {
+            if (m.getParameters().isEmpty()) continue;
+            builder.append("struct {");
+            for (Parameter pt : m.getParameters()) {
+                builder.append(" " + ctx.getCType(pt.getTypeRef().getType()) + " " + pt.getName() + ";");
+            }
+            builder.append(" } " + m.getName() + ";\n");
+        }
+        builder.append("} params;\n");
+        builder.append("};\n");
+        builder.append("struct zero_copy_msg zero_copy_slots[ZERO_COPY_SLOTS];\n");
+        builder.append("uint16_t zero_copy_head = 0;\n");
+        builder.append("uint16_t zero_copy_count = 0;\n\n");
+    }
+
     protected void generateheaderdeclaration(Configuration cfg, StringBuilder builder, CCompilerContext ctx){
     	builder.append("//Declaration of instance variables\n");
 
@@ -289,6 +472,7 @@ public class CCfgMainGenerator extends CfgMainGenerator {
         builder.append("\n");
         // ENDTODO
 
+        generateZeroCopyQueue(cfg, builder, ctx);
         generateMessageEnqueue(cfg, builder, headerbuilder, ctx);
         builder.append("\n");
         headerbuilder.append("\n");
@@ -310,6 +494,9 @@ public class CCfgMainGenerator extends CfgMainGenerator {
         generateExternalMessageEnqueue(cfg, builder, headerbuilder, ctx);
         builder.append("\n");
 
+        generateFifoStatsAPI(cfg, builder, ctx);
+        builder.append("\n");
+
         generateCfgInitializationCode(cfg, builder, headerbuilder, ctx);
 
 
@@ -353,29 +540,8 @@ public class CCfgMainGenerator extends CfgMainGenerator {
                 if (AnnotatedElementHelper.isDefined(p, "sync_send", "true")) continue; // do not generateMainAndInit for synchronous ports
 
                 ctx.setConcreteThing(t);
-                Map<Message, Map<Instance, List<AbstractMap.SimpleImmutableEntry<Instance, Port>>>> allMessageDispatch = ConfigurationHelper.allMessageDispatch(cfg, t, p);
-
-                //Ugly -- Adding message for internal ports ?
-                for (Map.Entry<Instance, List<InternalPort>> entries : ConfigurationHelper.allInternalPorts(cfg).entrySet()) {
-                    if (entries.getKey().getType().getName().equals(t.getName())) {
-                        for (Port ip : entries.getValue()) {
-                            if (ip.getName().equals(p.getName())) {
-                                for (Message m : ip.getSends()) {
-                                    if (allMessageDispatch.keySet().contains(m)) {
-
-                                    } else {
-                                        allMessageDispatch.put(m, null);
-                                    }
-                                }
-                                break;
-                            }
-                        }
-                        break;
-                    }
-                }
-                
 
-                for (Message m : allMessageDispatch.keySet()) {
+                for (Message m : enqueuedMessages(cfg, t, p)) {
                     headerbuilder.append("// Enqueue of messages " + t.getName() + "::" + p.getName() + "::" + m.getName() + "\n");
                     headerbuilder.append("void " + "enqueue_" + ctx.getSenderName(t, p, m));
                     ctx.appendFormalParameters(t, headerbuilder, m);
@@ -396,31 +562,54 @@ public class CCfgMainGenerator extends CfgMainGenerator {
 
                     if (ctx.sync_fifo()) builder.append("fifo_lock();\n");
 
-                    builder.append("if ( fifo_byte_available() > " + ctx.getMessageSerializationSizeString(m) + " ) {\n\n");
-
-                    builder.append("_fifo_enqueue( (" + ctx.getHandlerCode(cfg, m) + " >> 8) & 0xFF );\n");
-                    builder.append("_fifo_enqueue( " + ctx.getHandlerCode(cfg, m) + " & 0xFF );\n\n");
-
-                    builder.append("// ID of the source port of the instance\n");
-                    builder.append("_fifo_enqueue( (_instance->id_");
-                    builder.append(p.getName() + " >> 8) & 0xFF );\n");
-                    builder.append("_fifo_enqueue( _instance->id_");
-                    builder.append(p.getName() + " & 0xFF );\n");
-                    
-                    /*
-                    builder.append("// ID of the source instance\n");
-                    builder.append("_fifo_enqueue( (_instance->id >> 8) & 0xFF );\n");
-                    builder.append("_fifo_enqueue( _instance->id & 0xFF );\n");
-                    */
-
-                    for (Parameter pt : m.getParameters()) {
-                        builder.append("\n// parameter " + pt.getName() + "\n");
-                        ctx.bytesToSerialize(pt.getTypeRef().getType(), builder, pt.getName(), pt);
+                    if (zeroCopy(cfg, ctx, m)) {
+                        builder.append("if ( zero_copy_count < ZERO_COPY_SLOTS && fifo_byte_available() > 2 ) {\n\n");
+                        builder.append("struct zero_copy_msg * _zc_msg = &zero_copy_slots[(zero_copy_head + zero_copy_count) % ZERO_COPY_SLOTS];\n");
+                        builder.append("_zc_msg->code = " + ctx.getHandlerCode(cfg, m) + ";\n");
+                        builder.append("_zc_msg->sender = _instance->id_" + p.getName() + ";\n");
+                        for (Parameter pt : m.getParameters()) {
+                            builder.append("_zc_msg->params." + m.getName() + "." + pt.getName() + " = ");
+                            if (ctx.isPointer(pt.getTypeRef().getType()))
+                                builder.append("_malloc_string_copy(" + pt.getName() + ");\n");
+                            else
+                                builder.append(pt.getName() + ";\n");
+                        }
+                        builder.append("zero_copy_count++;\n\n");
+                        builder.append("// Marker telling processMessageQueue to take the next slot\n");
+                        builder.append("_fifo_enqueue( (ZERO_COPY_CODE >> 8) & 0xFF );\n");
+                        builder.append("_fifo_enqueue( ZERO_COPY_CODE & 0xFF );\n");
+                    } else {
+                        builder.append("if ( fifo_byte_available() > " + ctx.getMessageSerializationSizeString(m) + " ) {\n\n");
+
+                        builder.append("_fifo_enqueue( (" + ctx.getHandlerCode(cfg, m) + " >> 8) & 0xFF );\n");
+                        builder.append("_fifo_enqueue( " + ctx.getHandlerCode(cfg, m) + " & 0xFF );\n\n");
+
+                        builder.append("// ID of the source port of the instance\n");
+                        builder.append("_fifo_enqueue( (_instance->id_");
+                        builder.append(p.getName() + " >> 8) & 0xFF );\n");
+                        builder.append("_fifo_enqueue( _instance->id_");
+                        builder.append(p.getName() + " & 0xFF );\n");
+                        
+                        /*
+                        builder.append("// ID of the source instance\n");
+                        builder.append("_fifo_enqueue( (_instance->id >> 8) & 0xFF );\n");
+                        builder.append("_fifo_enqueue( _instance->id & 0xFF );\n");
+                        */
+
+                        for (Parameter pt : m.getParameters()) {
+                            builder.append("\n// parameter " + pt.getName() + "\n");
+                            ctx.bytesToSerialize(pt.getTypeRef().getType(), builder, pt.getName(), pt);
+                        }
                     }
+                    if (fifoStats(cfg)) builder.append("fifo_stats_enqueued();\n");
                     builder.append("}\n");
 
-                    // Produce a debug message if the fifo is full
-                    if (AnnotatedElementHelper.isDefined(ctx.getCurrentConfiguration(), "debug_fifo", "true")) {
+                    if (fifoStats(cfg)) {
+                        builder.append("else {\n");
+                        builder.append("fifo_stats_dropped(" + fifoMessages(cfg).indexOf(m) + ");\n");
+                        builder.append("}\n");
+                    } else if (AnnotatedElementHelper.isDefined(ctx.getCurrentConfiguration(), "debug_fifo", "true")) {
+                        // Produce a debug message if the fifo is full
                         builder.append("else {\n");
                         //FIXME: Re-impelment the debug properly
                         //builder.append(ctx.print_debug_message("FIFO FULL (lost msg " + m.getName() + ")") + "\n");
@@ -438,6 +627,27 @@ public class CCfgMainGenerator extends CfgMainGenerator {
         ctx.clearConcreteThing();
     }
 
+    /**
+     * Messages sent on port p of thing t which get an enqueue_ function
+     */
+    protected Set<Message> enqueuedMessages(Configuration cfg, Thing t, Port p) {
+        final Set<Message> result = new LinkedHashSet<Message>(ConfigurationHelper.allMessageDispatch(cfg, t, p).keySet());
+
+        //Ugly -- Adding message for internal ports ?
+        for (Map.Entry<Instance, List<InternalPort>> entries : ConfigurationHelper.allInternalPorts(cfg).entrySet()) {
+            if (entries.getKey().getType().getName().equals(t.getName())) {
+                for (Port ip : entries.getValue()) {
+                    if (ip.getName().equals(p.getName())) {
+                        result.addAll(ip.getSends());
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+        return result;
+    }
+
     protected boolean isThereNetworkListener(Configuration cfg) {
         boolean ret = false;
 
@@ -465,6 +675,7 @@ public class CCfgMainGenerator extends CfgMainGenerator {
             builder.append("if ((msgSize >= 2) && (msg != NULL)) {\n");
 
             builder.append("uint8_t msgSizeOK = 0;\n");
+            if (fifoStats(cfg)) builder.append("uint16_t statsSlot = 0;\n");
             builder.append("switch(msg[0] * 256 + msg[1]) {\n");
 
             Set<Message> externalMessages = new HashSet<Message>();
@@ -483,6 +694,7 @@ public class CCfgMainGenerator extends CfgMainGenerator {
                 builder.append(ctx.getMessageSerializationSize(m) - 2);
                 builder.append(") {\n");
                 builder.append("msgSizeOK = 1;");
+                if (fifoStats(cfg)) builder.append("\nstatsSlot = " + fifoMessages(cfg).indexOf(m) + ";\n");
                 builder.append("}\n");
                 builder.append("break;\n");
             }
@@ -516,6 +728,11 @@ public class CCfgMainGenerator extends CfgMainGenerator {
             builder.append("	for (i = 2; i < msgSize; i++) {\n");
             builder.append("		_fifo_enqueue(msg[i]);\n");
             builder.append("	}\n");
+            if (fifoStats(cfg)) {
+                builder.append("	fifo_stats_enqueued();\n");
+                builder.append("} else {\n");
+                builder.append("	fifo_stats_dropped(statsSlot);\n");
+            }
             builder.append("}\n");
 
             if (ctx.sync_fifo()) {
@@ -1075,7 +1292,11 @@ public class CCfgMainGenerator extends CfgMainGenerator {
         headerbuilder.append("int " + "processMessageQueue();\n");
 
         builder.append("int " + getCppNameScope() + "processMessageQueue() {\n"); // Changed by sdalgard to return int
-        if (ctx.sync_fifo()) {
+        if (ctx.sync_fifo() && ctx.event_loop()) {
+            // The main loop waits for events (see runtime_wait_events) when there is nothing to do
+            builder.append("fifo_lock();\n");
+            builder.append("if (fifo_empty()) { fifo_unlock(); return 0; } // return 0 if there is nothing to do\n\n");
+        } else if (ctx.sync_fifo()) {
             builder.append("fifo_lock();\n");
             builder.append("while (fifo_empty()) fifo_wait();\n");
         } else {
@@ -1127,6 +1348,7 @@ public class CCfgMainGenerator extends CfgMainGenerator {
                 if (AnnotatedElementHelper.isDefined(p, "sync_send", "true")) continue;
                 //for (Message m : p.getSends()) {
                 for (Message m : ConfigurationHelper.allMessageDispatch(cfg, t, p).keySet()) {
+                    if (zeroCopy(cfg, ctx, m)) continue; // dispatched from its slot, see generateZeroCopyDequeue
                     for (Thing t2 : ConfigurationHelper.allThings(cfg)) {
                         for (Port p2 : ThingMLHelpers.allPorts(t2)) {
                             //if (AnnotatedElementHelper.isDefined(p2, "sync_send", "true")) continue; 
@@ -1144,6 +1366,8 @@ public class CCfgMainGenerator extends CfgMainGenerator {
             }
         }
 
+        generateZeroCopyDequeue(cfg, builder, ctx);
+
         for (Message m : messageSent) {
             //for (Message m : ConfigurationHelper.allMessages(cfg)) {
 
@@ -1271,6 +1495,39 @@ public class CCfgMainGenerator extends CfgMainGenerator {
 
 
 
+    /**
+     * Case of processMessageQueue for the marker of a message in the zero copy slots (@c_zero_copy)
+     */
+    protected void generateZeroCopyDequeue(Configuration cfg, StringBuilder builder, CCompilerContext ctx) {
+        if (!zeroCopy(cfg, ctx)) return;
+        builder.append("case ZERO_COPY_CODE:{\n");
+        builder.append("// Copy the slot so that it can be reused while the message is handled\n");
+        builder.append("struct zero_copy_msg _zc_msg = zero_copy_slots[zero_copy_head];\n");
+        builder.append("zero_copy_head = (zero_copy_head + 1) % ZERO_COPY_SLOTS;\n");
+        builder.append("zero_copy_count--;\n");
+        if (ctx.sync_fifo()) builder.append("fifo_unlock();\n");
+        builder.append("switch(_zc_msg.code) {\n");
+        for (Message m : zeroCopyMessages(cfg, ctx)) {
+            builder.append("case " + ctx.getHandlerCode(cfg, m) + ":\n");
+            if (ctx.traceLevelIsAbove(cfg, 2)) {
+                builder.append(ctx.getTraceFunctionForString(cfg) + "\"[PMQ] Dequeue "
+                        + m.getName() + "\\n\");\n");
+            }
+            builder.append("dispatch_" + m.getName() + "(_zc_msg.sender");
+            for (Parameter pt : m.getParameters()) {
+                builder.append(", _zc_msg.params." + m.getName() + "." + pt.getName());
+            }
+            builder.append(");\n");
+            for (Parameter pt : m.getParameters()) {
+                if (ctx.isPointer(pt.getTypeRef().getType()))
+                    builder.append("_free_string_copy(_zc_msg.params." + m.getName() + "." + pt.getName() + ");\n");
+            }
+            builder.append("break;\n");
+        }
+        builder.append("}\n");
+        builder.append("break;\n}\n");
+    }
+
     protected void generateCfgInitializationCode(Configuration cfg, StringBuilder builder, StringBuilder headerbuilder, CCompilerContext ctx) {
         // Generate code to initialize connectors
         headerbuilder.append("void " + "initialize_configuration_" + cfg.getName() + "();\n");
@@ -303,10 +303,34 @@ public abstract class CCompilerContext extends Context {
         return false;
     }
 
+    /**
+     * @return true if the runtime provides runtime_wait_events, so that processMessageQueue
+     * returns when the FIFO is empty and the main loop sleeps until there is something to do
+     */
+    public boolean event_loop() {
+        return false;
+    }
+
+    /**
+     * @return true if messages between instances can be passed as typed structs (@c_zero_copy)
+     * instead of being serialized in the FIFO
+     */
+    public boolean zero_copy() {
+        return false;
+    }
+
     public int fifoSize() {
         return 256;
     }
 
+    /**
+     * @return true if the FIFO is enlarged to what the configuration needs without asking (@c_fifo_auto_size),
+     * which is only reasonable where memory is not scarce
+     */
+    public boolean fifoAutoSize() {
+        return false;
+    }
+
     public String getPrefix() {
         return "";
     }
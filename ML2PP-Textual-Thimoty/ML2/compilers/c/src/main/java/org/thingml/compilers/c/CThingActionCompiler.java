@@ -198,7 +198,7 @@ public class CThingActionCompiler extends CommonThingActionCompiler {
                 }
             } else {
                 Property p = (Property) expression.getProperty();
-                Expression e = ConfigurationHelper.initExpressions(ctx.getCurrentConfiguration(), ctx.currentInstance, p).get(0);
+                Expression e = ConfigurationHelper.initExpressions(ctx.getCurrentConfiguration(), ctx.getCurrentInstance(), p).get(0);
                 generate(e, builder, ctx);
             }
         }
@@ -92,6 +92,7 @@ public class CCompilerContextArduino extends CCompilerContext {
         //writeTextFile(getCurrentConfiguration().getName() + ".pde", pde.toString());
         writeTextFile(getCurrentConfiguration().getName() + File.separatorChar + getCurrentConfiguration().getName() + ".ino", "#include <stdint.h>\n#include <Arduino.h>\n"+pde.toString());
 
+        deleteStaleOutputs();
     }
  
     @Override
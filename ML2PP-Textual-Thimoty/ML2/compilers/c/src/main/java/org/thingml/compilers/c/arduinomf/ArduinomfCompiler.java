@@ -65,6 +65,7 @@ public class ArduinomfCompiler extends OpaqueThingMLCompiler {
 
         CCompilerContext ctx = new CCompilerContextArduinomf(this);
         ctx.setCurrentConfiguration(cfg);
+        ctx.setLog(log);
         //ctx.setOutputDirectory(new File(ctx.getOutputDirectory(), cfg.getName()));
 
         // GENERATE A MODULE FOR EACH THING
@@ -32,9 +32,21 @@ public class CCompilerContextPosix extends CCompilerContext {
         return true;
     }
 
+    public boolean event_loop() {
+        return true;
+    }
+
+    public boolean zero_copy() {
+        return true;
+    }
+
     public int fifoSize() {
         return 32768;
     }
 
+    public boolean fifoAutoSize() {
+        return true;
+    }
+
 
 }
@@ -80,6 +80,7 @@ public class PosixCompiler extends OpaqueThingMLCompiler {
     public boolean do_call_compiler(Configuration cfg, Logger log, String... options) {
     	setContext(cfg);
         ctx.setCurrentConfiguration(cfg);
+        ctx.setLog(log);
         ctx.setInputDirectory(getInputDirectory());
                 
         //ctx.setOutputDirectory(new File(ctx.getOutputDirectory(), cfg.getName()));
@@ -353,7 +353,7 @@ public class PosixMTCfgMainGenerator extends CCfgMainGenerator {
             //Instances Fifo
             builder.append("// Variables for fifo of the instance\n");
             //builder.append("struct instance_fifo " + inst.getName() + "_fifo;\n");
-            builder.append("byte " + inst.getName() + "_fifo_array[65535];\n");
+            builder.append("byte " + inst.getName() + "_fifo_array[65536];\n");
             
             
         }
@@ -670,9 +670,7 @@ public class PosixMTCfgMainGenerator extends CCfgMainGenerator {
         for(Instance i : ConfigurationHelper.allInstances(cfg)) {
             
             //initb.append("" + ctx.getInstanceVarName(i) + ".fifo = &" + i.getName() + "_fifo;\n");
-            initb.append("" + ctx.getInstanceVarName(i) + ".fifo.fifo_size = 65535;\n");
-            initb.append("" + ctx.getInstanceVarName(i) + ".fifo.fifo_head = 0;\n");
-            initb.append("" + ctx.getInstanceVarName(i) + ".fifo.fifo_tail = 0;\n");
+            initb.append("" + ctx.getInstanceVarName(i) + ".fifo.fifo_size = 65536;\n");
             initb.append("" + ctx.getInstanceVarName(i) + ".fifo.fifo = &" + i.getName() + "_fifo_array;\n");
             initb.append("init_runtime(&(" + ctx.getInstanceVarName(i) + ".fifo));\n");
             initb.append("pthread_t thread_" + i.getName() + ";\n\n");
@@ -41,7 +41,17 @@ public class PosixMTCompilerContext extends CCompilerContextPosix{
     public PosixMTCompilerContext(ThingMLCompiler c) {
         super(c);
     }
-    
+
+    @Override
+    public boolean event_loop() {
+        return false; // each instance waits on its own FIFO
+    }
+
+    @Override
+    public boolean zero_copy() {
+        return false; // messages are sent to the FIFO of each receiving instance
+    }
+
     Map<Thing, Map<Port,Integer>> portIDs = new HashMap<>();
     Map<Thing,Integer> lastIDs = new HashMap<>();
     
@@ -67,7 +77,10 @@ public class PosixMTCompilerContext extends CCompilerContextPosix{
         return id;
     }
     
-    public void bytesToSerialize(Type t, StringBuilder builder, String variable, Parameter pt, String fifo) {
+    /**
+     * Serializes the parameter variable (big endian) into the byte array buffer, at the index held by buffer + "i"
+     */
+    public void bytesToSerialize(Type t, StringBuilder builder, String variable, Parameter pt, String buffer) {
         long i = getCByteSize(t, 0);
         String v = variable;
         if (isPointer(t)) {
@@ -91,7 +104,7 @@ public class PosixMTCompilerContext extends CCompilerContextPosix{
 
                 builder.append("int16_t u_" + variable + "_index = " + getCByteSize(t, 0) + " * (" + cardBuilder + ") - 1;\n");
                 builder.append("while (u_" + variable + "_index >= 0) {\n");
-                builder.append("    _fifo_enqueue(" + fifo + ", u_" + variable + ".bytebuffer[u_" + variable + "_index] & 0xFF );\n");
+                builder.append("    " + buffer + "[" + buffer + "i++] = u_" + variable + ".bytebuffer[u_" + variable + "_index] & 0xFF;\n");
                 builder.append("    u_" + variable + "_index--;\n");
                 builder.append("}\n");
             } else {
@@ -106,7 +119,7 @@ public class PosixMTCompilerContext extends CCompilerContextPosix{
                     //if (i == 0) 
                     //builder.append("_fifo_enqueue(" + variable + "_serializer_pointer[" + i + "] & 0xFF);\n");
                     
-                    builder.append("_fifo_enqueue(" + fifo + ", u_" + variable + ".bytebuffer[" + i + "] & 0xFF );\n");
+                    builder.append(buffer + "[" + buffer + "i++] = u_" + variable + ".bytebuffer[" + i + "] & 0xFF;\n");
                     //else builder.append("_fifo_enqueue((parameter_serializer_pointer[" + i + "]>>" + (8 * i) + ") & 0xFF);\n");
                 }
             }
@@ -125,7 +125,7 @@ public class PosixMTThingApiCompiler extends CThingApiCompiler {
             builder.append("struct session_t {\n");
             builder.append("    struct " + ctx.getInstanceStructName(thing) + " s;\n");
             builder.append("    pthread_t thread;\n");
-            builder.append("    byte fifo_array[65535];\n");
+            builder.append("    byte fifo_array[65536];\n");
             builder.append("    struct session_t * next;\n");
             
             builder.append("};\n\n");
@@ -21,10 +21,6 @@
  */
 package org.thingml.compilers.c.posixmt;
 
-
-import java.util.HashSet;
-import java.util.Set;
-
 import org.thingml.compilers.c.CCompilerContext;
 import org.thingml.compilers.c.CThingImplCompiler;
 import org.thingml.xtext.constraints.ThingMLHelpers;
@@ -221,26 +217,13 @@ public class PosixMTThingImplCompiler extends CThingImplCompiler {
         builder.append("int " + thing.getName() + "_processMessageQueue(struct " + ctx.getInstanceStructName(thing) + " * _instance) {\n"); // Changed by sdalgard to return int
         
         
-        builder.append("fifo_lock(&(_instance->fifo));\n");
-        //builder.append("while (fifo_empty(_instance->fifo)) fifo_wait(_instance->fifo);\n");
         builder.append("if (fifo_empty(&(_instance->fifo))) fifo_wait(&(_instance->fifo));\n");
-        
-        Set<Message> messageReceived = new HashSet<>();
-        for(Port p : ThingMLHelpers.allPorts(thing)) {
-            for (Message m : p.getReceives()) {
-                if(!messageReceived.contains(m)) {
-                    messageReceived.add(m);
-                }
-            }
-        }
-
-        // Allocate a buffer to store the message bytes.
-        // Size of the buffer is "size-2" because we have already read 2 bytes
-        builder.append("uint8_t mbufi = 0;\n\n");
+        builder.append("if (fifo_empty(&(_instance->fifo))) return 0;\n\n");
 
         builder.append("// Read the code of the next port/message in the queue\n");
-        builder.append("uint16_t code = fifo_dequeue(&(_instance->fifo)) << 8;\n\n");
-        builder.append("code += fifo_dequeue(&(_instance->fifo));\n\n");
+        builder.append("byte mcode[2];\n");
+        builder.append("fifo_dequeue_bytes(&(_instance->fifo), mcode, 2);\n");
+        builder.append("uint16_t code = (mcode[0] << 8) + mcode[1];\n\n");
 
         builder.append("// Switch to call the appropriate handler\n");
         builder.append("switch(code) {\n");
@@ -250,11 +233,8 @@ public class PosixMTThingImplCompiler extends CThingImplCompiler {
             builder.append("case " + ctx.getHandlerCode(ctx.getCurrentConfiguration(), m) + ":{\n");
             builder.append("byte mbuf[" + ctx.getMessageSerializationSizeString(m) + " - 2" + "];\n");
 
-            builder.append("while (mbufi < (" + ctx.getMessageSerializationSizeString(m) + " - 2" + ")) mbuf[mbufi++] = fifo_dequeue(&(_instance->fifo));\n");
-            // Fill the buffer
-
-            builder.append("fifo_unlock(&(_instance->fifo));\n");
-            //builder.append("fifo_unlock_and_notify(_instance->fifo);\n");
+            // Fill the buffer, the whole message has been enqueued at once
+            builder.append("fifo_dequeue_bytes(&(_instance->fifo), mbuf, " + ctx.getMessageSerializationSizeString(m) + " - 2" + ");\n");
 
             // Begin Horrible deserialization trick
             builder.append("uint8_t mbufi_" + m.getName() + " = 2;\n");
@@ -381,23 +361,26 @@ public class PosixMTThingImplCompiler extends CThingImplCompiler {
                     builder.append("void enqueue_" + thing.getName() + "_" + p.getName() + "_" + m.getName());
                     ctx.appendFormalParametersForEnqueue(builder, thing, m);
                     builder.append(" {\n");
-                    builder.append("    fifo_lock(&(inst->fifo));\n");
-
-                    builder.append("    if ( fifo_byte_available(&(inst->fifo)) > " + ctx.getMessageSerializationSizeString(m) + " ) {\n\n");
-
-                    builder.append("        _fifo_enqueue(&(inst->fifo), (" + ctx.getHandlerCode(ctx.getCurrentConfiguration(), m) + " >> 8) & 0xFF );\n");
-                    builder.append("        _fifo_enqueue(&(inst->fifo), " + ctx.getHandlerCode(ctx.getCurrentConfiguration(), m) + " & 0xFF );\n\n");
+                    // Serialize the whole message before copying it at once in the (lock-free) fifo
+                    builder.append("    byte msg[" + ctx.getMessageSerializationSizeString(m) + "];\n");
+                    builder.append("    uint16_t msgi = 0;\n");
+                    builder.append("    msg[msgi++] = (" + ctx.getHandlerCode(ctx.getCurrentConfiguration(), m) + " >> 8) & 0xFF;\n");
+                    builder.append("    msg[msgi++] = " + ctx.getHandlerCode(ctx.getCurrentConfiguration(), m) + " & 0xFF;\n\n");
 
-                    builder.append("        // Reception Port\n");
-                    builder.append("        _fifo_enqueue(&(inst->fifo), (" + ctx.getPortID(thing, p) + " >> 8) & 0xFF );\n");
-                    builder.append("        _fifo_enqueue(&(inst->fifo), " + ctx.getPortID(thing, p) + " & 0xFF );\n");
+                    builder.append("    // Reception Port\n");
+                    builder.append("    msg[msgi++] = (" + ctx.getPortID(thing, p) + " >> 8) & 0xFF;\n");
+                    builder.append("    msg[msgi++] = " + ctx.getPortID(thing, p) + " & 0xFF;\n");
 
                     for (Parameter pt : m.getParameters()) {
                         builder.append("\n// parameter " + pt.getName() + "\n");
-                        ctx.bytesToSerialize(pt.getTypeRef().getType(), builder, pt.getName(), pt, "&(inst->fifo)");
+                        ctx.bytesToSerialize(pt.getTypeRef().getType(), builder, pt.getName(), pt, "msg");
+                    }
+                    builder.append("    fifo_enqueue_message(&(inst->fifo), msg, msgi);\n");
+
+                    final boolean hasSessions = !StateContainerHelper.allContainedSessions(ThingMLHelpers.allStateMachines(thing).get(0)).isEmpty();
+                    if (hasSessions) {
+                        builder.append("    fifo_lock(&(inst->fifo));\n");
                     }
-                    builder.append("    }\n");
-                    
                     for(Session s : StateContainerHelper.allContainedSessions(ThingMLHelpers.allStateMachines(thing).get(0))) {
                         builder.append("    struct session_t * head_" + s.getName() + " = inst->sessions_" + s.getName() + ";\n");
                         builder.append("    while (head_" + s.getName() + " != NULL) {\n");
@@ -414,7 +397,9 @@ public class PosixMTThingImplCompiler extends CThingImplCompiler {
                         builder.append("    }\n");
                     }
 
-                    builder.append("    fifo_unlock_and_notify(&(inst->fifo));\n");
+                    if (hasSessions) {
+                        builder.append("    fifo_unlock(&(inst->fifo));\n");
+                    }
                     builder.append("}\n");
                 }
             }
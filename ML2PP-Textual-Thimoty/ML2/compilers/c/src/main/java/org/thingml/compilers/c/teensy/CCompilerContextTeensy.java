@@ -84,6 +84,7 @@ public class CCompilerContextTeensy extends CCompilerContext{
 
         pde.append(generatedCode.get(main).toString());
         writeTextFile(getCurrentConfiguration().getName() + File.separatorChar +"src"+  File.separatorChar + getCurrentConfiguration().getName() + ".cpp", mainpart.toString() + generatedCode.get(main).toString());
+        deleteStaleOutputs();
     }
 	
 	@Override
@@ -41,6 +41,7 @@ public class TeensyCompiler extends OpaqueThingMLCompiler{
 
 		CCompilerContext ctx = new CCompilerContextTeensy(this);
         ctx.setCurrentConfiguration(cfg);
+        ctx.setLog(log);
         //ctx.setOutputDirectory(new File(ctx.getOutputDirectory(), cfg.getName()));
 
         // GENERATE A MODULE FOR EACH THING
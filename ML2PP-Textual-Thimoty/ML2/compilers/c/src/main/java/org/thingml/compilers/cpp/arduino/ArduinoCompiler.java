@@ -64,6 +64,7 @@ public class ArduinoCompiler extends OpaqueThingMLCompiler {
 
         CCompilerContext ctx = new CCompilerContextArduino(this);
         ctx.setCurrentConfiguration(cfg);
+        ctx.setLog(log);
         //ctx.setOutputDirectory(new File(ctx.getOutputDirectory(), cfg.getName()));
 
         // GENERATE A MODULE FOR EACH THING
@@ -82,6 +82,7 @@ public class CCompilerContextArduino extends CppCompilerContext {
         //writeTextFile(getCurrentConfiguration().getName() + ".pde", pde.toString());
         writeTextFile(getCurrentConfiguration().getName() + File.separatorChar + getCurrentConfiguration().getName() + ".ino", "#include <stdint.h>\n#include <Arduino.h>\n"+pde.toString());
 
+        deleteStaleOutputs();
     }
  
     @Override
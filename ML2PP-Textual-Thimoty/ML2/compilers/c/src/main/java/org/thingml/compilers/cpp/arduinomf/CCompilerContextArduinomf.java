@@ -72,6 +72,7 @@ public class CCompilerContextArduinomf extends CCompilerContextArduino {
         //writeTextFile(getCurrentConfiguration().getName() + ".pde", pde.toString());
         writeTextFile(getCurrentConfiguration().getName()+"all" + File.separatorChar + getCurrentConfiguration().getName() + "all.ino", pde.toString());
 
+        deleteStaleOutputs();
     }
 
     // TODO : generate it in the file constructor
@@ -128,6 +128,7 @@ public class CCompilerContextSintefboard extends CCompilerContext {
         writeTextFile(configName + "Posix.cpp", stringTestMain);
 
 
+        deleteStaleOutputs();
     }
 
 
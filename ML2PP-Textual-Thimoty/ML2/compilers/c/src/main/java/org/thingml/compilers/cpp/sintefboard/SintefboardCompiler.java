@@ -60,6 +60,8 @@ public class SintefboardCompiler extends OpaqueThingMLCompiler {
         CCompilerContext ctx = new CCompilerContextSintefboard(this);
 
         ctx.setCurrentConfiguration(cfg);
+
+        ctx.setLog(log);
         //ctx.setOutputDirectory(new File(ctx.getOutputDirectory(), cfg.getName()));
 
         // GENERATE A MODULE FOR EACH THING
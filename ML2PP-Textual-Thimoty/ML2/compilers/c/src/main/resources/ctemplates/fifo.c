@@ -1,5 +1,6 @@
 #define MAX_INSTANCES 32
 #define FIFO_SIZE 256
+/*FIFO_STATS*/
 
 /*********************************
  * Instance IDs and lookup
@@ -74,4 +75,51 @@ byte fifo_dequeue() {
     return result;
   }
   return 0;
-}
\ No newline at end of file
+}
+
+#ifdef FIFO_STATS
+/******************************************
+ * FIFO statistics (@c_fifo_stats "true")
+ ******************************************/
+
+int fifo_high_water = 0;
+uint32_t fifo_drops[FIFO_STATS_MESSAGES];
+
+// Called after a message is enqueued, to record the highest fill level
+void fifo_stats_enqueued() {
+  int length = fifo_byte_length();
+  if (length > fifo_high_water) fifo_high_water = length;
+}
+
+// Called when a message is dropped because the fifo is full
+void fifo_stats_dropped(uint16_t message) {
+  fifo_drops[message]++;
+}
+
+// Returns the highest number of bytes stored in the fifo
+int fifo_stats_high_water() {
+  return fifo_high_water;
+}
+
+// Returns the number of messages (of a given type) dropped because the fifo was full
+uint32_t fifo_stats_message_drops(uint16_t message) {
+  return fifo_drops[message];
+}
+
+uint32_t fifo_stats_total_drops() {
+  uint32_t total = 0;
+  uint16_t i;
+  for (i = 0; i < FIFO_STATS_MESSAGES; i++) {
+    total += fifo_drops[i];
+  }
+  return total;
+}
+
+void fifo_stats_reset() {
+  uint16_t i;
+  fifo_high_water = fifo_byte_length();
+  for (i = 0; i < FIFO_STATS_MESSAGES; i++) {
+    fifo_drops[i] = 0;
+  }
+}
+#endif
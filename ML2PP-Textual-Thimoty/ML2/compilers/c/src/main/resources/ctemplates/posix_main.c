@@ -44,6 +44,6 @@ int main(int argc, char *argv[]) {
     /*INIT_CODE*/
     while (1) {
         /*POLL_CODE*/
-        processMessageQueue();
+        if (!processMessageQueue()) runtime_wait_events(/*POLL_TIMEOUT*/);
   }
 }
\ No newline at end of file
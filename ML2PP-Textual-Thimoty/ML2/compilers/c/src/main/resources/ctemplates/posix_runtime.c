@@ -12,6 +12,12 @@
 #include <math.h>
 #include <signal.h>
 #include <pthread.h>
+#include <errno.h>
+#include <time.h>
+#ifdef __linux__
+#include <sys/epoll.h>
+#include <sys/eventfd.h>
+#endif
 
 #include "runtime.h"
 
@@ -132,6 +138,9 @@ void _free_string_copy(char * str) {
 
 pthread_mutex_t fifo_mut;
 pthread_cond_t fifo_cond;
+int fifo_waiting = 0; // the main loop sleeps in runtime_wait_events, protected by fifo_mut
+
+void fifo_wakeup();
 
 void fifo_lock() {
   pthread_mutex_lock (&fifo_mut);
@@ -143,10 +152,156 @@ void fifo_wait() {
   pthread_cond_wait (&fifo_cond, &fifo_mut);
 }
 void fifo_unlock_and_notify() {
+  int wakeup = fifo_waiting;
+  fifo_waiting = 0;
   pthread_mutex_unlock (&fifo_mut);
   pthread_cond_signal (&fifo_cond);
+  if (wakeup) fifo_wakeup(); // only pay for a system call when the main loop is asleep
+}
+
+
+/******************************************
+ * Event loop
+ ******************************************/
+
+#ifdef __linux__
+
+#define MAX_FDS 64
+#define MAX_EVENTS 16
+#define FIFO_EVENT_ID MAX_FDS
+
+struct fd_registration {
+  int fd;
+  runtime_fd_handler handler;
+  void * arg;
+};
+
+struct fd_registration registrations[MAX_FDS];
+int epoll_fd = -1;
+int fifo_event_fd = -1;
+
+void fifo_wakeup() {
+  uint64_t one = 1;
+  if (write(fifo_event_fd, &one, sizeof(one)) < 0 && errno != EAGAIN)
+    perror("[runtime] eventfd write");
+}
+
+int runtime_register_fd(int fd, uint32_t events, runtime_fd_handler handler, void * arg) {
+  uint32_t i;
+  for (i = 0; i < MAX_FDS; i++) {
+    if (registrations[i].handler == NULL) {
+      struct epoll_event ev;
+      memset(&ev, 0, sizeof(ev));
+      ev.events = events;
+      ev.data.u32 = i;
+      if (epoll_ctl(epoll_fd, EPOLL_CTL_ADD, fd, &ev) < 0) {
+        perror("[runtime] epoll_ctl");
+        return -1;
+      }
+      registrations[i].fd = fd;
+      registrations[i].arg = arg;
+      registrations[i].handler = handler;
+      return 0;
+    }
+  }
+  fprintf(stderr, "[runtime] Cannot register more than %d file descriptors\n", MAX_FDS);
+  return -1;
+}
+
+int runtime_unregister_fd(int fd) {
+  uint32_t i;
+  for (i = 0; i < MAX_FDS; i++) {
+    if (registrations[i].handler != NULL && registrations[i].fd == fd) {
+      registrations[i].handler = NULL;
+      return epoll_ctl(epoll_fd, EPOLL_CTL_DEL, fd, NULL);
+    }
+  }
+  return -1;
+}
+
+void runtime_wait_events(int timeout) {
+  struct epoll_event events[MAX_EVENTS];
+  int n, i;
+  fifo_lock();
+  if (!fifo_empty()) {
+    fifo_unlock();
+    return;
+  }
+  fifo_waiting = 1; // from now on, enqueuing a message writes to fifo_event_fd
+  fifo_unlock();
+
+  do {
+    n = epoll_wait(epoll_fd, events, MAX_EVENTS, timeout);
+  } while (n < 0 && errno == EINTR);
+
+  fifo_lock();
+  fifo_waiting = 0;
+  fifo_unlock();
+
+  for (i = 0; i < n; i++) {
+    uint32_t id = events[i].data.u32;
+    if (id == FIFO_EVENT_ID) {
+      uint64_t count;
+      if (read(fifo_event_fd, &count, sizeof(count)) < 0 && errno != EAGAIN)
+        perror("[runtime] eventfd read");
+    } else if (id < MAX_FDS && registrations[id].handler != NULL) {
+      registrations[id].handler(registrations[id].fd, events[i].events, registrations[id].arg);
+    }
+  }
+}
+
+void init_event_loop() {
+  struct epoll_event ev;
+  epoll_fd = epoll_create1(EPOLL_CLOEXEC);
+  fifo_event_fd = eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC);
+  if (epoll_fd < 0 || fifo_event_fd < 0) {
+    perror("FATAL: ThingML runtime failed to create its event loop");
+    exit(-1);
+  }
+  memset(&ev, 0, sizeof(ev));
+  ev.events = EPOLLIN;
+  ev.data.u32 = FIFO_EVENT_ID;
+  epoll_ctl(epoll_fd, EPOLL_CTL_ADD, fifo_event_fd, &ev);
+}
+
+#else
+
+// Without epoll, the main loop waits on the fifo condition and file descriptors cannot be registered
+
+void fifo_wakeup() {}
+
+int runtime_register_fd(int fd, uint32_t events, runtime_fd_handler handler, void * arg) {
+  return -1;
+}
+
+int runtime_unregister_fd(int fd) {
+  return -1;
 }
 
+void runtime_wait_events(int timeout) {
+  fifo_lock();
+  if (fifo_empty()) {
+    if (timeout < 0) {
+      fifo_wait();
+    } else {
+      struct timespec deadline;
+      clock_gettime(CLOCK_REALTIME, &deadline);
+      deadline.tv_sec += timeout / 1000;
+      deadline.tv_nsec += (timeout % 1000) * 1000000L;
+      if (deadline.tv_nsec >= 1000000000L) {
+        deadline.tv_sec++;
+        deadline.tv_nsec -= 1000000000L;
+      }
+      pthread_cond_timedwait (&fifo_cond, &fifo_mut, &deadline);
+    }
+  }
+  fifo_unlock();
+}
+
+void init_event_loop() {}
+
+#endif
+
 
 /******************************************
  * Initialization
@@ -155,4 +310,5 @@ void fifo_unlock_and_notify() {
 void init_runtime() {
   pthread_mutex_init (&fifo_mut, NULL);
   pthread_cond_init (&fifo_cond, NULL);
+  init_event_loop();
 }
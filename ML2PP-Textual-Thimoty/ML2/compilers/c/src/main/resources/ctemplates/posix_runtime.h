@@ -58,6 +58,18 @@ void fifo_unlock();
 void fifo_wait();
 void fifo_unlock_and_notify();
 
+/* Event loop.
+   The main loop sleeps in runtime_wait_events until a message is enqueued (fifo_unlock_and_notify),
+   a registered file descriptor is ready or the timeout expires. */
+typedef void (*runtime_fd_handler)(int fd, uint32_t events, void * arg);
+/* Calls handler from the main loop whenever fd is ready for events (EPOLLIN, EPOLLOUT, ...)
+   returns 0 for success and -1 if the fd could not be registered (or the platform has no epoll) */
+int runtime_register_fd(int fd, uint32_t events, runtime_fd_handler handler, void * arg);
+int runtime_unregister_fd(int fd);
+/* Returns as soon as the fifo is not empty, after running the handlers of the ready file descriptors,
+   or when timeout (in ms, -1 to wait forever) expires */
+void runtime_wait_events(int timeout);
+
 void init_runtime();
 
 #ifdef __cplusplus
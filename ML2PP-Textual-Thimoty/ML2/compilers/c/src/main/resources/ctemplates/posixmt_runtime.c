@@ -12,6 +12,12 @@
 #include <math.h>
 #include <signal.h>
 #include <pthread.h>
+#include <sched.h>
+#include <stdatomic.h>
+#ifdef __linux__
+#include <linux/futex.h>
+#include <sys/syscall.h>
+#endif
 
 #include "runtime.h"
 
@@ -34,76 +40,109 @@ uint16_t add_instance(void * instance_struct) {
 }
 
 /******************************************
- * Simple byte FIFO implementation
+ * Lock-free message FIFO
  ******************************************/
 
-
 // Returns the number of byte currently in the fifo
 int fifo_byte_length(struct instance_fifo *fifo) {
-  if (fifo->fifo_tail >= fifo->fifo_head)
-    return fifo->fifo_tail - fifo->fifo_head;
-  return fifo->fifo_tail + fifo->fifo_size - fifo->fifo_head;
+  return atomic_load_explicit(&fifo->fifo_tail, memory_order_acquire) - atomic_load_explicit(&fifo->fifo_head, memory_order_acquire);
 }
 
 // Returns the number of bytes currently available in the *fifo
 int fifo_byte_available(struct instance_fifo *fifo) {
-  return fifo->fifo_size - 1 - fifo_byte_length(fifo);
+  return fifo->fifo_size - (atomic_load_explicit(&fifo->fifo_reserved, memory_order_acquire) - atomic_load_explicit(&fifo->fifo_head, memory_order_acquire));
 }
 
 // Returns true if the fifo is empty
 int fifo_empty(struct instance_fifo *fifo) {
-  return fifo->fifo_head == fifo->fifo_tail;
+  return atomic_load_explicit(&fifo->fifo_tail, memory_order_acquire) == atomic_load_explicit(&fifo->fifo_head, memory_order_relaxed);
 }
 
-// Return true if the fifo is full
-int fifo_full(struct instance_fifo *fifo) {
-  return fifo->fifo_head == ((fifo->fifo_tail + 1) % fifo->fifo_size);
+static void fifo_wake(struct instance_fifo *fifo) {
+  atomic_fetch_add(&fifo->fifo_wakeups, 1);
+#ifdef __linux__
+  syscall(SYS_futex, &fifo->fifo_wakeups, FUTEX_WAKE_PRIVATE, 1, NULL, NULL, 0);
+#else
+  pthread_mutex_lock(&fifo->fifo_wait_mut);
+  pthread_cond_signal(&fifo->fifo_cond);
+  pthread_mutex_unlock(&fifo->fifo_wait_mut);
+#endif
 }
 
-// Enqueue 1 byte in the fifo if there is space
+// Enqueue a whole message in the fifo if there is space
 // returns 1 for sucess and 0 if the fifo was full
-int fifo_enqueue(struct instance_fifo *fifo, byte b) {
-  int new_tail = (fifo->fifo_tail + 1) % fifo->fifo_size;
-  if (new_tail == fifo->fifo_head) return 0; // the fifo is full
-  fifo->fifo[fifo->fifo_tail] = b;
-  fifo->fifo_tail = new_tail;
-  return 1;
-}
+int fifo_enqueue_message(struct instance_fifo *fifo, const byte *msg, uint16_t size) {
+  // Reserve the space for the message
+  uint32_t start = atomic_load_explicit(&fifo->fifo_reserved, memory_order_relaxed);
+  do {
+    if (start + size - atomic_load_explicit(&fifo->fifo_head, memory_order_acquire) > fifo->fifo_size) return 0; // the fifo is full
+  } while (!atomic_compare_exchange_weak_explicit(&fifo->fifo_reserved, &start, start + size, memory_order_acq_rel, memory_order_relaxed));
+
+  // Copy it, in two parts if it wraps around the end of the buffer
+  uint32_t offset = start & (fifo->fifo_size - 1);
+  uint32_t first = fifo->fifo_size - offset;
+  if (first >= size) {
+    memcpy(fifo->fifo + offset, msg, size);
+  } else {
+    memcpy(fifo->fifo + offset, msg, first);
+    memcpy(fifo->fifo, msg + first, size - first);
+  }
+
+  // Publish it once all the messages reserved before are published
+  while (atomic_load_explicit(&fifo->fifo_tail, memory_order_acquire) != start) sched_yield();
+  atomic_store_explicit(&fifo->fifo_tail, start + size, memory_order_seq_cst);
 
-// Enqueue 1 byte in the fifo without checking for available space
-// The caller should have checked that there is enough space
-int _fifo_enqueue(struct instance_fifo *fifo, byte b) {
-  fifo->fifo[fifo->fifo_tail] = b;
-  fifo->fifo_tail = (fifo->fifo_tail + 1) % fifo->fifo_size;
+  // Only pay for a system call if the consumer is sleeping
+  if (atomic_load_explicit(&fifo->fifo_sleeping, memory_order_seq_cst)) fifo_wake(fifo);
+  return 1;
 }
 
-// Dequeue 1 byte in the fifo
+// Dequeue size bytes from the fifo
 // The caller should check that the fifo is not empty
-byte fifo_dequeue(struct instance_fifo *fifo) {
-  if (!fifo_empty(fifo)) {
-    byte result = fifo->fifo[fifo->fifo_head];
-    fifo->fifo_head = (fifo->fifo_head + 1) % fifo->fifo_size;
-    return result;
+void fifo_dequeue_bytes(struct instance_fifo *fifo, byte *buf, uint16_t size) {
+  uint32_t start = atomic_load_explicit(&fifo->fifo_head, memory_order_relaxed);
+  uint32_t offset = start & (fifo->fifo_size - 1);
+  uint32_t first = fifo->fifo_size - offset;
+  if (first >= size) {
+    memcpy(buf, fifo->fifo + offset, size);
+  } else {
+    memcpy(buf, fifo->fifo + offset, first);
+    memcpy(buf + first, fifo->fifo, size - first);
   }
-  return 0;
+  atomic_store_explicit(&fifo->fifo_head, start + size, memory_order_release);
 }
 
 /******************************************
- * Synchronization for thread safe access
+ * Synchronization
  ******************************************/
 
 void fifo_lock(struct instance_fifo *fifo) {
   pthread_mutex_lock (&(fifo->fifo_mut));
 }
 void fifo_unlock(struct instance_fifo *fifo) {
-  pthread_mutex_unlock (&(fifo->fifo_mut));	  
+  pthread_mutex_unlock (&(fifo->fifo_mut));
 }
 void fifo_wait(struct instance_fifo *fifo) {
-  pthread_cond_wait (&(fifo->fifo_cond), &(fifo->fifo_mut));
+  uint32_t wakeups = atomic_load(&fifo->fifo_wakeups);
+  atomic_store(&fifo->fifo_sleeping, 1);
+  // Checked again after announcing we sleep: a producer either sees the flag or we see its message
+  if (atomic_load(&fifo->fifo_tail) == atomic_load_explicit(&fifo->fifo_head, memory_order_relaxed)) {
+#ifdef __linux__
+    syscall(SYS_futex, &fifo->fifo_wakeups, FUTEX_WAIT_PRIVATE, wakeups, NULL, NULL, 0);
+#else
+    pthread_mutex_lock(&fifo->fifo_wait_mut);
+    if (atomic_load(&fifo->fifo_wakeups) == wakeups) pthread_cond_wait(&fifo->fifo_cond, &fifo->fifo_wait_mut);
+    pthread_mutex_unlock(&fifo->fifo_wait_mut);
+#endif
+  }
+  atomic_store(&fifo->fifo_sleeping, 0);
+}
+void fifo_notify(struct instance_fifo *fifo) {
+  fifo_wake(fifo);
 }
 void fifo_unlock_and_notify(struct instance_fifo *fifo) {
-  pthread_cond_signal (&(fifo->fifo_cond));
   pthread_mutex_unlock (&(fifo->fifo_mut));
+  fifo_notify(fifo);
 }
 
 
@@ -113,5 +152,13 @@ void fifo_unlock_and_notify(struct instance_fifo *fifo) {
 
 void init_runtime(struct instance_fifo *fifo) {
   pthread_mutex_init (&(*fifo).fifo_mut, NULL);
+  atomic_init(&fifo->fifo_reserved, 0);
+  atomic_init(&fifo->fifo_tail, 0);
+  atomic_init(&fifo->fifo_head, 0);
+  atomic_init(&fifo->fifo_sleeping, 0);
+  atomic_init(&fifo->fifo_wakeups, 0);
+#ifndef __linux__
+  pthread_mutex_init (&(*fifo).fifo_wait_mut, NULL);
   pthread_cond_init (&(*fifo).fifo_cond, NULL);
+#endif
 }
@@ -12,6 +12,8 @@ extern "C" {
 #endif
 
 #include <stdint.h>
+#include <pthread.h>
+#include <stdatomic.h>
 
 typedef unsigned char byte;
 
@@ -29,13 +31,22 @@ uint16_t add_instance(void * instance_struct);
  *              FIFO             *
  *********************************/
 
+/* Lock-free multi-producer / single-consumer message FIFO.
+   Any thread can enqueue whole messages, only the thread of the instance dequeues.
+   Positions are free running (they wrap around at 2^32) and fifo_size must be a power of 2. */
 struct instance_fifo {
-    pthread_mutex_t fifo_mut;
-    pthread_cond_t fifo_cond;
-    uint16_t fifo_size;
+    pthread_mutex_t fifo_mut; // protects the sessions of the instance, not the messages
     byte * fifo;
-    uint16_t fifo_head;
-    uint16_t fifo_tail;
+    uint32_t fifo_size;
+    _Atomic uint32_t fifo_reserved; // end of the space reserved by the producers
+    _Atomic uint32_t fifo_tail;     // end of the messages visible to the consumer
+    _Atomic uint32_t fifo_head;     // start of the messages not yet read by the consumer
+    _Atomic uint32_t fifo_sleeping; // the consumer is (about to be) blocked in fifo_wait
+    _Atomic uint32_t fifo_wakeups;  // futex word, incremented to wake the consumer up
+#ifndef __linux__
+    pthread_mutex_t fifo_wait_mut;
+    pthread_cond_t fifo_cond;
+#endif
 };
 
 
@@ -60,24 +71,23 @@ int fifo_byte_length(struct instance_fifo *fifo);
 int fifo_byte_available(struct instance_fifo *fifo);
 /* Returns true if the fifo is empty */
 int fifo_empty(struct instance_fifo *fifo);
-/* Return true if the fifo is full */
-int fifo_full(struct instance_fifo *fifo);
-/* Enqueue 1 byte in the fifo if there is space
-   returns 1 for sucess and 0 if the fifo was full */
-int fifo_enqueue(struct instance_fifo *fifo, byte b);
-/* Enqueue 1 byte in the fifo without checking for available space
-   The caller should have checked that there is enough space */
-int _fifo_enqueue(struct instance_fifo *fifo, byte b);
-/* Dequeue 1 byte in the fifo.
-   The caller should check that the fifo is not empty */
-byte fifo_dequeue(struct instance_fifo *fifo);
-
-// Synchronization for thread safe FIFO access
+/* Enqueue a whole message (size bytes) in the fifo, can be called from any thread.
+   Returns 1 for success and 0 if the fifo was full (the message is dropped) */
+int fifo_enqueue_message(struct instance_fifo *fifo, const byte *msg, uint16_t size);
+/* Dequeue size bytes from the fifo. Only called by the consumer,
+   which should check that the fifo is not empty */
+void fifo_dequeue_bytes(struct instance_fifo *fifo, byte *buf, uint16_t size);
+
+// Locking of the sessions of an instance
 void fifo_lock(struct instance_fifo *fifo);
 void fifo_unlock(struct instance_fifo *fifo);
+// Blocks the consumer until a message is enqueued or fifo_notify is called
 void fifo_wait(struct instance_fifo *fifo);
+// Wakes the consumer up, even if nothing was enqueued
+void fifo_notify(struct instance_fifo *fifo);
 void fifo_unlock_and_notify(struct instance_fifo *fifo);
 
+/* Initializes an empty fifo, fifo->fifo and fifo->fifo_size should be set before */
 void init_runtime(struct instance_fifo *fifo);
 
 #ifdef __cplusplus
@@ -16,27 +16,43 @@
  */
 package org.thingml.compilers;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.thingml.compilers.builder.Segment;
 import org.thingml.compilers.builder.SourceBuilder;
 //import org.fusesource.jansi.Ansi;
 import org.thingml.compilers.spi.NetworkPlugin;
 import org.thingml.compilers.spi.SerializationPlugin;
+import org.thingml.compilers.utils.IncrementalFileOutputStream;
 import org.thingml.compilers.utils.OpaqueThingMLCompiler;
+import org.thingml.utilities.logging.Logger;
+import org.thingml.xtext.constraints.ThingMLHelpers;
 import org.thingml.xtext.helpers.AnnotatedElementHelper;
 import org.thingml.xtext.helpers.ConfigurationHelper;
 import org.thingml.xtext.helpers.ThingMLElementHelper;
@@ -46,8 +62,11 @@ import org.thingml.xtext.thingML.Connector;
 import org.thingml.xtext.thingML.Expression;
 import org.thingml.xtext.thingML.ExternalConnector;
 import org.thingml.xtext.thingML.Function;
+import org.thingml.xtext.thingML.Handler;
 import org.thingml.xtext.thingML.Instance;
+import org.thingml.xtext.thingML.InternalTransition;
 import org.thingml.xtext.thingML.Message;
+import org.thingml.xtext.thingML.NamedElement;
 import org.thingml.xtext.thingML.Parameter;
 import org.thingml.xtext.thingML.Port;
 import org.thingml.xtext.thingML.Protocol;
@@ -57,19 +76,32 @@ import org.thingml.xtext.thingML.Thing;
 import org.thingml.xtext.thingML.Transition;
 import org.thingml.xtext.thingML.Variable;
 
+/**
+ * Holds the code generated for one configuration.
+ *
+ * A context can be shared by several threads generating different things (see forEachInParallel):
+ * the builders are kept in concurrent maps, and the instance being generated is confined to the current thread.
+ * A builder itself is not thread-safe, a file should only be generated by one thread.
+ */
 public class Context {
 
-    public Instance currentInstance;
+    // The instance for which code is currently generated (by this thread)
+    private final ThreadLocal<Instance> currentInstance = new ThreadLocal<Instance>();
     // Store the output of the compilers. The key is typically a file name but finer grained generatedCode may also be used by the compilers.
-    protected Map<String, StringBuilder> generatedCode = new HashMap<String, StringBuilder>();
-    protected Map<String, SourceBuilder> generatedFiles = new HashMap<String, SourceBuilder>();
-    protected Map<String, File> filesToCopy = new HashMap<String, File>();
+    protected Map<String, StringBuilder> generatedCode = new ConcurrentHashMap<String, StringBuilder>();
+    protected Map<String, SourceBuilder> generatedFiles = new ConcurrentHashMap<String, SourceBuilder>();
+    protected Map<String, File> filesToCopy = new ConcurrentHashMap<String, File>();
+    // Paths (relative to the output directory) of the files written by this context
+    private final Set<String> outputs = ConcurrentHashMap.newKeySet();
     boolean debugTraceWithID = false;
     Map<Integer, String> debugStrings;
+    // Structured tracing: numeric ids of the traced elements, and their names (indexed by id)
+    private Map<EObject, Integer> traceIds;
+    private List<String> traceNames;
     private ThingMLCompiler compiler;
     private Configuration currentConfiguration;
     // Any any annotation to the context
-    private Map<String, String> contextAnnotations = new HashMap<String, String>();
+    private Map<String, String> contextAnnotations = Collections.synchronizedMap(new HashMap<String, String>());
     /**
      * *****************************************************************************************
      * Keyword protection API. To be used by all compilers which need to protect against clashes
@@ -81,19 +113,20 @@ public class Context {
     private String preKeywordEscape = "`";
     private String postKeywordEscape = "`";
     private File outputDirectory = null;
-    private Boolean atInitTimeLock = false;
+    private final ThreadLocal<Boolean> atInitTimeLock = ThreadLocal.withInitial(() -> false);
 	private File inputDirectory;
+    private Logger log = Logger.SYSTEM;
 
     //public Ansi ansi = new Ansi();
 
     public Context(ThingMLCompiler compiler) {
-        this.debugStrings = new HashMap<Integer, String>();
+        this.debugStrings = new ConcurrentHashMap<Integer, String>();
         this.compiler = compiler;
     }
 
 
     public Context(ThingMLCompiler compiler, String... keywords) {
-        this.debugStrings = new HashMap<Integer, String>();
+        this.debugStrings = new ConcurrentHashMap<Integer, String>();
         this.compiler = compiler;
         for (String k : keywords) {
             this.keywords.add(k);
@@ -145,12 +178,47 @@ public class Context {
         return compiler;
     }
 
+    /**
+     * @return the logger of the compilation, where the compiler and its plugins report problems with the model
+     */
+    public Logger getLog() {
+        return log;
+    }
+
+    public void setLog(Logger log) {
+        this.log = log;
+    }
+
     public Configuration getCurrentConfiguration() {
         return currentConfiguration;
     }
 
-    public void setCurrentConfiguration(Configuration currentConfiguration) {
+    public synchronized void setCurrentConfiguration(Configuration currentConfiguration) {
         this.currentConfiguration = currentConfiguration;
+        this.traceIds = null;
+    }
+
+    public Instance getCurrentInstance() {
+        return currentInstance.get();
+    }
+
+    public void setCurrentInstance(Instance instance) {
+        if (instance == null)
+            currentInstance.remove();
+        else
+            currentInstance.set(instance);
+    }
+
+    /**
+     * Applies action to all items, in parallel on the common fork-join pool, or one after the other
+     * (in the iteration order of items) if the compiler is set to generate in a deterministic order.
+     * The action should only write to builders of its own (e.g. the files of one thing).
+     */
+    public <T> void forEachInParallel(Collection<T> items, Consumer<T> action) {
+        if (compiler.isDeterministicOrder() || items.size() < 2)
+            items.forEach(action);
+        else
+            items.parallelStream().forEach(action);
     }
 
     /**
@@ -159,25 +227,14 @@ public class Context {
      */
     // TODO I think we should aim for removing the StringBuilders
     public StringBuilder getBuilder(String path) {
-        StringBuilder b = generatedCode.get(path);
-        if (b == null) {
-            b = new StringBuilder();
-            generatedCode.put(path, b);
-        }
-        return b;
+        return generatedCode.computeIfAbsent(path, p -> new StringBuilder());
     }
     
     protected SourceBuilder newBuilder() {
     	return new SourceBuilder();
     }
     public SourceBuilder getSourceBuilder(String path) {
-    	if (generatedFiles.containsKey(path))
-    		return generatedFiles.get(path);
-    	else {
-    		SourceBuilder builder = newBuilder();
-    		generatedFiles.put(path, builder);
-    		return builder;
-    	}
+    	return generatedFiles.computeIfAbsent(path, p -> newBuilder());
     }
 
     /**
@@ -194,40 +251,81 @@ public class Context {
     }
 
     /**
-     * Dumps the whole code generated in the generatedCode
+     * Dumps the whole code generated in the generatedCode.
+     * Only the files whose content changed are written (so that their modification time tells build tools what to recompile),
+     * and the files written by the previous compilation but not by this one are deleted (see deleteStaleOutputs).
      */
     public void writeGeneratedCodeToFiles() {
         for (Map.Entry<String, StringBuilder> e : generatedCode.entrySet()) {
-            writeTextFile(e.getKey(), e.getValue().toString());
+            writeTextFile(e.getKey(), e.getValue());
         }
-    	try {
-			for (Entry<String, SourceBuilder> generatedFile : generatedFiles.entrySet()) {
-				File outFile = new File(this.getOutputDirectory(), generatedFile.getKey());
-				File outDir = outFile.getParentFile();
-				if (outDir != null) outDir.mkdirs();
-				FileWriter writer = new FileWriter(outFile);
-				generatedFile.getValue().write(writer);
-				writer.close();
-			}
-		} catch (IOException e) {
-			System.err.println("Problem while dumping the code");
+        for (Entry<String, SourceBuilder> generatedFile : generatedFiles.entrySet()) {
+            writeTextFile(generatedFile.getKey(), generatedFile.getValue()::write);
+        }
+        deleteStaleOutputs();
+    }
+
+    /**
+     * Name of the manifest listing the files written by this context, relative to the output directory.
+     * Compilers and connectors generating in the same directory have their own manifest.
+     */
+    protected String getManifestName() {
+        final String cfg = (currentConfiguration != null) ? currentConfiguration.getName() + "." : "";
+        final String connector = getContextAnnotation("connector_compiler");
+        return ".thingml/" + cfg + ((connector != null) ? connector : compiler.getID()) + ".manifest";
+    }
+
+    /**
+     * Deletes the files listed in the manifest of the previous compilation that have not been written by this context,
+     * and replaces the manifest by the files written so far.
+     * Files written after the last call to writeGeneratedCodeToFiles are not listed, and thus never deleted.
+     */
+    protected void deleteStaleOutputs() {
+        final Path root = getOutputDirectory().toPath().toAbsolutePath().normalize();
+        final Path manifest = root.resolve(getManifestName());
+        try {
+            if (Files.isRegularFile(manifest)) {
+                for (String path : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                    if (path.isEmpty() || outputs.contains(path)) continue;
+                    final Path stale = root.resolve(path).normalize();
+                    if (!stale.startsWith(root) || !Files.isRegularFile(stale)) continue;
+                    Files.delete(stale);
+                    //Remove the directories left empty, e.g. of a Java package
+                    for (Path dir = stale.getParent(); dir != null && !dir.equals(root) && dir.startsWith(root); dir = dir.getParent()) {
+                        final String[] content = dir.toFile().list();
+                        if (content == null || content.length > 0) break;
+                        Files.delete(dir);
+                    }
+                }
+            }
+            final List<String> written = new ArrayList<>(outputs);
+            Collections.sort(written);
+            Files.createDirectories(manifest.getParent());
+            Files.write(manifest, written, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Problem while deleting stale files of the previous compilation");
             e.printStackTrace();
-		}
-        
-    }    
+        }
+    }
+
+    /**
+     * Records file as an output of this context.
+     */
+    private void addOutput(File file) {
+        final Path root = getOutputDirectory().toPath().toAbsolutePath().normalize();
+        final Path path = file.toPath().toAbsolutePath().normalize();
+        if (path.startsWith(root))
+            outputs.add(root.relativize(path).toString().replace(File.separatorChar, '/'));
+    }
   
     /**
      * @param path (relative to outputDir) where the file should be copied
      * @param source The source file co vopy
      */
     public void addFileToCopy(String path, File source) {
-        if (filesToCopy.containsKey(path)) {
-            File original = filesToCopy.get(path);          
-            if (!source.getAbsoluteFile().equals(original.getAbsoluteFile()))
-              throw new Error("The output file to copy to (" + path + ") is already added but with a different source (" + original.getAbsolutePath() + ").");
-        } else {
-          filesToCopy.put(path, source.getAbsoluteFile());
-        }
+        final File original = filesToCopy.putIfAbsent(path, source.getAbsoluteFile());
+        if (original != null && !source.getAbsoluteFile().equals(original))
+            throw new Error("The output file to copy to (" + path + ") is already added but with a different source (" + original.getAbsolutePath() + ").");
     }
   
     /**
@@ -237,6 +335,7 @@ public class Context {
         for (Map.Entry<String, File> e : filesToCopy.entrySet()) {
             File source = e.getValue();
             File destination = openOutputFile(e.getKey());
+            addOutput(destination);
             if (destination.exists()) {
                 System.err.println("[WARNING] The output file to copy to already exists, overwriting. (" + destination.getAbsolutePath() + ").");
             } else if (!source.exists()) {
@@ -281,10 +380,25 @@ public class Context {
      * @param path
      * @param content
      */
-    public void writeTextFile(String path, String content) {
+    public void writeTextFile(String path, CharSequence content) {
+        writeTextFile(path, writer -> Segment.write(writer, content));
+    }
+
+    public interface TextRenderer {
+        void render(Writer writer) throws IOException;
+    }
+
+    /**
+     * Writes the text rendered by renderer directly to the file, in UTF-8. Unchanged files are not written,
+     * to keep their modification time (see IncrementalFileOutputStream).
+     */
+    public void writeTextFile(String path, TextRenderer renderer) {
         try {     	
             File file = openOutputFile(path);
-            FileUtils.write(file, content, "UTF-8");
+            addOutput(file);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new IncrementalFileOutputStream(file), StandardCharsets.UTF_8))) {
+                renderer.render(writer);
+            }
         } catch (Exception ex) {
             System.err.println("Problem while dumping the code");
             ex.printStackTrace();
@@ -438,8 +552,93 @@ public class Context {
         debugTraceWithID = b;
     }
 
+    /*
+     * Structured tracing. When the configuration is annotated with @structured_trace "true", the trace* methods
+     * below return code recording a fixed-size event (kind and numeric ids of the thing, element, port and message)
+     * instead of debug strings. The code is produced by traceCall, which targets supporting it override.
+     */
+    public static final int TRACE_INIT = 0;
+    public static final int TRACE_ENTRY = 1;
+    public static final int TRACE_EXIT = 2;
+    public static final int TRACE_SEND = 3;
+    public static final int TRACE_RECEIVE = 4;
+    public static final int TRACE_TRANSITION = 5;
+    public static final int TRACE_INTERNAL = 6;
+    public static final int TRACE_FUNCTION_BEGIN = 7;
+    public static final int TRACE_FUNCTION_END = 8;
+
+    public boolean isStructuredTrace() {
+        return currentConfiguration != null && AnnotatedElementHelper.isDefined(currentConfiguration, "structured_trace", "true");
+    }
+
+    /**
+     * Names of the traced elements of the current configuration, indexed by their trace id.
+     */
+    public synchronized List<String> getTraceNames() {
+        initTraceIds();
+        return traceNames;
+    }
+
+    /**
+     * @return the trace id of element, or -1 if element is null or not traced
+     */
+    public synchronized int getTraceId(EObject element) {
+        if (element == null) return -1;
+        initTraceIds();
+        final Integer id = traceIds.get(element);
+        return (id == null) ? -1 : id;
+    }
+
+    // Ids are given in model order, so that the generated code does not depend on the order things are generated in
+    private void initTraceIds() {
+        if (traceIds != null) return;
+        traceIds = new HashMap<>();
+        traceNames = new ArrayList<>();
+        if (currentConfiguration == null) return;
+        for (Thing t : ConfigurationHelper.allThings(currentConfiguration)) {
+            addTraceId(t, t.getName());
+            for (Port p : ThingMLHelpers.allPorts(t)) addTraceId(p, p.getName());
+            for (Message m : ThingMLHelpers.allMessages(t)) addTraceId(m, m.getName());
+            for (Function f : ThingMLHelpers.allFunctions(t)) addTraceId(f, t.getName() + "." + f.getName());
+            for (CompositeState sm : ThingMLHelpers.allStateMachines(t)) {
+                addTraceId(sm, ThingMLElementHelper.qname(sm, ":"));
+                final TreeIterator<EObject> it = sm.eAllContents();
+                while (it.hasNext()) {
+                    final EObject o = it.next();
+                    if (o instanceof State || o instanceof StateContainer) {
+                        addTraceId(o, ThingMLElementHelper.qname((NamedElement) o, ":"));
+                    } else if (o instanceof Handler) {
+                        final State source = (State) o.eContainer();
+                        final String target = (o instanceof Transition) ? ((Transition) o).getTarget().getName() : "internal";
+                        addTraceId(o, ThingMLElementHelper.qname(source, ":") + " -> " + target);
+                    }
+                }
+            }
+        }
+    }
+
+    private void addTraceId(EObject element, String name) {
+        if (traceIds.containsKey(element)) return;
+        traceIds.put(element, traceNames.size());
+        traceNames.add(name);
+    }
+
+    /**
+     * Code recording a structured trace event for the target, or null if the target has no structured trace API.
+     * Ids are -1 when not relevant for the event (e.g. port and message of a state entry).
+     */
+    protected String traceCall(int kind, int thing, int element, int port, int message) {
+        return null;
+    }
+
+    private String traceCode(int kind, Thing t, EObject element, Port p, Message m) {
+        return traceCall(kind, getTraceId(t), getTraceId(element), getTraceId(p), getTraceId(m));
+    }
+
     public String traceOnEntry(Thing t, CompositeState sm) {
-        if (!debugTraceWithID) {
+        if (isStructuredTrace()) {
+            return traceCode(TRACE_ENTRY, t, sm, null, null);
+        } else if (!debugTraceWithID) {
             return " (" + t.getName() + "): Enters " + sm.getName();
         } else {
             return null;
@@ -447,7 +646,9 @@ public class Context {
     }
 
     public String traceOnEntry(Thing t, StateContainer r, State s) {
-        if (!debugTraceWithID) {
+        if (isStructuredTrace()) {
+            return traceCode(TRACE_ENTRY, t, s, null, null);
+        } else if (!debugTraceWithID) {
             return " (" + t.getName() + "): Enters " + ThingMLElementHelper.getName(r) + ":" + s.getName();
         } else {
             return null;
@@ -455,7 +656,9 @@ public class Context {
     }
 
     public String traceOnExit(Thing t, StateContainer r, State s) {
-        if (!debugTraceWithID) {
+        if (isStructuredTrace()) {
+            return traceCode(TRACE_EXIT, t, s, null, null);
+        } else if (!debugTraceWithID) {
             return " (" + t.getName() + "): Exits " + ThingMLElementHelper.getName(r) + ":" + s.getName();
         } else {
             return null;
@@ -463,7 +666,9 @@ public class Context {
     }
 
     public String traceSendMessage(Thing t, Port p, Message m) {
-        if (!debugTraceWithID) {
+        if (isStructuredTrace()) {
+            return traceCode(TRACE_SEND, t, null, p, m);
+        } else if (!debugTraceWithID) {
             return " (" + t.getName() + "): " + p.getName() + "!" + m.getName();
         } else {
             return null;
@@ -471,7 +676,9 @@ public class Context {
     }
 
     public String traceReceiveMessage(Thing t, Port p, Message m) {
-        if (!debugTraceWithID) {
+        if (isStructuredTrace()) {
+            return traceCode(TRACE_RECEIVE, t, null, p, m);
+        } else if (!debugTraceWithID) {
             return " (" + t.getName() + "): " + p.getName() + "?" + m.getName();
         } else {
             return null;
@@ -479,7 +686,9 @@ public class Context {
     }
 
     public String traceFunctionBegin(Thing t, Function f) {
-        if (!debugTraceWithID) {
+        if (isStructuredTrace()) {
+            return traceCode(TRACE_FUNCTION_BEGIN, t, f, null, null);
+        } else if (!debugTraceWithID) {
             return " (" + t.getName() + "): Start " + f.getName();
         } else {
             return null;
@@ -487,7 +696,9 @@ public class Context {
     }
 
     public String traceFunctionDone(Thing t, Function f) {
-        if (!debugTraceWithID) {
+        if (isStructuredTrace()) {
+            return traceCode(TRACE_FUNCTION_END, t, f, null, null);
+        } else if (!debugTraceWithID) {
             return " (" + t.getName() + "): " + f.getName() + " Done.";
         } else {
             return null;
@@ -495,7 +706,9 @@ public class Context {
     }
 
     public String traceTransition(Thing t, Transition tr, Port p, Message m) {
-        if (!debugTraceWithID) {
+        if (isStructuredTrace()) {
+            return traceCode(TRACE_TRANSITION, t, tr, p, m);
+        } else if (!debugTraceWithID) {
             if (p != null) {
                 return " (" + t.getName()
                         + "): transition "
@@ -512,7 +725,9 @@ public class Context {
     }
 
     public String traceTransition(Thing t, Transition tr) {
-        if (!debugTraceWithID) {
+        if (isStructuredTrace()) {
+            return traceCode(TRACE_TRANSITION, t, tr, null, null);
+        } else if (!debugTraceWithID) {
             return " (" + t.getName()
                     + "): transition "
                     + ((State)tr.eContainer()).getName()
@@ -523,7 +738,9 @@ public class Context {
     }
 
     public String traceInternal(Thing t, Port p, Message m) {
-        if (!debugTraceWithID) {
+        if (isStructuredTrace()) {
+            return traceCode(TRACE_INTERNAL, t, null, p, m);
+        } else if (!debugTraceWithID) {
             if (p != null) {
                 return " (" + t.getName() + "): internal event " + p.getName() + "?" + m.getName();
             } else {
@@ -534,8 +751,18 @@ public class Context {
         }
     }
 
+    public String traceInternal(Thing t, InternalTransition it, Port p, Message m) {
+        if (isStructuredTrace()) {
+            return traceCode(TRACE_INTERNAL, t, it, p, m);
+        } else {
+            return traceInternal(t, p, m);
+        }
+    }
+
     public String traceInternal(Thing t) {
-        if (!debugTraceWithID) {
+        if (isStructuredTrace()) {
+            return traceCode(TRACE_INTERNAL, t, null, null, null);
+        } else if (!debugTraceWithID) {
             return " (" + t.getName() + "): internal";
         } else {
             return null;
@@ -543,7 +770,9 @@ public class Context {
     }
 
     public String traceInit(Thing t) {
-        if (!debugTraceWithID) {
+        if (isStructuredTrace()) {
+            return traceCode(TRACE_INIT, t, null, null, null);
+        } else if (!debugTraceWithID) {
             return " (" + t.getName() + "): Init";
         } else {
             return null;
@@ -551,14 +780,14 @@ public class Context {
     }
 
     public Boolean getAtInitTimeLock() {
-        return atInitTimeLock;
+        return atInitTimeLock.get();
     }
 
     public void generateFixedAtInitValue(Configuration cfg, Instance inst, Expression a, StringBuilder builder) {
-        atInitTimeLock = true;
-        currentInstance = inst;
+        atInitTimeLock.set(true);
+        setCurrentInstance(inst);
         getCompiler().getThingActionCompiler().generate(a, builder, this);
-        atInitTimeLock = false;
+        atInitTimeLock.set(false);
     }
 
     public void initSerializationPlugins(Configuration cfg) {
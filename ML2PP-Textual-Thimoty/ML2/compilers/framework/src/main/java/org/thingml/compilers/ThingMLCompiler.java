@@ -19,7 +19,6 @@ package org.thingml.compilers;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -45,8 +44,8 @@ import org.thingml.compilers.thing.ThingActionCompiler;
 import org.thingml.compilers.thing.ThingApiCompiler;
 import org.thingml.compilers.thing.ThingImplCompiler;
 import org.thingml.compilers.thing.common.FSMBasedThingImplCompiler;
+import org.thingml.compilers.utils.ThingMLModelLoader;
 import org.thingml.utilities.logging.Logger;
-import org.thingml.xtext.ThingMLStandaloneSetup;
 import org.thingml.xtext.helpers.AnnotatedElementHelper;
 import org.thingml.xtext.thingML.Configuration;
 import org.thingml.xtext.thingML.Protocol;
@@ -59,11 +58,18 @@ import org.thingml.xtext.validation.Checker;
 public abstract class ThingMLCompiler {
 
     
-    //FIXME: the code below related to loading and errors should be refactored and probably moved. It is just here right now as a convenience.
-    public static List<String> errors;
-    public static List<String> warnings;
-    public static XtextResource resource;
-    public static File currentFile;
+    /**
+     * Results of the last call to loadModel. Kept for backward compatibility only:
+     * they are overwritten by concurrent loads, use ThingMLModelLoader to get per-call diagnostics.
+     */
+    @Deprecated
+    public static volatile List<String> errors;
+    @Deprecated
+    public static volatile List<String> warnings;
+    @Deprecated
+    public static volatile XtextResource resource;
+    @Deprecated
+    public static volatile File currentFile;
     protected Context ctx = new Context(this);
     public Checker checker = new Checker();
     Map<String, Set<NetworkPlugin>> networkPluginsPerProtocol = new HashMap<>();
@@ -81,6 +87,7 @@ public abstract class ThingMLCompiler {
     private OutputStream errorStream = System.err;
     private File outputDirectory = null;
     private File inputDirectory = null;
+    private boolean deterministicOrder = false;
 
     /**************************************************************
      * Parameters common to all compilers
@@ -113,38 +120,22 @@ public abstract class ThingMLCompiler {
         this.thingImplCompiler = thingImplCompiler;
     }
 
+    /**
+     * Parses the file (and its imports) into a new model, which the caller can modify.
+     * To reuse models loaded from unchanged files, use a caching ThingMLModelLoader.
+     */
     public static ThingMLModel loadModel(final File file) { return loadModel(file, Logger.SYSTEM); }
-    public static ThingMLModel loadModel(final File file, Logger log) {
-        currentFile = file;
-        errors = new ArrayList<String>();
-        warnings = new ArrayList<String>();
-
-        ThingMLCompiler.registerThingMLFactory();
-
-        ResourceSet rs = new ResourceSetImpl();
-        URI xmiuri = URI.createFileURI(file.getAbsolutePath());
-        Resource model = rs.createResource(xmiuri);
-        resource = (XtextResource) model;
-        try {
-            model.load(null);
-            EcoreUtil.resolveAll(model);
-            for (Resource r : model.getResourceSet().getResources()) {
-                checkEMFErrorsAndWarnings(r, log);
-            }
-            if (errors.isEmpty()) {
-                ThingMLModel m = (ThingMLModel) model.getContents().get(0);
-                /*for (Configuration cfg : ThingMLHelpers.allConfigurations(m)) {
-                    checker.do_generic_check(cfg);
-                }*/
-                if (errors.isEmpty()) {
-                    return m;
-                }
-            }
-
-        } catch (Exception e) {
-        	log.error("Error loading ThingML model", e);
-        }
-        return null;
+    public static ThingMLModel loadModel(final File file, Logger log) { return loadModel(file, log, ThingMLModelLoader.getDefault()); }
+    /**
+     * Loads the file with the given loader. The model must be treated as read-only if the loader is caching.
+     */
+    public static ThingMLModel loadModel(final File file, Logger log, ThingMLModelLoader loader) {
+        final ThingMLModelLoader.LoadResult result = loader.load(file, log);
+        currentFile = result.file;
+        errors = result.errors;
+        warnings = result.warnings;
+        resource = result.resource;
+        return result.model;
     }
 
     private static void registerXMIFactory() {
@@ -154,7 +145,7 @@ public abstract class ThingMLCompiler {
     }
 
     private static void registerThingMLFactory() {
-    	ThingMLStandaloneSetup.doSetup();
+    	ThingMLModelLoader.getInjector();
     }
       
 
@@ -190,36 +181,6 @@ public abstract class ThingMLCompiler {
 		}
     }
 
-    private static boolean checkEMFErrorsAndWarnings(Resource model, Logger log) {
-    	log.info("Checking for EMF errors and warnings");
-        boolean isOK = true;
-        if (model.getErrors().size() > 0) {
-            isOK = false;
-            log.error("ERROR: The input model contains " + model.getErrors().size() + " errors.");
-            for (Resource.Diagnostic d : model.getErrors()) {    
-            		String location = d.getLocation();
-            		if (location == null) {
-            			location = model.getURI().toFileString();
-            		}
-            		log.error("Error in file  " + location + " (" + d.getLine() + ", " + d.getColumn() + "): " + d.getMessage());
-                    errors.add("Error in file  " + location + " (" + d.getLine() + ", " + d.getColumn() + "): " + d.getMessage());            	
-            }
-        }
-
-        if (model.getWarnings().size() > 0) {
-        	log.warning("WARNING: The input model contains " + model.getWarnings().size() + " warnings.");
-            for (Resource.Diagnostic d : model.getWarnings()) {
-          		String location = d.getLocation();
-        		if (location == null) {
-        			location = model.getURI().toFileString();
-        		}
-        		log.warning("Warning in file  " + location + " (" + d.getLine() + ", " + d.getColumn() + "): " + d.getMessage());
-                warnings.add("Warning in file  " + location + " (" + d.getLine() + ", " + d.getColumn() + "): " + d.getMessage());
-            }
-        }
-        return isOK;
-    }
-
     public abstract ThingMLCompiler clone();
 
     /**
@@ -245,6 +206,7 @@ public abstract class ThingMLCompiler {
         ctx.setCurrentConfiguration(cfg);
         final CfgExternalConnectorCompiler cc = connectorCompilers.get(connector);
         if (cc != null) {
+            ctx.addContextAnnotation("connector_compiler", connector);//outputs tracked separately from the ones of the compiler
             cc.generateExternalConnector(cfg, ctx, options);
             ctx.writeGeneratedCodeToFiles();
         } else {
@@ -326,6 +288,18 @@ public abstract class ThingMLCompiler {
         ctx.setInputDirectory(inputDirectory);
     }
 
+    public boolean isDeterministicOrder() {
+        return deterministicOrder;
+    }
+
+    /**
+     * @param deterministicOrder if true, things are generated one after the other, in the order of the model,
+     *                           instead of in parallel (see Context.forEachInParallel)
+     */
+    public void setDeterministicOrder(boolean deterministicOrder) {
+        this.deterministicOrder = deterministicOrder;
+    }
+
     public void addNetworkPlugin(NetworkPlugin np) {
         List<String> protocols = np.getSupportedProtocols();
         for (String prot : protocols) {
@@ -125,6 +125,10 @@ public class Section extends Element {
 	public Section append(Element append) { this.perhapsOwn(append); this.children.addLast(append); return this; };
 	public Section append(String append) { return this.append(new Element(append)); }
 	public Section append(Object...append) { return this.append(new Element(append)); }
+	/**
+	 * Appends content without copying it: later changes to content are part of the output.
+	 */
+	public Section appendSegment(CharSequence append) { return this.append(new Segment(append)); }
 	
 	public Section prependSection(String name) {
 		Section newSection = new Section(this, name);
@@ -0,0 +1,63 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.compilers.builder;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Element referring to a CharSequence (typically the StringBuilder of an action compiler), which is
+ * written as is when the tree is written, instead of being copied into a String when appended.
+ */
+public class Segment extends Element {
+	protected final CharSequence segment;
+
+	public Segment(CharSequence segment) {
+		this.segment = segment;
+		this.value = "";
+	}
+
+	@Override
+	public String get() {
+		return this.segment.toString();
+	}
+
+	@Override
+	public void write(SourceBuilder builder, Writer writer) throws IOException {
+		if (!this.isEmpty()) write(writer, this.segment);
+	}
+
+	/**
+	 * Writes content by chunks, without copying it as a whole.
+	 */
+	public static void write(Writer writer, CharSequence content) throws IOException {
+		if (content instanceof String) {
+			writer.write((String) content);
+			return;
+		}
+		final char[] chunk = new char[Math.min(8192, Math.max(1, content.length()))];
+		for (int start = 0; start < content.length(); start += chunk.length) {
+			final int end = Math.min(content.length(), start + chunk.length);
+			if (content instanceof StringBuilder) {
+				((StringBuilder) content).getChars(start, end, chunk, 0);
+			} else {
+				for (int i = start; i < end; i++) chunk[i - start] = content.charAt(i);
+			}
+			writer.write(chunk, 0, end - start);
+		}
+	}
+}
@@ -33,7 +33,18 @@ public class StringBuilderSection extends Section {
 		// Add all the lines of the StringBuilder as children of this section
 		int currentLeadingWs = Integer.MAX_VALUE;
 		Section currentSection = this;
-		for (String line : this.stringbuilder.toString().split("\\r?\\n")) {
+		// Lines are extracted one by one, rather than splitting a copy of the whole builder (trailing empty lines are ignored, as by split)
+		final StringBuilder sb = this.stringbuilder;
+		int length = sb.length();
+		while (length > 0 && sb.charAt(length - 1) == '\n') {
+			length--;
+			if (length > 0 && sb.charAt(length - 1) == '\r') length--;
+		}
+		final boolean noLine = length == 0 && sb.length() > 0;
+		for (int start = 0, end; !noLine && start <= length; start = end + 1) {
+			end = sb.indexOf("\n", start);
+			if (end < 0 || end > length) end = length;
+			String line = sb.substring(start, (end > start && end < sb.length() && sb.charAt(end) == '\n' && sb.charAt(end - 1) == '\r') ? end - 1 : end);
 			String trimmed = line.trim();
 			int leadingWs = line.indexOf(trimmed);
 			// Fix indentation
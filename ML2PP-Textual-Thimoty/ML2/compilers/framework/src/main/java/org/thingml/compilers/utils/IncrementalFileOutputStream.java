@@ -0,0 +1,89 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.compilers.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a file only from the first byte that differs from its current content.
+ *
+ * As long as the written bytes are the same as the ones already in the file, they are only compared,
+ * so that a file generated again with the same content is left untouched (including its modification time).
+ * The content is streamed: it is never held in memory as a whole.
+ */
+public class IncrementalFileOutputStream extends OutputStream {
+
+	private final FileChannel channel;
+	private final ByteBuffer existing = ByteBuffer.allocate(8192);
+	private long position = 0;
+	private boolean writing;
+	private boolean changed;
+
+	public IncrementalFileOutputStream(File file) throws IOException {
+		this.writing = !file.isFile();
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.changed = writing;
+	}
+
+	/**
+	 * @return true if the content of the file has been modified
+	 */
+	public boolean isChanged() {
+		return changed;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (!writing && len > 0) {
+			existing.clear().limit(Math.min(len, existing.capacity()));
+			final int read = channel.read(existing, position);
+			int same = 0;
+			while (same < read && existing.get(same) == b[off + same]) same++;
+			position += same;
+			off += same;
+			len -= same;
+			if (same < existing.limit()) {
+				writing = true;
+				changed = true;
+			}
+		}
+		final ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+		while (buf.hasRemaining()) position += channel.write(buf, position);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (channel.size() > position) {
+				channel.truncate(position);
+				changed = true;
+			}
+		} finally {
+			channel.close();
+		}
+	}
+}
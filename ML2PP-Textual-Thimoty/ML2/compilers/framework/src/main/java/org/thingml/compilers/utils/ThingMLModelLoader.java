@@ -0,0 +1,350 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.compilers.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.xtext.resource.XtextResource;
+import org.eclipse.xtext.resource.XtextResourceSet;
+import org.thingml.utilities.logging.Logger;
+import org.thingml.xtext.ThingMLStandaloneSetup;
+import org.thingml.xtext.thingML.ThingMLModel;
+
+import com.google.inject.Injector;
+
+/**
+ * Loads ThingML models from files.
+ *
+ * The Xtext injector is created once per JVM and shared by all loaders. Each loaded file
+ * gets its own resource set, so that loads of different files can run in parallel.
+ *
+ * Caching is opt-in: the default loader (used by ThingMLCompiler.loadModel) parses the file on every call.
+ * A caching loader (e.g. getCaching, used by the command line and the test harness) keeps the models of the
+ * most recently used files, and reuses them as long as none of the files they were loaded from changed on disk
+ * (same modification time and size). It also keeps the imported files (e.g. the datatypes library), fully
+ * resolved, so that loading another file which imports them does not parse them again.
+ * Models (and imported models) returned by a caching loader are shared between its callers: they must be
+ * treated as read-only. Use ThingMLHelpers.flattenModel to get a private copy that can be modified.
+ */
+public class ThingMLModelLoader {
+
+	/**
+	 * Outcome of a single load: the model (null if it could not be loaded) and the
+	 * diagnostics of the file and of all the files it imports.
+	 */
+	public static class LoadResult {
+		public final File file;
+		public final ThingMLModel model;
+		public final XtextResource resource;
+		public final List<String> errors;
+		public final List<String> warnings;
+
+		LoadResult(File file, ThingMLModel model, XtextResource resource, List<String> errors, List<String> warnings) {
+			this.file = file;
+			this.model = model;
+			this.resource = resource;
+			this.errors = Collections.unmodifiableList(errors);
+			this.warnings = Collections.unmodifiableList(warnings);
+		}
+
+		public boolean hasErrors() {
+			return !errors.isEmpty();
+		}
+	}
+
+	private static class InjectorHolder {
+		static final Injector INSTANCE = new ThingMLStandaloneSetup().createInjectorAndDoEMFRegistration();
+	}
+
+	/**
+	 * @return the Xtext injector of the ThingML language, created (and registered with EMF) on first use
+	 */
+	public static Injector getInjector() {
+		return InjectorHolder.INSTANCE;
+	}
+
+	/** Number of files kept by a caching loader created with ThingMLModelLoader(true) */
+	public static final int DEFAULT_CAPACITY = 32;
+
+	private static final ThingMLModelLoader shared = new ThingMLModelLoader(false);
+	private static final ThingMLModelLoader caching = new ThingMLModelLoader(true);
+
+	/**
+	 * @return the (non-caching) loader shared by the whole JVM
+	 */
+	public static ThingMLModelLoader getDefault() {
+		return shared;
+	}
+
+	/**
+	 * @return the caching loader shared by the whole JVM, whose models must be treated as read-only
+	 */
+	public static ThingMLModelLoader getCaching() {
+		return caching;
+	}
+
+	private static class CachedModel {
+		final LoadResult result;
+		final Map<URI, long[]> stamps;
+
+		CachedModel(LoadResult result, Map<URI, long[]> stamps) {
+			this.result = result;
+			this.stamps = stamps;
+		}
+	}
+
+	/** An imported file, with the stamps and warnings of all the files imported when it was parsed */
+	private static class CachedLibrary {
+		final Resource resource;
+		final Map<URI, long[]> stamps;
+		final Map<URI, List<String>> warnings;
+
+		CachedLibrary(Resource resource, Map<URI, long[]> stamps, Map<URI, List<String>> warnings) {
+			this.resource = resource;
+			this.stamps = stamps;
+			this.warnings = warnings;
+		}
+	}
+
+	/**
+	 * URI map of the resource set of a load, which resolves imports with the libraries
+	 * parsed by previous loads (if they are up to date) instead of parsing them again.
+	 */
+	private class LibraryMap extends HashMap<URI, Resource> {
+		private static final long serialVersionUID = 1L;
+		final Map<URI, CachedLibrary> used = new LinkedHashMap<URI, CachedLibrary>();
+
+		@Override
+		public Resource get(Object key) {
+			final Resource r = super.get(key);
+			if (r != null || !(key instanceof URI))
+				return r;
+			final CachedLibrary library;
+			synchronized (libraries) {
+				library = libraries.get(key);
+			}
+			if (library == null || !isUpToDate(library.stamps))
+				return null;
+			used.put((URI) key, library);
+			put((URI) key, library.resource);
+			return library.resource;
+		}
+	}
+
+	private final int capacity;
+	private final Map<String, CachedModel> models;
+	private final Map<URI, CachedLibrary> libraries;
+	// Striped, so that the number of locks does not grow with the number of files loaded
+	private final Object[] locks = new Object[64];
+
+	/**
+	 * @param cache if false, every call to load parses the file (and its imports) again,
+	 * otherwise the DEFAULT_CAPACITY most recently used files are cached
+	 */
+	public ThingMLModelLoader(boolean cache) {
+		this(cache ? DEFAULT_CAPACITY : 0);
+	}
+
+	/**
+	 * @param capacity number of files (with their imports) kept in the cache, 0 to disable caching
+	 */
+	public ThingMLModelLoader(final int capacity) {
+		this.capacity = capacity;
+		this.models = new LinkedHashMap<String, CachedModel>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedModel> eldest) {
+				return size() > capacity;
+			}
+		};
+		this.libraries = new LinkedHashMap<URI, CachedLibrary>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<URI, CachedLibrary> eldest) {
+				return size() > capacity;
+			}
+		};
+		for (int i = 0; i < locks.length; i++)
+			locks[i] = new Object();
+	}
+
+	public LoadResult load(File file) {
+		return load(file, Logger.SYSTEM);
+	}
+
+	/**
+	 * Loads (or returns the cached version of) a ThingML file.
+	 * Diagnostics are reported to the logger on every call, even when the model comes from the cache.
+	 */
+	public LoadResult load(File file, Logger log) {
+		final String key = file.getAbsolutePath();
+		if (capacity <= 0)
+			return doLoad(file, log).result;
+
+		// Loads of the same file wait for each other, loads of most other files do not
+		synchronized (locks[(key.hashCode() & 0x7fffffff) % locks.length]) {
+			final CachedModel cached;
+			synchronized (models) {
+				cached = models.get(key);
+			}
+			if (cached != null && isUpToDate(cached)) {
+				report(cached.result, log);
+				return cached.result;
+			}
+			final CachedModel loaded = doLoad(file, log);
+			synchronized (models) {
+				models.put(key, loaded);
+			}
+			return loaded.result;
+		}
+	}
+
+	/**
+	 * Forgets all cached models and libraries.
+	 */
+	public void clear() {
+		synchronized (models) {
+			models.clear();
+		}
+		synchronized (libraries) {
+			libraries.clear();
+		}
+	}
+
+	private CachedModel doLoad(File file, Logger log) {
+		final List<String> errors = new ArrayList<String>();
+		final List<String> warnings = new ArrayList<String>();
+		final XtextResourceSet rs = getInjector().getInstance(XtextResourceSet.class);
+		final LibraryMap libraryMap = capacity > 0 ? new LibraryMap() : null;
+		if (libraryMap != null)
+			rs.setURIResourceMap(libraryMap);
+		final XtextResource resource = (XtextResource) rs.createResource(URI.createFileURI(file.getAbsolutePath()));
+		ThingMLModel model = null;
+		// Stamps and warnings of the imported files, whether they were parsed by this load or reused
+		final Map<URI, long[]> importStamps = new HashMap<URI, long[]>();
+		final Map<URI, List<String>> importWarnings = new LinkedHashMap<URI, List<String>>();
+		try {
+			resource.load(null);
+			EcoreUtil.resolveAll(resource);
+			collectDiagnostics(resource, errors, warnings);
+			for (Resource r : rs.getResources()) {
+				if (r == resource) continue;
+				final List<String> libraryWarnings = new ArrayList<String>();
+				collectDiagnostics(r, errors, libraryWarnings);
+				importWarnings.put(r.getURI(), libraryWarnings);
+				stamp(r, importStamps);
+			}
+			if (libraryMap != null) {
+				for (CachedLibrary library : libraryMap.used.values()) {
+					importStamps.putAll(library.stamps);
+					importWarnings.putAll(library.warnings);
+				}
+			}
+			for (Map.Entry<URI, List<String>> e : importWarnings.entrySet()) {
+				warnings.addAll(e.getValue());
+			}
+			if (errors.isEmpty())
+				model = (ThingMLModel) resource.getContents().get(0);
+		} catch (Exception e) {
+			log.error("Error loading ThingML model", e);
+			errors.add("Error loading ThingML model " + file.getAbsolutePath() + ": " + e.getMessage());
+		}
+
+		// Share the files parsed by this load with the next ones, once resolved (they are only read afterwards)
+		if (libraryMap != null && errors.isEmpty()) {
+			for (Resource r : rs.getResources()) {
+				if (r == resource || r.getURI() == null) continue;
+				EcoreUtil.resolveAll(r);
+				synchronized (libraries) {
+					libraries.put(r.getURI(), new CachedLibrary(r, importStamps, importWarnings));
+				}
+			}
+		}
+
+		final LoadResult result = new LoadResult(file, model, resource, errors, warnings);
+		report(result, log);
+		final Map<URI, long[]> stamps = new HashMap<URI, long[]>(importStamps);
+		stamp(resource, stamps);
+		return new CachedModel(result, stamps);
+	}
+
+	private static void stamp(Resource r, Map<URI, long[]> stamps) {
+		final URI uri = r.getURI();
+		if (uri != null && uri.isFile()) {
+			final File f = new File(uri.toFileString());
+			stamps.put(uri, new long[]{f.lastModified(), f.length()});
+		}
+	}
+
+	private static boolean isUpToDate(CachedModel cached) {
+		// The model has been moved to another resource (e.g. saved elsewhere), it is not the one from the file anymore
+		if (cached.result.model != null && cached.result.model.eResource() != cached.result.resource)
+			return false;
+		return isUpToDate(cached.stamps);
+	}
+
+	private static boolean isUpToDate(Map<URI, long[]> stamps) {
+		for (Map.Entry<URI, long[]> e : stamps.entrySet()) {
+			final File f = new File(e.getKey().toFileString());
+			if (f.lastModified() != e.getValue()[0] || f.length() != e.getValue()[1])
+				return false;
+		}
+		return true;
+	}
+
+	private static void collectDiagnostics(Resource model, List<String> errors, List<String> warnings) {
+		for (Resource.Diagnostic d : model.getErrors()) {
+			errors.add("Error in file  " + location(model, d) + " (" + d.getLine() + ", " + d.getColumn() + "): " + d.getMessage());
+		}
+		for (Resource.Diagnostic d : model.getWarnings()) {
+			warnings.add("Warning in file  " + location(model, d) + " (" + d.getLine() + ", " + d.getColumn() + "): " + d.getMessage());
+		}
+	}
+
+	private static String location(Resource model, Resource.Diagnostic d) {
+		String location = d.getLocation();
+		if (location == null) {
+			location = model.getURI().toFileString();
+		}
+		return location;
+	}
+
+	private static void report(LoadResult result, Logger log) {
+		log.info("Checking for EMF errors and warnings");
+		if (!result.errors.isEmpty()) {
+			log.error("ERROR: The input model contains " + result.errors.size() + " errors.");
+			for (String error : result.errors)
+				log.error(error);
+		}
+		if (!result.warnings.isEmpty()) {
+			log.warning("WARNING: The input model contains " + result.warnings.size() + " warnings.");
+			for (String warning : result.warnings)
+				log.warning(warning);
+		}
+	}
+}
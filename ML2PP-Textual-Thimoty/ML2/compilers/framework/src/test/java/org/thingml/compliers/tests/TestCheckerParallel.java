@@ -0,0 +1,80 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.compliers.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.xtext.validation.Issue;
+import org.junit.Test;
+import org.thingml.compilers.ThingMLCompiler;
+import org.thingml.utilities.logging.Logger;
+import org.thingml.xtext.thingML.Configuration;
+import org.thingml.xtext.thingML.ThingMLModel;
+import org.thingml.xtext.validation.Checker;
+
+public class TestCheckerParallel {
+
+	@Test
+	public void test() {
+		// Each check runs on a freshly loaded model, with imports which are not looked up yet
+		final List<String> parallelModel = checkModel(true);
+		final List<String> sequentialModel = checkModel(false);
+		assertFalse("Model has warnings", sequentialModel.isEmpty());
+		assertEquals("Parallel and sequential checks of the model find the same issues", sequentialModel, parallelModel);
+		
+		final List<String> parallelConfiguration = checkConfiguration(true);
+		final List<String> sequentialConfiguration = checkConfiguration(false);
+		assertFalse("Configuration has warnings", sequentialConfiguration.isEmpty());
+		assertEquals("Parallel and sequential checks of the configuration find the same issues", sequentialConfiguration, parallelConfiguration);
+	}
+	
+	private ThingMLModel load() {
+		final File file = new File(this.getClass().getResource("/CheckerModel.thingml").getFile());
+		final ThingMLModel model = ThingMLCompiler.loadModel(file, Logger.NULL);
+		assertFalse("Loaded model is not null", model == null);
+		return model;
+	}
+	
+	private List<String> checkModel(boolean parallel) {
+		final Checker checker = new Checker();
+		checker.setParallel(parallel);
+		checker.validateModel(load());
+		return issues(checker);
+	}
+	
+	private List<String> checkConfiguration(boolean parallel) {
+		final Configuration cfg = load().getConfigs().get(0);
+		final Checker checker = new Checker();
+		checker.setParallel(parallel);
+		checker.validateConfiguration(cfg);
+		return issues(checker);
+	}
+	
+	private static List<String> issues(Checker checker) {
+		final List<String> result = new ArrayList<String>();
+		for (Issue i : checker.getErrors())
+			result.add("ERROR " + i.getLineNumber() + " " + i.getMessage());
+		for (Issue i : checker.getWarnings())
+			result.add("WARNING " + i.getLineNumber() + " " + i.getMessage());
+		return result;
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.compliers.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.thingml.compilers.Context;
+import org.thingml.compilers.ThingMLCompiler;
+import org.thingml.utilities.logging.Logger;
+import org.thingml.xtext.thingML.Configuration;
+
+public class TestIncrementalOutput {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static class DummyCompiler extends ThingMLCompiler {
+		@Override
+		public ThingMLCompiler clone() { return new DummyCompiler(); }
+		@Override
+		public String getID() { return "dummy"; }
+		@Override
+		public String getName() { return "Dummy"; }
+		@Override
+		public String getDescription() { return "Dummy"; }
+		@Override
+		public boolean compile(Configuration cfg, Logger log, String... options) { return true; }
+	}
+
+	private Context compile(File out, String... files) {
+		final Context ctx = new Context(new DummyCompiler());
+		ctx.setOutputDirectory(out);
+		for (int i = 0; i < files.length; i += 2)
+			ctx.getBuilder(files[i]).append(files[i + 1]);
+		ctx.writeGeneratedCodeToFiles();
+		return ctx;
+	}
+
+	@Test
+	public void test() throws Exception {
+		final File out = folder.newFolder("out");
+		compile(out, "/src/a/A.java", "class A {}", "src/b/B.java", "class B {}", "Makefile", "all:");
+		final File a = new File(out, "src/a/A.java");
+		final File makefile = new File(out, "Makefile");
+		assertTrue("Generated file is written", a.isFile());
+		a.setLastModified(1000);
+		makefile.setLastModified(1000);
+
+		compile(out, "src/a/A.java", "class A {}", "Makefile", "all: a");
+		assertEquals("Unchanged file is not rewritten", 1000, a.lastModified());
+		assertEquals("Changed file is rewritten", "all: a", new String(Files.readAllBytes(makefile.toPath()), StandardCharsets.UTF_8));
+		assertFalse("Stale file is deleted", new File(out, "src/b/B.java").exists());
+		assertFalse("Directory left empty is deleted", new File(out, "src/b").exists());
+
+		new File(out, "user.txt").createNewFile();
+		compile(out, "src/a/A.java", "class A {}");
+		assertTrue("Files not generated by the compiler are kept", new File(out, "user.txt").exists());
+		assertFalse("Stale file is deleted", makefile.exists());
+	}
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.compliers.tests;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.eclipse.emf.ecore.resource.Resource;
+import org.junit.Test;
+import org.thingml.compilers.utils.ThingMLModelLoader;
+import org.thingml.compilers.utils.ThingMLModelLoader.LoadResult;
+import org.thingml.utilities.logging.Logger;
+import org.thingml.xtext.constraints.ThingMLHelpers;
+import org.thingml.xtext.thingML.ThingMLModel;
+
+public class TestModelLoaderCache extends LoadModelTestsCommon {
+
+	@Test
+	public void test() {
+		// Get the .thingml file from resources
+		File test = new File(this.getClass().getResource("/SimpleIncludeModel.thingml").getFile());
+		
+		// Load the model twice with a caching loader
+		ThingMLModelLoader loader = new ThingMLModelLoader(true);
+		LoadResult first = loader.load(test, Logger.NULL);
+		assertFalse("Loaded model is not null", first.model == null);
+		assertFalse("Loaded model has no errors", first.hasErrors());
+		LoadResult second = loader.load(test, Logger.NULL);
+		assertTrue("Unchanged model is loaded from the cache", first.model == second.model);
+		checkSimpleIncludeModel(second.model);
+		
+		// A non-caching loader parses the file again
+		LoadResult fresh = new ThingMLModelLoader(false).load(test, Logger.NULL);
+		assertTrue("Non-caching loader returns a new model", fresh.model != first.model);
+		checkSimpleIncludeModel(fresh.model);
+		
+		// Clearing the cache forces a new load
+		loader.clear();
+		LoadResult third = loader.load(test, Logger.NULL);
+		assertTrue("Cleared cache returns a new model", third.model != first.model);
+		
+		// The default loader does not cache
+		LoadResult defaultFirst = ThingMLModelLoader.getDefault().load(test, Logger.NULL);
+		LoadResult defaultSecond = ThingMLModelLoader.getDefault().load(test, Logger.NULL);
+		assertTrue("Default loader returns a new model on each call", defaultFirst.model != defaultSecond.model);
+		
+		// Least recently used files are evicted
+		File other = new File(this.getClass().getResource("/SimpleFlatModel.thingml").getFile());
+		ThingMLModelLoader small = new ThingMLModelLoader(1);
+		LoadResult kept = small.load(test, Logger.NULL);
+		assertTrue("Cached model is returned", small.load(test, Logger.NULL).model == kept.model);
+		small.load(other, Logger.NULL);
+		assertTrue("Evicted model is loaded again", small.load(test, Logger.NULL).model != kept.model);
+	}
+
+	private static Resource datatypesResource(ThingMLModel model) {
+		for (ThingMLModel m : ThingMLHelpers.allThingMLModelModels(model)) {
+			if (m.eResource().getURI().toString().endsWith("SimpleIncludeModelDatatypes.thingml"))
+				return m.eResource();
+		}
+		fail("Model imports SimpleIncludeModelDatatypes.thingml");
+		return null;
+	}
+
+	@Test
+	public void testSharedLibraries() {
+		File messages = new File(this.getClass().getResource("/SimpleIncludeModelMessages.thingml").getFile());
+		File test = new File(this.getClass().getResource("/SimpleIncludeModel.thingml").getFile());
+		File datatypes = new File(this.getClass().getResource("/SimpleIncludeModelDatatypes.thingml").getFile());
+
+		// Both files import the datatypes, which are only parsed once
+		ThingMLModelLoader loader = new ThingMLModelLoader(true);
+		LoadResult first = loader.load(messages, Logger.NULL);
+		assertFalse("Loaded model has no errors", first.hasErrors());
+		LoadResult second = loader.load(test, Logger.NULL);
+		assertFalse("Loaded model has no errors", second.hasErrors());
+		checkSimpleIncludeModel(second.model);
+		Resource library = datatypesResource(first.model);
+		assertTrue("Imported file is shared between loads", datatypesResource(second.model) == library);
+
+		// Non-caching loaders parse the imported files again
+		LoadResult fresh = new ThingMLModelLoader(false).load(test, Logger.NULL);
+		assertTrue("Non-caching loader parses the imported files", datatypesResource(fresh.model) != library);
+
+		// A changed imported file is parsed again, as well as the files importing it
+		assertTrue(datatypes.setLastModified(datatypes.lastModified() + 2000));
+		LoadResult third = loader.load(test, Logger.NULL);
+		assertTrue("Model importing a changed file is loaded again", third.model != second.model);
+		assertTrue("Changed imported file is parsed again", datatypesResource(third.model) != library);
+		checkSimpleIncludeModel(third.model);
+	}
+
+}
@@ -16,9 +16,6 @@
  */
 package compilers.go;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -60,6 +57,7 @@ public class GoContext extends Context {
                         "interface","map","package","range","return",
                         "select","struct","switch","type","var");
 		this.logger = log;
+		setLog(log);
 	}
 
 
@@ -75,20 +73,11 @@ public class GoContext extends Context {
 
 	@Override
 	public void writeGeneratedCodeToFiles() {
-		super.writeGeneratedCodeToFiles();
-		try {
-			for (Entry<String, GoSourceBuilder> generatedFile : generatedFiles.entrySet()) {
-				File outFile = new File(this.getOutputDirectory(), generatedFile.getKey());
-				File outDir = outFile.getParentFile();
-				if (outDir != null) outDir.mkdirs();
-				FileWriter writer = new FileWriter(outFile);
-				generatedFile.getValue().write(writer);
-				writer.close();
-			}
-		} catch (IOException e) {
-			System.err.println("Problem while dumping the code");
-            e.printStackTrace();
+		//Written first, so that they are outputs of this compilation when the stale files are deleted
+		for (Entry<String, GoSourceBuilder> generatedFile : generatedFiles.entrySet()) {
+			writeTextFile(generatedFile.getKey(), generatedFile.getValue()::write);
 		}
+		super.writeGeneratedCodeToFiles();
 	}
 
 	public Logger Logger() {
@@ -44,18 +44,16 @@ import org.thingml.xtext.thingML.Type;
  */
 public class JavaCfgMainGenerator extends CfgMainGenerator {
 	
-	private static String generateInitialValue(Configuration cfg, Instance i, Property p, Expression e, Context ctx) {
-        StringBuilder tempbuilder = new StringBuilder();
+	private static void generateInitialValue(Configuration cfg, Instance i, Property p, Expression e, Context ctx, StringBuilder builder) {
         if (e == null) {
-        	tempbuilder.append("(" + JavaHelper.getJavaType(p.getTypeRef().getType(), false, ctx) + ")"); //we should explicitly cast default value, as e.g. 0 is interpreted as an int, causing some lossy conversion error when it should be assigned to a short
-        	tempbuilder.append(JavaHelper.getDefaultValue(p.getTypeRef().getType()));
+        	builder.append("(" + JavaHelper.getJavaType(p.getTypeRef().getType(), false, ctx) + ")"); //we should explicitly cast default value, as e.g. 0 is interpreted as an int, causing some lossy conversion error when it should be assigned to a short
+        	builder.append(JavaHelper.getDefaultValue(p.getTypeRef().getType()));
         } else {
-            tempbuilder.append("(" + JavaHelper.getJavaType(p.getTypeRef().getType(), false, ctx) + ") ");
-            tempbuilder.append("(");
-            ctx.generateFixedAtInitValue(cfg, i, e, tempbuilder);
-            tempbuilder.append(")");
+            builder.append("(" + JavaHelper.getJavaType(p.getTypeRef().getType(), false, ctx) + ") ");
+            builder.append("(");
+            ctx.generateFixedAtInitValue(cfg, i, e, builder);
+            builder.append(")");
         }
-        return tempbuilder.toString();
 	}
 	
 	
@@ -69,6 +67,8 @@ public class JavaCfgMainGenerator extends CfgMainGenerator {
                 builder.append(ctx.getInstanceName(i) + ".buildBehavior(null, null);\n");
                 builder.append(ctx.getInstanceName(i) + ".init();\n");
             }
+            if (ctx.isStructuredTrace())
+                builder.append("ThingMLTrace.label(" + ctx.getInstanceName(i) + ", \"" + ctx.getInstanceName(i) + "\");\n");
         }
 
         builder.append("//Connecting internal ports...\n");
@@ -93,7 +93,7 @@ public class JavaCfgMainGenerator extends CfgMainGenerator {
         }
         
         for (Instance i : ConfigurationHelper.allInstances(cfg)) {
-        	ctx.currentInstance = i;
+        	ctx.setCurrentInstance(i);
             for (Property a : ConfigurationHelper.allArrays(cfg, i)) {
                 builder.append("final " + JavaHelper.getJavaType(a.getTypeRef().getType(), true, ctx) + " " + i.getName() + "_" + a.getName() + "_array = new " + JavaHelper.getJavaType(a.getTypeRef().getType(), false, ctx) + "[");
                 ctx.generateFixedAtInitValue(cfg, i, a.getTypeRef().getCardinality(), builder);
@@ -102,16 +102,11 @@ public class JavaCfgMainGenerator extends CfgMainGenerator {
 
             for (Map.Entry<Property, List<AbstractMap.SimpleImmutableEntry<Expression, Expression>>> entry : ConfigurationHelper.initExpressionsForInstanceArrays(cfg, i).entrySet()) {
                 for (AbstractMap.SimpleImmutableEntry<Expression, Expression> e : entry.getValue()) {
-                    String result = "";
-                    StringBuilder tempBuilder = new StringBuilder();
-                    result += i.getName() + "_" + entry.getKey().getName() + "_array [";
-                    ctx.getCompiler().getThingActionCompiler().generate(e.getKey(), tempBuilder, ctx);
-                    result += tempBuilder.toString();
-                    result += "] = ";
-                    tempBuilder = new StringBuilder();
-                    ctx.getCompiler().getThingActionCompiler().generate(e.getValue(), tempBuilder, ctx);
-                    result += tempBuilder.toString() + ";\n";
-                    builder.append(result);
+                    builder.append(i.getName() + "_" + entry.getKey().getName() + "_array [");
+                    ctx.getCompiler().getThingActionCompiler().generate(e.getKey(), builder, ctx);
+                    builder.append("] = ");
+                    ctx.getCompiler().getThingActionCompiler().generate(e.getValue(), builder, ctx);
+                    builder.append(";\n");
                 }
             }
         	
@@ -125,7 +120,7 @@ public class JavaCfgMainGenerator extends CfgMainGenerator {
             	for(Property p : props) {
             		if (p.getTypeRef().getCardinality() == null) {
             			builder.append(ctx.getInstanceName(i) + ".init" + ctx.firstToUpper(ctx.getVariableName(p)) + "(");
-            			builder.append(generateInitialValue(cfg, i, p, ConfigurationHelper.initExpression(cfg, i, p), ctx));
+            			generateInitialValue(cfg, i, p, ConfigurationHelper.initExpression(cfg, i, p), ctx, builder);
             			builder.append(");\n");
             		}
             	}
@@ -139,7 +134,7 @@ public class JavaCfgMainGenerator extends CfgMainGenerator {
         		builder.append(");\n");
         	}
         }
-        ctx.currentInstance = null;
+        ctx.setCurrentInstance(null);
     }
 
     @Override
@@ -196,6 +191,16 @@ public class JavaCfgMainGenerator extends CfgMainGenerator {
         }
 
         builder.append("public static void main(String args[]) {\n");
+        if (ctx.isStructuredTrace()) {
+            builder.append("ThingMLTrace.names(new String[] {");
+            boolean first = true;
+            for (String name : ctx.getTraceNames()) {
+                if (!first) builder.append(", ");
+                builder.append("\"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+                first = false;
+            }
+            builder.append("});\n");
+        }
         generateInstances(cfg, ctx, builder);
         
         builder.append("//Network components for external connectors\n");
@@ -224,10 +229,18 @@ public class JavaCfgMainGenerator extends CfgMainGenerator {
             builder.append(ctx.getInstanceName(inst) + ".stop();\n");
         }
         builder.append("/*$STOP$*/\n");
+        if (ctx.isStructuredTrace())
+            builder.append("ThingMLTrace.export();\n");
         builder.append("}\n");
         builder.append("});\n\n");
 
         builder.append("}\n");
         builder.append("}\n");
+
+        if (ctx.isStructuredTrace()) {
+            final String trace = ctx.getTemplateByID("javatemplates/ThingMLTrace.java");
+            if (trace != null)
+                ctx.getBuilder(src + "/ThingMLTrace.java").append(trace.replace("/*$PACKAGE$*/", pack));
+        }
     }
 }
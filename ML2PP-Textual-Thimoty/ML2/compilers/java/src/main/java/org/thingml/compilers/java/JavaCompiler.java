@@ -25,7 +25,6 @@ import org.thingml.utilities.logging.Logger;
 import org.thingml.xtext.constraints.ThingMLHelpers;
 import org.thingml.xtext.helpers.ConfigurationHelper;
 import org.thingml.xtext.thingML.Configuration;
-import org.thingml.xtext.thingML.Thing;
 
 /**
  * Created by ffl on 25.11.14.
@@ -69,7 +68,8 @@ public class JavaCompiler extends OpaqueThingMLCompiler {
 
     @Override
     public boolean do_call_compiler(Configuration cfg, Logger log, String... options) {
-        Context ctx = new Context(this, "match", "requires", "type", "abstract", "do", "finally", "import", "object", "throw", "case", "else", "for", "lazy", "override", "return", "trait", "catch", "extends", "forSome", "match", "package", "sealed", "try", "while", "class", "false", "if", "new", "private", "super", "true", "final", "null", "protected", "this", "_", ":", "=", "=>", "<-", "<:", "<%", ">:", "#", "@");
+        Context ctx = new JavaContext(this, "match", "requires", "type", "abstract", "do", "finally", "import", "object", "throw", "case", "else", "for", "lazy", "override", "return", "trait", "catch", "extends", "forSome", "match", "package", "sealed", "try", "while", "class", "false", "if", "new", "private", "super", "true", "final", "null", "protected", "this", "_", ":", "=", "=>", "<-", "<:", "<%", ">:", "#", "@");
+        ctx.setLog(log);
         ctx.addContextAnnotation("thisRef", "");
         String pack = "org.thingml.generated";
         boolean doingTests = false;
@@ -89,10 +89,12 @@ public class JavaCompiler extends OpaqueThingMLCompiler {
         else new File(tmpFolder).deleteOnExit();
         ctx.addContextAnnotation("package", pack);
         ctx.setCurrentConfiguration(cfg);
-        for (Thing th : ConfigurationHelper.allThings(cfg)) {
+        //Message types are shared by the things: they are generated first, then each thing has its own files and they can be generated in parallel
+        ((JavaThingImplCompiler) ctx.getCompiler().getThingImplCompiler()).generateMessages(ConfigurationHelper.allThings(cfg), ctx);
+        ctx.forEachInParallel(ConfigurationHelper.allThings(cfg), th -> {
             ctx.getCompiler().getThingApiCompiler().generatePublicAPI(th, ctx);
             ctx.getCompiler().getThingImplCompiler().generateImplementation(th, ctx);
-        }
+        });
         ctx.getCompiler().getMainCompiler().generateMainAndInit(cfg, ThingMLHelpers.findContainingModel(cfg), ctx);
 
         //GENERATE A DOCKERFILE IF ASKED
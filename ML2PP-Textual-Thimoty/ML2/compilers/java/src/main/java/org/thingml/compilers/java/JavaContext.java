@@ -0,0 +1,36 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.compilers.java;
+
+import org.thingml.compilers.Context;
+import org.thingml.compilers.ThingMLCompiler;
+
+/**
+ * Context of the Java compiler, recording structured traces with the ThingMLTrace runtime class.
+ */
+public class JavaContext extends Context {
+
+    public JavaContext(ThingMLCompiler compiler, String... keywords) {
+        super(compiler, keywords);
+    }
+
+    @Override
+    protected String traceCall(int kind, int thing, int element, int port, int message) {
+        return "ThingMLTrace.record(this, " + kind + ", " + thing + ", " + element + ", " + port + ", " + message + ");\n";
+    }
+
+}
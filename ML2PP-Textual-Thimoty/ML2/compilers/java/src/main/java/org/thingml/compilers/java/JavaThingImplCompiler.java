@@ -16,7 +16,9 @@
  */
 package org.thingml.compilers.java;
 
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import org.thingml.compilers.Context;
@@ -49,6 +51,17 @@ import org.thingml.xtext.thingML.Transition;
  */
 public class JavaThingImplCompiler extends FSMBasedThingImplCompiler {
 
+	/**
+	 * Generates the message types used by the things. Things share them, so they are generated once, before the things.
+	 */
+	public void generateMessages(Collection<Thing> things, Context ctx) {
+		final Set<Message> messages = new LinkedHashSet<Message>();
+		for (Thing thing : things)
+			messages.addAll(ThingMLHelpers.allMessages(thing));
+		for (Message m : messages)
+			generateMessages(m, ctx);
+	}
+
 	public void generateMessages(Message m, Context ctx) {
 		String pack = ctx.getContextAnnotation("package");
 		if (pack == null)
@@ -165,10 +178,27 @@ public class JavaThingImplCompiler extends FSMBasedThingImplCompiler {
 		builder.append(returnType + " " + f.getName() + "(");
 		JavaHelper.generateParameter(f, builder, ctx);
 		builder.append(") {\n");
+		final String begin = structuredTrace(ctx, ctx.traceFunctionBegin(thing, f));
+		if (begin != null) {
+			builder.append(begin);
+			builder.append("try {\n");
+		}
 		ctx.getCompiler().getThingActionCompiler().generate(f.getBody(), builder, ctx);
+		if (begin != null) {
+			builder.append("} finally {\n");
+			builder.append(structuredTrace(ctx, ctx.traceFunctionDone(thing, f)));
+			builder.append("}\n");
+		}
 		builder.append("}\n");
 	}
 
+	/**
+	 * @return the structured trace code, or null when the configuration is not traced
+	 */
+	private static String structuredTrace(Context ctx, String code) {
+		return ctx.isStructuredTrace() ? code : null;
+	}
+
 	@Override
 	public void generateImplementation(Thing thing, Context ctx) {
 		String pack = ctx.getContextAnnotation("package");
@@ -255,6 +285,9 @@ public class JavaThingImplCompiler extends FSMBasedThingImplCompiler {
 					builder.append("public synchronized void " + m.getName() + "_via_" + p.getName() + "(");
 					JavaHelper.generateParameter(m, builder, ctx);
 					builder.append("){\n");
+					final String trace = structuredTrace(ctx, ctx.traceReceiveMessage(thing, p, m));
+					if (trace != null)
+						builder.append(trace);
 					builder.append("final Event _msg = " + m.getName() + "Type.instantiate(");
 					for (Parameter pa : m.getParameters()) {
 						if (m.getParameters().indexOf(pa) > 0)
@@ -274,6 +307,9 @@ public class JavaThingImplCompiler extends FSMBasedThingImplCompiler {
 				builder.append("private void send" + ctx.firstToUpper(m.getName()) + "_via_" + p.getName() + "(");
 				JavaHelper.generateParameter(m, builder, ctx);
 				builder.append("){\n");
+				final String trace = structuredTrace(ctx, ctx.traceSendMessage(thing, p, m));
+				if (trace != null)
+					builder.append(trace);
 				builder.append(p.getName() + "_port.send(" + m.getName() + "Type.instantiate(");
 				for (Parameter pa : m.getParameters()) {
 					if (m.getParameters().indexOf(pa) > 0)
@@ -324,7 +360,6 @@ public class JavaThingImplCompiler extends FSMBasedThingImplCompiler {
 		for (Message m : ThingMLHelpers.allMessages(thing)) {
 			builder.append("protected final " + ctx.firstToUpper(m.getName()) + "MessageType " + m.getName()
 					+ "Type = new " + ctx.firstToUpper(m.getName()) + "MessageType();\n");
-			generateMessages(m, ctx);
 		}
 
 		builder.append("//Empty Constructor\n");
@@ -373,6 +408,9 @@ public class JavaThingImplCompiler extends FSMBasedThingImplCompiler {
 		}
 		builder.append("}\n");
 		builder.append("if (session == null){\n");
+		final String trace = structuredTrace(ctx, ctx.traceInit(thing));
+		if (trace != null)
+			builder.append(trace);
 		builder.append("//Init state machine\n");
 		for (CompositeState b : ThingMLHelpers.allStateMachines(thing)) {
 			builder.append("behavior = build" + ThingMLElementHelper.qname(b, "_") + "();\n");
@@ -434,6 +472,10 @@ public class JavaThingImplCompiler extends FSMBasedThingImplCompiler {
 			boolean resetProperties = false;
 			resetProperties = !cs.isHistory();
 			generateEntry = generateEntry || resetProperties;
+			final Thing thing = ThingMLHelpers.findContainingThing(cs);
+			final String traceEntry = structuredTrace(ctx, (c.eContainer() instanceof Thing) ? ctx.traceOnEntry(thing, cs) : ctx.traceOnEntry(thing, c, cs));
+			final String traceExit = structuredTrace(ctx, ctx.traceOnExit(thing, c, cs));
+			generateEntry = generateEntry || traceEntry != null;
 			
 			for (Region r : cs.getRegion()) {
 				builder.append(state_name + ".add(build" + ThingMLElementHelper.qname(r, "_") + "());\n");
@@ -441,6 +483,8 @@ public class JavaThingImplCompiler extends FSMBasedThingImplCompiler {
 
 			if (generateEntry) {
 				builder.append(state_name + ".onEntry(()->{\n");
+				if (traceEntry != null)
+					builder.append(traceEntry);
 				if (resetProperties) {
 					if (!cs.getProperties().isEmpty())
 						builder.append("//reset properties\n");
@@ -463,10 +507,12 @@ public class JavaThingImplCompiler extends FSMBasedThingImplCompiler {
 				builder.append("});\n");
 			}
 
-			if (cs.getExit() != null) {
+			if (cs.getExit() != null || traceExit != null) {
 				builder.append(state_name + ".onExit(()->{\n");
 				if (cs.getExit() != null)
 					ctx.getCompiler().getThingActionCompiler().generate(cs.getExit(), builder, ctx);
+				if (traceExit != null)
+					builder.append(traceExit);
 				builder.append("});\n\n");
 			}
 
@@ -500,9 +546,14 @@ public class JavaThingImplCompiler extends FSMBasedThingImplCompiler {
 			builder.append("final AtomicState " + state_name + " = new AtomicState(\"" + s.getName() + "\");\n");
 		}
 
-		if (s.getEntry() != null || s.getExit() != null || s instanceof FinalState) {
-			if (s.getEntry() != null || s instanceof FinalState) {
+		final Thing thing = ThingMLHelpers.findContainingThing(s);
+		final String traceEntry = structuredTrace(ctx, ctx.traceOnEntry(thing, (StateContainer) s.eContainer(), s));
+		final String traceExit = structuredTrace(ctx, ctx.traceOnExit(thing, (StateContainer) s.eContainer(), s));
+		if (s.getEntry() != null || s.getExit() != null || s instanceof FinalState || traceEntry != null) {
+			if (s.getEntry() != null || s instanceof FinalState || traceEntry != null) {
 				builder.append(state_name + ".onEntry(()->{\n");
+				if (traceEntry != null)
+					builder.append(traceEntry);
 				if (s.getEntry() != null)
 					ctx.getCompiler().getThingActionCompiler().generate(s.getEntry(), builder, ctx);
 				if (s instanceof FinalState) {
@@ -511,10 +562,12 @@ public class JavaThingImplCompiler extends FSMBasedThingImplCompiler {
 				}
 				builder.append("});\n");
 			}
-			if (s.getExit() != null) {
+			if (s.getExit() != null || traceExit != null) {
 				builder.append(state_name + ".onExit(()->{\n");
 				if (s.getExit() != null)
 					ctx.getCompiler().getThingActionCompiler().generate(s.getExit(), builder, ctx);
+				if (traceExit != null)
+					builder.append(traceExit);
 				builder.append("});\n\n");
 			}
 		}
@@ -606,15 +659,23 @@ public class JavaThingImplCompiler extends FSMBasedThingImplCompiler {
 			builder.append(handler_name + ".port(" + msg.getPort().getName() + "_port);\n");
 		}
 
-		if (i.getAction() != null) {
+		final Thing thing = ThingMLHelpers.findContainingThing(s);
+		final Port port = (msg != null) ? msg.getPort() : null;
+		final Message message = (msg != null) ? msg.getMessage() : null;
+		final String trace = structuredTrace(ctx, (i instanceof Transition) ? ctx.traceTransition(thing, (Transition) i, port, message)
+				: ctx.traceInternal(thing, (InternalTransition) i, port, message));
+		if (i.getAction() != null || trace != null) {
 			builder.append(handler_name + ".action((Event e)->{\n");
+			if (trace != null)
+				builder.append(trace);
 			if (msg != null && msg.getMessage().getParameters().size() > 0) {
 				builder.append("final " + ctx.firstToUpper(msg.getMessage().getName()) + "MessageType."
 						+ ctx.firstToUpper(msg.getMessage().getName()) + "Message " + msg.getMessage().getName()
 						+ " = (" + ctx.firstToUpper(msg.getMessage().getName()) + "MessageType."
 						+ ctx.firstToUpper(msg.getMessage().getName()) + "Message) e;\n");
 			}
-			ctx.getCompiler().getThingActionCompiler().generate(i.getAction(), builder, ctx);
+			if (i.getAction() != null)
+				ctx.getCompiler().getThingActionCompiler().generate(i.getAction(), builder, ctx);
 			builder.append("});\n\n");
 		}
 	}
@@ -0,0 +1,139 @@
+package /*$PACKAGE$*/;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Structured trace of the state machines (generated when the configuration is annotated with @structured_trace "true").
+ *
+ * Events are recorded into pre-allocated arrays used as a ring (the oldest events are overwritten), and exported
+ * on exit in the Chrome trace-event JSON format (chrome://tracing, https://ui.perfetto.dev) to the file given by
+ * the thingml.trace.file system property (thingml-trace.json by default).
+ * The ring holds thingml.trace.capacity events (rounded up to a power of 2, 262144 by default).
+ */
+public final class ThingMLTrace {
+
+	// Kinds of events, as in org.thingml.compilers.Context
+	static final int INIT = 0;
+	static final int ENTRY = 1;
+	static final int EXIT = 2;
+	static final int SEND = 3;
+	static final int RECEIVE = 4;
+	static final int TRANSITION = 5;
+	static final int INTERNAL = 6;
+	static final int FUNCTION_BEGIN = 7;
+	static final int FUNCTION_END = 8;
+
+	private static final String[] KINDS = {"init", "entry", "exit", "send", "receive", "transition", "internal", "function", "function"};
+
+	private static final int capacity = Integer.highestOneBit(Math.max(1, Integer.getInteger("thingml.trace.capacity", 1 << 18) - 1) << 1);
+	private static final int mask = capacity - 1;
+	private static final AtomicLong next = new AtomicLong();
+	private static final long[] times = new long[capacity];
+	private static final Object[] instances = new Object[capacity];
+	private static final int[] kinds = new int[capacity];
+	private static final int[] things = new int[capacity];
+	private static final int[] elements = new int[capacity];
+	private static final int[] ports = new int[capacity];
+	private static final int[] messages = new int[capacity];
+
+	private static String[] names = new String[0];
+	private static final Map<Object, String> labels = Collections.synchronizedMap(new IdentityHashMap<>());
+
+	private ThingMLTrace() {}
+
+	/**
+	 * Names of the traced elements, indexed by their id.
+	 */
+	public static void names(String[] names) {
+		ThingMLTrace.names = names;
+	}
+
+	/**
+	 * Name under which the events of instance are exported.
+	 */
+	public static void label(Object instance, String name) {
+		labels.put(instance, name);
+	}
+
+	public static void record(Object instance, int kind, int thing, int element, int port, int message) {
+		final int i = (int) (next.getAndIncrement() & mask);
+		times[i] = System.nanoTime();
+		instances[i] = instance;
+		kinds[i] = kind;
+		things[i] = thing;
+		elements[i] = element;
+		ports[i] = port;
+		messages[i] = message;
+	}
+
+	public static void export() {
+		final String file = System.getProperty("thingml.trace.file", "thingml-trace.json");
+		try (PrintWriter w = new PrintWriter(file, "UTF-8")) {
+			export(w);
+		} catch (IOException e) {
+			System.err.println("Cannot write trace to " + file);
+			e.printStackTrace();
+		}
+	}
+
+	public static synchronized void export(PrintWriter w) {
+		final long end = next.get();
+		final long start = Math.max(0, end - capacity);
+		final Map<Object, Integer> tids = new IdentityHashMap<>();
+		long t0 = Long.MAX_VALUE;
+		for (long n = start; n < end; n++) t0 = Math.min(t0, times[(int) (n & mask)]);
+		w.print("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+		boolean first = true;
+		for (long n = start; n < end; n++) {
+			final int i = (int) (n & mask);
+			if (instances[i] == null) continue;
+			Integer tid = tids.get(instances[i]);
+			if (tid == null) {
+				tid = tids.size() + 1;
+				tids.put(instances[i], tid);
+				if (!first) w.print(",");
+				String label = labels.get(instances[i]);
+				if (label == null) label = instances[i].getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(instances[i]));
+				w.print("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + tid + ",\"args\":{\"name\":" + quote(label) + "}}");
+				first = false;
+			}
+			final int kind = kinds[i];
+			String ph = "i";
+			if (kind == ENTRY || kind == FUNCTION_BEGIN) ph = "B";
+			else if (kind == EXIT || kind == FUNCTION_END) ph = "E";
+			String name = name(elements[i]);
+			if (name == null) name = (ports[i] >= 0) ? name(ports[i]) + (kind == SEND ? "!" : "?") + name(messages[i]) : name(things[i]);
+			if (!first) w.print(",");
+			w.print("\n{\"name\":" + quote(name) + ",\"cat\":\"" + KINDS[kind] + "\",\"ph\":\"" + ph + "\"");
+			if (ph.equals("i")) w.print(",\"s\":\"t\"");
+			w.print(",\"ts\":" + String.format(java.util.Locale.ROOT, "%.3f", (times[i] - t0) / 1000.0) + ",\"pid\":1,\"tid\":" + tid);
+			w.print(",\"args\":{\"thing\":" + quote(name(things[i])));
+			if (ports[i] >= 0) w.print(",\"port\":" + quote(name(ports[i])));
+			if (messages[i] >= 0) w.print(",\"message\":" + quote(name(messages[i])));
+			w.print("}}");
+			first = false;
+		}
+		w.print("\n]}\n");
+		w.flush();
+	}
+
+	private static String name(int id) {
+		return (id >= 0 && id < names.length) ? names[id] : (id >= 0 ? Integer.toString(id) : null);
+	}
+
+	private static String quote(String s) {
+		if (s == null) return "null";
+		final StringBuilder b = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			if (c == '"' || c == '\\') b.append('\\').append(c);
+			else if (c < 0x20) b.append(String.format("\\u%04x", (int) c));
+			else b.append(c);
+		}
+		return b.append('"').toString();
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.compilers.java.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.thingml.compilers.ThingMLCompiler;
+import org.thingml.compilers.java.JavaCompiler;
+import org.thingml.utilities.logging.Logger;
+import org.thingml.xtext.thingML.Configuration;
+import org.thingml.xtext.thingML.ThingMLModel;
+
+public class TestParallelGeneration {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// Each generation uses a model of its own, as compilers may modify it
+	private File generate(boolean deterministic) throws IOException {
+		final File file = new File(this.getClass().getResource("/ParallelModel.thingml").getFile());
+		final ThingMLModel model = ThingMLCompiler.loadModel(file, Logger.NULL);
+		assertFalse("Loaded model is not null", model == null);
+		final Configuration cfg = model.getConfigs().get(0);
+		final File out = folder.newFolder(deterministic ? "sequential" : "parallel");
+		final ThingMLCompiler compiler = new JavaCompiler();
+		compiler.setDeterministicOrder(deterministic);
+		compiler.setOutputDirectory(out);
+		assertTrue("Configuration is compiled", compiler.compile(cfg, Logger.NULL));
+		return out;
+	}
+
+	private static List<Path> files(File dir) throws IOException {
+		try (Stream<Path> walk = Files.walk(dir.toPath())) {
+			return walk.filter(Files::isRegularFile).map(p -> dir.toPath().relativize(p)).sorted().collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	public void test() throws Exception {
+		// The things share their message types, which are generated before the things
+		final File sequential = generate(true);
+		final File parallel = generate(false);
+
+		final List<Path> files = files(sequential);
+		assertTrue("Message types are generated", files.stream().anyMatch(p -> p.endsWith("PongMessageType.java")));
+		assertEquals("Parallel and sequential generation write the same files", files, files(parallel));
+		for (Path p : files)
+			assertArrayEquals("Parallel and sequential generation write the same " + p, Files.readAllBytes(sequential.toPath().resolve(p)), Files.readAllBytes(parallel.toPath().resolve(p)));
+	}
+
+}
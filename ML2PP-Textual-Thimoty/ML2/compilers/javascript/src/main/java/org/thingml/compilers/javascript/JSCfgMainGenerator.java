@@ -83,7 +83,7 @@ public class JSCfgMainGenerator extends CfgMainGenerator {
     					jctx.generateFixedAtInitValue(cfg, i, e, tempbuilder);
     				else
     					property.append(jctx.getDefaultValue(p.getTypeRef().getType()));
-    				property.append(tempbuilder.toString());
+    				property.appendSegment(tempbuilder);
     				property.append(";\n");
         		}
         	}
@@ -93,7 +93,7 @@ public class JSCfgMainGenerator extends CfgMainGenerator {
 	}
 
 	protected void generateInstance(Instance i, Configuration cfg, Section section, JSContext jctx) {
-    	jctx.currentInstance = i;
+    	jctx.setCurrentInstance(i);
 		Section instance = section.section("instance");
 		instance.append("const inst_")
 		        .append(i.getName())
@@ -131,7 +131,7 @@ public abstract class JSCompiler extends OpaqueThingMLCompiler {
 					else {
 						final StringBuilder temp = new java.lang.StringBuilder();
 						ctx.getCompiler().getThingActionCompiler().generate(l.getInit(), temp, ctx);
-						literal.append(temp.toString());
+						literal.appendSegment(temp);
 					}											
 					literal.append(",");
 				}
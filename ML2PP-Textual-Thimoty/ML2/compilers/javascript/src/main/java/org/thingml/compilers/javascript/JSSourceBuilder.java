@@ -237,8 +237,8 @@ public class JSSourceBuilder extends SourceBuilder {
 			super.prepare(builder);
 			
 			// Enable/disable lines according to whether there are any actions defined
-			boolean hasOnEntry = !this.onEntry.stringbuilder().toString().isEmpty();
-			boolean hasOnExit = !this.onExit.stringbuilder().toString().isEmpty();
+			boolean hasOnEntry = this.onEntry.stringbuilder().length() > 0;
+			boolean hasOnExit = this.onExit.stringbuilder().length() > 0;
 			
 			if (hasOnEntry) {
 				this.entryFirstLine.enable();
@@ -367,9 +367,9 @@ public class JSSourceBuilder extends SourceBuilder {
 			super.prepare(builder);
 			
 			boolean hasMessagePort = !this.messageName.isEmpty() && !this.messagePort.isEmpty();
-			boolean hasGuardExpression = !this.guardExpression.stringbuilder().toString().isEmpty();
+			boolean hasGuardExpression = this.guardExpression.stringbuilder().length() > 0;
 			boolean hasGuard = hasMessagePort || hasGuardExpression;
-			boolean hasAction = !this.action.stringbuilder().toString().isEmpty();
+			boolean hasAction = this.action.stringbuilder().length() > 0;
 			
 			if (hasGuard) {
 				this.guardFirstLine.enable();
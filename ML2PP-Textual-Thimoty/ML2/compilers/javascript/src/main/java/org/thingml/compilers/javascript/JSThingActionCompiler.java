@@ -219,7 +219,7 @@ public class JSThingActionCompiler extends CommonThingActionCompiler {
 			builder.append(ctx.getVariableName(expression.getProperty()));
 		} else if (expression.getProperty() instanceof Property) {
 			if (!ctx.getAtInitTimeLock()) {
-				if (ctx.currentInstance != null) {
+				if (ctx.getCurrentInstance() != null) {
 					Property p = (Property) expression.getProperty();
 					if (p.isReadonly()) {
 						boolean found = false;
@@ -227,7 +227,7 @@ public class JSThingActionCompiler extends CommonThingActionCompiler {
 							String tmp = ThingMLElementHelper.findContainingConfiguration(pa.getInstance()).getName()
 									+ "_" + pa.getInstance().getName();
 
-							if (ctx.currentInstance.getName().equals(tmp)) {
+							if (ctx.getCurrentInstance().getName().equals(tmp)) {
 								if (pa.getProperty().getName().equals(p.getName())) {
 									generate(pa.getInit(), builder, ctx);
 									found = true;
@@ -249,7 +249,7 @@ public class JSThingActionCompiler extends CommonThingActionCompiler {
 			} else {
 				Property p = (Property) expression.getProperty();
 				Expression e = ConfigurationHelper
-						.initExpressions(ctx.getCurrentConfiguration(), ctx.currentInstance, p).get(0);
+						.initExpressions(ctx.getCurrentConfiguration(), ctx.getCurrentInstance(), p).get(0);
 				generate(e, builder, ctx);
 			}
 		}
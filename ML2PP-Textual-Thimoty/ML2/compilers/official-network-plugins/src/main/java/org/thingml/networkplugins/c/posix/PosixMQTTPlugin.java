@@ -125,6 +125,16 @@ public class PosixMQTTPlugin extends NetworkPlugin {
             topicMap = new HashMap<>();
         }
 
+        /**QoS of the messages published through eco, the one of the protocol if not set on the connector*/
+        Integer qos(Protocol prot, ExternalConnector eco) {
+            String value = AnnotatedElementHelper.annotationOrElse(prot, "mqtt_qos", "1");
+            if (eco != null) value = AnnotatedElementHelper.annotationOrElse(eco, "mqtt_qos", value);
+            Integer qos = Integer.parseInt(value);
+            if (qos < 0) qos = 0;
+            if (qos > 2) qos = 2;
+            return qos;
+        }
+
         List<Integer> findPublishTopicIndices(Protocol prot, ExternalConnector eco) {
             Set<String> topics = new HashSet<>();
 
@@ -229,11 +239,25 @@ public class PosixMQTTPlugin extends NetworkPlugin {
                 ctemplate = ctemplate.replace("/*CLIENT_ID*/", clientId);
 
                 // Quality of Service
-                Integer qos = Integer.parseInt(AnnotatedElementHelper.annotationOrElse(protocol, "mqtt_qos", "1"));
-                if (qos < 0) qos = 0;
-                if (qos > 2) qos = 2;
+                Integer qos = qos(protocol, null);
                 ctemplate = ctemplate.replace("/*QOS*/", qos.toString());
 
+                // Outgoing backlog, in-flight window and coalescing
+                ctemplate = ctemplate.replace("/*QUEUE_SIZE*/", "" + Math.max(1, Integer.parseInt(AnnotatedElementHelper.annotationOrElse(protocol, "mqtt_queue_size", "1024"))));
+                ctemplate = ctemplate.replace("/*BATCH_SIZE*/", "" + Math.max(1, Integer.parseInt(AnnotatedElementHelper.annotationOrElse(protocol, "mqtt_batch_size", "1"))));
+                ctemplate = ctemplate.replace("/*BATCH_DELAY*/", "" + Math.max(0, Integer.parseInt(AnnotatedElementHelper.annotationOrElse(protocol, "mqtt_batch_delay", "0"))));
+                ctemplate = ctemplate.replace("/*MAX_INFLIGHT*/", "" + Math.max(0, Integer.parseInt(AnnotatedElementHelper.annotationOrElse(protocol, "mqtt_max_inflight", "20"))));
+                final boolean textFraming = sp.getSupportedFormat().contains("JSON") || sp.getSupportedFormat().contains("PlainTextDigit");
+                ctemplate = ctemplate.replace("/*TEXT_FRAMING*/", textFraming ? "1" : "0");
+
+                // Reconnection, the delays are in ms (like for the Java plugin) but mosquitto counts in seconds
+                int reconnectDelay = Integer.parseInt(AnnotatedElementHelper.annotationOrElse(protocol, "mqtt_reconnect_delay", "1000"));
+                int reconnectDelayMax = Integer.parseInt(AnnotatedElementHelper.annotationOrElse(protocol, "mqtt_reconnect_delay_max", "30000"));
+                reconnectDelay = Math.max(1, (reconnectDelay + 999) / 1000);
+                reconnectDelayMax = Math.max(reconnectDelay, (reconnectDelayMax + 999) / 1000);
+                ctemplate = ctemplate.replace("/*RECONNECT_DELAY*/", "" + reconnectDelay);
+                ctemplate = ctemplate.replace("/*RECONNECT_DELAY_MAX*/", "" + reconnectDelayMax);
+
                 // Will
                 String willString = AnnotatedElementHelper.annotationOrElse(protocol, "mqtt_will", "");
                 String willTopic = AnnotatedElementHelper.annotationOrElse(protocol, "mqtt_will_topic", "ThingML");
@@ -293,7 +317,9 @@ public class PosixMQTTPlugin extends NetworkPlugin {
                 ctx.addToInitCode(portName + "_instance.listener_id = add_instance(&" + portName + "_instance);");
                 ctx.addToInitCode(protocol.getName() + "_setup(&"+portName+"_instance);");
                 ctx.addToInitCode("pthread_t thread_"+protocol.getName()+";");
-                ctx.addToInitCode("pthread_create( &thread_"+protocol.getName()+", NULL, "+protocol.getName()+"_start_receiver_thread, NULL);\n");
+                ctx.addToInitCode("pthread_create( &thread_"+protocol.getName()+", NULL, "+protocol.getName()+"_start_receiver_thread, NULL);");
+                ctx.addToInitCode("pthread_t sender_thread_"+protocol.getName()+";");
+                ctx.addToInitCode("pthread_create( &sender_thread_"+protocol.getName()+", NULL, "+protocol.getName()+"_start_sender_thread, NULL);\n");
 
 
                 /* ----------- Append generated code file and to init in Configuration code ---------- */
@@ -325,7 +351,7 @@ public class PosixMQTTPlugin extends NetworkPlugin {
                     List<Integer> topicIndices = findPublishTopicIndices(prot, eco);
                     builder.append("\n    // Publish the serialized message\n");
                     for (Integer topicIndex : topicIndices) {
-                        builder.append("    " + prot.getName() + "_send_message(buffer, " + lengthVar + ", " + topicIndex + ");\n");
+                        builder.append("    " + prot.getName() + "_send_message(buffer, " + lengthVar + ", " + topicIndex + ", " + qos(prot, eco) + ");\n");
                     }
                     builder.append("}\n\n");
 
@@ -0,0 +1,259 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.thingml.networkplugins.c.posix;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.thingml.compilers.Context;
+import org.thingml.compilers.c.CCompilerContext;
+import org.thingml.compilers.c.posixmt.PosixMTCompilerContext;
+import org.thingml.compilers.spi.SerializationPlugin;
+import org.thingml.xtext.helpers.AnnotatedElementHelper;
+import org.thingml.xtext.thingML.ExternalConnector;
+import org.thingml.xtext.thingML.Message;
+import org.thingml.xtext.thingML.Parameter;
+
+/**
+ * Common code of the binary serializers encoding messages as {"message":{"parameter":value,...}},
+ * i.e. with the same structure as the JSON serializers (and as the Java MessagePack/CBOR serializers).
+ * The generated code only differs by the prefix of the functions of the header (shipped as a template)
+ * that writes and reads the actual format.
+ */
+public abstract class PosixSelfDescribingSerializerPlugin extends SerializationPlugin {
+    CCompilerContext cctx;
+    StringBuilder messagesparser = new StringBuilder();
+    Set<String> parsedMessages = new HashSet<>();
+
+    /**Prefix of the functions and types of the header*/
+    protected abstract String prefix();
+
+    /**Name of the header (and of its template)*/
+    protected abstract String header();
+
+    @Override
+    public void setContext(Context ctx) {
+        context = ctx;
+        cctx = (CCompilerContext) context;
+    }
+
+    @Override
+    public List<String> getTargetedLanguages() {
+        List<String> res = new java.util.ArrayList<>();
+        res.add("posix");
+        res.add("posixmt");
+        return res;
+    }
+
+    /**Copies the header to the generated code (once) and includes it in the main file*/
+    private String includeHeader() {
+        final StringBuilder h = cctx.getBuilder(header());
+        if (h.length() == 0) {
+            h.append(cctx.getTemplateByID("templates/" + header()));
+            cctx.addToIncludes("#include \"" + header() + "\"");
+        }
+        return "#include \"" + header() + "\"\n";
+    }
+
+    private enum Kind { INT, UINT, FLOAT, DOUBLE, BOOL, CHAR, NONE }
+
+    private Kind kind(Parameter p) {
+        switch (cctx.getCType(p.getTypeRef().getType())) {
+            case "int8_t":
+            case "int16_t":
+            case "int32_t":
+            case "int64_t":
+            case "signed char":
+            case "short":
+            case "int":
+            case "long":
+            case "long int":
+            case "long long":
+            case "time_t":
+                return Kind.INT;
+            case "byte":
+            case "uint8_t":
+            case "uint16_t":
+            case "uint32_t":
+            case "uint64_t":
+            case "unsigned char":
+            case "unsigned short":
+            case "unsigned int":
+            case "unsigned long":
+            case "unsigned long int":
+            case "unsigned long long":
+                return Kind.UINT;
+            case "float":
+                return Kind.FLOAT;
+            case "double":
+                return Kind.DOUBLE;
+            case "bool":
+            case "boolean":
+                return Kind.BOOL;
+            case "char":
+                return Kind.CHAR;
+            default:
+                return Kind.NONE;
+        }
+    }
+
+    private boolean isForwarded(Message m, Parameter p) {
+        return !AnnotatedElementHelper.isDefined(m, "do_not_forward", p.getName());
+    }
+
+    /**Upper bound of the size of a string (header + characters)*/
+    private int stringSize(String s) {
+        return 3 + s.length();
+    }
+
+    /* ---------- SERIALIZATION ----------*/
+    @Override
+    public String generateSerialization(StringBuilder builder, String bufferName, Message m, ExternalConnector eco) {
+        includeHeader();
+        final String len = bufferName + "_len";
+        int maxLength = 1 + stringSize(m.getName()) + 3;
+        int forwarded = 0;
+        for (Parameter p : m.getParameters()) {
+            if (isForwarded(m, p)) {
+                maxLength += stringSize(p.getName()) + 9;
+                forwarded++;
+            }
+        }
+
+        builder.append("    uint8_t " + bufferName + "[" + maxLength + "];\n");
+        builder.append("    uint16_t " + len + " = 0;\n");
+        builder.append("    " + len + " = " + prefix() + "_put_map(" + bufferName + ", " + len + ", 1);\n");
+        builder.append("    " + len + " = " + prefix() + "_put_str(" + bufferName + ", " + len + ", \"" + m.getName() + "\", " + m.getName().length() + ");\n");
+        builder.append("    " + len + " = " + prefix() + "_put_map(" + bufferName + ", " + len + ", " + forwarded + ");\n");
+        for (Parameter p : m.getParameters()) {
+            if (isForwarded(m, p)) {
+                builder.append("    // Parameter " + p.getName() + "\n");
+                builder.append("    " + len + " = " + prefix() + "_put_str(" + bufferName + ", " + len + ", \"" + p.getName() + "\", " + p.getName().length() + ");\n");
+                final String value = (p.getTypeRef().getCardinality() != null) ? null : p.getName();
+                String writer;
+                switch (value == null ? Kind.NONE : kind(p)) {
+                    case INT: writer = "_put_int(" + bufferName + ", " + len + ", " + value + ")"; break;
+                    case UINT: writer = "_put_uint(" + bufferName + ", " + len + ", " + value + ")"; break;
+                    case FLOAT: writer = "_put_float(" + bufferName + ", " + len + ", " + value + ")"; break;
+                    case DOUBLE: writer = "_put_double(" + bufferName + ", " + len + ", " + value + ")"; break;
+                    case BOOL: writer = "_put_bool(" + bufferName + ", " + len + ", " + value + ")"; break;
+                    case CHAR: writer = "_put_char(" + bufferName + ", " + len + ", " + value + ")"; break;
+                    default:
+                        System.err.println("[ERROR] Serialization of type " + cctx.getCType(p.getTypeRef().getType()) + " is not implemented in " + getPluginID() + "!");
+                        writer = "_put_nil(" + bufferName + ", " + len + ")";
+                }
+                builder.append("    " + len + " = " + prefix() + writer + ";\n");
+            }
+        }
+        return len;
+    }
+
+    /* ---------- PARSING ----------*/
+    @Override
+    public String generateSubFunctions() {
+        return includeHeader() + "\n" + messagesparser.toString();
+    }
+
+    private void generateParameterParser(Parameter p, long bytepos) {
+        final String ctype = cctx.getCType(p.getTypeRef().getType());
+        final long size = cctx.getCByteSize(p.getTypeRef().getType(), 0);
+        String reader;
+        switch (p.getTypeRef().getCardinality() != null ? Kind.NONE : kind(p)) {
+            case INT: reader = "_read_int(r)"; break;
+            case UINT: reader = "_read_uint(r)"; break;
+            case FLOAT:
+            case DOUBLE: reader = "_read_double(r)"; break;
+            case BOOL: reader = "_read_bool(r)"; break;
+            case CHAR: reader = "_read_char(r)"; break;
+            default:
+                messagesparser.append("            //Type " + p.getTypeRef().getType().getName() + " (in parameter " + p.getName() + ") is not supported by " + getPluginID() + "\n");
+                messagesparser.append("            " + prefix() + "_skip(r);\n");
+                return;
+        }
+        messagesparser.append("            union { " + ctype + " p; uint8_t bytebuffer[" + size + "]; } u;\n");
+        messagesparser.append("            u.p = (" + ctype + ") " + prefix() + reader + ";\n");
+        //Same layout as the messages in the FIFO: native byte order for posix, reversed for posixmt
+        if (cctx instanceof PosixMTCompilerContext) {
+            for (long i = 0; i < size; i++) {
+                messagesparser.append("            out_buffer[" + (bytepos + i) + "] = u.bytebuffer[" + (size - 1 - i) + "];\n");
+            }
+        } else {
+            messagesparser.append("            memcpy(&out_buffer[" + bytepos + "], u.bytebuffer, " + size + ");\n");
+        }
+    }
+
+    private void generateMessageParser(Message m) {
+        final int size = cctx.getMessageSerializationSize(m) - 2;
+        final int code = cctx.getHandlerCode(configuration, m);
+        messagesparser.append("static int " + prefix() + "_parse_" + m.getName() + "(struct " + prefix() + "_reader *r, uint8_t *out_buffer) {\n");
+        messagesparser.append("    // Missing parameters are zero\n");
+        messagesparser.append("    memset(out_buffer, 0, " + size + ");\n");
+        messagesparser.append("    out_buffer[0] = (" + code + " >> 8);\n");
+        messagesparser.append("    out_buffer[1] = (" + code + " & 0xFF);\n");
+        messagesparser.append("    if (!" + prefix() + "_begin_map(r)) return -2;\n");
+        messagesparser.append("    while (" + prefix() + "_next_field(r)) {\n");
+        messagesparser.append("        if (0) {}\n");
+        long bytePos = 2;
+        for (Parameter p : m.getParameters()) {
+            if (isForwarded(m, p)) {
+                messagesparser.append("        else if (" + prefix() + "_is(r, \"" + p.getName() + "\")) {\n");
+                generateParameterParser(p, bytePos);
+                messagesparser.append("        }\n");
+            }
+            bytePos += cctx.getCByteSize(p.getTypeRef().getType(), 0);
+        }
+        messagesparser.append("        else " + prefix() + "_skip(r);\n");
+        messagesparser.append("    }\n");
+        messagesparser.append("    if (r->error) return -3;\n");
+        messagesparser.append("    return " + size + ";\n");
+        messagesparser.append("}\n\n");
+    }
+
+    @Override
+    public void generateParserBody(StringBuilder builder, String bufferName, String bufferSizeName, Set<Message> messages, String sender, ExternalConnector eco) {
+        if (!messages.isEmpty()) {
+            int bufferSize = 0;
+            for (Message m : messages) {
+                if (cctx.getMessageSerializationSize(m) - 2 > bufferSize)
+                    bufferSize = cctx.getMessageSerializationSize(m) - 2;
+            }
+            builder.append("    struct " + prefix() + "_reader r;\n");
+            builder.append("    " + prefix() + "_reader_init(&r, (const uint8_t *) " + bufferName + ", " + bufferSizeName + ");\n");
+            builder.append("    uint8_t enqueue_buffer[" + bufferSize + "];\n");
+            builder.append("    int result = -1;\n");
+            builder.append("    if (" + prefix() + "_begin_map(&r) && " + prefix() + "_next_field(&r)) {\n");
+            builder.append("        if (0) {}\n");
+            for (Message m : messages) {
+                if (parsedMessages.add(m.getName()))
+                    generateMessageParser(m);
+                builder.append("        else if (" + prefix() + "_is(&r, \"" + m.getName() + "\")) result = " + prefix() + "_parse_" + m.getName() + "(&r, enqueue_buffer);\n");
+            }
+            builder.append("    }\n");
+            builder.append("    if (result > 0) {\n");
+            builder.append("        externalMessageEnqueue(enqueue_buffer, result, " + sender + ");\n");
+            builder.append("    } else {\n");
+            builder.append("        /*TRACE_LEVEL_1*/fprintf(stderr, \"[" + getSupportedFormat().get(0) + "]: Error parsing message %i\\n\", result);\n");
+            builder.append("    }\n");
+        }
+    }
+}
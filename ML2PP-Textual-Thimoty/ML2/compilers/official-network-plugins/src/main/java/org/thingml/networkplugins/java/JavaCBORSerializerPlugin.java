@@ -0,0 +1,64 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.thingml.networkplugins.java;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.thingml.compilers.spi.SerializationPlugin;
+
+public class JavaCBORSerializerPlugin extends JavaSelfDescribingSerializerPlugin {
+
+    public JavaCBORSerializerPlugin() {
+        super();
+    }
+
+    @Override
+    public SerializationPlugin clone() {
+        return new JavaCBORSerializerPlugin();
+    }
+
+    @Override
+    protected String helper() {
+        return "JavaCBOR";
+    }
+
+    @Override
+    public String getPluginID() {
+        return "JavaCBORSerializerPlugin";
+    }
+
+    @Override
+    public List<String> getTargetedLanguages() {
+        List<String> res = new ArrayList<>();
+        res.add("java");
+        return res;
+    }
+
+    @Override
+    public List<String> getSupportedFormat() {
+        List<String> res = new ArrayList<>();
+        res.add("CBOR");
+        res.add("cbor");
+        return res;
+    }
+}
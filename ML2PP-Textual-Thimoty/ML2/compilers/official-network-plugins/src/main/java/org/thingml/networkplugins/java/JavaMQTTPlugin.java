@@ -231,15 +231,17 @@ public class JavaMQTTPlugin extends NetworkPlugin {
             }
 
             if (sp.getSupportedFormat().contains("Binary")) {//FIXME
-                parseBuilder.append("final Event event = formatter.instantiate(JavaBinaryHelper.toObject(payload.toByteArray()));\n");
+                parseBuilder.append("final Event event = formatter.instantiate(JavaBinaryHelper.toObject(frame));\n");
+                template = template.replace("/*$TEXT FRAMING$*/", "false");
                 if (escape) {
-                    template = template.replace("/*$PUBLISH$*/", "connection.publish(this.pubtopic, JavaBinaryHelper.escape(JavaBinaryHelper.toPrimitive((Byte[]) payload)), QoS.AT_LEAST_ONCE, false, disconnectOnFailure);\n");
+                    template = template.replace("/*$ENCODE$*/", "JavaBinaryHelper.escape(JavaBinaryHelper.toPrimitive((Byte[]) payload))");
                 } else {
-                    template = template.replace("/*$PUBLISH$*/", "connection.publish(this.pubtopic, JavaBinaryHelper.toPrimitive((Byte[]) payload), QoS.AT_LEAST_ONCE, false, disconnectOnFailure);\n");
+                    template = template.replace("/*$ENCODE$*/", "JavaBinaryHelper.toPrimitive((Byte[]) payload)");
                 }
             } else {
-                parseBuilder.append("final Event event = formatter.instantiate(new String(payload.toByteArray(), java.nio.charset.StandardCharsets.UTF_8));\n");
-                template = template.replace("/*$PUBLISH$*/", "connection.publish(new UTF8Buffer(this.pubtopic), new Buffer(((String)payload).getBytes()), QoS.AT_LEAST_ONCE, false, disconnectOnFailure);\n");
+                parseBuilder.append("final Event event = formatter.instantiate(new String(frame, java.nio.charset.StandardCharsets.UTF_8));\n");
+                template = template.replace("/*$TEXT FRAMING$*/", "true");
+                template = template.replace("/*$ENCODE$*/", "((String)payload).getBytes(java.nio.charset.StandardCharsets.UTF_8)");
             }
             for(Port p : ports) {//FIXME
                 parseBuilder.append("if (event != null) " + p.getName() + "_port.send(event);\n");
@@ -270,6 +272,11 @@ public class JavaMQTTPlugin extends NetworkPlugin {
             return template;
         }
 
+        /**Annotations on the connector take precedence over the ones on its protocol*/
+        private String annotationOrElse(ExternalConnector conn, String name, String defaultValue) {
+            return AnnotatedElementHelper.annotationOrElse(conn, name, AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), name, defaultValue));
+        }
+
         private void updateMain(Context ctx, Configuration cfg, ExternalConnector conn) {
             try {
                 final InputStream input = new FileInputStream(ctx.getOutputDirectory() + "/src/main/java/org/thingml/generated/Main.java");
@@ -286,7 +293,16 @@ public class JavaMQTTPlugin extends NetworkPlugin {
                 final String subtopic = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "mqtt_subscribe_topic", "ThingML");
                 final String pubtopic = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "mqtt_publish_topic", "ThingML");
 
-                main = main.replace("/*$NETWORK$*/", "/*$NETWORK$*/\nMQTTJava " + conn.getName() + "_" + conn.getProtocol().getName() + " = (MQTTJava) new MQTTJava(\"" + url + "\", \"" + pubtopic + "\", \"" + subtopic + "\").buildBehavior(null, null);\n");
+                final String qos = annotationOrElse(conn, "mqtt_qos", "1");
+                final String batchSize = annotationOrElse(conn, "mqtt_batch_size", "1");
+                final String batchDelay = annotationOrElse(conn, "mqtt_batch_delay", "0");
+                final String queueSize = annotationOrElse(conn, "mqtt_queue_size", "0");
+                final String maxInflight = annotationOrElse(conn, "mqtt_max_inflight", "0");
+                final String reconnectDelay = annotationOrElse(conn, "mqtt_reconnect_delay", "10");
+                final String reconnectDelayMax = annotationOrElse(conn, "mqtt_reconnect_delay_max", "30000");
+
+                main = main.replace("/*$NETWORK$*/", "/*$NETWORK$*/\nMQTTJava " + conn.getName() + "_" + conn.getProtocol().getName() + " = (MQTTJava) new MQTTJava(\"" + url + "\", \"" + pubtopic + "\", \"" + subtopic + "\", "
+                        + qos + ", " + batchSize + ", " + batchDelay + ", " + queueSize + ", " + maxInflight + ", " + reconnectDelay + ", " + reconnectDelayMax + ").buildBehavior(null, null);\n");
 
                 StringBuilder connBuilder = new StringBuilder();
                 connBuilder.append(conn.getName() + "_" + conn.getProtocol().getName() + ".get" + ctx.firstToUpper(conn.getPort().getName()) + "_port().addListener(");
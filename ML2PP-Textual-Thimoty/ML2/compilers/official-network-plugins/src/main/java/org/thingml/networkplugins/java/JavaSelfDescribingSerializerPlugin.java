@@ -0,0 +1,148 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.thingml.networkplugins.java;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.IOUtils;
+import org.thingml.xtext.helpers.AnnotatedElementHelper;
+import org.thingml.xtext.thingML.ExternalConnector;
+import org.thingml.xtext.thingML.Message;
+import org.thingml.xtext.thingML.Parameter;
+
+/**
+ * Common code of the binary serializers encoding messages as {"message":{"parameter":value,...}},
+ * i.e. with the same structure as the JSON serializers (and the same parser, see JavaStructuredSerializerPlugin).
+ * The generated code only differs by the helper (shipped as a template) that writes and reads the actual format.
+ */
+public abstract class JavaSelfDescribingSerializerPlugin extends JavaStructuredSerializerPlugin {
+
+    /**Name of the helper class (and of its template)*/
+    protected abstract String helper();
+
+    @Override
+    protected String messageTypeArguments(Message m) {
+        return "(short) " + AnnotatedElementHelper.annotationOrElse(m, "code", "0");
+    }
+
+    @Override
+    public String generateSerialization(StringBuilder builder, String bufferName, Message m, ExternalConnector eco) {
+        instantiateMessageType(builder, m);
+        int forwarded = 0;
+        for (Parameter p : m.getParameters()) {
+            if (isForwarded(m, p))
+                forwarded++;
+        }
+        builder.append("/**Serializes a message into " + getSupportedFormat().get(0) + "*/\n");
+        builder.append("private Byte[] format(final " + context.firstToUpper(m.getName()) + "MessageType." + context.firstToUpper(m.getName()) + "Message _this) {\n");
+        builder.append("final " + helper() + ".Writer out = " + helper() + ".writer();\n");
+        builder.append("out.beginMap(1);\n");
+        builder.append("out.writeString(\"" + m.getName() + "\");\n");
+        builder.append("out.beginMap(" + forwarded + ");\n");
+        for (Parameter p : m.getParameters()) {
+            if (isForwarded(m, p)) {
+                builder.append("out.writeString(\"" + p.getName() + "\");\n");
+                switch (javaType(p)) {
+                    case "boolean": builder.append("out.writeBoolean(_this." + p.getName() + ");\n"); break;
+                    case "char": builder.append("out.writeChar(_this." + p.getName() + ");\n"); break;
+                    case "byte":
+                    case "short":
+                    case "int":
+                    case "long": builder.append("out.writeLong(_this." + p.getName() + ");\n"); break;
+                    case "float": builder.append("out.writeFloat(_this." + p.getName() + ");\n"); break;
+                    case "double": builder.append("out.writeDouble(_this." + p.getName() + ");\n"); break;
+                    case "String": builder.append("out.writeString(_this." + p.getName() + ");\n"); break;
+                    default: builder.append("out.writeNil();//" + p.getName() + " cannot be serialized\n"); break;
+                }
+            }
+        }
+        builder.append("return out.toObject();\n");
+        builder.append("}\n\n");
+
+        return builder.toString();
+    }
+
+    @Override
+    protected String reader(String javaType) {
+        switch (javaType) {
+            case "boolean": return "_in.nextBoolean()";
+            case "char": return "_in.nextChar()";
+            case "byte": return "(byte) _in.nextLong()";
+            case "short": return "(short) _in.nextLong()";
+            case "int": return "_in.nextInt()";
+            case "long": return "_in.nextLong()";
+            case "float": return "_in.nextFloat()";
+            case "double": return "_in.nextDouble()";
+            case "String": return "_in.nextString()";
+            default: return null;
+        }
+    }
+
+    private void copyTemplate(String template, String fileName) {
+        try {
+            final File folder = new File(context.getOutputDirectory() + "/src/main/java/org/thingml/generated/network");
+            folder.mkdirs();
+            final File f = new File(folder, fileName);
+            final OutputStream output = new FileOutputStream(f);
+            IOUtils.write(context.getTemplateByID(template), output, Charset.forName("UTF-8"));
+            IOUtils.closeQuietly(output);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    protected String parserInterface() {
+        return "BinaryJava";
+    }
+
+    @Override
+    protected String payloadType() {
+        return "Byte[]";
+    }
+
+    @Override
+    protected String readerDeclaration() {
+        return "final " + helper() + ".Reader _in = new " + helper() + ".Reader(JavaBinaryHelper.toPrimitive(payload));\n";
+    }
+
+    @Override
+    protected String readerVariable() {
+        return "_in";
+    }
+
+    @Override
+    protected String beginMap() {
+        return "beginMap";
+    }
+
+    @Override
+    protected void copyInterface() {
+        copyTemplate("templates/JavaBinaryInterface.java", "BinaryJava.java");
+        copyTemplate("templates/JavaFormat.java", "Format.java");
+        copyTemplate("templates/JavaBinaryHelper.java", "JavaBinaryHelper.java");
+        copyTemplate("templates/" + helper() + ".java", helper() + ".java");
+    }
+}
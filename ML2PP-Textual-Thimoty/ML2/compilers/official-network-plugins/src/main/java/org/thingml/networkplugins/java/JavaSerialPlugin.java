@@ -195,7 +195,7 @@ public class JavaSerialPlugin extends NetworkPlugin {
             template = template.replace("/*$NAME$*/", prot.getName());
             template = template.replace("/*$SERIALIZER$*/", prot.getName() + "BinaryProtocol");
             StringBuilder parseBuilder = new StringBuilder();
-            parseBuilder.append("final Event event = formatter.instantiate(JavaBinaryHelper.toObject(payload));\n");
+            parseBuilder.append("final Event event = formatter.instantiate(JavaBinaryHelper.toObject(frame, 0, length));\n");
             for(Port p : ports) {//FIXME
                 parseBuilder.append("if (event != null) " + p.getName() + "_port.send(event);\n");
             };
@@ -241,7 +241,12 @@ public class JavaSerialPlugin extends NetworkPlugin {
                 input.close();
                 final String speed = AnnotatedElementHelper.hasAnnotation(conn.getProtocol(), "baudrate") ? AnnotatedElementHelper.annotation(conn.getProtocol(), "baudrate").get(0) : "9600";
                 final String port = AnnotatedElementHelper.hasAnnotation(conn.getProtocol(), "port") ? AnnotatedElementHelper.annotation(conn.getProtocol(), "port").get(0) : "/dev/ttyACM0";
-                main = main.replace("/*$NETWORK$*/", "/*$NETWORK$*/\n" + prot.getName() + " "  + conn.getName() + "_" + conn.getProtocol().getName() + " = (" + prot.getName() + ") new " + prot.getName() + "(\"" + port + "\", " + speed + ").buildBehavior(null, null);\n");
+                final String startByte = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "serial_start_byte", "18");
+                final String stopByte = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "serial_stop_byte", "19");
+                final String escapeByte = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "serial_escape_byte", "125");
+                final String maxFrameSize = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "serial_msg_buffer_size", "1024");
+                final String batchSize = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "serial_batch_size", "64");
+                main = main.replace("/*$NETWORK$*/", "/*$NETWORK$*/\n" + prot.getName() + " "  + conn.getName() + "_" + conn.getProtocol().getName() + " = (" + prot.getName() + ") new " + prot.getName() + "(\"" + port + "\", " + speed + ", (byte) " + startByte + ", (byte) " + stopByte + ", (byte) " + escapeByte + ", " + maxFrameSize + ", " + batchSize + ").buildBehavior(null, null);\n");
 
                 StringBuilder connBuilder = new StringBuilder();
                 connBuilder.append(conn.getName() + "_" + conn.getProtocol().getName() + ".get" + ctx.firstToUpper(conn.getPort().getName()) + "_port().addListener(");
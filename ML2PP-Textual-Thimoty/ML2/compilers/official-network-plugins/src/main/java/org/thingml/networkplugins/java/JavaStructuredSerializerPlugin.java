@@ -0,0 +1,183 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.networkplugins.java;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.thingml.compilers.java.JavaHelper;
+import org.thingml.compilers.spi.SerializationPlugin;
+import org.thingml.xtext.helpers.AnnotatedElementHelper;
+import org.thingml.xtext.thingML.ExternalConnector;
+import org.thingml.xtext.thingML.Message;
+import org.thingml.xtext.thingML.Parameter;
+
+/**
+ * Common code of the serializers encoding messages as {"message":{"parameter":value,...}} (JSON, MessagePack, CBOR).
+ * The generated parser reads the fields in a single pass: unknown parameters are skipped and missing ones get a default value.
+ * Subclasses give the reader of their format (a helper shipped as a template) and how it reads each type.
+ */
+public abstract class JavaStructuredSerializerPlugin extends SerializationPlugin {
+
+    private Set<Message> messages = new HashSet<Message>();
+
+    /**Interface implemented by the generated parser (StringJava or BinaryJava)*/
+    protected abstract String parserInterface();
+
+    /**Java type of the payload (String or Byte[])*/
+    protected abstract String payloadType();
+
+    /**Declaration of the reader variable, reading payload*/
+    protected abstract String readerDeclaration();
+
+    /**Name of the reader variable*/
+    protected abstract String readerVariable();
+
+    /**Name of the method of the reader entering a map/object*/
+    protected abstract String beginMap();
+
+    /**Expression reading a value of the given Java type, or null if the type cannot be read (see fallbackReader)*/
+    protected abstract String reader(String javaType);
+
+    /**Copies the helpers needed by the generated code*/
+    protected abstract void copyInterface();
+
+    /**Arguments of the constructor of the message types*/
+    protected String messageTypeArguments(Message m) {
+        return "";
+    }
+
+    /**Expression of the error message printed when a payload cannot be parsed (the exception is pe)*/
+    protected String parseErrorMessage() {
+        return "\"Cannot parse " + getSupportedFormat().get(0) + " payload because of \" + pe.getMessage()";
+    }
+
+    private boolean containsMessage(Message m) {
+        for(Message msg : messages) {
+            if (EcoreUtil.equals(msg, m)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected void instantiateMessageType(StringBuilder builder, Message m) {
+        if (!containsMessage(m)) {
+            builder.append("private static final " + context.firstToUpper(m.getName()) + "MessageType " + m.getName().toUpperCase() + " = new " + context.firstToUpper(m.getName()) + "MessageType(" + messageTypeArguments(m) + ");\n");
+            messages.add(m);
+        }
+    }
+
+    /**Java type of a parameter, as used by the messages (enumerations are their underlying type)*/
+    protected String javaType(Parameter p) {
+        return JavaHelper.getJavaType(p.getTypeRef().getType(), p.getTypeRef().getCardinality() != null, context);
+    }
+
+    /**Parameters of types without reader (e.g. arrays) are read as strings and cast, they get null when they are not serialized*/
+    private String fallbackReader(Message m, Parameter p, String javaType) {
+        context.getLog().warning("Parameter " + p.getName() + " of message " + m.getName() + " has type " + javaType + ", which cannot be deserialized from " + getSupportedFormat().get(0) + ". It is read as a string and cast.");
+        return "(" + javaType + ") (Object) " + readerVariable() + ".nextString()";
+    }
+
+    protected boolean isForwarded(Message m, Parameter p) {
+        return !AnnotatedElementHelper.isDefined(m, "do_not_forward", p.getName());
+    }
+
+    private String defaultValue(String javaType) {
+        switch (javaType) {
+            case "boolean": return "false";
+            case "char": return "'\\0'";
+            case "byte": return "(byte) 0";
+            case "short": return "(short) 0";
+            case "int": return "0";
+            case "long": return "0L";
+            case "float": return "0f";
+            case "double": return "0d";
+            default: return "null";
+        }
+    }
+
+    /**Name of the local variable of a parameter, which cannot clash with the other variables of the parser*/
+    private String local(Parameter p) {
+        return "_p_" + p.getName();
+    }
+
+    @Override
+    public void generateParserBody(StringBuilder builder, String bufferName, String bufferSizeName, Set<Message> messages, String sender, ExternalConnector eco) {
+        copyInterface();
+        final String in = readerVariable();
+        builder.append("package org.thingml.generated.network;\n\n");
+        builder.append("import org.thingml.generated.messages.*;\n");
+        builder.append("import no.sintef.jasm.ext.Event;\n");
+        builder.append("public class " + bufferName + " implements " + parserInterface() + " {\n");
+        for(Message m : messages) {
+            instantiateMessageType(builder, m);
+        }
+        builder.append("@Override\npublic Event instantiate(" + payloadType() + " payload) {\n");
+        builder.append("try{\n");
+        builder.append(readerDeclaration());
+        builder.append(in + "." + beginMap() + "();\n");
+        builder.append("if (!" + in + ".nextField()) return null;\n");
+        boolean isFirst = true;
+        for(Message m : messages) {
+            if(isFirst) {
+                isFirst = false;
+            } else {
+                builder.append("else ");
+            }
+            builder.append("if(" + in + ".is(\"" + m.getName() + "\")){\n");
+            for (Parameter p : m.getParameters()) {
+                final String javaType = javaType(p);
+                builder.append(javaType + " " + local(p) + " = " + defaultValue(javaType) + ";\n");
+            }
+            builder.append(in + "." + beginMap() + "();\n");
+            builder.append("while (" + in + ".nextField()) {\n");
+            boolean firstParam = true;
+            for (Parameter p : m.getParameters()) {
+                if(isForwarded(m, p)) {
+                    final String javaType = javaType(p);
+                    String reader = reader(javaType);
+                    if (reader == null)
+                        reader = fallbackReader(m, p, javaType);
+                    if (!firstParam)
+                        builder.append("else ");
+                    firstParam = false;
+                    builder.append("if (" + in + ".is(\"" + p.getName() + "\")) " + local(p) + " = " + reader + ";\n");
+                }
+            }
+            if (!firstParam)
+                builder.append("else ");
+            builder.append(in + ".skipValue();\n");
+            builder.append("}\n");
+            builder.append("return " + m.getName().toUpperCase() + ".instantiate(");
+            for (Parameter p : m.getParameters()) {
+                if (m.getParameters().indexOf(p) > 0)
+                    builder.append(", ");
+                builder.append(local(p));
+            }
+            builder.append(");\n}\n");
+        }
+        builder.append("\n}catch(Exception pe){\n");
+        builder.append("System.out.println(" + parseErrorMessage() + ");\n");
+        builder.append("}\n");
+        builder.append("return null;\n");
+        builder.append("}\n");
+        builder.append("/*$SERIALIZERS$*/\n\n");
+        builder.append("}\n");
+    }
+}
@@ -173,7 +173,7 @@ public class JavaUDPPlugin extends NetworkPlugin {
             String template = ctx.getTemplateByID("templates/JavaUDPPlugin.java");
             template = template.replace("/*$SERIALIZER$*/", prot.getName() + "BinaryProtocol");
             StringBuilder parseBuilder = new StringBuilder();
-            parseBuilder.append("final Event event = formatter.instantiate(JavaBinaryHelper.toObject(buffer.array()));\n");
+            parseBuilder.append("final Event event = formatter.instantiate(JavaBinaryHelper.toObject(datagram));\n");
             for(Port p : ports) {//FIXME
                 parseBuilder.append("if (event != null) " + p.getName() + "_port.send(event);\n");
             }
@@ -218,8 +218,14 @@ public class JavaUDPPlugin extends NetworkPlugin {
                 input.close();
                 final String url = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "url", "127.0.0.1");
                 final String port = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "port", "41234");
-
-                main = main.replace("/*$NETWORK$*/", "/*$NETWORK$*/\nUDPJava " + conn.getName() + "_" + conn.getProtocol().getName() + " = (UDPJava) new UDPJava(0, " + port + ", \"" + url + "\").buildBehavior(null, null);\n");
+                final String localPort = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "udp_local_port", "0");
+                final String group = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "udp_multicast_group", null);
+                final String iface = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "udp_multicast_interface", null);
+                final boolean loop = AnnotatedElementHelper.isDefined(conn.getProtocol(), "udp_multicast_loop", "true");
+                final String batchSize = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "udp_batch_size", "64");
+
+                main = main.replace("/*$NETWORK$*/", "/*$NETWORK$*/\nUDPJava " + conn.getName() + "_" + conn.getProtocol().getName() + " = (UDPJava) new UDPJava(0, " + port + ", \"" + url + "\", " + localPort + ", "
+                        + (group == null ? "null" : "\"" + group + "\"") + ", " + (iface == null ? "null" : "\"" + iface + "\"") + ", " + loop + ", " + batchSize + ").buildBehavior(null, null);\n");
 
                 StringBuilder connBuilder = new StringBuilder();
                 connBuilder.append(conn.getName() + "_" + conn.getProtocol().getName() + ".get" + ctx.firstToUpper(conn.getPort().getName()) + "_port().addListener(");
@@ -85,78 +85,13 @@ public class JavaWSPlugin extends NetworkPlugin {
         }
     }
 
-    private void updatePOM4Server(Context ctx) {
-        //Update POM.xml with JSSC Maven dependency
+    private void writeNetworkFile(Context ctx, String name, String code) {
         try {
-            final InputStream input = new FileInputStream(ctx.getOutputDirectory() + "/pom.xml");
-            final List<String> packLines = IOUtils.readLines(input, Charset.forName("UTF-8"));
-            String pom = "";
-            for (String line : packLines) {
-                pom += line + "\n";
-            }
-            input.close();
-            pom = pom.replace("<!--DEP-->", "<dependency>\n" +
-                    "    <groupId>org.eclipse.jetty</groupId>\n" +
-                    "    <artifactId>jetty-websocket</artifactId>\n" +
-                    "    <version>8.1.22.v20160922</version>\n" +
-                    "</dependency>\n<!--DEP-->");
-            pom = pom.replace("<!--DEP-->", "<dependency>\n" +
-                    "    <groupId>org.eclipse.jetty.websocket</groupId>\n" +
-                    "    <artifactId>websocket-api</artifactId>\n" +
-                    "    <version>9.3.12.v20160915</version>\n" +
-                    "</dependency>\n<!--DEP-->");
-            pom = pom.replace("<!--DEP-->", "<dependency>\n" +
-                    "    <groupId>org.eclipse.jetty</groupId>\n" +
-                    "    <artifactId>jetty-server</artifactId>\n" +
-                    "    <version>9.3.12.v20160915</version>\n" +
-                    "</dependency>\n<!--DEP-->");
-            pom = pom.replace("<!--DEP-->", "<dependency>\n" +
-                    "    <groupId>org.eclipse.jetty.websocket</groupId>\n" +
-                    "    <artifactId>websocket-server</artifactId>\n" +
-                    "    <version>9.3.12.v20160915</version>\n" +
-                    "</dependency>\n<!--DEP-->");
-            pom = pom.replace("<!--DEP-->", "<dependency>\n" +
-                    "    <groupId>org.eclipse.jetty</groupId>\n" +
-                    "    <artifactId>jetty-util</artifactId>\n" +
-                    "    <version>9.3.12.v20160915</version>\n" +
-                    "</dependency>\n<!--DEP-->");
-            pom = pom.replace("<!--DEP-->", "<dependency>\n" +
-                    "    <groupId>org.eclipse.jetty</groupId>\n" +
-                    "    <artifactId>jetty-http</artifactId>\n" +
-                    "    <version>9.3.12.v20160915</version>\n" +
-                    "</dependency>\n<!--DEP-->");
-            pom = pom.replace("<!--DEP-->", "<dependency>\n" +
-                    "    <groupId>org.eclipse.jetty</groupId>\n" +
-                    "    <artifactId>jetty-io</artifactId>\n" +
-                    "    <version>9.3.12.v20160915</version>\n" +
-                    "</dependency>\n<!--DEP-->");
-            final File f = new File(ctx.getOutputDirectory() + "/pom.xml");
+            final File folder = new File(ctx.getOutputDirectory() + "/src/main/java/org/thingml/generated/network");
+            folder.mkdirs();
+            final File f = new File(folder, name);
             final OutputStream output = new FileOutputStream(f);
-            IOUtils.write(pom, output, java.nio.charset.Charset.forName("UTF-8"));
-            IOUtils.closeQuietly(output);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void updatePOM(Context ctx) {
-        //Update POM.xml with JSSC Maven dependency
-        try {
-            final InputStream input = new FileInputStream(ctx.getOutputDirectory() + "/pom.xml");
-            final List<String> packLines = IOUtils.readLines(input, Charset.forName("UTF-8"));
-            String pom = "";
-            for (String line : packLines) {
-                pom += line + "\n";
-            }
-            input.close();
-            pom = pom.replace("<!--DEP-->", "<dependency>\n" +
-                    "    <groupId>com.neovisionaries</groupId>\n" +
-                    "    <artifactId>nv-websocket-client</artifactId>\n" +
-                    "    <version>1.30</version>\n" +
-                    "</dependency>\n<!--DEP-->");
-            final File f = new File(ctx.getOutputDirectory() + "/pom.xml");
-            final OutputStream output = new FileOutputStream(f);
-            IOUtils.write(pom, output, java.nio.charset.Charset.forName("UTF-8"));
+            IOUtils.write(code, output, Charset.forName("UTF-8"));
             IOUtils.closeQuietly(output);
         } catch (Exception e) {
             e.printStackTrace();
@@ -164,7 +99,8 @@ public class JavaWSPlugin extends NetworkPlugin {
     }
 
     public void generateNetworkLibrary(Configuration cfg, Context ctx, Set<Protocol> protocols) {
-        updatePOM(ctx);
+        //Client and server both run on the NIO event loop shipped with the generated code (no Maven dependency)
+        writeNetworkFile(ctx, "JavaWSEventLoop.java", ctx.getTemplateByID("templates/JavaWSEventLoop.java"));
         StringBuilder builder = new StringBuilder();
         for (Protocol prot : protocols) {
             clearMessages();
@@ -304,7 +240,9 @@ public class JavaWSPlugin extends NetworkPlugin {
                 input.close();
                 final String url = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "url", "ws://127.0.0.1:9000");
                 final String wsProtocolName = AnnotatedElementHelper.annotationOrElse(prot, "ws_protocol", "");
-                main = main.replace("/*$NETWORK$*/", "/*$NETWORK$*/\nWSJava " + conn.getName() + "_" + conn.getProtocol().getName() + " = (WSJava) new WSJava(\"" + url + "\", \"" + wsProtocolName + "\").buildBehavior(null, null);\n");
+                final String queueSize = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "ws_queue_size", "0");
+                final String maxQueued = AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "ws_max_queued", "1048576");
+                main = main.replace("/*$NETWORK$*/", "/*$NETWORK$*/\nWSJava " + conn.getName() + "_" + conn.getProtocol().getName() + " = (WSJava) new WSJava(\"" + url + "\", \"" + wsProtocolName + "\", " + queueSize + ", " + maxQueued + "L).buildBehavior(null, null);\n");
 
                 StringBuilder connBuilder = new StringBuilder();
                 connBuilder.append(conn.getName() + "_" + conn.getProtocol().getName() + ".get" + ctx.firstToUpper(conn.getPort().getName()) + "_port().addListener(");
@@ -317,40 +255,11 @@ public class JavaWSPlugin extends NetworkPlugin {
                 main = main.replace("/*$STOP$*/", "/*$STOP$*/\n" + conn.getName() + "_" + conn.getProtocol().getName() + ".stop();\n");
 
                 if (AnnotatedElementHelper.hasAnnotation(conn.getProtocol(), "server") || AnnotatedElementHelper.hasAnnotation(conn, "server")) {
-                    updatePOM4Server(ctx);
-                    String template = ctx.getTemplateByID("templates/JavaWSServer.java");
-                    String template2 = ctx.getTemplateByID("templates/JavaWSHandler.java");
                     final String port = AnnotatedElementHelper.annotationOrElse(conn, "server", AnnotatedElementHelper.annotationOrElse(conn.getProtocol(), "server", "9000"));
-                    if ("".equals(wsProtocolName)) {
-                        template = template.replace("/*$PROTOCOL$*/", "//");
-                    } else {
-                        template = template.replace("/*$NO PROTOCOL$*/", "//");
-                        String template3 = ctx.getTemplateByID("templates/JavaWSProtocol.java");
-                        template3 = template3.replace("/*$PROTOCOL$*/", wsProtocolName);
-                        final File folder3 = new File(ctx.getOutputDirectory() + "/src/main/java/org/thingml/generated/network");
-                        folder3.mkdir();
-                        final File f3 = new File(ctx.getOutputDirectory() + "/src/main/java/org/thingml/generated/network/JavaWSProtocol.java");
-                        final OutputStream output3 = new FileOutputStream(f3);
-                        IOUtils.write(template3, output3, Charset.forName("UTF-8"));
-                        IOUtils.closeQuietly(output3);
-                    }
-                    main = main.replace("/*$NETWORK$*/", "/*$NETWORK$*/\nJavaWSServer wsServer = new JavaWSServer();\nwsServer.port = " + port + ";\nwsServer.start();\n");
+                    main = main.replace("/*$NETWORK$*/", "/*$NETWORK$*/\nJavaWSServer wsServer = new JavaWSServer();\nwsServer.port = " + port + ";\nwsServer.protocol = \"" + wsProtocolName + "\";\nwsServer.maxQueued = " + maxQueued + "L;\nwsServer.start();\n");
                     main = main.replace("/*$STOP$*/", "/*$STOP$*/wsServer.stop();\n");
-                    try {
-                        final File folder = new File(ctx.getOutputDirectory() + "/src/main/java/org/thingml/generated/network");
-                        folder.mkdir();
-                        final File f = new File(ctx.getOutputDirectory() + "/src/main/java/org/thingml/generated/network/JavaWSServer.java");
-                        final OutputStream output = new FileOutputStream(f);
-                        IOUtils.write(template, output, Charset.forName("UTF-8"));
-                        IOUtils.closeQuietly(output);
-
-                        final File f2 = new File(ctx.getOutputDirectory() + "/src/main/java/org/thingml/generated/network/JavaWSHandler.java");
-                        final OutputStream output2 = new FileOutputStream(f2);
-                        IOUtils.write(template2, output2, Charset.forName("UTF-8"));
-                        IOUtils.closeQuietly(output2);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+                    writeNetworkFile(ctx, "JavaWSServer.java", ctx.getTemplateByID("templates/JavaWSServer.java"));
+                    writeNetworkFile(ctx, "JavaWSHandler.java", ctx.getTemplateByID("templates/JavaWSHandler.java"));
                 }
 
                 final File f = new File(ctx.getOutputDirectory() + "/src/main/java/org/thingml/generated/Main.java");
@@ -51,12 +51,19 @@ public class JavaBinaryHelper {
     public static Byte[] toObject(final byte[] array) {
         if (array == null) {
             return null;
-        } else if (array.length == 0) {
+        }
+        return toObject(array, 0, array.length);
+    }
+
+    public static Byte[] toObject(final byte[] array, final int offset, final int length) {
+        if (array == null) {
+            return null;
+        } else if (length == 0) {
             return EMPTY_BYTE_OBJECT_ARRAY;
         }
-        final Byte[] result = new Byte[array.length];
-        for (int i = 0; i < array.length; i++) {
-            result[i] = Byte.valueOf(array[i]);
+        final Byte[] result = new Byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = Byte.valueOf(array[offset + i]);
         }
         return result;
     }
@@ -103,4 +110,122 @@ public class JavaBinaryHelper {
         }
         return java.util.Arrays.copyOf(buffer, buffer_idx);
     }
+
+    /**
+     * Splits a byte stream into frames START payload STOP, where START, STOP and ESCAPE bytes
+     * in the payload are preceded by ESCAPE. Whole buffers are decoded with a transition table
+     * and the frame buffer is reused, so that a frame does not cost any allocation.
+     */
+    public static class FrameDecoder {
+        public interface Listener {
+            /** frame is only valid during the call */
+            void onFrame(byte[] frame, int length);
+        }
+
+        //Byte classes
+        private static final int DATA = 0, START = 1, STOP = 2, ESCAPE = 3;
+        //States
+        private static final int WAIT = 0, MSG = 1, ESC = 2;
+        //Actions, stored above the next state in the transition table
+        private static final int NONE = 0, STORE = 4, RESET = 8, EMIT = 12;
+        private static final int STATE_MASK = 3;
+
+        //Indexed by state * 4 + byte class
+        private static final int[] TRANSITIONS = {
+                //DATA        START        STOP         ESCAPE
+                WAIT | NONE,  MSG | RESET, WAIT | NONE, WAIT | NONE, //WAIT: ignore everything until a start byte
+                MSG | STORE,  MSG | RESET, WAIT | EMIT, ESC | NONE,  //MSG: a start byte in a message restarts it
+                MSG | STORE,  MSG | STORE, MSG | STORE, MSG | STORE, //ESC: store the next byte whatever it is
+        };
+
+        private final byte[] classes;
+        private final int maxFrameSize;
+        private byte[] frame = new byte[256];
+        private int length = 0;
+        private int state = WAIT;
+
+        public FrameDecoder(byte start, byte stop, byte escape, int maxFrameSize) {
+            this.classes = byteClasses(start, stop, escape);
+            this.maxFrameSize = maxFrameSize;
+        }
+
+        public void decode(final byte[] data, final int offset, final int count, final Listener listener) {
+            final int end = offset + count;
+            for (int i = offset; i < end; i++) {
+                final byte b = data[i];
+                final int transition = TRANSITIONS[(state << 2) | classes[b & 0xFF]];
+                state = transition & STATE_MASK;
+                switch (transition & ~STATE_MASK) {
+                    case STORE:
+                        if (length >= maxFrameSize) {//Frame too large (or lost stop byte): drop it
+                            state = WAIT;
+                            break;
+                        }
+                        if (length == frame.length)
+                            frame = Arrays.copyOf(frame, Math.min(maxFrameSize, length * 2));
+                        frame[length++] = b;
+                        break;
+                    case RESET:
+                        length = 0;
+                        break;
+                    case EMIT:
+                        listener.onFrame(frame, length);
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends escaped frames to a reusable buffer, so that several frames can be written at once.
+     */
+    public static class FrameEncoder {
+        private final byte start, stop, escape;
+        private final byte[] classes;
+        private byte[] buffer = new byte[256];
+        private int size = 0;
+
+        public FrameEncoder(byte start, byte stop, byte escape) {
+            this.start = start;
+            this.stop = stop;
+            this.escape = escape;
+            this.classes = byteClasses(start, stop, escape);
+        }
+
+        public void append(final byte[] payload) {
+            ensureCapacity(size + 2 * payload.length + 2);
+            buffer[size++] = start;
+            for (byte b : payload) {
+                if (classes[b & 0xFF] != 0)
+                    buffer[size++] = escape;
+                buffer[size++] = b;
+            }
+            buffer[size++] = stop;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public byte[] buffer() {
+            return buffer;
+        }
+
+        public void clear() {
+            size = 0;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+
+    private static byte[] byteClasses(byte start, byte stop, byte escape) {
+        final byte[] classes = new byte[256];
+        classes[start & 0xFF] = 1;
+        classes[stop & 0xFF] = 2;
+        classes[escape & 0xFF] = 3;
+        return classes;
+    }
 }//see https://github.com/apache/commons-lang/blob/master/src/main/java/org/apache/commons/lang3/ArrayUtils.java
\ No newline at end of file
@@ -0,0 +1,361 @@
+package org.thingml.generated.network;
+
+import java.nio.charset.StandardCharsets;
+
+//CBOR (RFC 7049) writer/reader used by the generated CBOR serializers.
+//Messages are encoded as {"message":{"parameter":value,...}} (like the JSON serializers),
+//so that parameters can be added, removed or reordered on one side without breaking the other.
+public class JavaCBOR {
+
+    private static final int UNSIGNED = 0, NEGATIVE = 1, BYTES = 2, TEXT = 3, ARRAY = 4, MAP = 5, TAG = 6, SIMPLE = 7;
+    private static final int INDEFINITE = 31;
+    private static final int BREAK = 0xff;
+
+    private static final ThreadLocal<Writer> WRITER = new ThreadLocal<Writer>() {
+        @Override
+        protected Writer initialValue() {
+            return new Writer();
+        }
+    };
+
+    /**Returns an empty, thread-confined writer. The writer is reused by the next call on the same thread.*/
+    public static Writer writer() {
+        final Writer out = WRITER.get();
+        out.size = 0;
+        return out;
+    }
+
+    public static class Writer {
+        private byte[] buf = new byte[256];
+        private int size;
+
+        private void ensure(final int n) {
+            if (size + n > buf.length)
+                buf = java.util.Arrays.copyOf(buf, Math.max(size + n, buf.length * 2));
+        }
+
+        private void put(final long v, final int bytes) {
+            for (int i = bytes - 1; i >= 0; i--)
+                buf[size++] = (byte) (v >>> (8 * i));
+        }
+
+        /**Writes a major type with its argument, in the shortest form*/
+        private void header(final int major, final long v) {
+            ensure(9);
+            final int type = major << 5;
+            if (v >= 0 && v < 24) {
+                buf[size++] = (byte) (type | v);
+            } else if (v >= 0 && v < 256) {
+                buf[size++] = (byte) (type | 24);
+                put(v, 1);
+            } else if (v >= 0 && v < 65536) {
+                buf[size++] = (byte) (type | 25);
+                put(v, 2);
+            } else if (v >= 0 && v < 0x100000000L) {
+                buf[size++] = (byte) (type | 26);
+                put(v, 4);
+            } else {
+                buf[size++] = (byte) (type | 27);
+                put(v, 8);
+            }
+        }
+
+        public void beginMap(final int entries) {
+            header(MAP, entries);
+        }
+
+        public void writeString(final String value) {
+            if (value == null) {
+                writeNil();
+                return;
+            }
+            final int length = value.length();
+            for (int i = 0; i < length; i++) {
+                if (value.charAt(i) >= 0x80) {
+                    final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                    header(TEXT, utf8.length);
+                    ensure(utf8.length);
+                    System.arraycopy(utf8, 0, buf, size, utf8.length);
+                    size += utf8.length;
+                    return;
+                }
+            }
+            header(TEXT, length);
+            ensure(length);
+            for (int i = 0; i < length; i++)
+                buf[size++] = (byte) value.charAt(i);
+        }
+
+        public void writeChar(final char value) {
+            writeString(String.valueOf(value));
+        }
+
+        public void writeLong(final long v) {
+            if (v >= 0)
+                header(UNSIGNED, v);
+            else
+                header(NEGATIVE, -1 - v);
+        }
+
+        public void writeFloat(final float v) {
+            ensure(5);
+            buf[size++] = (byte) 0xfa;
+            put(Float.floatToIntBits(v), 4);
+        }
+
+        public void writeDouble(final double v) {
+            ensure(9);
+            buf[size++] = (byte) 0xfb;
+            put(Double.doubleToLongBits(v), 8);
+        }
+
+        public void writeBoolean(final boolean v) {
+            ensure(1);
+            buf[size++] = (byte) (v ? 0xf5 : 0xf4);
+        }
+
+        public void writeNil() {
+            ensure(1);
+            buf[size++] = (byte) 0xf6;
+        }
+
+        public Byte[] toObject() {
+            return JavaBinaryHelper.toObject(buf, 0, size);
+        }
+    }
+
+    /**Pull reader over a CBOR payload. Keys are matched in place, without creating strings.*/
+    public static class Reader {
+        private final byte[] in;
+        private int pos;
+        private int keyStart;
+        private int keyLength;
+        private final long[] remaining = new long[16];//-1 for maps of indefinite length
+        private int depth = -1;
+
+        public Reader(final byte[] in) {
+            this.in = in;
+            this.pos = 0;
+        }
+
+        private int u8() {
+            if (pos >= in.length)
+                throw new IllegalArgumentException("Unexpected end of input");
+            return in[pos++] & 0xFF;
+        }
+
+        private long get(final int bytes) {
+            if (pos + bytes > in.length)
+                throw new IllegalArgumentException("Unexpected end of input");
+            long v = 0;
+            for (int i = 0; i < bytes; i++)
+                v = (v << 8) | (in[pos++] & 0xFF);
+            return v;
+        }
+
+        /**Reads the argument following an initial byte, -1 for indefinite length*/
+        private long argument(final int b) {
+            final int info = b & 0x1f;
+            if (info < 24) return info;
+            switch (info) {
+                case 24: return get(1);
+                case 25: return get(2);
+                case 26: return get(4);
+                case 27: return get(8);
+                case INDEFINITE: return -1;
+                default: throw new IllegalArgumentException("Invalid CBOR byte at " + (pos - 1));
+            }
+        }
+
+        /**Skips tags, returns the initial byte of the next data item*/
+        private int next() {
+            int b = u8();
+            while ((b >> 5) == TAG) {
+                argument(b);
+                b = u8();
+            }
+            return b;
+        }
+
+        public void beginMap() {
+            final int b = next();
+            if ((b >> 5) != MAP)
+                throw new IllegalArgumentException("Expected a map at " + (pos - 1));
+            if (depth + 1 == remaining.length)
+                throw new IllegalArgumentException("Too deeply nested");
+            remaining[++depth] = argument(b);
+        }
+
+        /**Reads the next key of the current map, returns false (and leaves the map) when there is none.*/
+        public boolean nextField() {
+            if (remaining[depth] == 0 || (remaining[depth] < 0 && peek() == BREAK)) {
+                if (remaining[depth] < 0)
+                    pos++;
+                depth--;
+                return false;
+            }
+            if (remaining[depth] > 0)
+                remaining[depth]--;
+            final int start = pos;
+            final int b = next();
+            final long length = argument(b);
+            if ((b >> 5) != TEXT || length < 0) {//Not a plain string key: skip it, it will not match any name
+                pos = start;
+                skipValue();
+                keyLength = -1;
+                return true;
+            }
+            if (pos + length > in.length)
+                throw new IllegalArgumentException("Unexpected end of input");
+            keyStart = pos;
+            keyLength = (int) length;
+            pos += length;
+            return true;
+        }
+
+        /**Compares the current key with an (ASCII) name*/
+        public boolean is(final String name) {
+            if (name.length() != keyLength)
+                return false;
+            for (int i = 0; i < keyLength; i++) {
+                if (in[keyStart + i] != (byte) name.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+
+        private static double halfToDouble(final int half) {
+            final int exponent = (half >> 10) & 0x1f;
+            final int mantissa = half & 0x3ff;
+            final double value;
+            if (exponent == 0) value = mantissa * Math.pow(2, -24);
+            else if (exponent == 31) value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+            else value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+            return (half & 0x8000) != 0 ? -value : value;
+        }
+
+        public long nextLong() {
+            final int b = next();
+            switch (b >> 5) {
+                case UNSIGNED: return argument(b);
+                case NEGATIVE: return -1 - argument(b);
+                case SIMPLE:
+                    pos--;
+                    return (long) nextDouble();
+                default: throw new IllegalArgumentException("Expected a number at " + (pos - 1));
+            }
+        }
+
+        public int nextInt() {
+            return (int) nextLong();
+        }
+
+        public double nextDouble() {
+            final int b = next();
+            switch (b) {
+                case 0xf9: return halfToDouble((int) get(2));
+                case 0xfa: return Float.intBitsToFloat((int) get(4));
+                case 0xfb: return Double.longBitsToDouble(get(8));
+                case 0xf4: return 0;
+                case 0xf5: return 1;
+                case 0xf6: case 0xf7: return Double.NaN;
+                default:
+                    pos--;
+                    return nextLong();
+            }
+        }
+
+        public float nextFloat() {
+            return (float) nextDouble();
+        }
+
+        public boolean nextBoolean() {
+            final int b = next();
+            if (b == 0xf5) return true;
+            if (b == 0xf4) return false;
+            pos--;
+            return nextDouble() != 0;
+        }
+
+        public String nextString() {
+            final int b = next();
+            if (b == 0xf6 || b == 0xf7) return null;
+            if ((b >> 5) != TEXT)
+                throw new IllegalArgumentException("Expected a string at " + (pos - 1));
+            final long length = argument(b);
+            if (length >= 0) {
+                if (pos + length > in.length)
+                    throw new IllegalArgumentException("Unexpected end of input");
+                final String value = new String(in, pos, (int) length, StandardCharsets.UTF_8);
+                pos += length;
+                return value;
+            }
+            //Indefinite length: concatenation of definite length chunks
+            final java.io.ByteArrayOutputStream chunks = new java.io.ByteArrayOutputStream();
+            while (peek() != BREAK) {
+                final long chunk = argument(u8());
+                if (chunk < 0 || pos + chunk > in.length)
+                    throw new IllegalArgumentException("Invalid string chunk at " + pos);
+                chunks.write(in, pos, (int) chunk);
+                pos += chunk;
+            }
+            pos++;
+            return new String(chunks.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        public char nextChar() {
+            if ((peek() >> 5) == TEXT) {
+                final String value = nextString();
+                return value.isEmpty() ? '\0' : value.charAt(0);
+            }
+            return (char) nextLong();
+        }
+
+        public void skipValue() {
+            final int b = next();
+            final long argument = argument(b);
+            switch (b >> 5) {
+                case BYTES:
+                case TEXT:
+                    if (argument >= 0) {
+                        pos += argument;
+                        if (pos > in.length)
+                            throw new IllegalArgumentException("Unexpected end of input");
+                    } else {
+                        skipUntilBreak();
+                    }
+                    break;
+                case ARRAY:
+                    if (argument >= 0) {
+                        for (long i = 0; i < argument; i++) skipValue();
+                    } else {
+                        skipUntilBreak();
+                    }
+                    break;
+                case MAP:
+                    if (argument >= 0) {
+                        for (long i = 0; i < 2 * argument; i++) skipValue();
+                    } else {
+                        skipUntilBreak();
+                    }
+                    break;
+                case SIMPLE:
+                    if (argument < 0)
+                        throw new IllegalArgumentException("Unexpected break at " + (pos - 1));
+                    break;
+            }
+        }
+
+        private void skipUntilBreak() {
+            while (peek() != BREAK)
+                skipValue();
+            pos++;
+        }
+
+        private int peek() {
+            if (pos >= in.length)
+                throw new IllegalArgumentException("Unexpected end of input");
+            return in[pos] & 0xFF;
+        }
+    }
+}
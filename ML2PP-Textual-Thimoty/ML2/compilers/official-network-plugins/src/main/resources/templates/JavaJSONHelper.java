@@ -0,0 +1,341 @@
+package org.thingml.generated.network;
+
+//Single-pass JSON writer/reader used by the generated JSON serializers.
+//It only supports what the serializers need (objects of primitive values and strings)
+//and does not build any intermediate tree.
+public class JavaJSONHelper {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    /**Returns an empty, thread-confined buffer to serialize into. The buffer is reused by the next call on the same thread.*/
+    public static StringBuilder buffer() {
+        final StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        return out;
+    }
+
+    public static void writeString(final StringBuilder out, final String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                case '\b': out.append("\\b"); break;
+                case '\f': out.append("\\f"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF]).append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    public static void writeChar(final StringBuilder out, final char value) {
+        writeString(out, String.valueOf(value));
+    }
+
+    public static void writeDouble(final StringBuilder out, final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append("null");
+            return;
+        }
+        final int start = out.length();
+        out.append(value);
+        final int end = out.length();
+        if (end - start > 2 && out.charAt(end - 2) == '.' && out.charAt(end - 1) == '0') {
+            out.setLength(end - 2);
+        }
+    }
+
+    public static void writeFloat(final StringBuilder out, final float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            out.append("null");
+            return;
+        }
+        final int start = out.length();
+        out.append(value);
+        final int end = out.length();
+        if (end - start > 2 && out.charAt(end - 2) == '.' && out.charAt(end - 1) == '0') {
+            out.setLength(end - 2);
+        }
+    }
+
+    /**Pull tokenizer over a JSON payload. Field names are matched in place, without creating strings.*/
+    public static class Reader {
+        private final String in;
+        private final int length;
+        private int pos;
+        private int nameStart;
+        private int nameEnd;
+        private String escapedName;
+        private final StringBuilder scratch = new StringBuilder();
+
+        public Reader(final String in) {
+            this.in = in;
+            this.length = in.length();
+            this.pos = 0;
+        }
+
+        private void skipWhitespace() {
+            while (pos < length) {
+                final char c = in.charAt(pos);
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    pos++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private char peek() {
+            skipWhitespace();
+            if (pos >= length)
+                throw new IllegalArgumentException("Unexpected end of input");
+            return in.charAt(pos);
+        }
+
+        private void expect(final char c) {
+            if (peek() != c)
+                throw new IllegalArgumentException("Expected '" + c + "' at " + pos);
+            pos++;
+        }
+
+        public void beginObject() {
+            expect('{');
+        }
+
+        /**Moves to the next field of the current object. Returns false (and consumes the closing brace) at the end of the object.*/
+        public boolean nextField() {
+            char c = peek();
+            if (c == ',') {
+                pos++;
+                c = peek();
+            }
+            if (c == '}') {
+                pos++;
+                return false;
+            }
+            expect('"');
+            nameStart = pos;
+            escapedName = null;
+            while (pos < length) {
+                final char n = in.charAt(pos);
+                if (n == '"') {
+                    break;
+                } else if (n == '\\') {
+                    pos = nameStart - 1;
+                    escapedName = readString();
+                    pos--;
+                    break;
+                }
+                pos++;
+            }
+            nameEnd = pos;
+            expect('"');
+            expect(':');
+            return true;
+        }
+
+        /**Returns true if the name of the current field is name.*/
+        public boolean is(final String name) {
+            if (escapedName != null)
+                return escapedName.equals(name);
+            return nameEnd - nameStart == name.length() && in.regionMatches(nameStart, name, 0, name.length());
+        }
+
+        private boolean consumeNull() {
+            if (peek() == 'n' && in.startsWith("null", pos)) {
+                pos += 4;
+                return true;
+            }
+            return false;
+        }
+
+        private String readString() {
+            expect('"');
+            final int start = pos;
+            while (pos < length) {
+                final char c = in.charAt(pos);
+                if (c == '"') {
+                    pos++;
+                    return in.substring(start, pos - 1);
+                } else if (c == '\\') {
+                    break;
+                }
+                pos++;
+            }
+            scratch.setLength(0);
+            scratch.append(in, start, pos);
+            while (pos < length) {
+                final char c = in.charAt(pos++);
+                if (c == '"') {
+                    return scratch.toString();
+                } else if (c == '\\') {
+                    final char e = in.charAt(pos++);
+                    switch (e) {
+                        case 'n': scratch.append('\n'); break;
+                        case 'r': scratch.append('\r'); break;
+                        case 't': scratch.append('\t'); break;
+                        case 'b': scratch.append('\b'); break;
+                        case 'f': scratch.append('\f'); break;
+                        case 'u':
+                            scratch.append((char) Integer.parseInt(in.substring(pos, pos + 4), 16));
+                            pos += 4;
+                            break;
+                        default: scratch.append(e); break;
+                    }
+                } else {
+                    scratch.append(c);
+                }
+            }
+            throw new IllegalArgumentException("Unterminated string");
+        }
+
+        public String nextString() {
+            if (consumeNull())
+                return null;
+            return readString();
+        }
+
+        public char nextChar() {
+            final String s = nextString();
+            return (s == null || s.isEmpty()) ? '\0' : s.charAt(0);
+        }
+
+        public boolean nextBoolean() {
+            if (consumeNull())
+                return false;
+            final char c = peek();
+            if (c == 't' && in.startsWith("true", pos)) {
+                pos += 4;
+                return true;
+            } else if (c == 'f' && in.startsWith("false", pos)) {
+                pos += 5;
+                return false;
+            }
+            throw new IllegalArgumentException("Expected boolean at " + pos);
+        }
+
+        public long nextLong() {
+            if (consumeNull())
+                return 0;
+            final int start = pos;
+            boolean negative = false;
+            if (pos < length && in.charAt(pos) == '-') {
+                negative = true;
+                pos++;
+            }
+            long value = 0;
+            int digits = 0;
+            while (pos < length) {
+                final char c = in.charAt(pos);
+                if (c >= '0' && c <= '9' && digits < 18) {
+                    value = value * 10 + (c - '0');
+                    digits++;
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            if (digits > 0 && (pos >= length || !isNumberChar(in.charAt(pos))))
+                return negative ? -value : value;
+            // Fractional, exponent or very long numbers: fall back to the slow path (exact, unlike a double)
+            pos = start;
+            while (pos < length && isNumberChar(in.charAt(pos))) {
+                pos++;
+            }
+            if (start == pos)
+                throw new IllegalArgumentException("Expected number at " + pos);
+            try {
+                // Fractions are truncated, values out of the range of a long are errors (instead of wrapping)
+                final java.math.BigDecimal number = new java.math.BigDecimal(in.substring(start, pos));
+                if (number.precision() - number.scale() > 19)//More than 19 integer digits, e.g. 1e1000000000
+                    throw new ArithmeticException();
+                return number.setScale(0, java.math.RoundingMode.DOWN).longValueExact();
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("Number out of range at " + start);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected number at " + start);
+            }
+        }
+
+        public int nextInt() {
+            final int start = pos;
+            final long value = nextLong();
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Number out of range at " + start);
+            return (int) value;
+        }
+
+        public double nextDouble() {
+            if (consumeNull())
+                return Double.NaN;
+            final int start = pos;
+            while (pos < length && isNumberChar(in.charAt(pos))) {
+                pos++;
+            }
+            if (start == pos)
+                throw new IllegalArgumentException("Expected number at " + pos);
+            return Double.parseDouble(in.substring(start, pos));
+        }
+
+        public float nextFloat() {
+            return (float) nextDouble();
+        }
+
+        private static boolean isNumberChar(final char c) {
+            return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+        }
+
+        /**Skips the value of the current field, whatever its type.*/
+        public void skipValue() {
+            final char c = peek();
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                int depth = 0;
+                while (pos < length) {
+                    final char n = in.charAt(pos);
+                    if (n == '"') {
+                        readString();
+                        continue;
+                    }
+                    pos++;
+                    if (n == '{' || n == '[') {
+                        depth++;
+                    } else if (n == '}' || n == ']') {
+                        depth--;
+                        if (depth == 0)
+                            return;
+                    }
+                }
+            } else {
+                while (pos < length) {
+                    final char n = in.charAt(pos);
+                    if (n == ',' || n == '}' || n == ']' || n == ' ' || n == '\n' || n == '\r' || n == '\t')
+                        return;
+                    pos++;
+                }
+            }
+        }
+    }
+}
@@ -8,58 +8,162 @@ import org.fusesource.hawtbuf.Buffer;
 import org.fusesource.hawtbuf.UTF8Buffer;
 import org.fusesource.mqtt.client.*;
 
+import java.io.ByteArrayOutputStream;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class MQTTJava extends Component {
 
+	//A payload of several messages starts with BATCH_MARKER (a control character text formats do not use), then the messages are
+	//newline-separated for text formats, or prefixed by their length (2 bytes, big endian) for binary formats.
+	//Receivers recognize batches by this marker, whatever their own batch size. Same format as the POSIX MQTT plugin.
+	//Messages which cannot be framed (text containing a newline, binary longer than 65535 bytes) are published alone, as is.
+	private static final boolean TEXT_FRAMING = /*$TEXT FRAMING$*/;
+	private static final int BATCH_MARKER = 0x1E;
+
 	private final /*$SERIALIZER$*/ formatter = new /*$SERIALIZER$*/();
 	private final String pubtopic;
 	private final String subtopic;
-
-	//TODO: Make QoS parameterized
+	private final QoS qos;
+	private final int batchSize;
+	private final long batchDelay;
+	private final int queueSize;
+	private final Semaphore inflight;
 
 	final CallbackConnection connection;
-	final Callback<Void> disconnectOnFailure = new Callback<Void>() {
-		public void onSuccess(Void v) {}
+	final Callback<Void> onPublished = new Callback<Void>() {
+		public void onSuccess(Void v) {
+			if (inflight != null) inflight.release();
+		}
 		public void onFailure(Throwable value) {
-			System.err.println("MQTT failure: " + value.getMessage());
-			disconnect();
+			if (inflight != null) inflight.release();
+			System.err.println("MQTT publish failure: " + value.getMessage());
 		}
 	};
 
 	/*$PORTS$*/
 
 	public MQTTJava(String url, String pubtopic, String subtopic) {
+		this(url, pubtopic, subtopic, 1, 1, 0, 0, 0, 10, 30000);
+	}
+
+	public MQTTJava(String url, String pubtopic, String subtopic, int qos, int batchSize, long batchDelay, int queueSize, int maxInflight, long reconnectDelay, long reconnectDelayMax) {
 		this.pubtopic = pubtopic;
 		this.subtopic = subtopic;
+		if (qos < 0 || qos >= QoS.values().length)
+			throw new IllegalArgumentException("Invalid MQTT QoS " + qos + " (@mqtt_qos must be 0, 1 or 2)");
+		this.qos = QoS.values()[qos];
+		this.batchSize = Math.max(1, batchSize);
+		this.batchDelay = batchDelay;
+		this.queueSize = queueSize;
+		this.inflight = maxInflight > 0 ? new Semaphore(maxInflight) : null;
 		final MQTT mqtt = new MQTT();
 		try {
 			mqtt.setHost(url);
 		} catch (URISyntaxException e) {
 			e.printStackTrace();
 		}
+		//Let the client reconnect on its own, with an exponential backoff between attempts
+		mqtt.setConnectAttemptsMax(-1);
+		mqtt.setReconnectAttemptsMax(-1);
+		mqtt.setReconnectDelay(reconnectDelay);
+		mqtt.setReconnectDelayMax(reconnectDelayMax);
+		mqtt.setReconnectBackOffMultiplier(2);
 		connection = mqtt.callbackConnection();
 		registerListener();
 		connect();
 	}
 
+	@Override
+	public Component init() {
+		if (queueSize > 0)
+			return init(new ArrayBlockingQueue<Event>(queueSize), new LinkedBlockingDeque<Component>(1024));
+		return super.init();
+	}
+
+	@Override
+	public void receive(Event e) {
+		if (queueSize <= 0) {
+			super.receive(e);
+			return;
+		}
+		//Bounded queue: block the sending component until there is room (backpressure)
+		if (active.get()) {
+			try {
+				queue.put(e);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
 	private void registerListener() {
 		connection.listener(new	Listener() {
-			public void onDisconnected() {}
-			public void onConnected() {}
+			public void onDisconnected() {
+				System.err.println("MQTT disconnected, reconnecting...");
+			}
+			public void onConnected() {
+				subscribe(); //on the first connection and after each reconnection
+			}
 			public void onPublish(UTF8Buffer topic, Buffer payload, Runnable ack) {
 				if (topic.toString().equals(MQTTJava.this.subtopic)) {
-					/*$PARSING CODE$*/
+					final byte[] bytes = payload.toByteArray();
+					if (!receiveBatch(bytes))
+						receiveFrame(bytes);
 				}
 				ack.run();
 			}
 			public void onFailure(Throwable value) {
 				System.err.println("MQTT failure: " + value.getMessage());
-				disconnect(); // a connection failure occured.
+				disconnect(); // reconnection attempts are exhausted
 			}
 		});
 	}
 
+	private void receiveFrame(byte[] frame) {
+		/*$PARSING CODE$*/
+	}
+
+	//Returns false if the payload is not a batch, i.e. a single message
+	private boolean receiveBatch(byte[] payload) {
+		if (payload.length == 0 || (payload[0] & 0xFF) != BATCH_MARKER)
+			return false;
+		if (TEXT_FRAMING) {
+			int start = 1;
+			for (int i = 1; i <= payload.length; i++) {
+				if (i == payload.length || payload[i] == '\n') {
+					if (i > start)
+						receiveFrame(java.util.Arrays.copyOfRange(payload, start, i));
+					start = i + 1;
+				}
+			}
+			return true;
+		}
+		//A binary message could start with the marker too: it is a batch only if the lengths add up exactly
+		int i = 1;
+		while (i + 2 <= payload.length)
+			i += 2 + (((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF));
+		if (i != payload.length)
+			return false;
+		i = 1;
+		while (i < payload.length) {
+			final int length = ((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF);
+			i += 2;
+			receiveFrame(java.util.Arrays.copyOfRange(payload, i, i + length));
+			i += length;
+		}
+		return true;
+	}
+
+	private byte[] encode(Object payload) {
+		return /*$ENCODE$*/;
+	}
+
 	private void disconnect() {
 		connection.disconnect(new Callback<Void>() {
 			@Override
@@ -69,27 +173,43 @@ public class MQTTJava extends Component {
 		});
 	}
 
+	private void subscribe() {
+		Topic[] topics = {new Topic(MQTTJava.this.subtopic, qos)};
+		connection.subscribe(topics, new Callback<byte[]>() {
+			public void onSuccess(byte[] qoses) {}
+			public void onFailure(Throwable value) {
+				System.err.println("Cannot subscribe to MQTT topic: " + value.getMessage());
+			}
+		});
+	}
+
 	private void connect() {
 		connection.connect(new Callback<Void>() {
 			public void onFailure(Throwable value) {
 				System.err.println("Cannot connect to MQTT broker: " + value.getMessage());
 				disconnect();
 			}
-			// Once we connect..
-			public void onSuccess(Void v) {
-				// Subscribe to a topic
-				Topic[] topics = {new Topic(MQTTJava.this.subtopic, QoS.AT_LEAST_ONCE)};
-				connection.subscribe(topics, new Callback<byte[]>() {
-					public void onSuccess(byte[] qoses) {}
-					public void onFailure(Throwable value) {
-						System.err.println("Cannot subscribe to MQTT topic: " + value.getMessage());
-						disconnect();
-					}
-				});
-			}
+			// Subscriptions are made by the listener, once connected
+			public void onSuccess(Void v) {}
 		});
 	}
 
+	//Whether a message can be coalesced with others in a batch
+	private static boolean canFrame(byte[] frame) {
+		if (!TEXT_FRAMING)
+			return frame.length <= 0xFFFF;
+		for (byte b : frame) {
+			if (b == '\n')
+				return false;
+		}
+		return true;
+	}
+
+	private void publish(byte[] payload) throws InterruptedException {
+		if (inflight != null) inflight.acquire(); //blocks (and in turn fills the queue) while the broker does not keep up
+		connection.publish(new UTF8Buffer(this.pubtopic), new Buffer(payload), qos, false, onPublished);
+	}
+
 	@Override
 	public void stop() {
 		super.stop();
@@ -98,13 +218,58 @@ public class MQTTJava extends Component {
 
 	@Override
 	public void run() {
+		final List<byte[]> batch = new ArrayList<byte[]>(batchSize);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
 		while (active.get()) {
 			try {
 				final Event e = queue.take();//should block if queue is empty, waiting for a message
 				final Object payload = formatter.format(e);
-				if (payload != null) {
-					/*$PUBLISH$*/
+				if (payload == null)
+					continue;
+				final byte[] first = encode(payload);
+				if (batchSize <= 1 || !canFrame(first)) {
+					publish(first);
+					continue;
+				}
+				//Coalesce up to batchSize messages, waiting at most batchDelay ms for the batch to fill up
+				batch.add(first);
+				byte[] alone = null;
+				final long deadline = System.currentTimeMillis() + batchDelay;
+				while (batch.size() < batchSize) {
+					final long remaining = deadline - System.currentTimeMillis();
+					final Event next = remaining > 0 ? queue.poll(remaining, TimeUnit.MILLISECONDS) : queue.poll();
+					if (next == null)
+						break;
+					final Object p = formatter.format(next);
+					if (p == null)
+						continue;
+					final byte[] frame = encode(p);
+					if (!canFrame(frame)) {//published after the batch, to keep the order
+						alone = frame;
+						break;
+					}
+					batch.add(frame);
+				}
+				if (batch.size() == 1) {
+					publish(batch.remove(0));
+				} else {
+					out.reset();
+					out.write(BATCH_MARKER);
+					for (int i = 0; i < batch.size(); i++) {
+						final byte[] frame = batch.get(i);
+						if (TEXT_FRAMING) {
+							if (i > 0) out.write('\n');
+						} else {
+							out.write((frame.length >> 8) & 0xFF);
+							out.write(frame.length & 0xFF);
+						}
+						out.write(frame, 0, frame.length);
+					}
+					batch.clear();
+					publish(out.toByteArray());
 				}
+				if (alone != null)
+					publish(alone);
 			} catch (InterruptedException e) {
 				//e.printStackTrace();
 			}
@@ -123,4 +288,4 @@ public class MQTTJava extends Component {
 		return this;
 	}
 
-}
\ No newline at end of file
+}
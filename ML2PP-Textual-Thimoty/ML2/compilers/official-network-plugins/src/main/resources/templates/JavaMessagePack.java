@@ -0,0 +1,346 @@
+package org.thingml.generated.network;
+
+import java.nio.charset.StandardCharsets;
+
+//MessagePack writer/reader used by the generated MessagePack serializers.
+//Messages are encoded as {"message":{"parameter":value,...}} (like the JSON serializers),
+//so that parameters can be added, removed or reordered on one side without breaking the other.
+public class JavaMessagePack {
+
+    private static final ThreadLocal<Writer> WRITER = new ThreadLocal<Writer>() {
+        @Override
+        protected Writer initialValue() {
+            return new Writer();
+        }
+    };
+
+    /**Returns an empty, thread-confined writer. The writer is reused by the next call on the same thread.*/
+    public static Writer writer() {
+        final Writer out = WRITER.get();
+        out.size = 0;
+        return out;
+    }
+
+    public static class Writer {
+        private byte[] buf = new byte[256];
+        private int size;
+
+        private void ensure(final int n) {
+            if (size + n > buf.length)
+                buf = java.util.Arrays.copyOf(buf, Math.max(size + n, buf.length * 2));
+        }
+
+        private void put(final long v, final int bytes) {
+            for (int i = bytes - 1; i >= 0; i--)
+                buf[size++] = (byte) (v >>> (8 * i));
+        }
+
+        public void beginMap(final int entries) {
+            ensure(5);
+            if (entries < 16) {
+                buf[size++] = (byte) (0x80 | entries);
+            } else if (entries < 65536) {
+                buf[size++] = (byte) 0xde;
+                put(entries, 2);
+            } else {
+                buf[size++] = (byte) 0xdf;
+                put(entries, 4);
+            }
+        }
+
+        private void stringHeader(final int length) {
+            ensure(5 + length);
+            if (length < 32) {
+                buf[size++] = (byte) (0xa0 | length);
+            } else if (length < 256) {
+                buf[size++] = (byte) 0xd9;
+                put(length, 1);
+            } else if (length < 65536) {
+                buf[size++] = (byte) 0xda;
+                put(length, 2);
+            } else {
+                buf[size++] = (byte) 0xdb;
+                put(length, 4);
+            }
+        }
+
+        public void writeString(final String value) {
+            if (value == null) {
+                writeNil();
+                return;
+            }
+            final int length = value.length();
+            for (int i = 0; i < length; i++) {
+                if (value.charAt(i) >= 0x80) {
+                    final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                    stringHeader(utf8.length);
+                    System.arraycopy(utf8, 0, buf, size, utf8.length);
+                    size += utf8.length;
+                    return;
+                }
+            }
+            stringHeader(length);
+            for (int i = 0; i < length; i++)
+                buf[size++] = (byte) value.charAt(i);
+        }
+
+        public void writeChar(final char value) {
+            writeString(String.valueOf(value));
+        }
+
+        public void writeLong(final long v) {
+            ensure(9);
+            if (v >= 0) {
+                if (v < 128) {
+                    buf[size++] = (byte) v;
+                } else if (v < 256) {
+                    buf[size++] = (byte) 0xcc;
+                    put(v, 1);
+                } else if (v < 65536) {
+                    buf[size++] = (byte) 0xcd;
+                    put(v, 2);
+                } else if (v < 0x100000000L) {
+                    buf[size++] = (byte) 0xce;
+                    put(v, 4);
+                } else {
+                    buf[size++] = (byte) 0xcf;
+                    put(v, 8);
+                }
+            } else {
+                if (v >= -32) {
+                    buf[size++] = (byte) v;
+                } else if (v >= Byte.MIN_VALUE) {
+                    buf[size++] = (byte) 0xd0;
+                    put(v, 1);
+                } else if (v >= Short.MIN_VALUE) {
+                    buf[size++] = (byte) 0xd1;
+                    put(v, 2);
+                } else if (v >= Integer.MIN_VALUE) {
+                    buf[size++] = (byte) 0xd2;
+                    put(v, 4);
+                } else {
+                    buf[size++] = (byte) 0xd3;
+                    put(v, 8);
+                }
+            }
+        }
+
+        public void writeFloat(final float v) {
+            ensure(5);
+            buf[size++] = (byte) 0xca;
+            put(Float.floatToIntBits(v), 4);
+        }
+
+        public void writeDouble(final double v) {
+            ensure(9);
+            buf[size++] = (byte) 0xcb;
+            put(Double.doubleToLongBits(v), 8);
+        }
+
+        public void writeBoolean(final boolean v) {
+            ensure(1);
+            buf[size++] = (byte) (v ? 0xc3 : 0xc2);
+        }
+
+        public void writeNil() {
+            ensure(1);
+            buf[size++] = (byte) 0xc0;
+        }
+
+        public Byte[] toObject() {
+            return JavaBinaryHelper.toObject(buf, 0, size);
+        }
+    }
+
+    /**Pull reader over a MessagePack payload. Keys are matched in place, without creating strings.*/
+    public static class Reader {
+        private final byte[] in;
+        private int pos;
+        private int keyStart;
+        private int keyLength;
+        private final long[] remaining = new long[16];
+        private int depth = -1;
+
+        public Reader(final byte[] in) {
+            this.in = in;
+            this.pos = 0;
+        }
+
+        private int u8() {
+            if (pos >= in.length)
+                throw new IllegalArgumentException("Unexpected end of input");
+            return in[pos++] & 0xFF;
+        }
+
+        private long get(final int bytes) {
+            if (pos + bytes > in.length)
+                throw new IllegalArgumentException("Unexpected end of input");
+            long v = 0;
+            for (int i = 0; i < bytes; i++)
+                v = (v << 8) | (in[pos++] & 0xFF);
+            return v;
+        }
+
+        private long mapHeader(final int b) {
+            if ((b & 0xf0) == 0x80) return b & 0x0f;
+            if (b == 0xde) return get(2);
+            if (b == 0xdf) return get(4);
+            throw new IllegalArgumentException("Expected a map at " + (pos - 1));
+        }
+
+        /**Returns the length of the string starting with b, or -1 if it is not a string*/
+        private int stringHeader(final int b) {
+            if ((b & 0xe0) == 0xa0) return b & 0x1f;
+            if (b == 0xd9) return (int) get(1);
+            if (b == 0xda) return (int) get(2);
+            if (b == 0xdb) return (int) get(4);
+            return -1;
+        }
+
+        public void beginMap() {
+            final long entries = mapHeader(u8());
+            if (depth + 1 == remaining.length)
+                throw new IllegalArgumentException("Too deeply nested");
+            remaining[++depth] = entries;
+        }
+
+        /**Reads the next key of the current map, returns false (and leaves the map) when there is none.*/
+        public boolean nextField() {
+            if (remaining[depth] == 0) {
+                depth--;
+                return false;
+            }
+            remaining[depth]--;
+            final int length = stringHeader(u8());
+            if (length < 0) {//Not a string key: skip it, it will not match any name
+                pos--;
+                skipValue();
+                keyLength = -1;
+                return true;
+            }
+            if (pos + length > in.length)
+                throw new IllegalArgumentException("Unexpected end of input");
+            keyStart = pos;
+            keyLength = length;
+            pos += length;
+            return true;
+        }
+
+        /**Compares the current key with an (ASCII) name*/
+        public boolean is(final String name) {
+            if (name.length() != keyLength)
+                return false;
+            for (int i = 0; i < keyLength; i++) {
+                if (in[keyStart + i] != (byte) name.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+
+        public long nextLong() {
+            final int b = u8();
+            if (b < 0x80) return b;
+            if (b >= 0xe0) return (byte) b;
+            switch (b) {
+                case 0xcc: return get(1);
+                case 0xcd: return get(2);
+                case 0xce: return get(4);
+                case 0xcf: return get(8);
+                case 0xd0: return (byte) get(1);
+                case 0xd1: return (short) get(2);
+                case 0xd2: return (int) get(4);
+                case 0xd3: return get(8);
+                case 0xca: return (long) Float.intBitsToFloat((int) get(4));
+                case 0xcb: return (long) Double.longBitsToDouble(get(8));
+                case 0xc2: return 0;
+                case 0xc3: return 1;
+                case 0xc0: return 0;
+                default: throw new IllegalArgumentException("Expected a number at " + (pos - 1));
+            }
+        }
+
+        public int nextInt() {
+            return (int) nextLong();
+        }
+
+        public double nextDouble() {
+            final int b = u8();
+            if (b == 0xca) return Float.intBitsToFloat((int) get(4));
+            if (b == 0xcb) return Double.longBitsToDouble(get(8));
+            if (b == 0xc0) return Double.NaN;
+            pos--;
+            return nextLong();
+        }
+
+        public float nextFloat() {
+            return (float) nextDouble();
+        }
+
+        public boolean nextBoolean() {
+            final int b = u8();
+            if (b == 0xc3) return true;
+            if (b == 0xc2) return false;
+            pos--;
+            return nextLong() != 0;
+        }
+
+        public String nextString() {
+            final int b = u8();
+            if (b == 0xc0) return null;
+            final int length = stringHeader(b);
+            if (length < 0)
+                throw new IllegalArgumentException("Expected a string at " + (pos - 1));
+            if (pos + length > in.length)
+                throw new IllegalArgumentException("Unexpected end of input");
+            final String value = new String(in, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+
+        public char nextChar() {
+            final int b = in[pos] & 0xFF;
+            if ((b & 0xe0) == 0xa0 || b == 0xd9 || b == 0xda || b == 0xdb) {
+                final String value = nextString();
+                return value.isEmpty() ? '\0' : value.charAt(0);
+            }
+            return (char) nextLong();
+        }
+
+        public void skipValue() {
+            long values = 1;
+            while (values > 0) {
+                values--;
+                final int b = u8();
+                if (b < 0x80 || b >= 0xe0) continue;
+                if ((b & 0xf0) == 0x80) { values += 2L * (b & 0x0f); continue; }
+                if ((b & 0xf0) == 0x90) { values += b & 0x0f; continue; }
+                if ((b & 0xe0) == 0xa0) { pos += b & 0x1f; continue; }
+                switch (b) {
+                    case 0xc0: case 0xc2: case 0xc3: break;
+                    case 0xcc: case 0xd0: pos += 1; break;
+                    case 0xcd: case 0xd1: pos += 2; break;
+                    case 0xca: case 0xce: case 0xd2: pos += 4; break;
+                    case 0xcb: case 0xcf: case 0xd3: pos += 8; break;
+                    case 0xd4: pos += 2; break;
+                    case 0xd5: pos += 3; break;
+                    case 0xd6: pos += 5; break;
+                    case 0xd7: pos += 9; break;
+                    case 0xd8: pos += 17; break;
+                    case 0xc4: case 0xd9: pos += get(1); break;
+                    case 0xc5: case 0xda: pos += get(2); break;
+                    case 0xc6: case 0xdb: pos += get(4); break;
+                    case 0xc7: pos += get(1) + 1; break;
+                    case 0xc8: pos += get(2) + 1; break;
+                    case 0xc9: pos += get(4) + 1; break;
+                    case 0xdc: values += get(2); break;
+                    case 0xdd: values += get(4); break;
+                    case 0xde: values += 2 * get(2); break;
+                    case 0xdf: values += 2 * get(4); break;
+                    default: throw new IllegalArgumentException("Invalid MessagePack byte at " + (pos - 1));
+                }
+                if (pos > in.length)
+                    throw new IllegalArgumentException("Unexpected end of input");
+            }
+        }
+    }
+}
@@ -8,7 +8,9 @@ import org.thingml.generated.messages.*;
 import no.sintef.jasm.*;
 import no.sintef.jasm.ext.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class /*$NAME$*/ extends Component {
 
@@ -16,19 +18,35 @@ public class /*$NAME$*/ extends Component {
 
     private final String port;
     private final int baudrate;
+    private final int batchSize;
 
     private final SerialPort serialPort;
-    private final byte START_BYTE = 0x12;
-    private final byte STOP_BYTE = 0x13;
-    private final byte ESCAPE_BYTE = 0x7D;
+    private final byte START_BYTE;
+    private final byte STOP_BYTE;
+    private final byte ESCAPE_BYTE;
+
+    private final JavaBinaryHelper.FrameEncoder encoder;
 
     /*$MESSAGE TYPES$*/
 
     /*$PORTS$*/
 
     public /*$NAME$*/(final String port, final int baudrate) {
+        this(port, baudrate, (byte) 0x12, (byte) 0x13, (byte) 0x7D, 1024, 64);
+    }
+
+    /**
+     * @param maxFrameSize size of the largest frame accepted from the serial port
+     * @param batchSize maximum number of queued messages written to the serial port at once
+     */
+    public /*$NAME$*/(final String port, final int baudrate, final byte start, final byte stop, final byte escape, final int maxFrameSize, final int batchSize) {
         this.port = port;
         this.baudrate = baudrate;
+        this.batchSize = Math.max(1, batchSize);
+        START_BYTE = start;
+        STOP_BYTE = stop;
+        ESCAPE_BYTE = escape;
+        encoder = new JavaBinaryHelper.FrameEncoder(start, stop, escape);
         serialPort = new SerialPort(port);
         try {
             serialPort.openPort();
@@ -37,41 +55,61 @@ public class /*$NAME$*/ extends Component {
                                  SerialPort.STOPBITS_1,
                                  SerialPort.PARITY_NONE,false,true);
             serialPort.setFlowControlMode(SerialPort.FLOWCONTROL_NONE);
-            serialPort.addEventListener(new SerialPortReader());
+            serialPort.setEventsMask(SerialPort.MASK_RXCHAR);
+            serialPort.addEventListener(new SerialPortReader(new JavaBinaryHelper.FrameDecoder(start, stop, escape, maxFrameSize)));
         } catch (SerialPortException ex) {
             System.out.println(ex);
         }
     }
 
-    private void send(final byte[] payload) {
+    /**
+     * Writes all the frames appended to the encoder in a single call
+     */
+    private void flush() {
+        if (encoder.size() == 0)
+            return;
         try {
-            serialPort.writeByte(START_BYTE);
-            for (byte b : payload) {
-                if (b == START_BYTE || b == STOP_BYTE || b == ESCAPE_BYTE) {
-                    serialPort.writeByte(ESCAPE_BYTE);
-                }
-                serialPort.writeByte(b);
-            }
-            serialPort.writeByte(STOP_BYTE);
+            final byte[] frames = encoder.size() == encoder.buffer().length ? encoder.buffer() : Arrays.copyOf(encoder.buffer(), encoder.size());
+            serialPort.writeBytes(frames);
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            encoder.clear();
         }
     }
 
-    private void parse(final byte[] payload) {
+    private void parse(final byte[] frame, final int length) {
         /*$PARSING CODE$*/
     }
 
+    @Override
+    public void stop() {
+        super.stop();
+        try {
+            serialPort.closePort();
+        } catch (SerialPortException ex) {
+            System.err.println(ex);
+        }
+    }
+
     @Override
     public void run() {
+        final List<Event> batch = new ArrayList<Event>(batchSize);
         while (active.get()) {
             try {
-                final Event e = queue.take();//should block if queue is empty, waiting for a message
-                final byte[] payload = JavaBinaryHelper.toPrimitive((Byte[])formatter.format(e));
-                if (payload != null)
-                    send(payload);
+                batch.add(queue.take());//should block if queue is empty, waiting for a message
+                if (batchSize > 1)
+                    queue.drainTo(batch, batchSize - 1);
+                for (Event e : batch) {
+                    final byte[] payload = JavaBinaryHelper.toPrimitive((Byte[])formatter.format(e));
+                    if (payload != null)
+                        encoder.append(payload);
+                }
+                flush();
             } catch (InterruptedException e) {
                 //e.printStackTrace();
+            } finally {
+                batch.clear();
             }
         }
     }
@@ -90,50 +128,30 @@ public class /*$NAME$*/ extends Component {
         return this;
     }
 
-    class SerialPortReader implements SerialPortEventListener {
+    class SerialPortReader implements SerialPortEventListener, JavaBinaryHelper.FrameDecoder.Listener {
 
-        public static final int RCV_WAIT = 0;
-        public static final int RCV_MSG = 1;
-        public static final int RCV_ESC = 2;
-        protected int buffer_idx = 0;
-        protected int state = RCV_WAIT;
-        private byte[] buffer = new byte[256];
+        private final JavaBinaryHelper.FrameDecoder decoder;
+
+        SerialPortReader(JavaBinaryHelper.FrameDecoder decoder) {
+            this.decoder = decoder;
+        }
 
         public void serialEvent(SerialPortEvent event) {
             try {
                 if (event.isRXCHAR() && event.getEventValue() > 0) {
-                    byte[] received = serialPort.readBytes();
-                    for (byte data : received) {
-                        if (state == RCV_WAIT) { // it should be a start byte or we just ignore it
-                            if (data == START_BYTE) {
-                                state = RCV_MSG;
-                                buffer_idx = 0;
-                            }
-                        } else if (state == RCV_MSG) {
-                            if (data == ESCAPE_BYTE) {
-                                state = RCV_ESC;
-                            } else if (data == STOP_BYTE) {
-                                parse(Arrays.copyOf(buffer, buffer_idx));
-                                state = RCV_WAIT;
-                            } else if (data == START_BYTE) {
-                                // Should not happen but we reset just in case
-                                state = RCV_MSG;
-                                buffer_idx = 0;
-                            } else { // it is just a byte to store
-                                buffer[buffer_idx] = (byte) data;
-                                buffer_idx++;
-                            }
-                        } else if (state == RCV_ESC) {
-                            // Store the byte without looking at it
-                            buffer[buffer_idx] = (byte) data;
-                            buffer_idx++;
-                            state = RCV_MSG;
-                        }
-                    }
+                    //Everything available is read and decoded at once, possibly several frames
+                    final byte[] received = serialPort.readBytes(event.getEventValue());
+                    if (received != null)
+                        decoder.decode(received, 0, received.length, this);
                 }
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
+
+        @Override
+        public void onFrame(byte[] frame, int length) {
+            parse(frame, length);
+        }
     }
-}
\ No newline at end of file
+}
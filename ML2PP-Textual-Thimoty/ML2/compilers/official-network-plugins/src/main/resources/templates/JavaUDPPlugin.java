@@ -1,15 +1,21 @@
 package org.thingml.generated.network;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
 
 import org.thingml.generated.messages.*;
 import no.sintef.jasm.*;
@@ -17,14 +23,24 @@ import no.sintef.jasm.ext.*;
 
 public class UDPJava extends Component {
 
+    //Largest payload of an UDP datagram
+    private static final int MAX_DATAGRAM = 65507;
+
     private final /*$SERIALIZER$*/ formatter = new /*$SERIALIZER$*/();
 
     private final int clientID;
     private final int port;
+    private final int batchSize;
 
     private SocketAddress remote;
     private DatagramChannel channel;
-    private Selector selector;
+    private boolean multicast;
+    private Selector selector;      //read readiness, only used by the receiver thread
+    private Selector writeSelector; //write readiness, only used by the sender thread when the socket buffer is full
+
+    //Both buffers are reused for every datagram (one per thread)
+    private final ByteBuffer inBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+    private final ByteBuffer outBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
 
     private Thread receiver;
     private java.util.concurrent.atomic.AtomicBoolean receiving = new java.util.concurrent.atomic.AtomicBoolean(true);
@@ -32,66 +48,127 @@ public class UDPJava extends Component {
    	/*$PORTS$*/
 
     public UDPJava(int clientID, int port, String dest) {
+        this(clientID, port, dest, 0, null, null, false, 1);
+    }
+
+    /**
+     * @param localPort port to receive from (0 for any free port), defaults to port for multicast
+     * @param group multicast group to join and send to (null for unicast to dest)
+     * @param iface name of the network interface used for multicast (null to pick one)
+     * @param loop true to also deliver the datagrams sent to the group to the sockets of this host,
+     * which receive their own datagrams too (only needed when other members of the group run on the same host)
+     * @param batchSize maximum number of queued messages sent in a row, without going back to the queue
+     */
+    public UDPJava(int clientID, int port, String dest, int localPort, String group, String iface, boolean loop, int batchSize) {
         this.clientID = clientID;
         this.port = port;
+        this.batchSize = Math.max(1, batchSize);
         try {
-            remote = new InetSocketAddress(dest, port);
-            channel = DatagramChannel.open();
+            if (group != null && !group.isEmpty()) {
+                final InetAddress groupAddress = InetAddress.getByName(group);
+                final NetworkInterface ni = networkInterface(iface);
+                multicast = true;
+                remote = new InetSocketAddress(groupAddress, port);
+                channel = DatagramChannel.open(groupAddress.getAddress().length == 4 ? StandardProtocolFamily.INET : StandardProtocolFamily.INET6);
+                channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                channel.bind(new InetSocketAddress(localPort > 0 ? localPort : port));
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, ni);
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, loop); //otherwise the node receives what it sends
+                channel.join(groupAddress, ni);
+            } else {
+                remote = new InetSocketAddress(dest, port);
+                channel = DatagramChannel.open();
+                if (localPort > 0)
+                    channel.bind(new InetSocketAddress(localPort));
+                channel.connect(remote);
+            }
             channel.configureBlocking(false);
-            channel.connect(remote);
-            selector = SelectorProvider.provider().openSelector();
-            channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            selector = Selector.open();
+            writeSelector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
             receiver = new Thread( new Runnable() {
                 @Override
                 public void run() {
                     while(UDPJava.this.receiving.get()) {
                         receive();
-                        try {
-                            Thread.sleep(25);
-                        } catch (InterruptedException e) {}
                     }
                 }
-            });
+            }, "UDPJava receiver");
+            receiver.setDaemon(true);
             receiver.start();
         } catch (IOException ex) {
             System.err.println(ex);
         }
     }
 
-    public void send(final byte[] payload) {
-        try {
-            selector.select(clientID);
-            final Set readyKeys = selector.selectedKeys();
-            final Iterator iterator = readyKeys.iterator();
-            if (iterator.hasNext()) {
-                SelectionKey key = (SelectionKey) iterator.next();
-                iterator.remove();
-                if (key.isWritable()) {
-                    channel.write(ByteBuffer.wrap(payload));
-                }
-            }
-        } catch (IOException ex) {
-            System.err.println(ex);
+    private static NetworkInterface networkInterface(String name) throws IOException {
+        if (name != null && !name.isEmpty()) {
+            final NetworkInterface ni = NetworkInterface.getByName(name);
+            if (ni == null)
+                throw new IOException("Unknown network interface " + name);
+            return ni;
+        }
+        NetworkInterface loopback = null;
+        final Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces.hasMoreElements()) {
+            final NetworkInterface ni = interfaces.nextElement();
+            if (!ni.isUp() || !ni.supportsMulticast())
+                continue;
+            if (!ni.isLoopback())
+                return ni;
+            loopback = ni;
         }
+        if (loopback == null)
+            throw new IOException("No network interface supporting multicast");
+        return loopback;
     }
 
+    private void send(final byte[] payload) throws IOException {
+        outBuffer.clear();
+        outBuffer.put(payload);
+        outBuffer.flip();
+        while (sendDatagram() == 0) {
+            //The socket buffer is full: wait until the datagram can be sent
+            writeSelector.select();
+            writeSelector.selectedKeys().clear();
+        }
+    }
+
+    private int sendDatagram() throws IOException {
+        if (multicast)
+            return channel.send(outBuffer, remote);
+        return channel.write(outBuffer);
+    }
+
+    /**
+     * Blocks until some datagrams are available, then handles all of them
+     */
     public void receive() {
         try {
-            selector.select(clientID);
-            final Set readyKeys = selector.selectedKeys();
-            final Iterator iterator = readyKeys.iterator();
-            if (iterator.hasNext()) {
-                SelectionKey key = (SelectionKey) iterator.next();
+            selector.select();
+            final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                final SelectionKey key = iterator.next();
                 iterator.remove();
-                if (key.isReadable()) {
-                    final ByteBuffer buffer = ByteBuffer.allocate(128);
-                    channel.read(buffer);
-                    buffer.flip();
-                    /*$PARSING CODE$*/
+                if (key.isValid() && key.isReadable()) {
+                    //Drain the socket, so that one wake up handles all the datagrams received in the meantime
+                    while (true) {
+                        inBuffer.clear();
+                        if (channel.receive(inBuffer) == null)
+                            break;
+                        inBuffer.flip();
+                        final byte[] datagram = new byte[inBuffer.remaining()];
+                        inBuffer.get(datagram);
+                        /*$PARSING CODE$*/
+                    }
                 }
             }
+        } catch (ClosedSelectorException ex) {
+            //stopped
         } catch (IOException ex) {
-            System.err.println(ex);
+            if (receiving.get())
+                System.err.println(ex);
         }
     }
 
@@ -99,21 +176,39 @@ public class UDPJava extends Component {
     public void stop() {
         super.stop();
         receiving.set(false);
+        selector.wakeup();
         try {
             receiver.join(100);
-        } catch (InterruptedException e) {}    }
+        } catch (InterruptedException e) {}
+        try {
+            selector.close();
+            writeSelector.close();
+            channel.close();
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
 
     @Override
     public void run() {
+        final List<Event> batch = new ArrayList<Event>(batchSize);
         while (active.get()) {
             try {
-                final Event e = queue.take();//should block if queue is empty, waiting for a message
-                final byte[] payload = JavaBinaryHelper.toPrimitive(formatter.format(e));
-                if (payload != null) {
-                    send(payload);
+                batch.add(queue.take());//should block if queue is empty, waiting for a message
+                if (batchSize > 1)
+                    queue.drainTo(batch, batchSize - 1);
+                for (Event e : batch) {
+                    final byte[] payload = JavaBinaryHelper.toPrimitive(formatter.format(e));
+                    if (payload != null) {
+                        send(payload);
+                    }
                 }
             } catch (InterruptedException e) {
                 //e.printStackTrace();
+            } catch (IOException ex) {
+                System.err.println(ex);
+            } finally {
+                batch.clear();
             }
         }
     }
@@ -124,7 +219,9 @@ public class UDPJava extends Component {
         final java.util.List < AtomicState > states = new java.util.ArrayList < AtomicState > ();
         final AtomicState init = new AtomicState("Init");
         states.add(init);
-        behavior = new CompositeState("default", states, init, java.util.Collections.EMPTY_LIST);
+        behavior = new CompositeState("default");
+        behavior.add(init);
+        behavior.initial(init);
         return this;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,609 @@
+package org.thingml.generated.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+//Minimal non-blocking WebSocket (RFC 6455) client and server.
+//All the connections of the application are handled by a single selector thread:
+//listeners are called from that thread and must not block.
+public class JavaWSEventLoop implements Runnable {
+
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_MESSAGE = 16 * 1024 * 1024;
+    private static final int MAX_HEADER = 16 * 1024;
+
+    public interface Listener {
+        void onOpen(Connection c);
+        void onText(Connection c, String message);
+        void onBinary(Connection c, byte[] message);
+        void onClose(Connection c);
+    }
+
+    private static JavaWSEventLoop instance;
+
+    /**Returns the event loop shared by all the WebSocket connectors, started on first use.*/
+    public static synchronized JavaWSEventLoop get() {
+        if (instance == null) {
+            try {
+                instance = new JavaWSEventLoop();
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot open WebSocket selector", e);
+            }
+            final Thread t = new Thread(instance, "WebSocket event loop");
+            t.setDaemon(true);
+            t.start();
+        }
+        return instance;
+    }
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final SecureRandom random = new SecureRandom();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    private JavaWSEventLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**Runs task on the event loop thread.*/
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**Opens a client connection. Messages sent before the connection is open are queued.*/
+    public Connection connect(final String url, final String protocol, final Listener listener) {
+        final URI uri = URI.create(url);
+        final Connection c = new Connection(listener, true, protocol);
+        execute(new Runnable() {
+            public void run() {
+                try {
+                    final int port = uri.getPort() > 0 ? uri.getPort() : 80;
+                    final String path = (uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath()) + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+                    c.channel = SocketChannel.open();
+                    c.channel.configureBlocking(false);
+                    c.channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+                    final byte[] nonce = new byte[16];
+                    random.nextBytes(nonce);
+                    c.key = Base64.getEncoder().encodeToString(nonce);
+                    final StringBuilder request = new StringBuilder();
+                    request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+                    request.append("Host: ").append(uri.getHost()).append(':').append(port).append("\r\n");
+                    request.append("Upgrade: websocket\r\nConnection: Upgrade\r\n");
+                    request.append("Sec-WebSocket-Key: ").append(c.key).append("\r\n");
+                    request.append("Sec-WebSocket-Version: 13\r\n");
+                    if (protocol != null && !protocol.isEmpty())
+                        request.append("Sec-WebSocket-Protocol: ").append(protocol).append("\r\n");
+                    request.append("\r\n");
+                    c.handshake = ByteBuffer.wrap(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+                    if (c.channel.connect(new InetSocketAddress(uri.getHost(), port))) {
+                        c.selectionKey = c.channel.register(selector, SelectionKey.OP_WRITE, c);
+                    } else {
+                        c.selectionKey = c.channel.register(selector, SelectionKey.OP_CONNECT, c);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Cannot connect to websocket server " + url + " because " + e.getMessage());
+                    close(c);
+                }
+            }
+        });
+        return c;
+    }
+
+    /**Accepts WebSocket connections on port. If protocol is not empty, clients must offer this sub-protocol.*/
+    public Server listen(final int port, final String protocol, final Listener listener) {
+        final Server server = new Server(listener, protocol);
+        execute(new Runnable() {
+            public void run() {
+                try {
+                    server.channel = ServerSocketChannel.open();
+                    server.channel.configureBlocking(false);
+                    server.channel.setOption(java.net.StandardSocketOptions.SO_REUSEADDR, true);
+                    server.channel.bind(new InetSocketAddress(port), 1024);
+                    server.channel.register(selector, SelectionKey.OP_ACCEPT, server);
+                } catch (IOException e) {
+                    System.err.println("Cannot start WebSocket server on port " + port + " because " + e.getMessage());
+                }
+            }
+        });
+        return server;
+    }
+
+    public class Server {
+        final Listener listener;
+        final String protocol;
+        ServerSocketChannel channel;
+
+        Server(Listener listener, String protocol) {
+            this.listener = listener;
+            this.protocol = protocol;
+        }
+
+        public void close() {
+            execute(new Runnable() {
+                public void run() {
+                    try {
+                        if (channel != null) channel.close();
+                    } catch (IOException e) {}
+                }
+            });
+        }
+    }
+
+    public class Connection {
+        final Listener listener;
+        final boolean client;
+        final String protocol;
+        SocketChannel channel;
+        SelectionKey selectionKey;
+        String key;
+        ByteBuffer handshake; //outgoing (client) or incoming (server) upgrade, null once open
+        ByteBuffer in = ByteBuffer.allocate(4 * 1024);
+        ByteBuffer fragments; //payload of a fragmented message being received
+        int fragmentsOpcode;
+
+        //Guarded by this
+        private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+        private long queuedBytes;
+        private boolean open;
+        private boolean closed;
+        private boolean writeScheduled;
+
+        Connection(Listener listener, boolean client, String protocol) {
+            this.listener = listener;
+            this.client = client;
+            this.protocol = protocol;
+        }
+
+        public synchronized boolean isOpen() {
+            return open;
+        }
+
+        public synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /**Bytes waiting to be written to the socket.*/
+        public synchronized long queuedBytes() {
+            return queuedBytes;
+        }
+
+        /**Blocks until at most lowWater bytes are waiting to be written (or the connection is closed).*/
+        public synchronized void awaitDrained(long lowWater) throws InterruptedException {
+            while (queuedBytes > lowWater && !closed)
+                wait();
+        }
+
+        /**Queues a text message, can be called from any thread.*/
+        public void sendText(String message) {
+            send(frame(0x1, message.getBytes(StandardCharsets.UTF_8), client));
+        }
+
+        public void sendBinary(byte[] message) {
+            send(frame(0x2, message, client));
+        }
+
+        /**Queues an already encoded frame. The buffer is not modified and can be shared between connections.*/
+        public void send(ByteBuffer frame) {
+            synchronized (this) {
+                if (closed) return;
+                writeQueue.add(frame.duplicate());
+                queuedBytes += frame.remaining();
+                if (!open || writeScheduled) return;
+                writeScheduled = true;
+            }
+            execute(new Runnable() {
+                public void run() {
+                    interest(Connection.this, SelectionKey.OP_WRITE, true);
+                }
+            });
+        }
+
+        public void close() {
+            execute(new Runnable() {
+                public void run() {
+                    synchronized (Connection.this) {
+                        if (!open) {
+                            JavaWSEventLoop.this.close(Connection.this);
+                            return;
+                        }
+                    }
+                    send(frame(0x8, new byte[]{0x03, (byte) 0xE8}, client)); //1000: normal closure
+                    synchronized (Connection.this) {
+                        open = false; //flush what is queued, then close
+                    }
+                    interest(Connection.this, SelectionKey.OP_WRITE, true);
+                }
+            });
+        }
+    }
+
+    /**Encodes a (final) frame. Frames sent by a server are not masked, so they can be shared between connections.*/
+    public ByteBuffer frame(int opcode, byte[] payload, boolean mask) {
+        final int length = payload.length;
+        final int header = 2 + (length < 126 ? 0 : length < 65536 ? 2 : 8) + (mask ? 4 : 0);
+        final ByteBuffer b = ByteBuffer.allocate(header + length);
+        b.put((byte) (0x80 | opcode));
+        final int maskBit = mask ? 0x80 : 0;
+        if (length < 126) {
+            b.put((byte) (maskBit | length));
+        } else if (length < 65536) {
+            b.put((byte) (maskBit | 126));
+            b.putShort((short) length);
+        } else {
+            b.put((byte) (maskBit | 127));
+            b.putLong(length);
+        }
+        if (mask) {
+            final byte[] m = new byte[4];
+            ThreadLocalRandom.current().nextBytes(m);
+            b.put(m);
+            for (int i = 0; i < length; i++)
+                b.put((byte) (payload[i] ^ m[i & 3]));
+        } else {
+            b.put(payload);
+        }
+        b.flip();
+        return b;
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                    task.run();
+                selector.select();
+                final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey k = it.next();
+                    it.remove();
+                    try {
+                        if (k.attachment() instanceof Server) {
+                            if (k.isAcceptable()) accept((Server) k.attachment());
+                        } else {
+                            handle((Connection) k.attachment(), k);
+                        }
+                    } catch (CancelledKeyException e) {
+                        //closed in the meantime
+                    }
+                }
+            } catch (Throwable t) {
+                System.err.println("WebSocket event loop error: " + t);
+            }
+        }
+    }
+
+    private void accept(Server server) {
+        SocketChannel sc;
+        try {
+            while ((sc = server.channel.accept()) != null) {
+                final Connection c = new Connection(server.listener, false, server.protocol);
+                c.channel = sc;
+                c.handshake = ByteBuffer.allocate(1024);
+                sc.configureBlocking(false);
+                sc.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+                c.selectionKey = sc.register(selector, SelectionKey.OP_READ, c);
+            }
+        } catch (IOException e) {
+            System.err.println("WebSocket server cannot accept connection: " + e.getMessage());
+        }
+    }
+
+    private void handle(Connection c, SelectionKey k) {
+        try {
+            if (k.isConnectable()) {
+                c.channel.finishConnect();
+                k.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            if (k.isWritable()) {
+                if (c.client && c.handshake != null && c.handshake.hasRemaining()) {
+                    c.channel.write(c.handshake);
+                    if (!c.handshake.hasRemaining()) {
+                        c.handshake = ByteBuffer.allocate(1024); //now waiting for the response
+                        k.interestOps(SelectionKey.OP_READ);
+                    }
+                    return;
+                }
+                flush(c, k);
+            }
+            if (k.isValid() && k.isReadable()) {
+                read(c);
+            }
+        } catch (IOException e) {
+            close(c);
+        }
+    }
+
+    private void flush(Connection c, SelectionKey k) throws IOException {
+        synchronized (c) {
+            while (!c.writeQueue.isEmpty()) {
+                final ByteBuffer b = c.writeQueue.peek();
+                final int n = b.remaining();
+                c.channel.write(b);
+                c.queuedBytes -= n - b.remaining();
+                if (b.hasRemaining())
+                    break; //socket buffer full, wait for the next OP_WRITE
+                c.writeQueue.poll();
+            }
+            c.notifyAll();
+            if (c.writeQueue.isEmpty()) {
+                c.writeScheduled = false;
+                if (!c.open && c.handshake == null) { //close frame sent
+                    close(c);
+                    return;
+                }
+                k.interestOps(k.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    private void read(Connection c) throws IOException {
+        readBuffer.clear();
+        final int n = c.channel.read(readBuffer);
+        if (n < 0) {
+            close(c);
+            return;
+        }
+        readBuffer.flip();
+        if (c.handshake != null) {
+            c.handshake = append(c.handshake, readBuffer);
+            final int end = headerEnd(c.handshake);
+            if (end < 0) {
+                if (c.handshake.position() > MAX_HEADER) close(c);
+                return;
+            }
+            final String header = new String(c.handshake.array(), 0, end, StandardCharsets.ISO_8859_1);
+            //Bytes following the header already belong to the WebSocket stream
+            c.in.clear();
+            c.in = append(c.in, ByteBuffer.wrap(c.handshake.array(), end, c.handshake.position() - end));
+            c.handshake = null;
+            if (c.client ? !checkResponse(c, header) : !answerUpgrade(c, header)) {
+                close(c);
+                return;
+            }
+            synchronized (c) {
+                c.open = true;
+                if (!c.writeQueue.isEmpty()) {
+                    c.writeScheduled = true;
+                    c.selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                } else {
+                    c.selectionKey.interestOps(SelectionKey.OP_READ);
+                }
+            }
+            c.listener.onOpen(c);
+        } else {
+            c.in = append(c.in, readBuffer);
+        }
+        parseFrames(c);
+    }
+
+    private static int headerEnd(ByteBuffer b) {
+        final byte[] a = b.array();
+        for (int i = 3; i < b.position(); i++) {
+            if (a[i - 3] == '\r' && a[i - 2] == '\n' && a[i - 1] == '\r' && a[i] == '\n')
+                return i + 1;
+        }
+        return -1;
+    }
+
+    private static String headerValue(String header, String name) {
+        final String prefix = name.toLowerCase(Locale.ROOT) + ":";
+        for (String line : header.split("\r\n")) {
+            if (line.toLowerCase(Locale.ROOT).startsWith(prefix))
+                return line.substring(prefix.length()).trim();
+        }
+        return null;
+    }
+
+    private static String accept(String key) {
+        try {
+            final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(sha1.digest((key + GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private boolean checkResponse(Connection c, String header) {
+        if (!header.startsWith("HTTP/1.1 101") || !accept(c.key).equals(headerValue(header, "Sec-WebSocket-Accept"))) {
+            System.err.println("WebSocket handshake refused: " + header.split("\r\n")[0]);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean answerUpgrade(Connection c, String header) throws IOException {
+        final String key = headerValue(header, "Sec-WebSocket-Key");
+        boolean protocolOK = c.protocol == null || c.protocol.isEmpty();
+        final String offered = headerValue(header, "Sec-WebSocket-Protocol");
+        if (!protocolOK && offered != null) {
+            for (String p : offered.split(",")) {
+                if (p.trim().equals(c.protocol)) protocolOK = true;
+            }
+        }
+        final StringBuilder response = new StringBuilder();
+        if (key == null || !protocolOK) {
+            response.append("HTTP/1.1 400 Bad Request\r\nConnection: close\r\n\r\n");
+        } else {
+            response.append("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n");
+            response.append("Sec-WebSocket-Accept: ").append(accept(key)).append("\r\n");
+            if (c.protocol != null && !c.protocol.isEmpty())
+                response.append("Sec-WebSocket-Protocol: ").append(c.protocol).append("\r\n");
+            response.append("\r\n");
+        }
+        //The socket buffer of a new connection is empty, the response is written at once
+        c.channel.write(ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.ISO_8859_1)));
+        return key != null && protocolOK;
+    }
+
+    private void parseFrames(Connection c) {
+        final ByteBuffer in = c.in;
+        in.flip();
+        try {
+            while (in.remaining() >= 2) {
+                final int start = in.position();
+                final int b0 = in.get() & 0xFF;
+                final int b1 = in.get() & 0xFF;
+                long length = b1 & 0x7F;
+                if (length == 126) {
+                    if (in.remaining() < 2) { in.position(start); break; }
+                    length = in.getShort() & 0xFFFF;
+                } else if (length == 127) {
+                    if (in.remaining() < 8) { in.position(start); break; }
+                    length = in.getLong();
+                }
+                if (length < 0) { //the most significant bit of a 64-bit length must be 0
+                    fail(c, 1002);
+                    return;
+                }
+                if (length > MAX_MESSAGE) {
+                    fail(c, 1009);
+                    return;
+                }
+                //Clients must mask their frames, servers must not (RFC 6455, section 5.1)
+                final boolean masked = (b1 & 0x80) != 0;
+                if (masked == c.client) {
+                    fail(c, 1002);
+                    return;
+                }
+                if (in.remaining() < (masked ? 4 : 0) + length) { in.position(start); break; }
+                final byte[] m = new byte[4];
+                if (masked) in.get(m);
+                final byte[] payload = new byte[(int) length];
+                in.get(payload);
+                if (masked) {
+                    for (int i = 0; i < payload.length; i++)
+                        payload[i] ^= m[i & 3];
+                }
+                if (!onFrame(c, (b0 & 0x80) != 0, b0 & 0x0F, payload))
+                    return;
+            }
+        } finally {
+            in.compact();
+        }
+    }
+
+    //Returns false once the connection is closed
+    private boolean onFrame(Connection c, boolean fin, int opcode, byte[] payload) {
+        switch (opcode) {
+            case 0x0: //continuation
+                if (c.fragments == null) return true;
+                c.fragments = append(c.fragments, ByteBuffer.wrap(payload));
+                if (c.fragments.position() > MAX_MESSAGE) {
+                    fail(c, 1009);
+                    return false;
+                }
+                if (fin) {
+                    final byte[] message = new byte[c.fragments.position()];
+                    c.fragments.flip();
+                    c.fragments.get(message);
+                    c.fragments = null;
+                    deliver(c, c.fragmentsOpcode, message);
+                }
+                return true;
+            case 0x1:
+            case 0x2:
+                if (fin) {
+                    deliver(c, opcode, payload);
+                } else {
+                    c.fragmentsOpcode = opcode;
+                    c.fragments = append(ByteBuffer.allocate(payload.length * 2 + 16), ByteBuffer.wrap(payload));
+                }
+                return true;
+            case 0x8: //close: answer and close
+                closeWith(c, payload.length >= 2 ? new byte[]{payload[0], payload[1]} : new byte[0]);
+                return false;
+            case 0x9: //ping
+                c.send(frame(0xA, payload, c.client));
+                return true;
+            default: //pong and reserved opcodes
+                return true;
+        }
+    }
+
+    //Closes the connection with a status code (1002: protocol error, 1009: message too big)
+    private void fail(Connection c, int status) {
+        closeWith(c, new byte[]{(byte) (status >> 8), (byte) status});
+    }
+
+    //Sends a close frame in place of what is queued and stops reading, the connection is closed once it is written
+    private void closeWith(Connection c, byte[] payload) {
+        synchronized (c) {
+            if (c.open) {
+                c.writeQueue.clear();
+                c.writeQueue.add(frame(0x8, payload, c.client));
+                c.open = false;
+                c.writeScheduled = true;
+                interest(c, SelectionKey.OP_READ, false);
+                interest(c, SelectionKey.OP_WRITE, true);
+                return;
+            }
+        }
+        close(c);
+    }
+
+    private void deliver(Connection c, int opcode, byte[] message) {
+        try {
+            if (opcode == 0x1) {
+                c.listener.onText(c, new String(message, StandardCharsets.UTF_8));
+            } else {
+                c.listener.onBinary(c, message);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void interest(Connection c, int ops, boolean add) {
+        if (c.selectionKey == null || !c.selectionKey.isValid()) return;
+        final int current = c.selectionKey.interestOps();
+        c.selectionKey.interestOps(add ? current | ops : current & ~ops);
+    }
+
+    private void close(Connection c) {
+        synchronized (c) {
+            if (c.closed) return;
+            c.closed = true;
+            c.open = false;
+            c.writeQueue.clear();
+            c.queuedBytes = 0;
+            c.notifyAll();
+        }
+        try {
+            if (c.selectionKey != null) c.selectionKey.cancel();
+            if (c.channel != null) c.channel.close();
+        } catch (IOException e) {}
+        c.listener.onClose(c);
+    }
+
+    //Appends src to dst (in write mode), growing dst if needed
+    private static ByteBuffer append(ByteBuffer dst, ByteBuffer src) {
+        if (dst.remaining() < src.remaining()) {
+            final ByteBuffer bigger = ByteBuffer.allocate(Math.max(dst.capacity() * 2, dst.position() + src.remaining()));
+            dst.flip();
+            bigger.put(dst);
+            dst = bigger;
+        }
+        dst.put(src);
+        return dst;
+    }
+}
@@ -1,60 +1,50 @@
 package org.thingml.generated.network;
 
-import org.eclipse.jetty.websocket.api.Session;
-import org.eclipse.jetty.websocket.api.annotations.*;
-
 import java.nio.ByteBuffer;
-import java.util.*;
-
-@WebSocket
-public class JavaWSHandler {
-
-    private static Set<Session> sessions = Collections.synchronizedSet(new HashSet<Session>()); //keep all active sessions to broadcast messages to all except the sender
-
-    public JavaWSHandler(){}
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+//Relays every message to all the other connected sessions.
+//Only called from the event loop thread, so the sessions need no locking.
+public class JavaWSHandler implements JavaWSEventLoop.Listener {
+
+    private final Set<JavaWSEventLoop.Connection> sessions = new HashSet<JavaWSEventLoop.Connection>();
+    private final long maxQueued;
+
+    /**
+     * @param maxQueued bytes that can wait to be written to a session, messages to slower sessions are dropped
+     */
+    public JavaWSHandler(long maxQueued) {
+        this.maxQueued = maxQueued;
+    }
 
-    @OnWebSocketClose
-    public void onClose(Session session, int statusCode, String reason) {
-        synchronized (sessions) {
-            sessions.remove(session);
-        }
+    @Override
+    public void onOpen(JavaWSEventLoop.Connection session) {
+        sessions.add(session);
     }
 
-    @OnWebSocketError
-    public void onError(Session s, Throwable t) {
-        System.out.println("Jetty WS Server error: " + t.getMessage() + " Disconnecting faulty session " + s);
-        synchronized (sessions) {
-            sessions.remove(s);
-        }
-        s.close(1, "Faulty session");
+    @Override
+    public void onClose(JavaWSEventLoop.Connection session) {
+        sessions.remove(session);
     }
 
-    @OnWebSocketConnect
-    public void onConnect(Session session) {
-        synchronized (sessions) {
-            sessions.add(session);
-        }
+    @Override
+    public void onText(JavaWSEventLoop.Connection session, String message) {
+        broadcast(session, JavaWSEventLoop.get().frame(0x1, message.getBytes(StandardCharsets.UTF_8), false));
     }
 
-    @OnWebSocketMessage
-    public void onMessage(final Session session, final String message) {
-        synchronized (sessions) {
-            for (Session s : sessions) {
-                if (!s.equals(session) && s.isOpen()) {
-                    s.getRemote().sendString(message, null);
-                }
-            }
-        }
+    @Override
+    public void onBinary(JavaWSEventLoop.Connection session, byte[] message) {
+        broadcast(session, JavaWSEventLoop.get().frame(0x2, message, false));
     }
 
-    @OnWebSocketMessage
-    public void onMessage(final Session session, final byte[] message, final int offset, final int length) {
-        synchronized (sessions) {
-            for (Session s : sessions) {
-                if (!s.equals(session) && s.isOpen()) {
-                    s.getRemote().sendBytes(ByteBuffer.wrap(message), null);
-                }
+    //The frame is encoded once and shared by all the sessions
+    private void broadcast(JavaWSEventLoop.Connection sender, ByteBuffer frame) {
+        for (JavaWSEventLoop.Connection s : sessions) {
+            if (s != sender && s.isOpen() && s.queuedBytes() < maxQueued) {
+                s.send(frame);
             }
         }
     }
-}
\ No newline at end of file
+}
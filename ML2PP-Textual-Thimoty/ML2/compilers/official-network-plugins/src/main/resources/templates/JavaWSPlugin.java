@@ -4,39 +4,52 @@ import org.thingml.generated.messages.*;
 import no.sintef.jasm.*;
 import no.sintef.jasm.ext.*;
 
-import com.neovisionaries.ws.client.WebSocket;
-import com.neovisionaries.ws.client.WebSocketFactory;
-import com.neovisionaries.ws.client.WebSocketAdapter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
 
-import java.util.List;
-import java.util.Map;
-
-public class WSJava extends Component {
+public class WSJava extends Component implements JavaWSEventLoop.Listener {
 	private final /*$SERIALIZER$*/ formatter = new /*$SERIALIZER$*/();
 
-	private final WebSocketFactory factory = new WebSocketFactory();
-	private WebSocket ws;
+	private final String serverURL;
+	private final String protocol;
+	private final int queueSize;
+	private final long maxQueued;
+	private JavaWSEventLoop.Connection ws;
 
 	/*$PORTS$*/
 
 	public WSJava(String serverURL, String protocol) {
-		try {
-			ws = factory.createSocket(serverURL);
-			ws.addProtocol(protocol);
-			ws.addListener(new WebSocketAdapter() {
-				@Override
-				public void onTextMessage(WebSocket websocket, String message) throws Exception {
-					parse(message);
-				}
-				@Override
-				public void onConnected(WebSocket websocket, Map<String, List<String>> headers) throws Exception {
-					/*$CALLBACK$*/
-				}
-			});
-		} catch (Exception e) {
-			System.err.println("Cannot connect to websocket server " + serverURL + " because " + e.getMessage());
-			stop();
-		}
+		this(serverURL, protocol, 0, 1024 * 1024);
+	}
+
+	/**
+	 * @param queueSize capacity of the queue of messages to send, 0 for unbounded
+	 * @param maxQueued bytes that can wait to be written to the socket before the sending thread blocks
+	 */
+	public WSJava(String serverURL, String protocol, int queueSize, long maxQueued) {
+		this.serverURL = serverURL;
+		this.protocol = protocol;
+		this.queueSize = queueSize;
+		this.maxQueued = maxQueued;
+	}
+
+	@Override
+	public void onOpen(JavaWSEventLoop.Connection c) {
+		/*$CALLBACK$*/
+	}
+
+	@Override
+	public void onText(JavaWSEventLoop.Connection c, String message) {
+		parse(message);
+	}
+
+	@Override
+	public void onBinary(JavaWSEventLoop.Connection c, byte[] message) {}
+
+	@Override
+	public void onClose(JavaWSEventLoop.Connection c) {
+		if (active.get())
+			System.err.println("Connection to websocket server " + serverURL + " closed");
 	}
 
 	private void parse(final String payload) {
@@ -45,23 +58,49 @@ public class WSJava extends Component {
 
 	@Override
 	public Component init() {
-		super.init();
-		try {
-			ws.connect();
-		} catch (Exception e) {
-			System.err.println("Cannot connect to websocket server because " + e.getMessage());
-		}
+		if (queueSize > 0)
+			init(new ArrayBlockingQueue<Event>(queueSize), new LinkedBlockingDeque<Component>(1024));
+		else
+			super.init();
+		ws = JavaWSEventLoop.get().connect(serverURL, protocol, this);
 		return this;
 	}
 
+	@Override
+	public void receive(Event e) {
+		if (queueSize <= 0) {
+			super.receive(e);
+			return;
+		}
+		//Bounded queue: block the sending component until there is room (backpressure)
+		if (active.get()) {
+			try {
+				queue.put(e);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		if (ws != null)
+			ws.close();
+	}
+
 	@Override
 	public void run() {
 		while (active.get()) {
 			try {
 				final Event e = queue.take();//should block if queue is empty, waiting for a message
 				final String payload = formatter.format(e);
-				if (payload != null)
+				if (payload != null) {
 					ws.sendText(payload);
+					//Slow connection: stop taking messages (and in turn fill the queue) until the socket catches up
+					if (ws.queuedBytes() > maxQueued)
+						ws.awaitDrained(maxQueued / 2);
+				}
 			} catch (InterruptedException e) {
 				//e.printStackTrace();
 			}
@@ -74,8 +113,9 @@ public class WSJava extends Component {
 		final java.util.List < AtomicState > states = new java.util.ArrayList < AtomicState > ();
 		final AtomicState init = new AtomicState("Init");
 		states.add(init);
-		behavior = new CompositeState("default", states, init, java.util.Collections.EMPTY_LIST);
+		behavior = new CompositeState("default");
+		behavior.add(init);
+		behavior.initial(init);
 		return this;
 	}
 }
-
@@ -1,54 +1,23 @@
 package org.thingml.generated.network;
 
-import org.eclipse.jetty.server.Server;
-import org.eclipse.jetty.servlet.ServletContextHandler;
-
-import org.eclipse.jetty.websocket.servlet.WebSocketServlet;
-import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
-
-import javax.servlet.annotation.WebServlet;
-
-@WebServlet(urlPatterns="/")
-public class JavaWSServer extends WebSocketServlet {
+//WebSocket server relaying messages between its clients, running on the shared WebSocket event loop
+public class JavaWSServer {
 
     public int port = 9000;
-    private Server server;
-
-    @Override
-    public void configure(WebSocketServletFactory factory) {
-        /*$PROTOCOL$*/factory.setCreator(new JavaWSProtocol());
-        /*$NO PROTOCOL$*/factory.register(JavaWSHandler.class);
-    }
+    public String protocol = "";
+    public long maxQueued = 1024 * 1024;
+    private JavaWSEventLoop.Server server;
 
     public void start() {
-        try {
-            if (!server.isStarted()) {
-                server.start();
-            }
-        } catch (Exception e) {
-            System.err.println("Cannot start Jetty Server because " + e.getLocalizedMessage());
-            e.printStackTrace();
+        if (server == null) {
+            server = JavaWSEventLoop.get().listen(port, protocol, new JavaWSHandler(maxQueued));
         }
     }
 
     public void stop() {
-        try {
-            if (server.isStarted()) {
-                server.stop();
-                server.join();
-            }
-        } catch (Exception e) {
-            System.err.println("Cannot stop Jetty Server because " + e.getLocalizedMessage());
-            e.printStackTrace();
+        if (server != null) {
+            server.close();
+            server = null;
         }
     }
-
-    public JavaWSServer() {
-        server = new Server(port);
-        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
-        context.setContextPath("/");
-        context.setResourceBase(System.getProperty("java.io.tmpdir"));
-        server.setHandler(context);
-        context.addServlet(JavaWSServer.class, "/");
-    }
-}
\ No newline at end of file
+}
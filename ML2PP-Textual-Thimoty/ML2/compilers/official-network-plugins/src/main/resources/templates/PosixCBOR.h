@@ -0,0 +1,324 @@
+#ifndef THINGML_CBOR_H
+#define THINGML_CBOR_H
+
+// CBOR (RFC 7049) writer/reader used by the generated CBOR serializers.
+// Messages are encoded as {"message":{"parameter":value,...}} (like the JSON serializers),
+// so that parameters can be added, removed or reordered on one side without breaking the other.
+
+#include <stdint.h>
+#include <string.h>
+
+#define CBOR_UNSIGNED 0
+#define CBOR_NEGATIVE 1
+#define CBOR_BYTES    2
+#define CBOR_TEXT     3
+#define CBOR_ARRAY    4
+#define CBOR_MAP      5
+#define CBOR_TAG      6
+#define CBOR_SIMPLE   7
+#define CBOR_BREAK    0xff
+
+/* ---------- Writer: each function writes at buf[i] and returns the new index ---------- */
+
+static inline uint16_t cbor_put_be(uint8_t *buf, uint16_t i, uint64_t v, uint8_t bytes)
+{
+    while (bytes > 0) {
+        bytes--;
+        buf[i++] = (uint8_t)(v >> (8 * bytes));
+    }
+    return i;
+}
+
+/* Major type with its argument, in the shortest form */
+static inline uint16_t cbor_put_header(uint8_t *buf, uint16_t i, uint8_t major, uint64_t v)
+{
+    uint8_t type = major << 5;
+    if (v < 24) { buf[i++] = type | (uint8_t) v; return i; }
+    if (v < 256) { buf[i++] = type | 24; return cbor_put_be(buf, i, v, 1); }
+    if (v < 65536) { buf[i++] = type | 25; return cbor_put_be(buf, i, v, 2); }
+    if (v < 0x100000000ULL) { buf[i++] = type | 26; return cbor_put_be(buf, i, v, 4); }
+    buf[i++] = type | 27;
+    return cbor_put_be(buf, i, v, 8);
+}
+
+static inline uint16_t cbor_put_map(uint8_t *buf, uint16_t i, uint32_t entries)
+{
+    return cbor_put_header(buf, i, CBOR_MAP, entries);
+}
+
+static inline uint16_t cbor_put_str(uint8_t *buf, uint16_t i, const char *s, uint16_t len)
+{
+    i = cbor_put_header(buf, i, CBOR_TEXT, len);
+    memcpy(&buf[i], s, len);
+    return i + len;
+}
+
+static inline uint16_t cbor_put_uint(uint8_t *buf, uint16_t i, uint64_t v)
+{
+    return cbor_put_header(buf, i, CBOR_UNSIGNED, v);
+}
+
+static inline uint16_t cbor_put_int(uint8_t *buf, uint16_t i, int64_t v)
+{
+    if (v >= 0) return cbor_put_header(buf, i, CBOR_UNSIGNED, (uint64_t) v);
+    return cbor_put_header(buf, i, CBOR_NEGATIVE, (uint64_t)(-1 - v));
+}
+
+static inline uint16_t cbor_put_float(uint8_t *buf, uint16_t i, float v)
+{
+    union { float f; uint32_t u; } bits;
+    bits.f = v;
+    buf[i++] = 0xfa;
+    return cbor_put_be(buf, i, bits.u, 4);
+}
+
+static inline uint16_t cbor_put_double(uint8_t *buf, uint16_t i, double v)
+{
+    union { double d; uint64_t u; } bits;
+    bits.d = v;
+    buf[i++] = 0xfb;
+    return cbor_put_be(buf, i, bits.u, 8);
+}
+
+static inline uint16_t cbor_put_bool(uint8_t *buf, uint16_t i, uint8_t v)
+{
+    buf[i++] = v ? 0xf5 : 0xf4;
+    return i;
+}
+
+static inline uint16_t cbor_put_char(uint8_t *buf, uint16_t i, char c)
+{
+    return cbor_put_str(buf, i, &c, 1);
+}
+
+static inline uint16_t cbor_put_nil(uint8_t *buf, uint16_t i)
+{
+    buf[i++] = 0xf6;
+    return i;
+}
+
+/* ---------- Reader: keys are matched in place, errors are sticky in r->error ---------- */
+
+#define CBOR_MAX_DEPTH 16
+#define CBOR_INDEFINITE 0xffffffffU
+
+struct cbor_reader {
+    const uint8_t *in;
+    uint32_t size;
+    uint32_t pos;
+    uint8_t error;
+    uint32_t key_start;
+    int32_t key_len;
+    uint32_t remaining[CBOR_MAX_DEPTH]; // CBOR_INDEFINITE for maps of indefinite length
+    int8_t depth;
+};
+
+static inline void cbor_reader_init(struct cbor_reader *r, const uint8_t *in, uint32_t size)
+{
+    memset(r, 0, sizeof(*r));
+    r->in = in;
+    r->size = size;
+    r->depth = -1;
+}
+
+static inline uint8_t cbor_peek(struct cbor_reader *r)
+{
+    if (r->pos >= r->size) { r->error = 1; return CBOR_BREAK; }
+    return r->in[r->pos];
+}
+
+static inline uint8_t cbor_u8(struct cbor_reader *r)
+{
+    uint8_t b = cbor_peek(r);
+    if (!r->error) r->pos++;
+    return b;
+}
+
+static inline uint64_t cbor_get_be(struct cbor_reader *r, uint8_t bytes)
+{
+    uint64_t v = 0;
+    if (r->pos + bytes > r->size) { r->error = 1; r->pos = r->size; return 0; }
+    while (bytes-- > 0) v = (v << 8) | r->in[r->pos++];
+    return v;
+}
+
+/* Argument following an initial byte, *indefinite is set for indefinite lengths */
+static inline uint64_t cbor_argument(struct cbor_reader *r, uint8_t b, uint8_t *indefinite)
+{
+    uint8_t info = b & 0x1f;
+    *indefinite = 0;
+    if (info < 24) return info;
+    switch (info) {
+        case 24: return cbor_get_be(r, 1);
+        case 25: return cbor_get_be(r, 2);
+        case 26: return cbor_get_be(r, 4);
+        case 27: return cbor_get_be(r, 8);
+        case 31: *indefinite = 1; return 0;
+        default: r->error = 1; return 0;
+    }
+}
+
+/* Skips tags, returns the initial byte of the next data item */
+static inline uint8_t cbor_next(struct cbor_reader *r)
+{
+    uint8_t indefinite;
+    uint8_t b = cbor_u8(r);
+    while (!r->error && (b >> 5) == CBOR_TAG) {
+        cbor_argument(r, b, &indefinite);
+        b = cbor_u8(r);
+    }
+    return b;
+}
+
+static inline void cbor_skip(struct cbor_reader *r)
+{
+    // Pending items per nesting level, CBOR_INDEFINITE until a break for indefinite lengths
+    uint64_t pending[CBOR_MAX_DEPTH];
+    int8_t level = 0;
+    pending[0] = 1;
+    while (!r->error && level >= 0) {
+        if (pending[level] == 0) { level--; continue; }
+        if (pending[level] == CBOR_INDEFINITE && cbor_peek(r) == CBOR_BREAK) { r->pos++; level--; continue; }
+        if (pending[level] != CBOR_INDEFINITE) pending[level]--;
+        uint8_t indefinite;
+        uint8_t b = cbor_next(r);
+        uint64_t arg = cbor_argument(r, b, &indefinite);
+        uint64_t items = 0;
+        switch (b >> 5) {
+            case CBOR_BYTES: case CBOR_TEXT:
+                if (!indefinite) { r->pos += arg; if (r->pos > r->size) r->error = 1; continue; }
+                break; // chunks are definite strings, until a break
+            case CBOR_ARRAY: items = arg; break;
+            case CBOR_MAP: items = 2 * arg; break;
+            case CBOR_SIMPLE: if (indefinite) r->error = 1; continue;
+            default: continue;
+        }
+        if (level + 1 >= CBOR_MAX_DEPTH) { r->error = 1; return; }
+        pending[++level] = indefinite ? CBOR_INDEFINITE : items;
+    }
+}
+
+/* Enters a map, returns 0 if the next value is not a map */
+static inline uint8_t cbor_begin_map(struct cbor_reader *r)
+{
+    uint8_t indefinite;
+    uint8_t b = cbor_next(r);
+    if ((b >> 5) != CBOR_MAP) { r->error = 1; return 0; }
+    uint64_t entries = cbor_argument(r, b, &indefinite);
+    if (r->error || r->depth + 1 >= CBOR_MAX_DEPTH || (!indefinite && entries >= CBOR_INDEFINITE)) { r->error = 1; return 0; }
+    r->remaining[++r->depth] = indefinite ? CBOR_INDEFINITE : (uint32_t) entries;
+    return 1;
+}
+
+/* Reads the next key of the current map, returns 0 (and leaves the map) when there is none */
+static inline uint8_t cbor_next_field(struct cbor_reader *r)
+{
+    if (r->error || r->depth < 0) return 0;
+    if (r->remaining[r->depth] == 0) { r->depth--; return 0; }
+    if (r->remaining[r->depth] == CBOR_INDEFINITE) {
+        if (cbor_peek(r) == CBOR_BREAK) { r->pos++; r->depth--; return 0; }
+    } else {
+        r->remaining[r->depth]--;
+    }
+    uint32_t start = r->pos;
+    uint8_t indefinite;
+    uint8_t b = cbor_next(r);
+    uint64_t len = cbor_argument(r, b, &indefinite);
+    if ((b >> 5) != CBOR_TEXT || indefinite) { // Not a plain string key: skip it, it will not match any name
+        r->pos = start;
+        cbor_skip(r);
+        r->key_len = -1;
+        return !r->error;
+    }
+    if (r->error || r->pos + len > r->size) { r->error = 1; return 0; }
+    r->key_start = r->pos;
+    r->key_len = (int32_t) len;
+    r->pos += len;
+    return 1;
+}
+
+static inline uint8_t cbor_is(struct cbor_reader *r, const char *name)
+{
+    return r->key_len >= 0 && strlen(name) == (size_t) r->key_len && memcmp(&r->in[r->key_start], name, r->key_len) == 0;
+}
+
+static inline double cbor_half_to_double(uint16_t half)
+{
+    union { float f; uint32_t u; } bits;
+    uint32_t sign = (uint32_t)(half & 0x8000) << 16;
+    uint32_t exponent = (half >> 10) & 0x1f;
+    uint32_t mantissa = half & 0x3ff;
+    if (exponent == 0) { // subnormal: mantissa * 2^-24
+        bits.f = (float) mantissa / 16777216.0f;
+        bits.u |= sign;
+        return bits.f;
+    }
+    if (exponent == 31) bits.u = sign | 0x7f800000 | (mantissa << 13);
+    else bits.u = sign | ((exponent + 112) << 23) | (mantissa << 13);
+    return bits.f;
+}
+
+static inline double cbor_read_double(struct cbor_reader *r)
+{
+    uint8_t indefinite;
+    uint8_t b = cbor_next(r);
+    switch (b) {
+        case 0xf9: return cbor_half_to_double((uint16_t) cbor_get_be(r, 2));
+        case 0xfa: {
+            union { float f; uint32_t u; } bits;
+            bits.u = (uint32_t) cbor_get_be(r, 4);
+            return bits.f;
+        }
+        case 0xfb: {
+            union { double d; uint64_t u; } bits;
+            bits.u = cbor_get_be(r, 8);
+            return bits.d;
+        }
+        case 0xf5: return 1;
+        case 0xf4: case 0xf6: case 0xf7: return 0;
+    }
+    if ((b >> 5) == CBOR_UNSIGNED) return (double) cbor_argument(r, b, &indefinite);
+    if ((b >> 5) == CBOR_NEGATIVE) return -1.0 - (double) cbor_argument(r, b, &indefinite);
+    r->pos--;
+    cbor_skip(r);
+    return 0;
+}
+
+static inline int64_t cbor_read_int(struct cbor_reader *r)
+{
+    uint8_t indefinite;
+    uint8_t b = cbor_next(r);
+    if ((b >> 5) == CBOR_UNSIGNED) return (int64_t) cbor_argument(r, b, &indefinite);
+    if ((b >> 5) == CBOR_NEGATIVE) return -1 - (int64_t) cbor_argument(r, b, &indefinite);
+    r->pos--;
+    return (int64_t) cbor_read_double(r);
+}
+
+static inline uint64_t cbor_read_uint(struct cbor_reader *r)
+{
+    uint8_t indefinite;
+    if ((cbor_peek(r) >> 5) == CBOR_UNSIGNED) return cbor_argument(r, cbor_u8(r), &indefinite);
+    return (uint64_t) cbor_read_int(r);
+}
+
+static inline uint8_t cbor_read_bool(struct cbor_reader *r)
+{
+    return cbor_read_double(r) != 0;
+}
+
+static inline char cbor_read_char(struct cbor_reader *r)
+{
+    if ((cbor_peek(r) >> 5) == CBOR_TEXT) {
+        uint8_t indefinite;
+        uint8_t b = cbor_u8(r);
+        uint64_t len = cbor_argument(r, b, &indefinite);
+        if (indefinite) { r->pos--; cbor_skip(r); return 0; }
+        if (r->pos + len > r->size) { r->error = 1; return 0; }
+        char c = len > 0 ? (char) r->in[r->pos] : 0;
+        r->pos += len;
+        return c;
+    }
+    return (char) cbor_read_int(r);
+}
+
+#endif
@@ -9,9 +9,43 @@ const int /*PORT_NAME*/_qos = /*QOS*/;
 
 struct mosquitto */*PORT_NAME*/_mosq = NULL;
 
+/* Outgoing messages wait in a bounded backlog which the sender thread publishes while connected,
+   at most /*PORT_NAME*/_MAX_INFLIGHT at a time (0 for no limit). What is left when the connection
+   drops is published after the automatic reconnection. With /*PORT_NAME*/_BATCH_SIZE > 1, up to that
+   many messages for the same topic and QoS are coalesced in one payload, which starts with
+   /*PORT_NAME*/_BATCH_MARKER followed by the messages: newline-separated for text formats, each prefixed
+   by its length (2 bytes, big endian) for binary formats. Receivers recognize batches by this marker,
+   whatever their own batch size. Messages which cannot be framed (text containing a newline, binary
+   longer than 65535 bytes) are published alone, as is. Same format as the Java MQTT plugin. */
+#define /*PORT_NAME*/_QUEUE_SIZE /*QUEUE_SIZE*/
+#define /*PORT_NAME*/_BATCH_SIZE /*BATCH_SIZE*/
+#define /*PORT_NAME*/_BATCH_DELAY /*BATCH_DELAY*/
+#define /*PORT_NAME*/_MAX_INFLIGHT /*MAX_INFLIGHT*/
+#define /*PORT_NAME*/_TEXT_FRAMING /*TEXT_FRAMING*/
+#define /*PORT_NAME*/_BATCH_MARKER 0x1E
+
+struct /*PORT_NAME*/_outgoing {
+    uint8_t *payload;
+    int length;
+    int topic;
+    int qos;
+};
+
+struct /*PORT_NAME*/_outgoing /*PORT_NAME*/_queue[/*PORT_NAME*/_QUEUE_SIZE];
+int /*PORT_NAME*/_queue_head = 0;
+int /*PORT_NAME*/_queue_count = 0;
+unsigned long /*PORT_NAME*/_dropped = 0;
+int /*PORT_NAME*/_inflight = 0;
+int /*PORT_NAME*/_connected = 0;
+unsigned long /*PORT_NAME*/_connection = 0; // incremented on each connection
+pthread_mutex_t /*PORT_NAME*/_queue_mutex = PTHREAD_MUTEX_INITIALIZER;
+pthread_cond_t /*PORT_NAME*/_queue_cond = PTHREAD_COND_INITIALIZER;
+
 // Callback declarations
 void /*PORT_NAME*/_log_callback(struct mosquitto *, void *, int , const char *);
 void /*PORT_NAME*/_connect_callback(struct mosquitto *, void *, int);
+void /*PORT_NAME*/_disconnect_callback(struct mosquitto *, void *, int);
+void /*PORT_NAME*/_publish_callback(struct mosquitto *, void *, int);
 void /*PORT_NAME*/_subscribe_callback(struct mosquitto *, void *, int , int , const int *);
 void /*PORT_NAME*/_message_callback(struct mosquitto *, void *, const struct mosquitto_message *);
 
@@ -45,9 +79,16 @@ void /*PORT_NAME*/_setup(struct /*PORT_NAME*/_Instance *_instance)
         return;
     }
 
+    // Publishing happens in the sender thread while the network loop runs in the receiver thread
+    mosquitto_threaded_set(/*PORT_NAME*/_mosq, true);
+    if (/*PORT_NAME*/_MAX_INFLIGHT > 0) mosquitto_max_inflight_messages_set(/*PORT_NAME*/_mosq, /*PORT_NAME*/_MAX_INFLIGHT);
+    mosquitto_reconnect_delay_set(/*PORT_NAME*/_mosq, /*RECONNECT_DELAY*/, /*RECONNECT_DELAY_MAX*/, true);
+
     // Set callbacks
     mosquitto_log_callback_set(/*PORT_NAME*/_mosq, /*PORT_NAME*/_log_callback);
     mosquitto_connect_callback_set(/*PORT_NAME*/_mosq, /*PORT_NAME*/_connect_callback);
+    mosquitto_disconnect_callback_set(/*PORT_NAME*/_mosq, /*PORT_NAME*/_disconnect_callback);
+    mosquitto_publish_callback_set(/*PORT_NAME*/_mosq, /*PORT_NAME*/_publish_callback);
     mosquitto_subscribe_callback_set(/*PORT_NAME*/_mosq, /*PORT_NAME*/_subscribe_callback);
     mosquitto_message_callback_set(/*PORT_NAME*/_mosq, /*PORT_NAME*/_message_callback);
 
@@ -59,18 +100,18 @@ void /*PORT_NAME*/_setup(struct /*PORT_NAME*/_Instance *_instance)
         return;
     }
 
-    // Connect to broker
-    int result = mosquitto_connect(/*PORT_NAME*/_mosq, host, port, 10);
-    if (result == MOSQ_ERR_ERRNO) {
-        perror("[/*PORT_NAME*/] mosquitto_connect failed ");
+    // Connect to broker, the receiver thread keeps trying if it is not reachable yet
+    int result = mosquitto_connect_async(/*PORT_NAME*/_mosq, host, port, 10);
+    if (result == MOSQ_ERR_INVAL) {
+        fprintf(stderr, "[/*PORT_NAME*/] mosquitto_connect failed : %s\n", mosquitto_strerror(result));
         exit(1); // Exit in case of error
     }
+    else if (result == MOSQ_ERR_ERRNO) {
+        perror("[/*PORT_NAME*/] mosquitto_connect failed, retrying ");
+    }
     else if (result) {
-        fprintf(stderr, "[/*PORT_NAME*/] mosquitto_connect failed : %s\n", mosquitto_strerror(result));
-        exit(1); // Exit in case of error    
+        fprintf(stderr, "[/*PORT_NAME*/] mosquitto_connect failed, retrying : %s\n", mosquitto_strerror(result));
     }
-
-    if (result) /*PORT_NAME*/_mosq = NULL;
 }
 
 // Threaded execution and polling functions
@@ -122,6 +163,12 @@ void /*PORT_NAME*/_connect_callback(struct mosquitto *mosq, void *_instance, int
     int ret, i;
     switch (result) {
         case 0:
+            pthread_mutex_lock(&/*PORT_NAME*/_queue_mutex);
+            /*PORT_NAME*/_connected = 1;
+            /*PORT_NAME*/_connection++;
+            /*PORT_NAME*/_inflight = 0; // messages left from the previous connection are resent by mosquitto
+            pthread_cond_signal(&/*PORT_NAME*/_queue_cond);
+            pthread_mutex_unlock(&/*PORT_NAME*/_queue_mutex);
             for (i = 0; i < /*NUM_TOPICS*/; i++) {
                 ret = mosquitto_subscribe(mosq, &/*PORT_NAME*/_topics_subscribed[i], /*PORT_NAME*/_topics[i], /*PORT_NAME*/_qos);
                 if (ret) {
@@ -139,8 +186,7 @@ void /*PORT_NAME*/_connect_callback(struct mosquitto *mosq, void *_instance, int
             exit(1); // Exit in case of error
             break;
         case 3:
-            /*TRACE_LEVEL_1*/fprintf(stderr, "[/*PORT_NAME*/] Connection error : broker unavailable\n");
-            exit(1); // Exit in case of error
+            /*TRACE_LEVEL_1*/fprintf(stderr, "[/*PORT_NAME*/] Connection error : broker unavailable, retrying\n");
             break;
         default:
             /*TRACE_LEVEL_1*/fprintf(stderr, "[/*PORT_NAME*/] Connection error : unknown reason\n");
@@ -149,6 +195,26 @@ void /*PORT_NAME*/_connect_callback(struct mosquitto *mosq, void *_instance, int
     }
 }
 
+// On disconnected, the receiver thread reconnects
+void /*PORT_NAME*/_disconnect_callback(struct mosquitto *mosq, void *_instance, int result)
+{
+    int waiting;
+    pthread_mutex_lock(&/*PORT_NAME*/_queue_mutex);
+    /*PORT_NAME*/_connected = 0;
+    waiting = /*PORT_NAME*/_queue_count;
+    pthread_mutex_unlock(&/*PORT_NAME*/_queue_mutex);
+    /*TRACE_LEVEL_1*/if (result) fprintf(stderr, "[/*PORT_NAME*/] Connection lost, %i messages waiting\n", waiting);
+}
+
+// On published (QoS 0) or acknowledged (QoS 1 and 2)
+void /*PORT_NAME*/_publish_callback(struct mosquitto *mosq, void *_instance, int mid)
+{
+    pthread_mutex_lock(&/*PORT_NAME*/_queue_mutex);
+    if (/*PORT_NAME*/_inflight > 0) /*PORT_NAME*/_inflight--;
+    pthread_cond_signal(&/*PORT_NAME*/_queue_cond);
+    pthread_mutex_unlock(&/*PORT_NAME*/_queue_mutex);
+}
+
 // On subscribed
 void /*PORT_NAME*/_subscribe_callback(struct mosquitto *mosq, void *_instance, int mid, int qos_count, const int *granted_qos)
 {
@@ -175,6 +241,31 @@ void /*PORT_NAME*/_subscribe_callback(struct mosquitto *mosq, void *_instance, i
 /* ---------- INCOMMING MESSAGES ----------*/
 /*PARSER_IMPLEMENTATION*/
 
+// Splits a payload of coalesced messages, returns 0 if the payload is not a batch (i.e. a single message)
+int /*PORT_NAME*/_parse_batch(uint8_t *payload, int size, struct /*PORT_NAME*/_Instance *_instance)
+{
+    int i, start = 1, length;
+    if (size == 0 || payload[0] != /*PORT_NAME*/_BATCH_MARKER) return 0;
+    if (/*PORT_NAME*/_TEXT_FRAMING) {
+        for (i = 1; i <= size; i++) {
+            if (i == size || payload[i] == '\n') {
+                if (i > start) /*PORT_NAME*/_parser(&payload[start], i - start, _instance);
+                start = i + 1;
+            }
+        }
+        return 1;
+    }
+    // A binary message could start with the marker too: it is a batch only if the lengths add up exactly
+    for (i = 1; i + 2 <= size; i += 2 + ((payload[i] << 8) | payload[i + 1]));
+    if (i != size) return 0;
+    for (i = 1; i < size; i += length) {
+        length = (payload[i] << 8) | payload[i + 1];
+        i += 2;
+        /*PORT_NAME*/_parser(&payload[i], length, _instance);
+    }
+    return 1;
+}
+
 void /*PORT_NAME*/_message_callback(struct mosquitto *mosq, void *_instance, const struct mosquitto_message *msg)
 {
     /*TRACE_LEVEL_2*/printf("[/*PORT_NAME*/] Received message (%i bytes) on topic %s\n", msg->payloadlen, msg->topic);
@@ -185,23 +276,145 @@ void /*PORT_NAME*/_message_callback(struct mosquitto *mosq, void *_instance, con
 
     // Only parse and enqueue the message if we are listening for it on this topic
     if (i < /*NUM_TOPICS*/ && (/*TOPIC_INDEX_CHECK*/)) {
-        /*PORT_NAME*/_parser(msg->payload, msg->payloadlen, (struct /*PORT_NAME*/_Instance*)_instance);
+        if (!/*PORT_NAME*/_parse_batch(msg->payload, msg->payloadlen, (struct /*PORT_NAME*/_Instance*)_instance))
+            /*PORT_NAME*/_parser(msg->payload, msg->payloadlen, (struct /*PORT_NAME*/_Instance*)_instance);
     }
 }
 
 
 /* ---------- FORWARDERS ----------*/
-void /*PORT_NAME*/_send_message(uint8_t *msg, int msglen, int topic)
+// Adds a message to the backlog, drops it if the backlog is full
+void /*PORT_NAME*/_send_message(uint8_t *msg, int msglen, int topic, int qos)
 {
-    int ret;
-    if (topic < /*NUM_TOPICS*/) {
-        /*TRACE_LEVEL_2*/printf("[/*PORT_NAME*/] Sending message (%i bytes) on topic %s\n", msglen, /*PORT_NAME*/_topics[topic]);
-        ret = mosquitto_publish(/*PORT_NAME*/_mosq, NULL, /*PORT_NAME*/_topics[topic], msglen, msg, /*PORT_NAME*/_qos, false);
-        if (ret) {
-            fprintf(stderr, "[MQTT] mosquitto_publish failed for %s : %s\n", /*PORT_NAME*/_topics[topic], mosquitto_strerror(ret));
-            exit(1); // Exit in case of error
+    uint8_t *copy;
+    if (topic >= /*NUM_TOPICS*/) return;
+    copy = malloc(msglen > 0 ? msglen : 1);
+    if (copy == NULL) {
+        perror("[/*PORT_NAME*/] Cannot allocate outgoing message ");
+        return;
+    }
+    memcpy(copy, msg, msglen);
+
+    pthread_mutex_lock(&/*PORT_NAME*/_queue_mutex);
+    if (/*PORT_NAME*/_queue_count == /*PORT_NAME*/_QUEUE_SIZE) {
+        /*PORT_NAME*/_dropped++;
+        pthread_mutex_unlock(&/*PORT_NAME*/_queue_mutex);
+        free(copy);
+        /*TRACE_LEVEL_1*/fprintf(stderr, "[/*PORT_NAME*/] Outgoing queue full, %lu messages dropped\n", /*PORT_NAME*/_dropped);
+        return;
+    }
+    struct /*PORT_NAME*/_outgoing *out = &/*PORT_NAME*/_queue[(/*PORT_NAME*/_queue_head + /*PORT_NAME*/_queue_count) % /*PORT_NAME*/_QUEUE_SIZE];
+    out->payload = copy;
+    out->length = msglen;
+    out->topic = topic;
+    out->qos = qos;
+    /*PORT_NAME*/_queue_count++;
+    pthread_cond_signal(&/*PORT_NAME*/_queue_cond);
+    pthread_mutex_unlock(&/*PORT_NAME*/_queue_mutex);
+}
+
+// Whether a message can be coalesced with others in a batch
+static int /*PORT_NAME*/_can_frame(struct /*PORT_NAME*/_outgoing *out)
+{
+    if (/*PORT_NAME*/_TEXT_FRAMING) return memchr(out->payload, '\n', out->length) == NULL;
+    return out->length <= 0xFFFF;
+}
+
+static int /*PORT_NAME*/_can_publish()
+{
+    return /*PORT_NAME*/_connected && /*PORT_NAME*/_queue_count > 0
+        && (/*PORT_NAME*/_MAX_INFLIGHT <= 0 || /*PORT_NAME*/_inflight < /*PORT_NAME*/_MAX_INFLIGHT);
+}
+
+// Publishes the backlog, only this thread removes messages from it
+void * /*PORT_NAME*/_start_sender_thread(void *arg)
+{
+    struct /*PORT_NAME*/_outgoing batch[/*PORT_NAME*/_BATCH_SIZE];
+    uint8_t *buffer = NULL;
+    int capacity = 0;
+    int n, i, length, result, mid;
+    unsigned long connection;
+
+    pthread_mutex_lock(&/*PORT_NAME*/_queue_mutex);
+    while (1) {
+        while (!/*PORT_NAME*/_can_publish()) pthread_cond_wait(&/*PORT_NAME*/_queue_cond, &/*PORT_NAME*/_queue_mutex);
+
+        if (/*PORT_NAME*/_BATCH_SIZE > 1 && /*PORT_NAME*/_BATCH_DELAY > 0 && /*PORT_NAME*/_queue_count < /*PORT_NAME*/_BATCH_SIZE) {
+            // Give the batch some time to fill up
+            struct timespec deadline;
+            clock_gettime(CLOCK_REALTIME, &deadline);
+            deadline.tv_sec += /*PORT_NAME*/_BATCH_DELAY / 1000;
+            deadline.tv_nsec += (/*PORT_NAME*/_BATCH_DELAY % 1000) * 1000000L;
+            if (deadline.tv_nsec >= 1000000000L) {
+                deadline.tv_sec++;
+                deadline.tv_nsec -= 1000000000L;
+            }
+            while (/*PORT_NAME*/_queue_count < /*PORT_NAME*/_BATCH_SIZE
+                   && pthread_cond_timedwait(&/*PORT_NAME*/_queue_cond, &/*PORT_NAME*/_queue_mutex, &deadline) != ETIMEDOUT);
+            if (!/*PORT_NAME*/_can_publish()) continue;
+        }
+
+        // Take the oldest messages with the same topic and QoS, they stay in the backlog until published
+        n = 0;
+        length = 1; // batch marker
+        do {
+            batch[n] = /*PORT_NAME*/_queue[(/*PORT_NAME*/_queue_head + n) % /*PORT_NAME*/_QUEUE_SIZE];
+            length += batch[n].length + (/*PORT_NAME*/_TEXT_FRAMING ? 1 : 2);
+            n++;
+        } while (n < /*PORT_NAME*/_BATCH_SIZE && n < /*PORT_NAME*/_queue_count && /*PORT_NAME*/_can_frame(&batch[0])
+                 && /*PORT_NAME*/_queue[(/*PORT_NAME*/_queue_head + n) % /*PORT_NAME*/_QUEUE_SIZE].topic == batch[0].topic
+                 && /*PORT_NAME*/_queue[(/*PORT_NAME*/_queue_head + n) % /*PORT_NAME*/_QUEUE_SIZE].qos == batch[0].qos
+                 && /*PORT_NAME*/_can_frame(&/*PORT_NAME*/_queue[(/*PORT_NAME*/_queue_head + n) % /*PORT_NAME*/_QUEUE_SIZE]));
+        connection = /*PORT_NAME*/_connection;
+        pthread_mutex_unlock(&/*PORT_NAME*/_queue_mutex);
+
+        // A single message is published as is
+        if (n == 1) {
+            length = batch[0].length;
+        } else {
+            if (length > capacity) {
+                free(buffer);
+                capacity = length;
+                buffer = malloc(capacity);
+                if (buffer == NULL) {
+                    perror("[/*PORT_NAME*/] Cannot allocate batch ");
+                    exit(1); // Exit in case of error
+                }
+            }
+            length = 0;
+            buffer[length++] = /*PORT_NAME*/_BATCH_MARKER;
+            for (i = 0; i < n; i++) {
+                if (/*PORT_NAME*/_TEXT_FRAMING) {
+                    if (i > 0) buffer[length++] = '\n';
+                } else {
+                    buffer[length++] = (batch[i].length >> 8) & 0xFF;
+                    buffer[length++] = batch[i].length & 0xFF;
+                }
+                memcpy(&buffer[length], batch[i].payload, batch[i].length);
+                length += batch[i].length;
+            }
+        }
+
+        /*TRACE_LEVEL_2*/printf("[/*PORT_NAME*/] Sending %i message(s) (%i bytes) on topic %s\n", n, length, /*PORT_NAME*/_topics[batch[0].topic]);
+        result = mosquitto_publish(/*PORT_NAME*/_mosq, &mid, /*PORT_NAME*/_topics[batch[0].topic], length,
+                                   n > 1 ? buffer : batch[0].payload, batch[0].qos, false);
+
+        pthread_mutex_lock(&/*PORT_NAME*/_queue_mutex);
+        if (result == MOSQ_ERR_NO_CONN || result == MOSQ_ERR_CONN_LOST) {
+            // Keep the messages until the connect callback, unless it already happened in the meantime
+            if (connection == /*PORT_NAME*/_connection) /*PORT_NAME*/_connected = 0;
+            continue;
+        }
+        if (result) {
+            fprintf(stderr, "[/*PORT_NAME*/] mosquitto_publish failed for %s : %s\n", /*PORT_NAME*/_topics[batch[0].topic], mosquitto_strerror(result));
+        } else {
+            /*PORT_NAME*/_inflight++;
         }
+        for (i = 0; i < n; i++) free(batch[i].payload);
+        /*PORT_NAME*/_queue_head = (/*PORT_NAME*/_queue_head + n) % /*PORT_NAME*/_QUEUE_SIZE;
+        /*PORT_NAME*/_queue_count -= n;
     }
+    return NULL;
 }
 
 /*FORWARDERS*/
@@ -4,7 +4,9 @@
 #include <errno.h>
 #include <stdio.h>
 #include <stdlib.h>
+#include <string.h>
 #include <unistd.h>
+#include <pthread.h>
 #include <ctype.h>
 #include <stdint.h>
 #include <math.h>
@@ -21,6 +23,7 @@ struct /*PORT_NAME*/_Instance {
 void /*PORT_NAME*/_setup(struct /*PORT_NAME*/_Instance *_instance);
 
 void /*PORT_NAME*/_start_receiver_thread();
+void * /*PORT_NAME*/_start_sender_thread(void *arg);
 void /*PORT_NAME*/_loop_poll();
 
 /*FORWARDERS*/
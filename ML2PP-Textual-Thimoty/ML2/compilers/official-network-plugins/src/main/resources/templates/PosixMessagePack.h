@@ -0,0 +1,291 @@
+#ifndef THINGML_MESSAGEPACK_H
+#define THINGML_MESSAGEPACK_H
+
+// MessagePack writer/reader used by the generated MessagePack serializers.
+// Messages are encoded as {"message":{"parameter":value,...}} (like the JSON serializers),
+// so that parameters can be added, removed or reordered on one side without breaking the other.
+
+#include <stdint.h>
+#include <string.h>
+
+/* ---------- Writer: each function writes at buf[i] and returns the new index ---------- */
+
+static inline uint16_t mp_put_be(uint8_t *buf, uint16_t i, uint64_t v, uint8_t bytes)
+{
+    while (bytes > 0) {
+        bytes--;
+        buf[i++] = (uint8_t)(v >> (8 * bytes));
+    }
+    return i;
+}
+
+static inline uint16_t mp_put_map(uint8_t *buf, uint16_t i, uint32_t entries)
+{
+    if (entries < 16) { buf[i++] = 0x80 | entries; return i; }
+    if (entries < 65536) { buf[i++] = 0xde; return mp_put_be(buf, i, entries, 2); }
+    buf[i++] = 0xdf;
+    return mp_put_be(buf, i, entries, 4);
+}
+
+static inline uint16_t mp_put_str(uint8_t *buf, uint16_t i, const char *s, uint16_t len)
+{
+    if (len < 32) { buf[i++] = 0xa0 | len; }
+    else if (len < 256) { buf[i++] = 0xd9; buf[i++] = len; }
+    else { buf[i++] = 0xda; i = mp_put_be(buf, i, len, 2); }
+    memcpy(&buf[i], s, len);
+    return i + len;
+}
+
+static inline uint16_t mp_put_uint(uint8_t *buf, uint16_t i, uint64_t v)
+{
+    if (v < 128) { buf[i++] = (uint8_t) v; return i; }
+    if (v < 256) { buf[i++] = 0xcc; return mp_put_be(buf, i, v, 1); }
+    if (v < 65536) { buf[i++] = 0xcd; return mp_put_be(buf, i, v, 2); }
+    if (v < 0x100000000ULL) { buf[i++] = 0xce; return mp_put_be(buf, i, v, 4); }
+    buf[i++] = 0xcf;
+    return mp_put_be(buf, i, v, 8);
+}
+
+static inline uint16_t mp_put_int(uint8_t *buf, uint16_t i, int64_t v)
+{
+    if (v >= 0) return mp_put_uint(buf, i, (uint64_t) v);
+    if (v >= -32) { buf[i++] = (uint8_t) v; return i; }
+    if (v >= INT8_MIN) { buf[i++] = 0xd0; return mp_put_be(buf, i, (uint64_t) v, 1); }
+    if (v >= INT16_MIN) { buf[i++] = 0xd1; return mp_put_be(buf, i, (uint64_t) v, 2); }
+    if (v >= INT32_MIN) { buf[i++] = 0xd2; return mp_put_be(buf, i, (uint64_t) v, 4); }
+    buf[i++] = 0xd3;
+    return mp_put_be(buf, i, (uint64_t) v, 8);
+}
+
+static inline uint16_t mp_put_float(uint8_t *buf, uint16_t i, float v)
+{
+    union { float f; uint32_t u; } bits;
+    bits.f = v;
+    buf[i++] = 0xca;
+    return mp_put_be(buf, i, bits.u, 4);
+}
+
+static inline uint16_t mp_put_double(uint8_t *buf, uint16_t i, double v)
+{
+    union { double d; uint64_t u; } bits;
+    bits.d = v;
+    buf[i++] = 0xcb;
+    return mp_put_be(buf, i, bits.u, 8);
+}
+
+static inline uint16_t mp_put_bool(uint8_t *buf, uint16_t i, uint8_t v)
+{
+    buf[i++] = v ? 0xc3 : 0xc2;
+    return i;
+}
+
+static inline uint16_t mp_put_char(uint8_t *buf, uint16_t i, char c)
+{
+    return mp_put_str(buf, i, &c, 1);
+}
+
+static inline uint16_t mp_put_nil(uint8_t *buf, uint16_t i)
+{
+    buf[i++] = 0xc0;
+    return i;
+}
+
+/* ---------- Reader: keys are matched in place, errors are sticky in r->error ---------- */
+
+#define MP_MAX_DEPTH 16
+
+struct mp_reader {
+    const uint8_t *in;
+    uint32_t size;
+    uint32_t pos;
+    uint8_t error;
+    uint32_t key_start;
+    int32_t key_len;
+    uint32_t remaining[MP_MAX_DEPTH];
+    int8_t depth;
+};
+
+static inline void mp_reader_init(struct mp_reader *r, const uint8_t *in, uint32_t size)
+{
+    memset(r, 0, sizeof(*r));
+    r->in = in;
+    r->size = size;
+    r->depth = -1;
+}
+
+static inline uint8_t mp_u8(struct mp_reader *r)
+{
+    if (r->pos >= r->size) { r->error = 1; return 0xc0; }
+    return r->in[r->pos++];
+}
+
+static inline uint64_t mp_get_be(struct mp_reader *r, uint8_t bytes)
+{
+    uint64_t v = 0;
+    if (r->pos + bytes > r->size) { r->error = 1; r->pos = r->size; return 0; }
+    while (bytes-- > 0) v = (v << 8) | r->in[r->pos++];
+    return v;
+}
+
+/* Length of the string starting with b, -1 if it is not a string */
+static inline int64_t mp_str_header(struct mp_reader *r, uint8_t b)
+{
+    if ((b & 0xe0) == 0xa0) return b & 0x1f;
+    if (b == 0xd9) return mp_get_be(r, 1);
+    if (b == 0xda) return mp_get_be(r, 2);
+    if (b == 0xdb) return mp_get_be(r, 4);
+    return -1;
+}
+
+static inline void mp_skip(struct mp_reader *r)
+{
+    uint64_t values = 1;
+    while (values > 0 && !r->error) {
+        values--;
+        uint8_t b = mp_u8(r);
+        if (b < 0x80 || b >= 0xe0) continue;
+        if ((b & 0xf0) == 0x80) { values += 2 * (b & 0x0f); continue; }
+        if ((b & 0xf0) == 0x90) { values += b & 0x0f; continue; }
+        if ((b & 0xe0) == 0xa0) { r->pos += b & 0x1f; }
+        else switch (b) {
+            case 0xc0: case 0xc2: case 0xc3: break;
+            case 0xcc: case 0xd0: r->pos += 1; break;
+            case 0xcd: case 0xd1: case 0xd4: r->pos += 2; break;
+            case 0xd5: r->pos += 3; break;
+            case 0xca: case 0xce: case 0xd2: r->pos += 4; break;
+            case 0xd6: r->pos += 5; break;
+            case 0xcb: case 0xcf: case 0xd3: r->pos += 8; break;
+            case 0xd7: r->pos += 9; break;
+            case 0xd8: r->pos += 17; break;
+            case 0xc4: case 0xd9: r->pos += mp_get_be(r, 1); break;
+            case 0xc5: case 0xda: r->pos += mp_get_be(r, 2); break;
+            case 0xc6: case 0xdb: r->pos += mp_get_be(r, 4); break;
+            case 0xc7: r->pos += mp_get_be(r, 1) + 1; break;
+            case 0xc8: r->pos += mp_get_be(r, 2) + 1; break;
+            case 0xc9: r->pos += mp_get_be(r, 4) + 1; break;
+            case 0xdc: values += mp_get_be(r, 2); break;
+            case 0xdd: values += mp_get_be(r, 4); break;
+            case 0xde: values += 2 * mp_get_be(r, 2); break;
+            case 0xdf: values += 2 * mp_get_be(r, 4); break;
+            default: r->error = 1; break;
+        }
+        if (r->pos > r->size) r->error = 1;
+    }
+}
+
+/* Enters a map, returns 0 if the next value is not a map */
+static inline uint8_t mp_begin_map(struct mp_reader *r)
+{
+    uint8_t b = mp_u8(r);
+    uint32_t entries;
+    if ((b & 0xf0) == 0x80) entries = b & 0x0f;
+    else if (b == 0xde) entries = mp_get_be(r, 2);
+    else if (b == 0xdf) entries = mp_get_be(r, 4);
+    else { r->error = 1; return 0; }
+    if (r->error || r->depth + 1 >= MP_MAX_DEPTH) { r->error = 1; return 0; }
+    r->remaining[++r->depth] = entries;
+    return 1;
+}
+
+/* Reads the next key of the current map, returns 0 (and leaves the map) when there is none */
+static inline uint8_t mp_next_field(struct mp_reader *r)
+{
+    if (r->error || r->depth < 0) return 0;
+    if (r->remaining[r->depth] == 0) { r->depth--; return 0; }
+    r->remaining[r->depth]--;
+    uint32_t start = r->pos;
+    int64_t len = mp_str_header(r, mp_u8(r));
+    if (len < 0) { // Not a string key: skip it, it will not match any name
+        r->pos = start;
+        mp_skip(r);
+        r->key_len = -1;
+        return !r->error;
+    }
+    if (r->pos + len > r->size) { r->error = 1; return 0; }
+    r->key_start = r->pos;
+    r->key_len = (int32_t) len;
+    r->pos += len;
+    return 1;
+}
+
+static inline uint8_t mp_is(struct mp_reader *r, const char *name)
+{
+    return r->key_len >= 0 && strlen(name) == (size_t) r->key_len && memcmp(&r->in[r->key_start], name, r->key_len) == 0;
+}
+
+static inline double mp_read_double(struct mp_reader *r);
+
+static inline int64_t mp_read_int(struct mp_reader *r)
+{
+    uint8_t b = mp_u8(r);
+    if (b < 0x80) return b;
+    if (b >= 0xe0) return (int8_t) b;
+    switch (b) {
+        case 0xcc: return mp_get_be(r, 1);
+        case 0xcd: return mp_get_be(r, 2);
+        case 0xce: return mp_get_be(r, 4);
+        case 0xcf: return (int64_t) mp_get_be(r, 8);
+        case 0xd0: return (int8_t) mp_get_be(r, 1);
+        case 0xd1: return (int16_t) mp_get_be(r, 2);
+        case 0xd2: return (int32_t) mp_get_be(r, 4);
+        case 0xd3: return (int64_t) mp_get_be(r, 8);
+        case 0xca: case 0xcb: r->pos--; return (int64_t) mp_read_double(r);
+        case 0xc3: return 1;
+        case 0xc0: case 0xc2: return 0;
+        default: r->pos--; mp_skip(r); return 0;
+    }
+}
+
+static inline uint64_t mp_read_uint(struct mp_reader *r)
+{
+    if (r->pos < r->size && r->in[r->pos] == 0xcf) {
+        r->pos++;
+        return mp_get_be(r, 8);
+    }
+    return (uint64_t) mp_read_int(r);
+}
+
+static inline double mp_read_double(struct mp_reader *r)
+{
+    uint8_t b = mp_u8(r);
+    if (b == 0xca) {
+        union { float f; uint32_t u; } bits;
+        bits.u = (uint32_t) mp_get_be(r, 4);
+        return bits.f;
+    }
+    if (b == 0xcb) {
+        union { double d; uint64_t u; } bits;
+        bits.u = mp_get_be(r, 8);
+        return bits.d;
+    }
+    r->pos--;
+    if ((b & 0xf0) == 0xc0 || (b & 0xf0) == 0xd0 || b < 0x80 || b >= 0xe0) {
+        if (b == 0xcf) return (double) mp_read_uint(r);
+        return (double) mp_read_int(r);
+    }
+    mp_skip(r);
+    return 0;
+}
+
+static inline uint8_t mp_read_bool(struct mp_reader *r)
+{
+    return mp_read_double(r) != 0;
+}
+
+static inline char mp_read_char(struct mp_reader *r)
+{
+    if (r->pos < r->size) {
+        uint8_t b = r->in[r->pos];
+        if ((b & 0xe0) == 0xa0 || b == 0xd9 || b == 0xda || b == 0xdb) {
+            r->pos++;
+            int64_t len = mp_str_header(r, b);
+            if (len < 0 || r->pos + len > r->size) { r->error = 1; return 0; }
+            char c = len > 0 ? (char) r->in[r->pos] : 0;
+            r->pos += len;
+            return c;
+        }
+    }
+    return (char) mp_read_int(r);
+}
+
+#endif
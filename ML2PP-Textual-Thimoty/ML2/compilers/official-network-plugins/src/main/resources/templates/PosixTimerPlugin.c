@@ -1,106 +1,204 @@
 #include "Timer.h"
 #include <time.h>
 #include <unistd.h>
+#include <errno.h>
+#include <stdio.h>
+#include <string.h>
 #include <pthread.h>
+#ifdef __linux__
+#include <sys/timerfd.h>
+#endif
 
-uint32_t Timer_timeouts[NB_SOFT_TIMERS];
-uint8_t  Timer_wraps[NB_SOFT_TIMERS];
-uint32_t Timer_prev;
+// Active timers are kept in a min-heap ordered by deadline (CLOCK_MONOTONIC, in ns),
+// the timer thread sleeps until the earliest deadline.
+uint64_t Timer_deadlines[NB_SOFT_TIMERS];
+uint16_t Timer_heap[NB_SOFT_TIMERS];     // ids of the active timers
+int32_t  Timer_positions[NB_SOFT_TIMERS]; // position of each id in the heap, -1 if not active
+uint16_t Timer_heap_size;
 
 pthread_mutex_t Timer_mut;
+#ifdef __linux__
+int Timer_fd;
+#else
+pthread_cond_t Timer_cond;
+#endif
 
-uint32_t Timer_millis()
+uint64_t Timer_now()
 {
   struct timespec current;
-  int res;
-  uint32_t millis;
-
-  res = clock_gettime(CLOCK_REALTIME, &current);
-  if (res != 0) {
+  if (clock_gettime(CLOCK_MONOTONIC, &current) != 0) {
     perror("[ERROR]: Could not get current time : ");
     return 0;
+  }
+  return (uint64_t)current.tv_sec * 1000000000ULL + current.tv_nsec;
+}
+
+static void Timer_swap(uint16_t a, uint16_t b)
+{
+  uint16_t id = Timer_heap[a];
+  Timer_heap[a] = Timer_heap[b];
+  Timer_heap[b] = id;
+  Timer_positions[Timer_heap[a]] = a;
+  Timer_positions[Timer_heap[b]] = b;
+}
+
+static void Timer_sift_up(uint16_t i)
+{
+  while (i > 0) {
+    uint16_t parent = (i - 1) / 2;
+    if (Timer_deadlines[Timer_heap[parent]] <= Timer_deadlines[Timer_heap[i]]) break;
+    Timer_swap(i, parent);
+    i = parent;
+  }
+}
+
+static void Timer_sift_down(uint16_t i)
+{
+  while (1) {
+    uint32_t smallest = i;
+    uint32_t left = 2 * (uint32_t)i + 1;
+    uint32_t right = left + 1;
+    if (left < Timer_heap_size && Timer_deadlines[Timer_heap[left]] < Timer_deadlines[Timer_heap[smallest]]) smallest = left;
+    if (right < Timer_heap_size && Timer_deadlines[Timer_heap[right]] < Timer_deadlines[Timer_heap[smallest]]) smallest = right;
+    if (smallest == i) break;
+    Timer_swap(i, smallest);
+    i = smallest;
+  }
+}
 
-  } else {
-    millis  =  current.tv_sec * 1000;
-    millis += current.tv_nsec / 1000000;
-    return millis;
+static void Timer_remove(uint16_t id)
+{
+  int32_t pos = Timer_positions[id];
+  if (pos < 0) return;
+  Timer_heap_size--;
+  if (pos != Timer_heap_size) {
+    Timer_swap(pos, Timer_heap_size);
+    Timer_sift_down(pos);
+    Timer_sift_up(pos);
   }
+  Timer_positions[id] = -1;
+}
+
+// Wakes the timer thread up at the new earliest deadline. Called with Timer_mut held.
+static void Timer_rearm()
+{
+#ifdef __linux__
+  struct itimerspec spec;
+  memset(&spec, 0, sizeof(spec)); // zero disarms the timer
+  if (Timer_heap_size > 0) {
+    uint64_t deadline = Timer_deadlines[Timer_heap[0]];
+    spec.it_value.tv_sec = deadline / 1000000000ULL;
+    spec.it_value.tv_nsec = deadline % 1000000000ULL;
+    if (spec.it_value.tv_sec == 0 && spec.it_value.tv_nsec == 0) spec.it_value.tv_nsec = 1;
+  }
+  if (timerfd_settime(Timer_fd, TFD_TIMER_ABSTIME, &spec, NULL) != 0)
+    perror("[ERROR]: Could not arm timer : ");
+#else
+  pthread_cond_signal(&Timer_cond);
+#endif
 }
 
 void Timer_setup(struct Timer_Instance *_instance)
 {
     pthread_mutex_init(&Timer_mut, NULL);
-    uint8_t i;
+    uint16_t i;
     for (i = 0; i < NB_SOFT_TIMERS; i++) {
-        Timer_timeouts[i] = 0;
-        Timer_wraps[i] = 0;
+        Timer_positions[i] = -1;
     }
-    Timer_prev = Timer_millis();
+    Timer_heap_size = 0;
+#ifdef __linux__
+    Timer_fd = timerfd_create(CLOCK_MONOTONIC, TFD_CLOEXEC);
+    if (Timer_fd < 0)
+        perror("[ERROR]: Could not create timer : ");
+#else
+    pthread_cond_init(&Timer_cond, NULL);
+#endif
 }
 
-void Timer_enqueue_timeout(uint8_t id, uint16_t listener_id)
+void Timer_enqueue_timeout(uint16_t id, uint16_t listener_id)
 {
     /*ENQUEUERS*/
 }
 
+// Removes the expired timers from the heap and returns how many were copied to expired
+static uint16_t Timer_pop_expired(uint16_t * expired)
+{
+    uint16_t count = 0;
+    uint64_t now = Timer_now();
+    while (Timer_heap_size > 0 && Timer_deadlines[Timer_heap[0]] <= now) {
+        expired[count++] = Timer_heap[0];
+        Timer_remove(Timer_heap[0]);
+    }
+    return count;
+}
+
 void Timer_loop(struct Timer_Instance *_instance)
 {
+    uint16_t expired[NB_SOFT_TIMERS];
     while (1) {
+#ifdef __linux__
+        uint64_t expirations;
+        // Blocks until the earliest deadline (or forever when no timer is active)
+        if (read(Timer_fd, &expirations, sizeof(expirations)) < 0 && errno != EINTR && errno != EAGAIN) {
+            perror("[ERROR]: Could not wait for timer : ");
+            usleep(1000);
+        }
+        pthread_mutex_lock(&Timer_mut);
+#else
         pthread_mutex_lock(&Timer_mut);
-        uint32_t current = Timer_millis();
-        uint8_t i;
-        for (i = 0; i < NB_SOFT_TIMERS; i++) {
-            if (Timer_timeouts[i] > 0) {
-                if (current >= Timer_prev) {
-                    // Normal time progression
-                    if (current > Timer_timeouts[i] && Timer_wraps[i] == 0) {
-                        Timer_enqueue_timeout(i, _instance->listener_id);
-                        Timer_timeouts[i] = 0;
-                        Timer_wraps[i] = 0;
-                    }
-                } else {
-                    // A wraparound has occurred
-                    if (Timer_wraps[i] == 0) {
-                        Timer_enqueue_timeout(i, _instance->listener_id);
-                        Timer_timeouts[i] = 0;
-                    } else {
-                        Timer_wraps[i] = 0;
-                        if (current > Timer_timeouts[i]) {
-                            Timer_enqueue_timeout(i, _instance->listener_id);
-                            Timer_timeouts[i] = 0;
-                        }
-                    }
-                }
+        if (Timer_heap_size == 0) {
+            pthread_cond_wait(&Timer_cond, &Timer_mut);
+        } else {
+            uint64_t now = Timer_now();
+            uint64_t deadline = Timer_deadlines[Timer_heap[0]];
+            if (deadline > now) {
+                struct timespec abstime;
+                clock_gettime(CLOCK_REALTIME, &abstime);
+                uint64_t wakeup = (uint64_t)abstime.tv_sec * 1000000000ULL + abstime.tv_nsec + (deadline - now);
+                abstime.tv_sec = wakeup / 1000000000ULL;
+                abstime.tv_nsec = wakeup % 1000000000ULL;
+                pthread_cond_timedwait(&Timer_cond, &Timer_mut, &abstime);
             }
         }
-        Timer_prev = current;
+#endif
+        uint16_t count = Timer_pop_expired(expired);
+#ifdef __linux__
+        Timer_rearm();
+#endif
         pthread_mutex_unlock(&Timer_mut);
 
-        // Wait about a millisecond for the next check
-        usleep(1000);
+        // Enqueue outside of the lock, the main loop may be starting a timer at the same time
+        uint16_t i;
+        for (i = 0; i < count; i++) {
+            Timer_enqueue_timeout(expired[i], _instance->listener_id);
+        }
     }
 }
 
-void Timer_timer_start(uint8_t id, uint32_t delay)
+void Timer_timer_start(uint16_t id, uint32_t delay)
 {
     if (id < NB_SOFT_TIMERS) {
-        uint32_t current = Timer_millis();
-        uint32_t timeout = current + delay;
-        if (timeout == 0) timeout = 1;
+        uint64_t deadline = Timer_now() + (uint64_t)delay * 1000000ULL;
 
         pthread_mutex_lock(&Timer_mut);
-        Timer_timeouts[id] = timeout;
-        Timer_wraps[id] = (timeout > current) ? 0 : 1;
+        Timer_remove(id);
+        Timer_deadlines[id] = deadline;
+        Timer_heap[Timer_heap_size] = id;
+        Timer_positions[id] = Timer_heap_size;
+        Timer_heap_size++;
+        Timer_sift_up(Timer_positions[id]);
+        if (Timer_heap[0] == id) Timer_rearm(); // new earliest deadline
         pthread_mutex_unlock(&Timer_mut);
     }
 }
 
-void Timer_timer_cancel(uint8_t id)
+void Timer_timer_cancel(uint16_t id)
 {
     if (id < NB_SOFT_TIMERS) {
         pthread_mutex_lock(&Timer_mut);
-        Timer_timeouts[id] = 0;
-        Timer_wraps[id] = 0;
+        uint8_t was_first = (Timer_heap_size > 0 && Timer_heap[0] == id);
+        Timer_remove(id);
+        if (was_first) Timer_rearm();
         pthread_mutex_unlock(&Timer_mut);
     }
 }
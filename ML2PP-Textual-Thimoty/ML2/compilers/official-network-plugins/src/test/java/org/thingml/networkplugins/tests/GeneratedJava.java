@@ -0,0 +1,125 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.networkplugins.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.ToolProvider;
+
+import org.thingml.compilers.Context;
+import org.thingml.compilers.java.JavaCompiler;
+import org.thingml.compilers.java.JavaContext;
+import org.thingml.compilers.spi.SerializationPlugin;
+import org.thingml.xtext.thingML.Configuration;
+import org.thingml.xtext.thingML.Message;
+import org.thingml.xtext.thingML.Parameter;
+
+/**
+ * Generates the Java serializer (format and parser) of a message in a temporary project,
+ * and compiles it with stubs of the message type and of the JaSM events. Needs a JDK.
+ */
+class GeneratedJava {
+
+	static final String NETWORK = "src/main/java/org/thingml/generated/network";
+
+	final File dir;
+	final Context ctx;
+
+	GeneratedJava(File dir) {
+		this.dir = dir;
+		this.ctx = new JavaContext(new JavaCompiler());
+		new File(dir, NETWORK).mkdirs();
+		ctx.setOutputDirectory(dir);
+	}
+
+	static boolean isAvailable() {
+		return ToolProvider.getSystemJavaCompiler() != null;
+	}
+
+	/**Generates the class with the serializer of the message, the payload of the format is either String or Byte[]*/
+	void generate(SerializationPlugin plugin, Configuration cfg, Message m, String className, String payload) throws IOException {
+		plugin.setConfiguration(cfg);
+		plugin.setContext(ctx);
+		final String type = ctx.firstToUpper(m.getName()) + "MessageType";
+		final StringBuilder serializers = new StringBuilder();
+		plugin.generateSerialization(serializers, className, m, null);
+		serializers.append("public " + payload + " format(Event e) { return format((" + type + "." + ctx.firstToUpper(m.getName()) + "Message) e); }\n");
+		final StringBuilder parser = new StringBuilder();
+		plugin.generateParserBody(parser, className, null, Collections.singleton(m), null, null);
+		write(NETWORK + "/" + className + ".java", parser.toString().replace("/*$SERIALIZERS$*/", serializers.toString()));
+	}
+
+	/**Writes a stub of the message type, whose messages print their parameters separated by spaces*/
+	void messageType(Message m, String... parameters) throws IOException {
+		final String type = ctx.firstToUpper(m.getName()) + "MessageType";
+		final String message = ctx.firstToUpper(m.getName()) + "Message";
+		final StringBuilder args = new StringBuilder();
+		final StringBuilder values = new StringBuilder();
+		final StringBuilder fields = new StringBuilder();
+		final StringBuilder assignments = new StringBuilder();
+		final StringBuilder names = new StringBuilder();
+		for (int i = 0; i < parameters.length; i++) {
+			final Parameter p = m.getParameters().get(i);
+			args.append(i > 0 ? ", " : "").append(parameters[i]).append(" ").append(p.getName());
+			values.append(i > 0 ? ", " : "").append(p.getName());
+			fields.append("public final " + parameters[i] + " " + p.getName() + ";\n");
+			assignments.append("this." + p.getName() + " = " + p.getName() + ";\n");
+			names.append(i > 0 ? " + \" \" + " : "").append(p.getName());
+		}
+		final StringBuilder b = new StringBuilder();
+		b.append("package org.thingml.generated.messages;\n");
+		b.append("import no.sintef.jasm.ext.Event;\n");
+		b.append("public class " + type + " {\n");
+		b.append("public " + type + "() {}\n");
+		b.append("public " + type + "(short code) {}\n");
+		b.append("public Event instantiate(" + args + ") { return new " + message + "(" + values + "); }\n");
+		b.append("public class " + message + " extends Event {\n");
+		b.append(fields);
+		b.append(message + "(" + args + ") {\n" + assignments + "}\n");
+		b.append("public String toString() { return \"\" + " + names + "; }\n");
+		b.append("}\n}\n");
+		write("src/main/java/org/thingml/generated/messages/" + type + ".java", b.toString());
+	}
+
+	/**Compiles the generated project, returns its class loader*/
+	ClassLoader compile() throws IOException {
+		write("src/main/java/no/sintef/jasm/ext/Event.java", "package no.sintef.jasm.ext;\npublic class Event {}\n");
+		final List<String> args = new ArrayList<String>();
+		args.add("-d");
+		args.add(new File(dir, "classes").getAbsolutePath());
+		Files.walk(new File(dir, "src").toPath()).filter(p -> p.toString().endsWith(".java")).forEach(p -> args.add(p.toString()));
+		new File(dir, "classes").mkdirs();
+		final javax.tools.JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if (javac.run(null, null, null, args.toArray(new String[0])) != 0)
+			throw new AssertionError("Generated code does not compile, see the output of javac");
+		return new URLClassLoader(new URL[]{new File(dir, "classes").toURI().toURL()}, getClass().getClassLoader());
+	}
+
+	private void write(String path, String content) throws IOException {
+		final File f = new File(dir, path);
+		f.getParentFile().mkdirs();
+		Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+}
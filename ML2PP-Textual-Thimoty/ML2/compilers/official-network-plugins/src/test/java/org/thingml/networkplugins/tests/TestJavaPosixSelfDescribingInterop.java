@@ -0,0 +1,143 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.networkplugins.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.thingml.compilers.ThingMLCompiler;
+import org.thingml.compilers.c.posix.CCompilerContextPosix;
+import org.thingml.compilers.c.posix.PosixCompiler;
+import org.thingml.compilers.spi.SerializationPlugin;
+import org.thingml.networkplugins.c.posix.PosixCBORSerializerPlugin;
+import org.thingml.networkplugins.c.posix.PosixMessagePackSerializerPlugin;
+import org.thingml.networkplugins.c.posix.PosixSelfDescribingSerializerPlugin;
+import org.thingml.networkplugins.java.JavaCBORSerializerPlugin;
+import org.thingml.networkplugins.java.JavaMessagePackSerializerPlugin;
+import org.thingml.xtext.constraints.ThingMLHelpers;
+import org.thingml.xtext.thingML.Configuration;
+import org.thingml.xtext.thingML.Message;
+import org.thingml.xtext.thingML.ThingMLModel;
+
+/**
+ * Sends a message with Int16, Int32, Double and enumeration parameters from the generated Java MessagePack/CBOR serializer
+ * to the generated posix parser, and from the generated posix serializer to the generated Java parser. Needs a JDK and gcc.
+ */
+public class TestJavaPosixSelfDescribingInterop {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void messagePack() throws Exception {
+		interop(new JavaMessagePackSerializerPlugin(), new PosixMessagePackSerializerPlugin(), "PosixMessagePack.h");
+	}
+
+	@Test
+	public void cbor() throws Exception {
+		interop(new JavaCBORSerializerPlugin(), new PosixCBORSerializerPlugin(), "PosixCBOR.h");
+	}
+
+	private void interop(SerializationPlugin javaPlugin, PosixSelfDescribingSerializerPlugin cPlugin, String header) throws Exception {
+		assumeTrue("A JDK is needed", GeneratedJava.isAvailable());
+		assumeTrue("gcc is needed", gccAvailable());
+
+		final ThingMLModel model = ThingMLCompiler.loadModel(new File(this.getClass().getResource("/SerializerModel.thingml").getFile()));
+		assertNotNull(model);
+		final Configuration cfg = ThingMLHelpers.allConfigurations(model).get(0);
+		final Message m = TestJavaStructuredSerializer.message(model, "m");
+		final File dir = tmp.newFolder();
+
+		// Java side
+		final GeneratedJava java = new GeneratedJava(new File(dir, "java"));
+		java.generate(javaPlugin, cfg, m, "MSerializer", "Byte[]");
+		java.messageType(m, "short", "int", "double", "short");
+		final ClassLoader loader = java.compile();
+		final Class<?> type = loader.loadClass("org.thingml.generated.messages.MMessageType");
+		final Class<?> serializer = loader.loadClass("org.thingml.generated.network.MSerializer");
+		final Object instance = serializer.newInstance();
+		final Object event = TestJavaStructuredSerializer.method(type, "instantiate", null).invoke(type.newInstance(), (short) -12345, 305419896, 2.5, (short) 7);
+		final Byte[] formatted = (Byte[]) TestJavaStructuredSerializer.method(serializer, "format", loader.loadClass("no.sintef.jasm.ext.Event")).invoke(instance, event);
+		final byte[] bytes = new byte[formatted.length];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = formatted[i];
+		Files.write(new File(dir, "java.bin").toPath(), bytes);
+
+		// C side: serializes into c.bin, and parses java.bin
+		final CCompilerContextPosix ctx = new CCompilerContextPosix(new PosixCompiler());
+		ctx.setCurrentConfiguration(cfg);
+		cPlugin.setConfiguration(cfg);
+		cPlugin.setContext(ctx);
+		final StringBuilder serialization = new StringBuilder();
+		final String length = cPlugin.generateSerialization(serialization, "out", m, null);
+		final StringBuilder parser = new StringBuilder();
+		cPlugin.generateParserBody(parser, "in", "in_len", Collections.singleton(m), "0", null);
+
+		final StringBuilder c = new StringBuilder();
+		c.append("#include <stdio.h>\n#include <stdint.h>\n#include <string.h>\n");
+		c.append("static uint8_t fifo[64];\n");
+		c.append("void externalMessageEnqueue(uint8_t * msg, uint8_t msgSize, uint16_t listener_id) { memcpy(fifo, msg, msgSize); }\n");
+		c.append(cPlugin.generateSubFunctions());
+		c.append("int main(void) {\n");
+		c.append("    int16_t a = -12345;\n    int32_t b = 305419896;\n    double c = 2.5;\n    int16_t mode = 7;\n");
+		c.append(serialization);
+		c.append("    FILE *f = fopen(\"c.bin\", \"wb\");\n    fwrite(out, 1, " + length + ", f);\n    fclose(f);\n");
+		c.append("    uint8_t in[256];\n    f = fopen(\"java.bin\", \"rb\");\n    size_t in_len = fread(in, 1, sizeof(in), f);\n    fclose(f);\n");
+		c.append(parser);
+		c.append("    int16_t ra, rmode;\n    int32_t rb;\n    double rc;\n");
+		c.append("    memcpy(&ra, &fifo[2], 2);\n    memcpy(&rb, &fifo[4], 4);\n    memcpy(&rc, &fifo[8], 8);\n    memcpy(&rmode, &fifo[16], 2);\n");
+		c.append("    printf(\"%d %d %g %d\", ra, rb, rc, rmode);\n");
+		c.append("    return 0;\n}\n");
+
+		Files.write(new File(dir, header).toPath(), ctx.getTemplateByID("templates/" + header).getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(dir, "interop.c").toPath(), c.toString().getBytes(StandardCharsets.UTF_8));
+		assertEquals("gcc failed on:\n" + c, 0, run(dir, "gcc", "-o", "interop", "interop.c"));
+		assertEquals(0, run(dir, new File(dir, "interop").getAbsolutePath()));
+		assertEquals("Java to C", "-12345 305419896 2.5 7", new String(Files.readAllBytes(new File(dir, "out.txt").toPath()), StandardCharsets.UTF_8).trim());
+
+		// C to Java
+		final byte[] fromC = Files.readAllBytes(new File(dir, "c.bin").toPath());
+		final Byte[] payload = new Byte[fromC.length];
+		for (int i = 0; i < fromC.length; i++)
+			payload[i] = fromC[i];
+		final Object parsed = TestJavaStructuredSerializer.method(serializer, "instantiate", Byte[].class).invoke(instance, (Object) payload);
+		assertNotNull("C message is parsed", parsed);
+		assertEquals("C to Java", "-12345 305419896 2.5 7", parsed.toString());
+	}
+
+	private static int run(File dir, String... command) throws IOException, InterruptedException {
+		return new ProcessBuilder(command).directory(dir).redirectErrorStream(true).redirectOutput(new File(dir, "out.txt")).start().waitFor();
+	}
+
+	private static boolean gccAvailable() {
+		try {
+			return new ProcessBuilder("gcc", "--version").redirectErrorStream(true).start().waitFor() == 0;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.networkplugins.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.function.Function;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.thingml.compilers.ThingMLCompiler;
+import org.thingml.compilers.spi.SerializationPlugin;
+import org.thingml.networkplugins.java.JavaCBORSerializerPlugin;
+import org.thingml.networkplugins.java.JavaJSONSerializerPlugin;
+import org.thingml.networkplugins.java.JavaMessagePackSerializerPlugin;
+import org.thingml.utilities.logging.BufferedLogger;
+import org.thingml.xtext.constraints.ThingMLHelpers;
+import org.thingml.xtext.thingML.Configuration;
+import org.thingml.xtext.thingML.Message;
+import org.thingml.xtext.thingML.Thing;
+import org.thingml.xtext.thingML.ThingMLModel;
+
+/**
+ * Generates the Java JSON/MessagePack/CBOR serializers of a message with an enumeration, a string and an array parameter,
+ * compiles them, and formats then parses a message. Arrays cannot be serialized: they are reported and parsed as null.
+ */
+public class TestJavaStructuredSerializer {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void json() throws Exception {
+		final Function<Object, Object> parser = roundTrip(new JavaJSONSerializerPlugin(), "String");
+		assertNull("Numbers out of range are parse errors", parser.apply("{\"s\":{\"a\":12345678901234567890}}"));
+		assertNull("Numbers out of range are parse errors", parser.apply("{\"s\":{\"a\":70000}}"));
+		assertEquals("Fractions are truncated", "2 0 null null", String.valueOf(parser.apply("{\"s\":{\"a\":2.9}}")));
+	}
+
+	@Test
+	public void messagePack() throws Exception {
+		roundTrip(new JavaMessagePackSerializerPlugin(), "Byte[]");
+	}
+
+	@Test
+	public void cbor() throws Exception {
+		roundTrip(new JavaCBORSerializerPlugin(), "Byte[]");
+	}
+
+	static Message message(ThingMLModel model, String name) {
+		for (Thing t : ThingMLHelpers.allThings(model)) {
+			for (Message m : t.getMessages()) {
+				if (m.getName().equals(name))
+					return m;
+			}
+		}
+		throw new AssertionError("Model has message " + name);
+	}
+
+	static Method method(Class<?> c, String name, Class<?> parameter) {
+		for (Method m : c.getMethods()) {
+			if (m.getName().equals(name) && (parameter == null || (m.getParameterCount() == 1 && m.getParameterTypes()[0] == parameter)))
+				return m;
+		}
+		throw new AssertionError(c.getName() + " has method " + name);
+	}
+
+	/**Returns the generated parser*/
+	private Function<Object, Object> roundTrip(SerializationPlugin plugin, String payload) throws Exception {
+		assumeTrue("A JDK is needed", GeneratedJava.isAvailable());
+
+		final ThingMLModel model = ThingMLCompiler.loadModel(new File(this.getClass().getResource("/SerializerModel.thingml").getFile()));
+		assertNotNull(model);
+		final Configuration cfg = ThingMLHelpers.allConfigurations(model).get(0);
+		final Message s = message(model, "s");
+
+		final GeneratedJava java = new GeneratedJava(tmp.newFolder());
+		final BufferedLogger log = new BufferedLogger();
+		java.ctx.setLog(log);
+		java.generate(plugin, cfg, s, "SSerializer", payload);
+		assertTrue("Array parameter is reported", log.getWarning(false).contains("values"));
+		java.messageType(s, "short", "short", "String", "short[]");
+		final ClassLoader loader = java.compile();
+
+		final Class<?> type = loader.loadClass("org.thingml.generated.messages.SMessageType");
+		final Object event = method(type, "instantiate", null).invoke(type.newInstance(), (short) -12345, (short) 7, "a \"quoted\" text", new short[]{1, 2});
+		final Class<?> serializer = loader.loadClass("org.thingml.generated.network.SSerializer");
+		final Object instance = serializer.newInstance();
+		final Object formatted = method(serializer, "format", loader.loadClass("no.sintef.jasm.ext.Event")).invoke(instance, event);
+		final Object parsed = method(serializer, "instantiate", formatted.getClass()).invoke(instance, formatted);
+		assertNotNull("Formatted message is parsed", parsed);
+		assertEquals("-12345 7 a \"quoted\" text null", parsed.toString());
+		return p -> {
+			try {
+				return method(serializer, "instantiate", formatted.getClass()).invoke(instance, p);
+			} catch (ReflectiveOperationException e) {
+				throw new AssertionError(e);
+			}
+		};
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.networkplugins.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.thingml.compilers.ThingMLCompiler;
+import org.thingml.compilers.c.CCompilerContext;
+import org.thingml.compilers.c.posix.CCompilerContextPosix;
+import org.thingml.compilers.c.posix.PosixCompiler;
+import org.thingml.compilers.c.posixmt.PosixMTCompiler;
+import org.thingml.compilers.c.posixmt.PosixMTCompilerContext;
+import org.thingml.networkplugins.c.posix.PosixCBORSerializerPlugin;
+import org.thingml.networkplugins.c.posix.PosixMessagePackSerializerPlugin;
+import org.thingml.networkplugins.c.posix.PosixSelfDescribingSerializerPlugin;
+import org.thingml.xtext.constraints.ThingMLHelpers;
+import org.thingml.xtext.helpers.ConfigurationHelper;
+import org.thingml.xtext.thingML.Configuration;
+import org.thingml.xtext.thingML.Message;
+import org.thingml.xtext.thingML.ThingMLModel;
+
+/**
+ * Serializes a message with Int16 and Int32 parameters with the generated code of the POSIX MessagePack/CBOR plugins,
+ * parses it back with the generated parser, and reads the parameters from the enqueued buffer the way
+ * the posix (native byte order) and posixmt (reversed byte order) FIFOs do. Needs gcc.
+ */
+public class TestPosixSelfDescribingRoundTrip {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void posixMessagePack() throws Exception {
+		roundTrip(new CCompilerContextPosix(new PosixCompiler()), new PosixMessagePackSerializerPlugin(), "PosixMessagePack.h", false);
+	}
+
+	@Test
+	public void posixCBOR() throws Exception {
+		roundTrip(new CCompilerContextPosix(new PosixCompiler()), new PosixCBORSerializerPlugin(), "PosixCBOR.h", false);
+	}
+
+	@Test
+	public void posixmtMessagePack() throws Exception {
+		roundTrip(new PosixMTCompilerContext(new PosixMTCompiler()), new PosixMessagePackSerializerPlugin(), "PosixMessagePack.h", true);
+	}
+
+	@Test
+	public void posixmtCBOR() throws Exception {
+		roundTrip(new PosixMTCompilerContext(new PosixMTCompiler()), new PosixCBORSerializerPlugin(), "PosixCBOR.h", true);
+	}
+
+	private void roundTrip(CCompilerContext ctx, PosixSelfDescribingSerializerPlugin plugin, String header, boolean reversed) throws IOException, InterruptedException {
+		assumeTrue("gcc is needed", gccAvailable());
+
+		final File model = new File(this.getClass().getResource("/ByteOrderModel.thingml").getFile());
+		final ThingMLModel thingml = ThingMLCompiler.loadModel(model);
+		assertNotNull(thingml);
+		final Configuration cfg = ThingMLHelpers.allConfigurations(thingml).get(0);
+		final Message m = ConfigurationHelper.allMessages(cfg).iterator().next();
+
+		ctx.setCurrentConfiguration(cfg);
+		plugin.setConfiguration(cfg);
+		plugin.setContext(ctx);
+		final StringBuilder serialization = new StringBuilder();
+		final String length = plugin.generateSerialization(serialization, "buf", m, null);
+		final StringBuilder parser = new StringBuilder();
+		plugin.generateParserBody(parser, "buf", length, Collections.singleton(m), "0", null);
+
+		final StringBuilder c = new StringBuilder();
+		c.append("#include <stdio.h>\n#include <stdint.h>\n#include <string.h>\n");
+		c.append("static uint8_t fifo[64];\n");
+		c.append("void externalMessageEnqueue(uint8_t * msg, uint8_t msgSize, uint16_t listener_id) { memcpy(fifo, msg, msgSize); }\n");
+		c.append(plugin.generateSubFunctions());
+		c.append("int main(void) {\n");
+		c.append("    int16_t a = -12345;\n    int32_t b = 305419896;\n");
+		c.append(serialization);
+		c.append(parser);
+		c.append("    union { int16_t p; uint8_t bytebuffer[2]; } ua;\n");
+		c.append("    union { int32_t p; uint8_t bytebuffer[4]; } ub;\n");
+		c.append("    for (int i = 0; i < 2; i++) ua.bytebuffer[" + (reversed ? "1 - i" : "i") + "] = fifo[2 + i];\n");
+		c.append("    for (int i = 0; i < 4; i++) ub.bytebuffer[" + (reversed ? "3 - i" : "i") + "] = fifo[4 + i];\n");
+		c.append("    printf(\"%d %d\", ua.p, ub.p);\n");
+		c.append("    return 0;\n}\n");
+
+		final File dir = tmp.newFolder();
+		Files.write(new File(dir, header).toPath(), ctx.getTemplateByID("templates/" + header).getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(dir, "roundtrip.c").toPath(), c.toString().getBytes(StandardCharsets.UTF_8));
+		assertEquals("gcc failed on:\n" + c, 0, run(dir, "gcc", "-o", "roundtrip", "roundtrip.c"));
+		assertEquals(0, run(dir, new File(dir, "roundtrip").getAbsolutePath()));
+		assertEquals("-12345 305419896", new String(Files.readAllBytes(new File(dir, "out.txt").toPath()), StandardCharsets.UTF_8).trim());
+	}
+
+	private static int run(File dir, String... command) throws IOException, InterruptedException {
+		return new ProcessBuilder(command).directory(dir).redirectErrorStream(true).redirectOutput(new File(dir, "out.txt")).start().waitFor();
+	}
+
+	private static boolean gccAvailable() {
+		try {
+			return new ProcessBuilder("gcc", "--version").redirectErrorStream(true).start().waitFor() == 0;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+}
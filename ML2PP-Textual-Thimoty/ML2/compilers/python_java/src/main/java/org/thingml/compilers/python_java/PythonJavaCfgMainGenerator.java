@@ -93,7 +93,7 @@ public class PythonJavaCfgMainGenerator extends CfgMainGenerator {
         }
         
         for (Instance i : ConfigurationHelper.allInstances(cfg)) {
-        	ctx.currentInstance = i;
+        	ctx.setCurrentInstance(i);
             for (Property a : ConfigurationHelper.allArrays(cfg, i)) {
                 builder.append("final " + PythonJavaHelper.getJavaType(a.getTypeRef().getType(), true, ctx) + " " + i.getName() + "_" + a.getName() + "_array = new " + PythonJavaHelper.getJavaType(a.getTypeRef().getType(), false, ctx) + "[");
                 ctx.generateFixedAtInitValue(cfg, i, a.getTypeRef().getCardinality(), builder);
@@ -139,7 +139,7 @@ public class PythonJavaCfgMainGenerator extends CfgMainGenerator {
         		builder.append(");\n");
         	}
         }
-        ctx.currentInstance = null;
+        ctx.setCurrentInstance(null);
     }
 
     @Override
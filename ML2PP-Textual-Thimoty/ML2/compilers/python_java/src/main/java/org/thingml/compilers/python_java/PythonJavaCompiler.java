@@ -25,7 +25,6 @@ import org.thingml.utilities.logging.Logger;
 import org.thingml.xtext.constraints.ThingMLHelpers;
 import org.thingml.xtext.helpers.ConfigurationHelper;
 import org.thingml.xtext.thingML.Configuration;
-import org.thingml.xtext.thingML.Thing;
 
 /**
  * Created by ffl on 25.11.14.
@@ -89,10 +88,12 @@ public class PythonJavaCompiler extends OpaqueThingMLCompiler {
         else new File(tmpFolder).deleteOnExit();
         ctx.addContextAnnotation("package", pack);
         ctx.setCurrentConfiguration(cfg);
-        for (Thing th : ConfigurationHelper.allThings(cfg)) {
+        //Message types are shared by the things: they are generated first, then each thing has its own files and they can be generated in parallel
+        ((PythonJavaThingImplCompiler) ctx.getCompiler().getThingImplCompiler()).generateMessages(ConfigurationHelper.allThings(cfg), ctx);
+        ctx.forEachInParallel(ConfigurationHelper.allThings(cfg), th -> {
             ctx.getCompiler().getThingApiCompiler().generatePublicAPI(th, ctx);
             ctx.getCompiler().getThingImplCompiler().generateImplementation(th, ctx);
-        }
+        });
         ctx.getCompiler().getMainCompiler().generateMainAndInit(cfg, ThingMLHelpers.findContainingModel(cfg), ctx);
 
         //GENERATE A DOCKERFILE IF ASKED
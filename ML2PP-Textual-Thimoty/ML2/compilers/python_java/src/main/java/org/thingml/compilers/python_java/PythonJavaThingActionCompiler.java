@@ -319,7 +319,7 @@ public class PythonJavaThingActionCompiler extends CommonThingActionCompiler {
 				System.out.println(
 						"Error: non Read-only property (" + p.getName() + ") used in array cardinality definition.");
 			}
-			Expression e = ConfigurationHelper.initExpressions(ctx.getCurrentConfiguration(), ctx.currentInstance, p)
+			Expression e = ConfigurationHelper.initExpressions(ctx.getCurrentConfiguration(), ctx.getCurrentInstance(), p)
 					.get(0);
 			generate(e, builder, ctx);
 		}
@@ -349,8 +349,8 @@ public class PythonJavaThingActionCompiler extends CommonThingActionCompiler {
 
 	@Override
 	public void generate(FunctionCallExpression expression, StringBuilder builder, Context ctx) {
-		if (ctx.currentInstance != null)
-			builder.append(ctx.getInstanceName(ctx.currentInstance) + ".");
+		if (ctx.getCurrentInstance() != null)
+			builder.append(ctx.getInstanceName(ctx.getCurrentInstance()) + ".");
 		builder.append(expression.getFunction().getName() + "(");
 
 		int i = 0;
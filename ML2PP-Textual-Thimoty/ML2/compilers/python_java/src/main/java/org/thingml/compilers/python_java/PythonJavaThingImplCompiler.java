@@ -16,7 +16,9 @@
  */
 package org.thingml.compilers.python_java;
 
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import org.thingml.compilers.Context;
@@ -49,6 +51,17 @@ import org.thingml.xtext.thingML.Transition;
  */
 public class PythonJavaThingImplCompiler extends FSMBasedThingImplCompiler {
 
+	/**
+	 * Generates the message types of all the things at once, before the things themselves (see JavaThingImplCompiler).
+	 */
+	public void generateMessages(Collection<Thing> things, Context ctx) {
+		final Set<Message> messages = new LinkedHashSet<Message>();
+		for (Thing thing : things)
+			messages.addAll(ThingMLHelpers.allMessages(thing));
+		for (Message m : messages)
+			generateMessages(m, ctx);
+	}
+
 	public void generateMessages(Message m, Context ctx) {
 		String pack = ctx.getContextAnnotation("package");
 		if (pack == null)
@@ -324,7 +337,6 @@ public class PythonJavaThingImplCompiler extends FSMBasedThingImplCompiler {
 		for (Message m : ThingMLHelpers.allMessages(thing)) {
 			builder.append("protected final " + ctx.firstToUpper(m.getName()) + "MessageType " + m.getName()
 					+ "Type = new " + ctx.firstToUpper(m.getName()) + "MessageType();\n");
-			generateMessages(m, ctx);
 		}
 
 		builder.append("//Empty Constructor\n");
@@ -17,11 +17,15 @@
 package org.thingml.compilers.commandline;
 
 import java.io.File;
+import java.util.List;
+import java.util.function.Consumer;
 
 import org.thingml.compilers.ThingMLCompiler;
 import org.thingml.compilers.registry.ThingMLCompilerRegistry;
+import org.thingml.compilers.utils.ThingMLModelLoader;
 import org.thingml.thingmltools.ThingMLTool;
 import org.thingml.thingmltools.ThingMLToolRegistry;
+import org.thingml.utilities.logging.Logger;
 import org.thingml.xtext.constraints.ThingMLHelpers;
 import org.thingml.xtext.thingML.Configuration;
 import org.thingml.xtext.thingML.ThingMLModel;
@@ -46,6 +50,8 @@ public class Main {
     private boolean createDir;
     @Parameter(names = {"--list-plugins"}, description = "Display the list of available plugins")
     private boolean listPlugins;
+    @Parameter(names = {"--deterministic"}, description = "Generate things and configurations one after the other, in the order of the model, instead of in parallel")
+    private boolean deterministic;
 
     @Parameter(names = {"--tool", "-t"}, description = "Tool ID (Mandatory unless --compiler (-c) is used)")
     String tool;
@@ -179,7 +185,7 @@ public class Main {
 
         //EXECUTION
         try {
-            ThingMLModel input_model = ThingMLCompiler.loadModel(input);
+            ThingMLModel input_model = ThingMLCompiler.loadModel(input, Logger.SYSTEM, ThingMLModelLoader.getCaching());
             if (input_model == null) {
                 System.out.println("ERROR: The input model contains errors.");
                 return;
@@ -207,18 +213,25 @@ public class Main {
                     System.out.println("ERROR: The input model does not contain any configuration to be compiled.");
                     return;
                 }
-                for (Configuration cfg : ThingMLHelpers.allConfigurations(input_model)) {
+                if (registry.createCompilerInstanceByName(main.compiler.trim()) == null) {
+                    System.out.println("ERROR: Cannot find compiler " + main.compiler.trim() + ". Use --help (or -h) to check the list of registered compilers.");
+                    return;
+                }
+                final List<Configuration> configurations = ThingMLHelpers.allConfigurations(input_model);
+                final File rootOutdir = outdir;
+                final Consumer<Configuration> compile = cfg -> {
                     ThingMLCompiler thingmlCompiler = registry.createCompilerInstanceByName(main.compiler.trim());
-                    if (thingmlCompiler == null) {
-                        System.out.println("ERROR: Cannot find compiler " + main.compiler.trim() + ". Use --help (or -h) to check the list of registered compilers.");
-                        return;
-                    }
-                    if (main.createDir)
-                        outdir = new File(outdir, cfg.getName());
-                    thingmlCompiler.setOutputDirectory(outdir);
+                    thingmlCompiler.setDeterministicOrder(main.deterministic);
+                    thingmlCompiler.setOutputDirectory(main.createDir ? new File(rootOutdir, cfg.getName()) : rootOutdir);
                     thingmlCompiler.setInputDirectory(indir);
                     System.out.println("Generating code for configuration: " + cfg.getName() + ". InputDirectory is " + indir);
                     thingmlCompiler.compile(cfg);
+                };
+                //Configurations sharing the output directory would overwrite each other's files, they are compiled in order
+                if (main.createDir && !main.deterministic) {
+                    configurations.parallelStream().forEach(compile);
+                } else {
+                    configurations.forEach(compile);
                 }
                 logo();
             }
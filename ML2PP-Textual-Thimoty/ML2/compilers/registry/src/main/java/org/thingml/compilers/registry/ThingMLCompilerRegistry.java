@@ -140,20 +140,32 @@ public class ThingMLCompilerRegistry {
             return null;
         } else {
             ThingMLCompiler c = compilers.get(id).clone();
+            //Plugins keep the configuration they generate code for, each compiler instance gets its own
+            //so that several configurations can be compiled in parallel
             for (NetworkPlugin np : loadedPlugins) {
                 if (np.getTargetedLanguages().contains(id)) {
-                    c.addNetworkPlugin(np);
+                    c.addNetworkPlugin(newInstance(np));
                 }
             }
             for (SerializationPlugin sp : loadedSerPlugins) {
                 if (sp.getTargetedLanguages().contains(id)) {
-                    c.addSerializationPlugin(sp);
+                    c.addSerializationPlugin(sp.clone());
                 }
             }
             return c;
         }
     }
 
+    //Plugins are loaded by the ServiceLoader, so they have a public no-arg constructor.
+    //Sharing the loaded instance instead would not be safe, hence the failure.
+    private static NetworkPlugin newInstance(NetworkPlugin np) {
+        try {
+            return np.getClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Cannot create an instance of network plugin " + np.getPluginID(), e);
+        }
+    }
+
     public void printNetworkPluginList() {
         System.out.println("Network Plugin list: ");
         for (NetworkPlugin np : loadedPlugins) {
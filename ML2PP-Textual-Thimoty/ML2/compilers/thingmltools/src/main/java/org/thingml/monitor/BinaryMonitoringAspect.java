@@ -0,0 +1,237 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.monitor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.thingml.xtext.constraints.Types;
+import org.thingml.xtext.helpers.AnnotatedElementHelper;
+import org.thingml.xtext.helpers.CompositeStateHelper;
+import org.thingml.xtext.helpers.TyperHelper;
+import org.thingml.xtext.thingML.Action;
+import org.thingml.xtext.thingML.ActionBlock;
+import org.thingml.xtext.thingML.AnnotatedElement;
+import org.thingml.xtext.thingML.CompositeState;
+import org.thingml.xtext.thingML.ConditionalAction;
+import org.thingml.xtext.thingML.Expression;
+import org.thingml.xtext.thingML.FinalState;
+import org.thingml.xtext.thingML.Function;
+import org.thingml.xtext.thingML.FunctionCallStatement;
+import org.thingml.xtext.thingML.GreaterOrEqualExpression;
+import org.thingml.xtext.thingML.IntegerLiteral;
+import org.thingml.xtext.thingML.PlatformAnnotation;
+import org.thingml.xtext.thingML.PlusExpression;
+import org.thingml.xtext.thingML.Property;
+import org.thingml.xtext.thingML.PropertyReference;
+import org.thingml.xtext.thingML.State;
+import org.thingml.xtext.thingML.Thing;
+import org.thingml.xtext.thingML.ThingMLFactory;
+import org.thingml.xtext.thingML.TypeRef;
+import org.thingml.xtext.thingML.Variable;
+import org.thingml.xtext.thingML.VariableAssignment;
+
+/**
+ * Common part of the binary monitoring aspects: instead of sending a message for each
+ * observed event, they call the monitor_record function of the WithBinaryLog fragment,
+ * which appends a fixed-size record to a per-instance buffer flushed asynchronously.
+ * 
+ * Elements annotated (or belonging to a thing annotated) with @monitor_sampling "N"
+ * are only recorded every N-th time.
+ */
+public abstract class BinaryMonitoringAspect implements MonitoringAspect {
+	
+	public static final int FUNCTION_CALLED = 1;
+	public static final int PROPERTY_CHANGED = 2;
+	public static final int MESSAGE_SENT = 3;
+	public static final int MESSAGE_HANDLED = 4;
+	public static final int MESSAGE_LOST = 5;
+	
+	final Thing thing;
+	final Function monitorRecord;
+	final TypeRef counterTypeRef;
+	final Map<String, Integer> ids;
+	
+	private final Map<Integer, Property> counters = new HashMap<>();
+	
+	/**
+	 * @param ids element ids shared by all the aspects of a run, keyed by "kind\tthing\telement"
+	 */
+	public BinaryMonitoringAspect(Thing thing, Function monitorRecord, TypeRef counterTypeRef, Map<String, Integer> ids) {
+		this.thing = thing;
+		this.monitorRecord = monitorRecord;
+		this.counterTypeRef = counterTypeRef;
+		this.ids = ids;
+	}
+	
+	protected int elementId(int kind, String element) {
+		final String key = kind + "\t" + thing.getName() + "\t" + element;
+		Integer id = ids.get(key);
+		if (id == null) {
+			id = ids.size();
+			ids.put(key, id);
+		}
+		return id;
+	}
+	
+	protected int sampling(AnnotatedElement element) {
+		String rate = null;
+		if (element != null && AnnotatedElementHelper.hasAnnotation(element, "monitor_sampling"))
+			rate = AnnotatedElementHelper.firstAnnotation(element, "monitor_sampling");
+		else if (AnnotatedElementHelper.hasAnnotation(thing, "monitor_sampling"))
+			rate = AnnotatedElementHelper.firstAnnotation(thing, "monitor_sampling");
+		if (rate == null) return 1;
+		try {
+			return Math.max(1, Integer.parseInt(rate.trim()));
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid @monitor_sampling \"" + rate + "\" on " + thing.getName() + ", recording every occurrence");
+			return 1;
+		}
+	}
+	
+	protected static boolean isNumeric(TypeRef type) {
+		return type != null && !type.isIsArray() && TyperHelper.isA(type, Types.REAL_TYPEREF);
+	}
+	
+	/**
+	 * Returns value if it can be recorded as a number, 0 otherwise.
+	 */
+	protected static Expression numericValue(Expression value, TypeRef type) {
+		return isNumeric(type) ? value : integer(0);
+	}
+	
+	/**
+	 * Builds the action recording one occurrence of element, honoring its sampling rate.
+	 */
+	protected Action record(int kind, String element, AnnotatedElement source, Expression value) {
+		final int id = elementId(kind, element);
+		final FunctionCallStatement call = ThingMLFactory.eINSTANCE.createFunctionCallStatement();
+		call.setFunction(monitorRecord);
+		call.getParameters().add(integer(kind));
+		call.getParameters().add(integer(id));
+		call.getParameters().add(value);
+		
+		final int rate = sampling(source);
+		if (rate == 1) return call;
+		
+		//counter = counter + 1; if (counter >= rate) do counter = 0 monitor_record(...) end
+		final Property counter = counter(id);
+		final ActionBlock block = ThingMLFactory.eINSTANCE.createActionBlock();
+		final PlusExpression plus = ThingMLFactory.eINSTANCE.createPlusExpression();
+		plus.setLhs(ref(counter));
+		plus.setRhs(integer(1));
+		block.getActions().add(assign(counter, plus));
+		
+		final GreaterOrEqualExpression reached = ThingMLFactory.eINSTANCE.createGreaterOrEqualExpression();
+		reached.setLhs(ref(counter));
+		reached.setRhs(integer(rate));
+		final ActionBlock then = ThingMLFactory.eINSTANCE.createActionBlock();
+		then.getActions().add(assign(counter, integer(0)));
+		then.getActions().add(call);
+		final ConditionalAction cond = ThingMLFactory.eINSTANCE.createConditionalAction();
+		cond.setCondition(reached);
+		cond.setAction(then);
+		block.getActions().add(cond);
+		return block;
+	}
+	
+	/**
+	 * Sends the records still buffered (less than a full batch) when the instance stops:
+	 * on entry of its final states and on exit of its statechart.
+	 */
+	public static void flushOnStop(Thing thing, Function monitorFlush) {
+		final CompositeState behaviour = thing.getBehaviour();
+		if (behaviour == null) return;
+		for (State s : CompositeStateHelper.allContainedStatesExludingSessions(behaviour)) {
+			if (s instanceof FinalState)
+				s.setEntry(append(s.getEntry(), call(monitorFlush)));
+		}
+		behaviour.setExit(append(behaviour.getExit(), call(monitorFlush)));
+	}
+	
+	private static Action call(Function function) {
+		final FunctionCallStatement call = ThingMLFactory.eINSTANCE.createFunctionCallStatement();
+		call.setFunction(function);
+		return call;
+	}
+	
+	//Runs action after the existing one, if any
+	private static Action append(Action existing, Action action) {
+		if (existing == null) return action;
+		final ActionBlock block = ThingMLFactory.eINSTANCE.createActionBlock();
+		block.getActions().add(existing);
+		block.getActions().add(action);
+		return block;
+	}
+	
+	private Property counter(int id) {
+		Property counter = counters.get(id);
+		if (counter == null) {
+			counter = ThingMLFactory.eINSTANCE.createProperty();
+			counter.setName("monitor_sample_" + id);
+			counter.setTypeRef(EcoreUtil.copy(counterTypeRef));
+			counter.setInit(integer(0));
+			final PlatformAnnotation not = ThingMLFactory.eINSTANCE.createPlatformAnnotation();
+			not.setName("monitor");
+			not.setValue("not");
+			counter.getAnnotations().add(not);
+			thing.getProperties().add(counter);
+			counters.put(id, counter);
+		}
+		return counter;
+	}
+	
+	/**
+	 * Replaces action by a block containing it, so that records can be inserted around it.
+	 */
+	protected static ActionBlock wrap(Action action) {
+		if (action.eContainer() instanceof ActionBlock)
+			return (ActionBlock) action.eContainer();
+		final ActionBlock block = ThingMLFactory.eINSTANCE.createActionBlock();
+		if (action.eContainingFeature().getUpperBound() == -1) {//Collection
+			final EList list = (EList) action.eContainer().eGet(action.eContainingFeature());
+			final int index = list.indexOf(action);
+			list.add(index, block);
+			list.remove(action);
+		} else {
+			action.eContainer().eSet(action.eContainingFeature(), block);
+		}
+		block.getActions().add(action);
+		return block;
+	}
+	
+	protected static IntegerLiteral integer(long value) {
+		final IntegerLiteral il = ThingMLFactory.eINSTANCE.createIntegerLiteral();
+		il.setIntValue(value);
+		return il;
+	}
+	
+	protected static PropertyReference ref(Variable v) {
+		final PropertyReference ref = ThingMLFactory.eINSTANCE.createPropertyReference();
+		ref.setProperty(v);
+		return ref;
+	}
+	
+	private static VariableAssignment assign(Property p, Expression e) {
+		final VariableAssignment assign = ThingMLFactory.eINSTANCE.createVariableAssignment();
+		assign.setProperty(p);
+		assign.setExpression(e);
+		return assign;
+	}
+}
@@ -16,7 +16,15 @@
  */
 package org.thingml.monitor;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.eclipse.emf.common.util.TreeIterator;
@@ -25,9 +33,21 @@ import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.thingml.thingmltools.ThingMLTool;
 import org.thingml.xtext.ThingMLStandaloneSetup;
 import org.thingml.xtext.constraints.ThingMLHelpers;
+import org.thingml.xtext.helpers.AnnotatedElementHelper;
+import org.thingml.xtext.helpers.ThingMLElementHelper;
 import org.thingml.xtext.thingML.Action;
+import org.thingml.xtext.thingML.ActionBlock;
 import org.thingml.xtext.thingML.Expression;
+import org.thingml.xtext.thingML.Function;
+import org.thingml.xtext.thingML.FunctionCallStatement;
+import org.thingml.xtext.thingML.Handler;
+import org.thingml.xtext.thingML.Import;
+import org.thingml.xtext.thingML.ReceiveMessage;
+import org.thingml.xtext.thingML.State;
+import org.thingml.xtext.thingML.Thing;
+import org.thingml.xtext.thingML.ThingMLFactory;
 import org.thingml.xtext.thingML.ThingMLModel;
+import org.thingml.xtext.thingML.Transition;
 
 /**
  *
@@ -35,32 +55,52 @@ import org.thingml.xtext.thingML.ThingMLModel;
  */
 public class CoverageTool extends ThingMLTool {
 
+	private static final int COVERAGE_SIZE = 65536;//bits in the coverage file, THINGML_COVERAGE_SIZE in coverage.thingml
+	private final boolean instrument;//instruments the things annotated with @coverage "true" with a bit per element
+
     public CoverageTool() {
-        super();        
+        this(false);
+    }
+
+    public CoverageTool(boolean instrument) {
+        super();
+        this.instrument = instrument;
     }
 
     @Override
     public String getID() {    	
+    	if (instrument)
+    		return "coverage-bits";
+    	else
     		return "coverage";    	
     }
 
     @Override
     public String getName() {
-    	return "Coverage Tool";    	
+    	if (instrument)
+    		return "Coverage Instrumentation";
+    	else
+    		return "Coverage Tool";    	
     }
 
     @Override
     public String getDescription() {
+    	if (instrument)
+    		return "[UNDER ACTIVE DEVELOPMENT] Instruments the things annotated with @coverage \"true\" to record which states, transitions and actions are executed";
         return "[UNDER ACTIVE DEVELOPMENT] Computes how many (types of) expressions, actions and others are instantiated";
     }
 
     @Override
     public ThingMLTool clone() {
-        return new CoverageTool();
+        return new CoverageTool(instrument);
     }
 
     @Override
     public void generateThingMLFrom(ThingMLModel model) {
+    	if (instrument) {
+    		instrument(model);
+    		return;
+    	}
     	model = ThingMLHelpers.flattenModel(model);
     	
         long actions = 0, expressions = 0, others = 0;
@@ -90,4 +130,143 @@ public class CoverageTool extends ThingMLTool {
         System.out.println("------------");
     }
     
+    private void instrument(ThingMLModel model) {
+        final Import coverage_import = ThingMLFactory.eINSTANCE.createImport();
+        coverage_import.setFrom("stl");
+        coverage_import.setImportURI("coverage.thingml");
+        model.getImports().add(coverage_import);
+
+        ThingMLModel copy = ThingMLHelpers.flattenModel(model);
+        final File tempFile = new File(outDir, "coverage/temp.thingml");
+        try {
+        	MonitorGenerator.save(copy, tempFile.getAbsolutePath());
+        	copy = MonitorGenerator.load(tempFile);
+        } catch (Exception e) {
+        	System.err.println("Error while saving the instrumented model...");
+        	e.printStackTrace();
+        	System.exit(1);
+        }
+
+        Thing coverageAPI = null;
+        for (Thing t : ThingMLHelpers.allThings(copy)) {
+        	if (t.getName().equals("WithCoverage")) {
+        		coverageAPI = t;
+        		break;
+        	}
+        }
+        if (coverageAPI == null) throw new NoSuchElementException("Cannot find WithCoverage thing");
+        Function hit = null;
+        for (Function f : coverageAPI.getFunctions()) {
+        	if (f.getName().equals("coverage_hit")) {
+        		hit = f;
+        		break;
+        	}
+        }
+        if (hit == null) throw new NoSuchElementException("Cannot find coverage_hit function");
+
+        final List<String> ids = new ArrayList<>();
+        for (Thing t : ThingMLHelpers.allThings(copy)) {
+        	if (!AnnotatedElementHelper.isDefined(t, "coverage", "true")) continue;
+        	t.getIncludes().add(coverageAPI);
+        	instrument(t, hit, ids);
+        }
+        if (ids.size() > COVERAGE_SIZE)
+        	System.err.println("[WARNING] " + ids.size() + " elements to cover, only the first " + COVERAGE_SIZE + " are instrumented and recorded");
+
+        try {
+        	MonitorGenerator.save(ThingMLHelpers.flattenModel(copy), new File(outDir, "coverage/merged.thingml").getAbsolutePath());
+        } catch (Exception e) {
+        	System.err.println("Error while saving the instrumented model...");
+        	e.printStackTrace();
+        	System.exit(1);
+        }
+
+        try (PrintWriter w = new PrintWriter(new File(outDir, "coverage/coverage-ids.txt"), "UTF-8")) {
+        	w.println("#id\tkind\tthing\telement");
+        	for (int i = 0; i < Math.min(ids.size(), COVERAGE_SIZE); i++) {
+        		w.println(i + "\t" + ids.get(i));
+        	}
+        } catch (IOException e) {
+        	System.err.println("Error while saving the coverage ids...");
+        	e.printStackTrace();
+        }
+        writeTextFile("coverage/thingml_coverage_report.c", getTemplateByID("monitor/thingml_coverage_report.c"));
+    }
+
+    /**
+     * Gives an index to each state, transition and action of t, and records it when the element is executed:
+     * states on entry, transitions in their action, and actions just before them.
+     */
+    private void instrument(Thing t, Function hit, List<String> ids) {
+    	//Collected first, as instrumenting adds actions
+    	final List<EObject> elements = new ArrayList<>();
+    	final TreeIterator<EObject> it = t.eAllContents();
+    	while (it.hasNext()) {
+    		final EObject o = it.next();
+    		if (o instanceof State || o instanceof Handler || (o instanceof Action && !(o instanceof ActionBlock)))
+    			elements.add(o);
+    	}
+
+    	final Map<EObject, String> labels = new HashMap<>();
+    	final Map<EObject, Integer> counts = new HashMap<>();
+    	for (EObject o : elements) {
+    		if (o instanceof State) {
+    			final State s = (State) o;
+    			final String label = ThingMLElementHelper.qname(s, ":");
+    			labels.put(s, label);
+    			final Action call = call(hit, ids, "state", t, label);
+    			if (call == null) continue;
+    			s.setEntry(block(s.getEntry()));
+    			((ActionBlock) s.getEntry()).getActions().add(0, call);
+    		} else if (o instanceof Handler) {
+    			final Handler h = (Handler) o;
+    			String label = ThingMLElementHelper.qname((State) h.eContainer(), ":") + " -> " + ((h instanceof Transition) ? ((Transition) h).getTarget().getName() : "internal");
+    			if (h.getEvent() instanceof ReceiveMessage)
+    				label += " on " + ((ReceiveMessage) h.getEvent()).getPort().getName() + "?" + ((ReceiveMessage) h.getEvent()).getMessage().getName();
+    			if (h.getName() != null)
+    				label += " [" + h.getName() + "]";
+    			labels.put(h, label);
+    			final Action call = call(hit, ids, "transition", t, label);
+    			if (call == null) continue;
+    			h.setAction(block(h.getAction()));
+    			((ActionBlock) h.getAction()).getActions().add(0, call);
+    		} else {
+    			final Action a = (Action) o;
+    			EObject owner = a.eContainer();
+    			while (!(owner instanceof State || owner instanceof Handler || owner instanceof Function || owner instanceof Thing))
+    				owner = owner.eContainer();
+    			final int n = counts.getOrDefault(owner, 0) + 1;
+    			counts.put(owner, n);
+    			final String label = ((owner instanceof Function) ? t.getName() + "." + ((Function) owner).getName() : labels.getOrDefault(owner, t.getName()))
+    					+ " / " + a.eClass().getName() + "#" + n;
+    			final Action call = call(hit, ids, "action", t, label);
+    			if (call == null) continue;
+    			final ActionBlock block = BinaryMonitoringAspect.wrap(a);
+    			block.getActions().add(block.getActions().indexOf(a), call);
+    		}
+    	}
+    }
+
+    private static ActionBlock block(Action action) {
+    	if (action instanceof ActionBlock)
+    		return (ActionBlock) action;
+    	final ActionBlock block = ThingMLFactory.eINSTANCE.createActionBlock();
+    	if (action != null)
+    		block.getActions().add(action);
+    	return block;
+    }
+
+    /**
+     * @return the call recording the next id, or null if the id does not fit in the coverage bitset
+     */
+    private static Action call(Function hit, List<String> ids, String kind, Thing t, String label) {
+    	final int id = ids.size();
+    	ids.add(kind + "\t" + t.getName() + "\t" + label);
+    	if (id >= COVERAGE_SIZE) return null;
+    	final FunctionCallStatement call = ThingMLFactory.eINSTANCE.createFunctionCallStatement();
+    	call.setFunction(hit);
+    	call.getParameters().add(BinaryMonitoringAspect.integer(id));
+    	return call;
+    }
+    
 }
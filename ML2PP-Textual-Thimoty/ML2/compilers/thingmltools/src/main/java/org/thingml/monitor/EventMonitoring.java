@@ -303,52 +303,9 @@ public class EventMonitoring implements MonitoringAspect {
 			for(Message m : p.getReceives()) {
 				if (AnnotatedElementHelper.isDefined(p, "monitor", "not") || AnnotatedElementHelper.isDefined(m, "monitor", "not")) continue;
 				
-				Expression guard = ThingMLFactory.eINSTANCE.createBooleanLiteral();
-				((BooleanLiteral) guard).setBoolValue(true);
-				for(Handler h : root.getInternal()) {
-					if (h.getEvent() instanceof ReceiveMessage) {
-						final ReceiveMessage rm = (ReceiveMessage) h.getEvent();
-						if (!(rm.getPort() == p) || !(rm.getMessage() == m)) continue;
-						if (h.getGuard() == null) { //if there exists a non-guard event for p,m, the event will always be handled (or never lost)
-							guard = null;
-							break;
-						} else {//if there is a guarded event for p,m, it is lost iff guard is false (note: there might be several handlers for the same p,m, hence the guard = guard && !h.guard)
-							final ExpressionGroup group = ThingMLFactory.eINSTANCE.createExpressionGroup();
-							final AndExpression and = ThingMLFactory.eINSTANCE.createAndExpression();
-							and.setLhs(guard);
-							final NotExpression not = ThingMLFactory.eINSTANCE.createNotExpression();
-							final ExpressionGroup not_group = ThingMLFactory.eINSTANCE.createExpressionGroup();
-							not_group.setTerm(EcoreUtil.copy(h.getGuard()));
-							not.setTerm(not_group);
-							and.setRhs(not);
-							group.setTerm(and);
-							guard = group;
-						}
-					}
-				}
-				
-				if (guard != null) {
-					final InternalTransition it = ThingMLFactory.eINSTANCE.createInternalTransition();
-					final ReceiveMessage rm = ThingMLFactory.eINSTANCE.createReceiveMessage();
-					rm.setName("e");
-					rm.setPort(p);
-					rm.setMessage(m);
-					it.setEvent(rm);
-					it.setGuard(guard);
-					
-					//Update the event references in the guard
-					for(EventReference ref : ThingMLHelpers.getAllExpressions(guard, EventReference.class)) {
-						final Parameter currentParam = ref.getParameter();
-						Parameter newParam = null;
-						for(Parameter param : m.getParameters()) {
-							if (param.getName().equals(currentParam.getName())) {
-								newParam = param;
-								break;
-							}
-						}
-						ref.setReceiveMsg(rm);
-						ref.setParameter(newParam);
-					}
+				final InternalTransition it = lostMessageHandler(root, p, m);
+				if (it != null) {
+					final ReceiveMessage rm = (ReceiveMessage) it.getEvent();
 					
 					final SendAction send = ThingMLFactory.eINSTANCE.createSendAction();
 					send.setPort(monitoringPort);
@@ -413,4 +370,61 @@ public class EventMonitoring implements MonitoringAspect {
 		}
 	}
 	
+	/**
+	 * Builds an internal transition (without action) catching the p?m events that would not
+	 * be handled by the internal transitions of root, or null if they are always handled.
+	 */
+	static InternalTransition lostMessageHandler(CompositeState root, Port p, Message m) {
+		Expression guard = ThingMLFactory.eINSTANCE.createBooleanLiteral();
+		((BooleanLiteral) guard).setBoolValue(true);
+		for(Handler h : root.getInternal()) {
+			if (h.getEvent() instanceof ReceiveMessage) {
+				final ReceiveMessage rm = (ReceiveMessage) h.getEvent();
+				if (!(rm.getPort() == p) || !(rm.getMessage() == m)) continue;
+				if (h.getGuard() == null) { //if there exists a non-guard event for p,m, the event will always be handled (or never lost)
+					guard = null;
+					break;
+				} else {//if there is a guarded event for p,m, it is lost iff guard is false (note: there might be several handlers for the same p,m, hence the guard = guard && !h.guard)
+					final ExpressionGroup group = ThingMLFactory.eINSTANCE.createExpressionGroup();
+					final AndExpression and = ThingMLFactory.eINSTANCE.createAndExpression();
+					and.setLhs(guard);
+					final NotExpression not = ThingMLFactory.eINSTANCE.createNotExpression();
+					final ExpressionGroup not_group = ThingMLFactory.eINSTANCE.createExpressionGroup();
+					not_group.setTerm(EcoreUtil.copy(h.getGuard()));
+					not.setTerm(not_group);
+					and.setRhs(not);
+					group.setTerm(and);
+					guard = group;
+				}
+			}
+		}
+		
+		if (guard != null) {
+			final InternalTransition it = ThingMLFactory.eINSTANCE.createInternalTransition();
+			final ReceiveMessage rm = ThingMLFactory.eINSTANCE.createReceiveMessage();
+			rm.setName("e");
+			rm.setPort(p);
+			rm.setMessage(m);
+			it.setEvent(rm);
+			it.setGuard(guard);
+			
+			//Update the event references in the guard
+			for(EventReference ref : ThingMLHelpers.getAllExpressions(guard, EventReference.class)) {
+				final Parameter currentParam = ref.getParameter();
+				Parameter newParam = null;
+				for(Parameter param : m.getParameters()) {
+					if (param.getName().equals(currentParam.getName())) {
+						newParam = param;
+						break;
+					}
+				}
+				ref.setReceiveMsg(rm);
+				ref.setParameter(newParam);
+			}
+			
+			return it;
+		}
+		return null;
+	}
+	
 }
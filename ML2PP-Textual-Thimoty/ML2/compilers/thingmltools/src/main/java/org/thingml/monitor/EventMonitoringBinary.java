@@ -0,0 +1,152 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.monitor;
+
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.thingml.xtext.helpers.ActionHelper;
+import org.thingml.xtext.helpers.AnnotatedElementHelper;
+import org.thingml.xtext.helpers.StateHelper;
+import org.thingml.xtext.thingML.ActionBlock;
+import org.thingml.xtext.thingML.CompositeState;
+import org.thingml.xtext.thingML.EventReference;
+import org.thingml.xtext.thingML.Expression;
+import org.thingml.xtext.thingML.Function;
+import org.thingml.xtext.thingML.Handler;
+import org.thingml.xtext.thingML.InternalTransition;
+import org.thingml.xtext.thingML.LocalVariable;
+import org.thingml.xtext.thingML.Message;
+import org.thingml.xtext.thingML.Parameter;
+import org.thingml.xtext.thingML.Port;
+import org.thingml.xtext.thingML.ReceiveMessage;
+import org.thingml.xtext.thingML.SendAction;
+import org.thingml.xtext.thingML.State;
+import org.thingml.xtext.thingML.Thing;
+import org.thingml.xtext.thingML.ThingMLFactory;
+import org.thingml.xtext.thingML.Transition;
+import org.thingml.xtext.thingML.TypeRef;
+
+/**
+ * Records MESSAGE_SENT, MESSAGE_HANDLED and MESSAGE_LOST records, with the value
+ * of the first numeric parameter of the message (if any).
+ */
+public class EventMonitoringBinary extends BinaryMonitoringAspect {
+	
+	private static int counter = 0;
+
+	public EventMonitoringBinary(Thing thing, Function monitorRecord, TypeRef counterTypeRef, Map<String, Integer> ids) {
+		super(thing, monitorRecord, counterTypeRef, ids);
+	}
+	
+	@Override
+	public void monitor() {
+		logSentMessages();
+		logHandledMessages(thing.getBehaviour());
+		catchLostMessages(thing.getBehaviour());
+	}
+	
+	private int firstNumericParameter(Message m) {
+		for(Parameter p : m.getParameters()) {
+			if (isNumeric(p.getTypeRef())) return m.getParameters().indexOf(p);
+		}
+		return -1;
+	}
+	
+	private void logSentMessages() {
+		for(SendAction s : ActionHelper.getAllActions(thing, SendAction.class)) {
+			if (AnnotatedElementHelper.isDefined(s.getPort(), "monitor", "not") || AnnotatedElementHelper.isDefined(s.getMessage(), "monitor", "not")) continue;
+			
+			final ActionBlock block = wrap(s);
+			final int index = firstNumericParameter(s.getMessage());
+			Expression value = integer(0);
+			if (index >= 0) {
+				//evaluate the parameter only once, in case it has side-effects (e.g. a function call)
+				final Parameter param = s.getMessage().getParameters().get(index);
+				final LocalVariable lv = ThingMLFactory.eINSTANCE.createLocalVariable();
+				lv.setReadonly(true);
+				lv.setTypeRef(EcoreUtil.copy(param.getTypeRef()));
+				lv.setName(param.getName() + "_" + counter);
+				counter++;
+				lv.setInit(s.getParameters().get(index));
+				s.getParameters().add(index, ref(lv));
+				block.getActions().add(block.getActions().indexOf(s), lv);
+				value = ref(lv);
+			}
+			block.getActions().add(block.getActions().indexOf(s) + 1, record(MESSAGE_SENT, s.getPort().getName() + "!" + s.getMessage().getName(), s.getMessage(), value));
+		}
+	}
+	
+	private Expression eventValue(ReceiveMessage rm) {
+		final int index = firstNumericParameter(rm.getMessage());
+		if (index < 0) return integer(0);
+		final EventReference ref = ThingMLFactory.eINSTANCE.createEventReference();
+		ref.setReceiveMsg(rm);
+		ref.setParameter(rm.getMessage().getParameters().get(index));
+		return ref;
+	}
+	
+	private void logHandledMessages(CompositeState root) {
+		final Map<Port, Map<Message, List<Handler>>> handlers = StateHelper.allMessageHandlers(root);
+		for(Map<Message, List<Handler>> e : handlers.values()) {
+			for(List<Handler> l : e.values()) {
+				for(Handler h : l) {
+					String element = EventMonitoring.qName((State) h.eContainer()) + "->";
+					if (h instanceof InternalTransition) {
+						element += "_";
+					} else {
+						element += EventMonitoring.qName(((Transition) h).getTarget());
+					}
+					Expression value = integer(0);
+					Message msg = null;
+					if (h.getEvent() != null) {
+						final ReceiveMessage rm = (ReceiveMessage) h.getEvent();
+						if (AnnotatedElementHelper.isDefined(rm.getPort(), "monitor", "not") || AnnotatedElementHelper.isDefined(rm.getMessage(), "monitor", "not")) continue;
+						element += ":" + rm.getPort().getName() + "?" + rm.getMessage().getName();
+						value = eventValue(rm);
+						msg = rm.getMessage();
+					}
+					
+					final ActionBlock block = ThingMLFactory.eINSTANCE.createActionBlock();
+					block.getActions().add(record(MESSAGE_HANDLED, element, msg, value));
+					if (h.getAction() != null) {
+						block.getActions().add(h.getAction());
+					}
+					h.setAction(block);
+				}
+			}
+		}
+	}
+	
+	private void catchLostMessages(CompositeState root) {
+		for(Port p : thing.getPorts()) {
+			for(Message m : p.getReceives()) {
+				if (AnnotatedElementHelper.isDefined(p, "monitor", "not") || AnnotatedElementHelper.isDefined(m, "monitor", "not")) continue;
+				
+				final InternalTransition it = EventMonitoring.lostMessageHandler(root, p, m);
+				if (it != null) {
+					final ActionBlock block = ThingMLFactory.eINSTANCE.createActionBlock();
+					block.getActions().add(record(MESSAGE_LOST, p.getName() + "?" + m.getName(), m, eventValue((ReceiveMessage) it.getEvent())));
+					it.setAction(block);
+					root.getInternal().add(it);
+				}
+			}
+		}
+	}
+	
+}
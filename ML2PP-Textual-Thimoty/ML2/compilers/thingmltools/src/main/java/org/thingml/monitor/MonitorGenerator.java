@@ -18,6 +18,9 @@ package org.thingml.monitor;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import org.eclipse.emf.common.util.URI;
@@ -31,6 +34,7 @@ import org.thingml.thingmltools.ThingMLTool;
 import org.thingml.xtext.ThingMLStandaloneSetup;
 import org.thingml.xtext.constraints.ThingMLHelpers;
 import org.thingml.xtext.helpers.AnnotatedElementHelper;
+import org.thingml.xtext.thingML.Function;
 import org.thingml.xtext.thingML.Import;
 import org.thingml.xtext.thingML.Message;
 import org.thingml.xtext.thingML.ObjectType;
@@ -49,15 +53,23 @@ import org.thingml.xtext.thingML.TypeRef;
 public class MonitorGenerator extends ThingMLTool {
 
 	private final boolean isBinary;
+	private final boolean isTrace;//binary records written to a memory-mapped trace file (POSIX)
 
     public MonitorGenerator(boolean isBinary) {
+        this(isBinary, false);
+    }
+
+    public MonitorGenerator(boolean isBinary, boolean isTrace) {
         super();
-        this.isBinary = isBinary;
+        this.isBinary = isBinary || isTrace;
+        this.isTrace = isTrace;
     }
 
     @Override
     public String getID() {
-    	if (!isBinary)
+    	if (isTrace)
+    		return "monitor-trace";
+    	else if (!isBinary)
     		return "monitor";
     	else
     		return "monitor-bin";
@@ -65,7 +77,9 @@ public class MonitorGenerator extends ThingMLTool {
 
     @Override
     public String getName() {
-    	if (!isBinary)
+    	if (isTrace)
+    		return "POSIX Trace Monitor Generator";
+    	else if (!isBinary)
     		return "Monitor Generator";
     	else 
     		return "Binary Monitor Generator";
@@ -78,7 +92,7 @@ public class MonitorGenerator extends ThingMLTool {
 
     @Override
     public ThingMLTool clone() {
-        return new MonitorGenerator(isBinary);
+        return new MonitorGenerator(isBinary, isTrace);
     }
 
     @Override
@@ -89,7 +103,7 @@ public class MonitorGenerator extends ThingMLTool {
         
         Import log_import = ThingMLFactory.eINSTANCE.createImport();
         log_import.setFrom("stl");
-        log_import.setImportURI("log.thingml");
+        log_import.setImportURI(isTrace ? "logtrace.thingml" : (isBinary ? "logbinary.thingml" : "log.thingml"));
         copy.getImports().add(log_import);
 
         copy = ThingMLHelpers.flattenModel(copy);
@@ -105,18 +119,16 @@ public class MonitorGenerator extends ThingMLTool {
         
     	Type stringType = null;
     	for (Type t : copy.getTypes()) {
-            if (t instanceof ObjectType) {
-                if (!isBinary && t.getName().equals("String")) {
-                	stringType = t;
-                	break;
-                }
-                if (isBinary && t.getName().equals("Byte")) {
-                	stringType = t;
-                	break;
-                }
+            if (!isBinary && t instanceof ObjectType && t.getName().equals("String")) {
+            	stringType = t;
+            	break;
+            }
+            if (isBinary && t.getName().equals("Int16")) {//type of the sampling counters
+            	stringType = t;
+            	break;
             }
         }
-    	if (stringType == null) throw new NoSuchElementException("Cannot find String/Byte type");
+    	if (stringType == null) throw new NoSuchElementException("Cannot find String/Int16 type");
     	
     	final TypeRef stringTypeRef = ThingMLFactory.eINSTANCE.createTypeRef();
     	stringTypeRef.setType(stringType);
@@ -127,7 +139,11 @@ public class MonitorGenerator extends ThingMLTool {
         		logAPI = t;
         		break;
         	}
-        	if (isBinary && t.getName().equals("WithBinaryLog")) {
+        	if (isTrace && t.getName().equals("WithTraceLog")) {
+        		logAPI = t;
+        		break;
+        	}
+        	if (!isTrace && isBinary && t.getName().equals("WithBinaryLog")) {
         		logAPI = t;
         		break;
         	}
@@ -135,7 +151,19 @@ public class MonitorGenerator extends ThingMLTool {
         if (logAPI == null) throw new NoSuchElementException("Cannot find WithLog thing");
                 
         final Property id = logAPI.getProperties().get(0);
-    	final RequiredPort monitoringPort = (RequiredPort) logAPI.getPorts().get(0);
+    	final RequiredPort monitoringPort = isTrace ? null : (RequiredPort) logAPI.getPorts().get(0);
+    	
+    	Function monitorRecord = null;
+    	Function monitorFlush = null;
+    	for (Function f : logAPI.getFunctions()) {
+    		if (f.getName().equals("monitor_record"))
+    			monitorRecord = f;
+    		if (f.getName().equals("monitor_flush"))
+    			monitorFlush = f;
+    	}
+    	if (isBinary && monitorRecord == null) throw new NoSuchElementException("Cannot find monitor_record function");
+    	if (isBinary && monitorFlush == null) throw new NoSuchElementException("Cannot find monitor_flush function");
+    	final Map<String, Integer> ids = new LinkedHashMap<>();
     	        
         for (Thing t : ThingMLHelpers.allThings(copy)) {
         	if (AnnotatedElementHelper.isDefined(t, "monitor", "not")) continue;
@@ -146,6 +174,17 @@ public class MonitorGenerator extends ThingMLTool {
         	
         	//////////////////////////////////////////
         	
+        	if (isBinary) {
+        		if (AnnotatedElementHelper.isDefined(t, "monitor", "events"))
+        			new EventMonitoringBinary(t, monitorRecord, stringTypeRef, ids).monitor();
+        		if (AnnotatedElementHelper.isDefined(t, "monitor", "functions"))
+        			new FunctionMonitoringBinary(t, monitorRecord, stringTypeRef, ids).monitor();
+        		if (AnnotatedElementHelper.isDefined(t, "monitor", "properties"))
+        			new PropertyMonitoringBinary(t, monitorRecord, stringTypeRef, ids).monitor();
+        		BinaryMonitoringAspect.flushOnStop(t, monitorFlush);
+        		continue;
+        	}
+        	
         	if (AnnotatedElementHelper.isDefined(t, "monitor", "events")) {
         		Message msg_lost = null;
         		for (Message m : monitoringPort.getSends()) {
@@ -179,10 +218,7 @@ public class MonitorGenerator extends ThingMLTool {
         				break;
         			}
         		}
-        		if (!isBinary)
-        			new FunctionMonitoring(t, id, monitoringPort, msg, stringTypeRef).monitor();
-        		else
-        			new FunctionMonitoringBinary(t, id, monitoringPort, msg, stringTypeRef).monitor();
+        		new FunctionMonitoring(t, id, monitoringPort, msg, stringTypeRef).monitor();
         	}
         	
         	if (AnnotatedElementHelper.isDefined(t, "monitor", "properties")) {
@@ -206,10 +242,25 @@ public class MonitorGenerator extends ThingMLTool {
         	System.exit(1);
         }
         
+        if (isBinary) {
+        	final File idsFile = new File(outDir, "monitor/monitor-ids.txt");
+        	try (PrintWriter w = new PrintWriter(idsFile, "UTF-8")) {
+        		w.println("#id\tkind\tthing\telement");
+        		for (Map.Entry<String, Integer> e : ids.entrySet()) {
+        			w.println(e.getValue() + "\t" + e.getKey());
+        		}
+        	} catch (IOException e) {
+        		System.err.println("Error while saving the monitoring ids...");
+        		e.printStackTrace();
+        	}
+        }
+        if (isTrace) {
+        	writeTextFile("monitor/thingml_trace_reader.c", getTemplateByID("monitor/thingml_trace_reader.c"));
+        }
     }
     
     //FIXME: this has nothing to do here. load/save is currently in compiler framework, not accessible from here. This should be part of the thingml project, together with metamodel, etc
-    private void save(ThingMLModel model, String location) throws IOException {
+    static void save(ThingMLModel model, String location) throws IOException {
     	ThingMLStandaloneSetup.doSetup();    	
     	if (!model.getImports().isEmpty())
     		throw new Error("Only models without imports can be saved with this method. Use the 'flattenModel' method first.");
@@ -225,7 +276,7 @@ public class MonitorGenerator extends ThingMLTool {
     }
 
     //FIXME: this has nothing to do here. load/save is currently in compiler framework, not accessible from here. This should be part of the thingml project, together with metamodel, etc
-    private ThingMLModel load(File file) throws IOException {
+    static ThingMLModel load(File file) throws IOException {
     	ThingMLStandaloneSetup.doSetup();    	
         ResourceSet rs = new ResourceSetImpl();
         URI xmiuri = URI.createFileURI(file.getAbsolutePath());
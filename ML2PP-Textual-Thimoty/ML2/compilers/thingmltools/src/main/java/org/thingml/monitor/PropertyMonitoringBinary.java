@@ -0,0 +1,71 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.monitor;
+
+import java.util.Map;
+
+import org.thingml.xtext.helpers.ActionHelper;
+import org.thingml.xtext.helpers.AnnotatedElementHelper;
+import org.thingml.xtext.helpers.ThingHelper;
+import org.thingml.xtext.thingML.Action;
+import org.thingml.xtext.thingML.ActionBlock;
+import org.thingml.xtext.thingML.Decrement;
+import org.thingml.xtext.thingML.Function;
+import org.thingml.xtext.thingML.Increment;
+import org.thingml.xtext.thingML.Property;
+import org.thingml.xtext.thingML.Thing;
+import org.thingml.xtext.thingML.TypeRef;
+import org.thingml.xtext.thingML.VariableAssignment;
+
+/**
+ * Records a PROPERTY_CHANGED record, with the new value when it is numeric,
+ * after each ThingML assignment of a property.
+ */
+public class PropertyMonitoringBinary extends BinaryMonitoringAspect {
+	
+	public PropertyMonitoringBinary(Thing thing, Function monitorRecord, TypeRef counterTypeRef, Map<String, Integer> ids) {
+		super(thing, monitorRecord, counterTypeRef, ids);
+	}
+	
+	@Override
+	public void monitor() {
+		for(Property p : ThingHelper.allPropertiesInDepth(thing)) {
+			if (AnnotatedElementHelper.isDefined(p, "monitor", "not")) continue;
+			if (p.getTypeRef().getCardinality() != null) continue;//FIXME: handle arrays
+			
+			for(Increment assign : ActionHelper.getAllActions(thing, Increment.class)) {
+				if (!(assign.getVar() == p)) continue;
+				catchChanges(assign, p);
+			}
+			
+			for(Decrement assign : ActionHelper.getAllActions(thing, Decrement.class)) {
+				if (!(assign.getVar() == p)) continue;
+				catchChanges(assign, p);
+			}
+			
+			for(VariableAssignment assign : ActionHelper.getAllActions(thing, VariableAssignment.class)) {
+				if (!(assign.getProperty() == p)) continue;
+				catchChanges(assign, p);
+			}
+		}
+    }
+
+	private void catchChanges(Action assign, Property p) {
+		final ActionBlock block = wrap(assign);
+		block.getActions().add(block.getActions().indexOf(assign) + 1, record(PROPERTY_CHANGED, p.getName(), p, numericValue(ref(p), p.getTypeRef())));
+	}
+}
@@ -51,7 +51,9 @@ public class ThingMLToolRegistry {
             instance.addTool(new GoSONMQTTGenerator());
             instance.addTool(new MonitorGenerator(false));
             instance.addTool(new MonitorGenerator(true));
+            instance.addTool(new MonitorGenerator(true, true));
             instance.addTool(new CoverageTool());
+            instance.addTool(new CoverageTool(true));
         }
 
         return instance;
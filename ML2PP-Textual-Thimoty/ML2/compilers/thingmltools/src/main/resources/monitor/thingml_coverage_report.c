@@ -0,0 +1,134 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+/*
+ * Reports the coverage recorded by programs instrumented with the coverage-bits tool.
+ *
+ *   cc -o thingml_coverage_report thingml_coverage_report.c
+ *   ./thingml_coverage_report [-a] [-o merged.coverage] coverage-ids.txt thingml.coverage [other.coverage...]
+ *
+ * The coverage files (e.g. collected on different machines) are merged, and the covered and total
+ * number of states, transitions and actions are printed, followed by the elements never covered
+ * (all the elements with -a). -o writes the merged coverage to a file.
+ * The layout must be kept in sync with the WithCoverage fragment (coverage.thingml in the STL).
+ */
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#define THINGML_COVERAGE_SIZE 65536
+
+static uint8_t bits[THINGML_COVERAGE_SIZE / 8];
+
+struct element {
+	unsigned long id;
+	char kind[32];
+	char *name;
+};
+
+static int covered(unsigned long id) {
+	return id < THINGML_COVERAGE_SIZE && (bits[id / 8] >> (id % 8)) & 1;
+}
+
+int main(int argc, char *argv[]) {
+	int all = 0;
+	const char *output = NULL;
+	int i = 1;
+	for (; i < argc && argv[i][0] == '-'; i++) {
+		if (strcmp(argv[i], "-a") == 0) all = 1;
+		else if (strcmp(argv[i], "-o") == 0 && i + 1 < argc) output = argv[++i];
+		else break;
+	}
+	if (argc - i < 2) {
+		fprintf(stderr, "Usage: %s [-a] [-o merged.coverage] coverage-ids.txt thingml.coverage [other.coverage...]\n", argv[0]);
+		return 1;
+	}
+
+	FILE *f = fopen(argv[i], "r");
+	if (f == NULL) {
+		perror(argv[i]);
+		return 1;
+	}
+	struct element *elements = NULL;
+	size_t nb = 0, cap = 0;
+	char line[1024];
+	while (fgets(line, sizeof(line), f) != NULL) {
+		if (line[0] == '#' || line[0] == '\n') continue;
+		line[strcspn(line, "\r\n")] = 0;
+		if (nb == cap) {
+			cap = cap ? 2 * cap : 256;
+			elements = realloc(elements, cap * sizeof(struct element));
+		}
+		char *kind = strchr(line, '\t');
+		if (kind == NULL) continue;
+		*kind++ = 0;
+		char *name = strchr(kind, '\t');
+		if (name == NULL) continue;
+		*name++ = 0;
+		char *element = strchr(name, '\t'); /* names are qualified by the thing */
+		if (element != NULL) name = element + 1;
+		elements[nb].id = strtoul(line, NULL, 10);
+		snprintf(elements[nb].kind, sizeof(elements[nb].kind), "%s", kind);
+		elements[nb].name = strdup(name);
+		nb++;
+	}
+	fclose(f);
+
+	for (i++; i < argc; i++) {
+		uint8_t b[THINGML_COVERAGE_SIZE / 8] = {0};
+		f = fopen(argv[i], "rb");
+		if (f == NULL) {
+			perror(argv[i]);
+			return 1;
+		}
+		const size_t n = fread(b, 1, sizeof(b), f);
+		fclose(f);
+		for (size_t j = 0; j < n; j++) bits[j] |= b[j];
+	}
+
+	if (output != NULL) {
+		f = fopen(output, "wb");
+		if (f == NULL || fwrite(bits, 1, sizeof(bits), f) != sizeof(bits)) {
+			perror(output);
+			return 1;
+		}
+		fclose(f);
+	}
+
+	static const char *kinds[] = { "state", "transition", "action" };
+	size_t total = 0, hit = 0;
+	for (size_t k = 0; k < sizeof(kinds) / sizeof(kinds[0]); k++) {
+		size_t t = 0, h = 0;
+		for (size_t j = 0; j < nb; j++) {
+			if (strcmp(elements[j].kind, kinds[k]) != 0) continue;
+			t++;
+			h += covered(elements[j].id);
+		}
+		printf("%-12s %6zu / %-6zu %5.1f%%\n", kinds[k], h, t, t ? 100.0 * h / t : 100.0);
+		total += t;
+		hit += h;
+	}
+	printf("%-12s %6zu / %-6zu %5.1f%%\n", "total", hit, total, total ? 100.0 * hit / total : 100.0);
+
+	printf("\n%s:\n", all ? "Elements" : "Not covered");
+	for (size_t j = 0; j < nb; j++) {
+		const int c = covered(elements[j].id);
+		if (all) printf("%c %-10s %s\n", c ? '+' : '-', elements[j].kind, elements[j].name);
+		else if (!c) printf("  %-10s %s\n", elements[j].kind, elements[j].name);
+	}
+	return 0;
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+/*
+ * Reads the trace file written by programs instrumented with the monitor-trace tool.
+ *
+ *   cc -o thingml_trace_reader thingml_trace_reader.c
+ *   ./thingml_trace_reader [-f] thingml.trace [monitor-ids.txt]
+ *
+ * -f keeps reading new records as they are written (like tail -f).
+ * The layout must be kept in sync with the WithTraceLog fragment (logtrace.thingml in the STL).
+ */
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+
+#define THINGML_TRACE_MAGIC 0x544D4C5452414345ULL
+#define THINGML_TRACE_VERSION 1
+
+struct thingml_trace_record {
+	uint64_t seq;
+	uint64_t time_ns;
+	double value;
+	uint16_t element;
+	uint8_t kind;
+	uint8_t inst;
+	uint32_t reserved;
+};
+
+struct thingml_trace_header {
+	uint64_t magic;
+	uint32_t version;
+	uint32_t record_size;
+	uint64_t capacity;
+	uint64_t head;
+	uint64_t reserved[4];
+};
+
+static const char *kinds[] = { "?", "function", "property", "sent", "handled", "lost" };
+
+static char **names = NULL;
+static size_t nb_names = 0;
+
+/* monitor-ids.txt: id \t kind \t thing \t element */
+static void load_ids(const char *path) {
+	FILE *f = fopen(path, "r");
+	if (f == NULL) {
+		perror(path);
+		return;
+	}
+	char line[1024];
+	while (fgets(line, sizeof(line), f) != NULL) {
+		if (line[0] == '#') continue;
+		char *end;
+		const unsigned long id = strtoul(line, &end, 10);
+		if (end == line || *end != '\t') continue;
+		char *kind = end + 1;
+		char *thing = strchr(kind, '\t');
+		if (thing == NULL) continue;
+		thing++;
+		line[strcspn(line, "\r\n")] = '\0';
+		if (id >= nb_names) {
+			names = realloc(names, (id + 1) * sizeof(char *));
+			memset(names + nb_names, 0, (id + 1 - nb_names) * sizeof(char *));
+			nb_names = id + 1;
+		}
+		names[id] = strdup(thing);
+		char *tab = strchr(names[id], '\t');
+		if (tab != NULL) *tab = '.';
+	}
+	fclose(f);
+}
+
+/* Copies record number ticket, returns 0 if it is being (or has been) overwritten */
+static int read_record(const struct thingml_trace_header *h, uint64_t ticket, struct thingml_trace_record *out) {
+	const struct thingml_trace_record *r = (const struct thingml_trace_record *) (h + 1) + (ticket % h->capacity);
+	if (__atomic_load_n(&r->seq, __ATOMIC_ACQUIRE) != ticket + 1) return 0;
+	memcpy(out, r, sizeof(*out));
+	__atomic_thread_fence(__ATOMIC_ACQUIRE);
+	return __atomic_load_n(&r->seq, __ATOMIC_RELAXED) == ticket + 1;
+}
+
+static void print_record(const struct thingml_trace_record *r) {
+	const char *kind = r->kind < sizeof(kinds) / sizeof(kinds[0]) ? kinds[r->kind] : kinds[0];
+	if (r->element < nb_names && names[r->element] != NULL)
+		printf("%llu\t%u\t%s\t%s\t%g\n", (unsigned long long) r->time_ns, r->inst, kind, names[r->element], r->value);
+	else
+		printf("%llu\t%u\t%s\t%u\t%g\n", (unsigned long long) r->time_ns, r->inst, kind, r->element, r->value);
+}
+
+int main(int argc, char *argv[]) {
+	int follow = 0;
+	int arg = 1;
+	if (arg < argc && strcmp(argv[arg], "-f") == 0) {
+		follow = 1;
+		arg++;
+	}
+	if (arg >= argc) {
+		fprintf(stderr, "Usage: %s [-f] <trace file> [monitor-ids.txt]\n", argv[0]);
+		return 2;
+	}
+	const char *path = argv[arg++];
+	if (arg < argc) load_ids(argv[arg]);
+
+	const int fd = open(path, O_RDONLY);
+	struct stat st;
+	if (fd < 0 || fstat(fd, &st) != 0) {
+		perror(path);
+		return 1;
+	}
+	if ((size_t) st.st_size < sizeof(struct thingml_trace_header)) {
+		fprintf(stderr, "%s: not a ThingML trace\n", path);
+		return 1;
+	}
+	const struct thingml_trace_header *h = mmap(NULL, st.st_size, PROT_READ, MAP_SHARED, fd, 0);
+	close(fd);
+	if (h == MAP_FAILED) {
+		perror(path);
+		return 1;
+	}
+	if (__atomic_load_n(&h->magic, __ATOMIC_ACQUIRE) != THINGML_TRACE_MAGIC || h->version != THINGML_TRACE_VERSION
+			|| h->record_size != sizeof(struct thingml_trace_record) || h->capacity == 0
+			|| sizeof(*h) + h->capacity * h->record_size > (uint64_t) st.st_size) {
+		fprintf(stderr, "%s: not a ThingML trace (or incompatible version)\n", path);
+		return 1;
+	}
+
+	printf("#time_ns\tinst\tkind\telement\tvalue\n");
+	uint64_t next = 0;
+	uint64_t lost = 0;
+	int retries = 0;
+	for (;;) {
+		const uint64_t head = __atomic_load_n(&h->head, __ATOMIC_ACQUIRE);
+		if (head - next > h->capacity) {
+			lost += head - h->capacity - next;
+			next = head - h->capacity;
+		}
+		while (next < head) {
+			struct thingml_trace_record r;
+			if (read_record(h, next, &r)) {
+				print_record(&r);
+			} else if (follow && retries < 10) {
+				retries++;
+				break; /* probably still being written, retry later */
+			} else {
+				lost++; /* never published, or overwritten before it could be read */
+			}
+			retries = 0;
+			next++;
+		}
+		if (!follow) break;
+		fflush(stdout);
+		usleep(100000);
+	}
+	if (lost > 0) fprintf(stderr, "%llu records overwritten before they could be read\n", (unsigned long long) lost);
+	return 0;
+}
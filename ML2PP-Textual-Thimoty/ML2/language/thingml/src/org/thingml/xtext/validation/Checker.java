@@ -16,24 +16,54 @@
  */
 package org.thingml.xtext.validation;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+import org.eclipse.emf.common.util.BasicDiagnostic;
+import org.eclipse.emf.common.util.Diagnostic;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EValidator;
 import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.util.Diagnostician;
+import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.xtext.diagnostics.Severity;
 import org.eclipse.xtext.resource.XtextResource;
+import org.eclipse.xtext.resource.XtextSyntaxDiagnostic;
 import org.eclipse.xtext.util.CancelIndicator;
+import org.eclipse.xtext.validation.AbstractInjectableValidator;
+import org.eclipse.xtext.validation.CancelableDiagnostician;
 import org.eclipse.xtext.validation.CheckMode;
+import org.eclipse.xtext.validation.IDiagnosticConverter;
 import org.eclipse.xtext.validation.IResourceValidator;
 import org.eclipse.xtext.validation.Issue;
+import org.eclipse.xtext.validation.ResourceValidatorImpl;
+import org.thingml.xtext.constraints.ThingMLHelpers;
+import org.thingml.xtext.helpers.ConfigurationHelper;
 import org.thingml.xtext.thingML.Configuration;
+import org.thingml.xtext.thingML.Protocol;
+import org.thingml.xtext.thingML.Thing;
 import org.thingml.xtext.thingML.ThingMLModel;
+import org.thingml.xtext.thingML.Type;
 
+/**
+ * Runs the ThingML checks on a model or on a configuration.
+ *
+ * There is no global lock: validations of models loaded in different resource sets run concurrently,
+ * validations sharing a resource set wait for each other (EMF resource sets are not thread-safe).
+ * Within one validation, the top-level elements (things, configurations, protocols, ...) are checked
+ * in parallel, unless disabled with setParallel(false).
+ */
 public class Checker {
-	private List<Issue> issues;
+	private volatile List<Issue> issues;
+	private boolean parallel = true;
 	
 	private final Comparator<Issue> issueComparator = Comparator
 		// Sort by URI first (nulls first)
@@ -43,28 +73,125 @@ public class Checker {
 	;
 	
 	public Checker() {
-		issues = new LinkedList<Issue>();
+		issues = Collections.emptyList();
 		// TODO: Add a constructor that accepts compiler-specific validators as well
 	}
+	
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+    
+    private List<Issue> validate(EObject root, Collection<EObject> scope) {
+    	final Resource r = root.eResource();
+    	if (!(r instanceof XtextResource))
+    		return Collections.emptyList();
+    	final Object lock = (r.getResourceSet() != null) ? r.getResourceSet() : r;
+    	synchronized (lock) {
+    		final IResourceValidator validator = ((XtextResource)r).getResourceServiceProvider().getResourceValidator();
+    		if (!(validator instanceof ResourceValidatorImpl))
+    			return validator.validate(r, CheckMode.ALL, CancelIndicator.NullImpl);
+    		return validate((XtextResource)r, (ResourceValidatorImpl)validator, scope);
+    	}
+    }
     
-    private static synchronized List<Issue> validate(List<Issue> out, EObject o) {
-    	out.clear();
-    	final Resource r = o.eResource();
-    	if (r instanceof XtextResource) {
-    		IResourceValidator validator = ((XtextResource)r).getResourceServiceProvider().getResourceValidator();
-    		List<Issue> issues = validator.validate(r, CheckMode.ALL, CancelIndicator.NullImpl);
-    		out.addAll(issues);    	
+    private List<Issue> validate(XtextResource r, ResourceValidatorImpl validator, Collection<EObject> scope) {
+    	final List<Issue> result = new ArrayList<Issue>();
+    	final IDiagnosticConverter converter = validator.getDiagnosticConverter();
+    	
+    	// Syntax and linking errors, the checks are not run if the file cannot be parsed
+    	boolean syntaxErrors = false;
+    	for (Resource.Diagnostic d : r.getErrors()) {
+    		syntaxErrors |= d instanceof XtextSyntaxDiagnostic;
+    		converter.convertResourceDiagnostic(d, Severity.ERROR, result::add);
+    	}
+    	for (Resource.Diagnostic d : r.getWarnings())
+    		converter.convertResourceDiagnostic(d, Severity.WARNING, result::add);
+    	if (syntaxErrors)
+    		return result;
+    	
+    	// Everything the checks navigate must be resolved (and cached) before going parallel, as it modifies the model
+    	if (r.getResourceSet() != null)
+    		EcoreUtil.resolveAll(r.getResourceSet());
+    	else
+    		EcoreUtil.resolveAll(r);
+    	r.getCache().get(Checker.class, r, () -> Boolean.TRUE);
+    	// The checks look imported models up by URI, and a lookup missing the resource set map writes to it:
+    	// all the transitive imports are looked up once here, so that the parallel checks only read the map
+    	for (EObject o : r.getContents()) {
+    		if (o instanceof ThingMLModel)
+    			ThingMLHelpers.allThingMLModelModels((ThingMLModel)o);
+    	}
+    	
+    	final Diagnostician diagnostician = validator.getDiagnostician();
+    	final Map<Object, Object> context = diagnostician.createDefaultContext();
+    	context.put(CheckMode.KEY, CheckMode.ALL);
+    	context.put(CancelableDiagnostician.CANCEL_INDICATOR, CancelIndicator.NullImpl);
+    	context.put(AbstractInjectableValidator.CURRENT_LANGUAGE_NAME, r.getLanguageName());
+    	
+    	final List<List<Issue>> perElement = (parallel ? scope.parallelStream() : scope.stream()).map(o -> {
+    		final List<Issue> found = new ArrayList<Issue>();
+    		final Diagnostic diagnostic;
+    		if (o instanceof ThingMLModel) {
+    			// Only the model itself, its content is part of the scope
+    			final BasicDiagnostic chain = new BasicDiagnostic();
+    			final EValidator eValidator = EValidator.Registry.INSTANCE.getEValidator(o.eClass().getEPackage());
+    			if (eValidator != null)
+    				eValidator.validate(o.eClass(), o, chain, context);
+    			diagnostic = chain;
+    		} else {
+    			diagnostic = diagnostician.validate(o, context);
+    		}
+    		for (Diagnostic child : diagnostic.getChildren())
+    			converter.convertValidatorDiagnostic(child, found::add);
+    		return found;
+    	}).collect(Collectors.toList());
+    	for (List<Issue> found : perElement)
+    		result.addAll(found);
+    	return result;
+    }
+    
+    /**
+     * Top-level elements of the file containing the model: the model itself, its types, protocols and configurations.
+     */
+    private static Collection<EObject> scopeOf(ThingMLModel model) {
+    	final Collection<EObject> scope = new LinkedHashSet<EObject>();
+    	scope.add(model);
+    	scope.addAll(model.getTypes());
+    	scope.addAll(model.getProtocols());
+    	scope.addAll(model.getConfigs());
+    	return scope;
+    }
+    
+    /**
+     * Elements of the file containing the configuration that the configuration depends on: the configuration,
+     * the things it instantiates (and their fragments), the protocols it uses and the datatypes.
+     * Other configurations and unused things of the file are not checked.
+     */
+    private static Collection<EObject> scopeOf(Configuration cfg) {
+    	final ThingMLModel model = ThingMLHelpers.findContainingModel(cfg);
+    	final Collection<EObject> scope = new LinkedHashSet<EObject>();
+    	scope.add(model);
+    	scope.add(cfg);
+    	final Collection<Thing> things = ConfigurationHelper.allUsedThings(cfg);
+    	final Collection<Protocol> protocols = ConfigurationHelper.getUsedProtocols(cfg);
+    	for (Type t : model.getTypes()) {
+    		if (!(t instanceof Thing) || things.contains(t))
+    			scope.add(t);
+    	}
+    	for (Protocol p : model.getProtocols()) {
+    		if (protocols.contains(p))
+    			scope.add(p);
     	}
-    	return out;
+    	return scope;
     }
     
     public boolean validateModel(ThingMLModel model) {
-    	validate(this.issues, model);
+    	this.issues = validate(model, scopeOf(model));
     	return !this.hasErrors();
     }
     
     public boolean validateConfiguration(Configuration cfg) {
-    	validate(this.issues, cfg);
+    	this.issues = validate(cfg, scopeOf(cfg));
     	return !this.hasErrors();
     }
     
@@ -91,6 +91,14 @@ public class ThingMLTest implements Describable, Serializable, Callable<Collecti
 	public Collection<Runnable> call() {
 		if (this.notifier == null) throw new RuntimeException("No RunNotifier set in Test");
 		
+		// Cases that succeeded before with the same inputs are not run again
+		Collection<ThingMLTestCase> pending = new ArrayList<ThingMLTestCase>();
+		for (ThingMLTestCase cse : cases) {
+			if (!shouldRun() || !cse.reportCachedResult(this.notifier))
+				pending.add(cse);
+		}
+		if (pending.isEmpty()) return new ArrayList<Runnable>();
+		
 		EachTestNotifier not = new EachTestNotifier(this.notifier, this.description);
 		boolean prepared = false;
 		try {
@@ -106,7 +114,7 @@ public class ThingMLTest implements Describable, Serializable, Callable<Collecti
 		boolean shouldIgnore = shouldIgnoreCases();
 		
 		Collection<Runnable> caseRunners = new ArrayList<Runnable>();
-		for (ThingMLTestCase cse : cases) {
+		for (ThingMLTestCase cse : pending) {
 			if (!prepared) {
 				// Something failed in the preparation
 				this.notifier.fireTestIgnored(cse.getDescription());
@@ -177,6 +185,11 @@ public class ThingMLTest implements Describable, Serializable, Callable<Collecti
 		return true;
 	}
 	
+	public File getSourceFile() {
+		// The file the test is loaded from, used as part of the key in the result cache (no caching if null)
+		return null;
+	}
+	
 	public void prepareDirectory(String compiler, Configuration configuration, File directory) throws AssertionError {
 		// Allows modification of the directory where the target platform code will be run, e.g. to add files or other dependencies
 		// This is called after the platform code is generated, but before the platform code is compiled/executed
@@ -17,6 +17,7 @@
 package org.thingml.testing.framework;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringWriter;
 import java.util.Collection;
@@ -42,7 +43,9 @@ import org.thingml.testing.languages.NodeJSTestCase;
 import org.thingml.testing.languages.PosixMTTestCase;
 import org.thingml.testing.languages.PosixTestCase;
 import org.thingml.testing.utilities.CommandRunner.Output;
+import org.thingml.testing.utilities.ResultCache;
 import org.thingml.testing.utilities.TemporaryDirectory;
+import org.thingml.testing.utilities.TimeoutThreadPoolExecutor.Schedulable;
 import org.thingml.utilities.logging.BufferedLogger;
 import org.thingml.utilities.logging.Logger;
 import org.thingml.xtext.constraints.ThingMLHelpers;
@@ -52,7 +55,7 @@ import org.thingml.xtext.thingML.Property;
 import org.thingml.xtext.thingML.Thing;
 import org.thingml.xtext.thingML.ThingMLModel;
 
-public abstract class ThingMLTestCase implements Describable, Runnable {
+public abstract class ThingMLTestCase implements Describable, Runnable, Schedulable {
 	
 	private boolean prototype;
 	private String id;
@@ -61,6 +64,7 @@ public abstract class ThingMLTestCase implements Describable, Runnable {
 	protected ThingMLCompiler compiler;
 	
 	private RunNotifier notifier;
+	private String cacheKey;
 	
 	protected ThingMLTestCase(ThingMLCompiler compiler) {
 		this.prototype = true;
@@ -88,6 +92,13 @@ public abstract class ThingMLTestCase implements Describable, Runnable {
 		return description;
 	}
 	
+	/* --- Schedulable interface --- */
+	@Override
+	public String getScheduleKey() { return getDescription().getDisplayName(); }
+	
+	@Override
+	public String getScheduleGroup() { return getToolchain(); }
+	
 	/* --- Runnable interface --- */
 	public void setNotifier(RunNotifier notifier) { this.notifier = notifier; }
 	
@@ -119,10 +130,39 @@ public abstract class ThingMLTestCase implements Describable, Runnable {
 		
 		if (error != null)
 			not.addFailure(error);
+		else
+			ResultCache.store(this.cacheKey, this.description);
 		
 		not.fireTestFinished();
 	}
 	
+	/* --- Result cache --- */
+	// Reports the test case as successful without running it, if it succeeded before with the same inputs
+	public final boolean reportCachedResult(RunNotifier notifier) {
+		if (this.prototype) throw new RuntimeException("ThingMLTestCase.reportCachedResult() called on a prototype");
+		
+		this.cacheKey = computeCacheKey();
+		if (!ResultCache.contains(this.cacheKey)) return false;
+		
+		EachTestNotifier not = new EachTestNotifier(notifier, this.description);
+		not.fireTestStarted();
+		not.fireTestFinished();
+		ResultCache.recordHit(this.description);
+		return true;
+	}
+	
+	private String computeCacheKey() {
+		File source = this.parent.getSourceFile();
+		if (source == null || !ResultCache.isEnabled()) return null;
+		try {
+			tryCurrentPlatform();
+			return ResultCache.key(source, this.parent.getClass().getName()+":"+this.parent.name, this.id, toolchainVersion(this.id), getExecutionMode(),
+				this.compiler.getClass(), ThingMLCompiler.class, ThingMLTestCase.class, this.parent.getClass());
+		} catch (AssertionError | IOException e) {
+			return null; // The result is not cached
+		}
+	}
+	
 	private static final Object flattenLock = new Object();
 	public final AssertionError runCase() throws InterruptedException {
 		if (this.prototype) throw new RuntimeException("ThingMLTestCase.run() called on a prototype");
@@ -209,12 +249,19 @@ public abstract class ThingMLTestCase implements Describable, Runnable {
 	
 	protected abstract void tryRunOnCurrentPlatform() throws AssertionError;
 	
+	protected abstract String getToolchainVersion() throws AssertionError;
+	
+	protected abstract String getToolchain();
+	
 	protected abstract void populateFileDumper(Thing dumper, ActionBlock function, Property path) throws AssertionError;
 	
 	protected abstract void populateStopExecution(Thing thing, ActionBlock body) throws AssertionError;
 	
 	protected abstract Output executePlatformCode(Configuration configuration, File directory) throws AssertionError;
 	
+	// How the generated code is built and run, when a test case compiler has several ways (part of the result cache key)
+	protected String getExecutionMode() { return ""; }
+	
 	
 	
 	
@@ -280,4 +327,14 @@ public abstract class ThingMLTestCase implements Describable, Runnable {
 	}
 	
 	public void tryCurrentPlatform() throws AssertionError { tryCurrentPlatform(this.id); }
+	
+	
+	// The toolchain versions are part of the result cache keys, so we only ask once
+	private static Map<String, String> toolchainVersions = new HashMap<String, String>();
+	
+	public static synchronized String toolchainVersion(String id) throws AssertionError {
+		if (!toolchainVersions.containsKey(id))
+			toolchainVersions.put(id, findFromId(id).getToolchainVersion());
+		return toolchainVersions.get(id);
+	}
 }
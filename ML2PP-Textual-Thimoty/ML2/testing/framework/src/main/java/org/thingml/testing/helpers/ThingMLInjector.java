@@ -27,7 +27,7 @@ import org.eclipse.xtext.nodemodel.INode;
 import org.eclipse.xtext.parser.IParseResult;
 import org.eclipse.xtext.resource.impl.ListBasedDiagnosticConsumer;
 import org.eclipse.xtext.xtext.XtextLinker;
-import org.thingml.xtext.ThingMLStandaloneSetup;
+import org.thingml.compilers.utils.ThingMLModelLoader;
 import org.thingml.xtext.parser.antlr.ThingMLParser;
 import org.thingml.xtext.services.ThingMLGrammarAccess;
 import org.thingml.xtext.thingML.Action;
@@ -45,7 +45,7 @@ public class ThingMLInjector {
 	private XtextLinker linker;
 	
 	private ThingMLInjector() {
-		Injector inj = new ThingMLStandaloneSetup().createInjectorAndDoEMFRegistration();
+		Injector inj = ThingMLModelLoader.getInjector();
 		inj.injectMembers(this);
 	}
 	
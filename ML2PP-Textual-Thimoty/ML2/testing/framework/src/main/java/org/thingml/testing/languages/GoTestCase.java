@@ -98,4 +98,12 @@ public class GoTestCase extends ThingMLTestCase {
 		CommandRunner.executePlatformIndependentCommand("go version", 10).check("go version");
 		// TODO: Install gosm library if not present
 	}
+
+	@Override
+	protected String getToolchainVersion() throws AssertionError {
+		return CommandRunner.executePlatformIndependentCommand("go version", 10).output();
+	}
+
+	@Override
+	protected String getToolchain() { return "go"; }
 }
@@ -25,6 +25,8 @@ import org.thingml.testing.framework.ThingMLTestCase;
 import org.thingml.testing.helpers.ThingMLInjector;
 import org.thingml.testing.utilities.CommandRunner;
 import org.thingml.testing.utilities.CommandRunner.Output;
+import org.thingml.testing.utilities.JavaTestWorker;
+import org.thingml.testing.utilities.JavaWarmBuild;
 import org.thingml.xtext.thingML.ActionBlock;
 import org.thingml.xtext.thingML.Configuration;
 import org.thingml.xtext.thingML.Property;
@@ -50,7 +52,8 @@ public class JavaTestCase extends ThingMLTestCase {
 			"`try {`",
 			// Write the byte(s) to the file
 			"`  byte[] chars = new byte[] { `&C&` };`",			
-			"`  java.io.File file = new java.io.File(`&DumpPath&`);`",
+			// The warm build runs all programs in the same working directory, so the test directory is given as a property
+			"`  java.io.File file = new java.io.File(System.getProperty(\"thingml.test.dir\", \".\"), `&DumpPath&`);`",
 			"`  java.nio.file.Files.write(file.toPath(), chars, java.nio.file.StandardOpenOption.APPEND);`",
 			"`} catch (java.lang.Exception e) {}`"
 		);
@@ -58,13 +61,17 @@ public class JavaTestCase extends ThingMLTestCase {
 
 	@Override
 	protected void populateStopExecution(Thing thing, ActionBlock body) throws AssertionError {
+		// In the warm workers (see JavaTestWorker), System.exit would end the worker: exit through its callback instead
 		ThingMLInjector.addActions(body,
-			"`System.exit(`&Code&`);`"
+			"`if (System.getProperties().get(\""+JavaTestWorker.EXIT_PROPERTY+"\") instanceof java.util.function.IntConsumer) ((java.util.function.IntConsumer) System.getProperties().get(\""+JavaTestWorker.EXIT_PROPERTY+"\")).accept(`&Code&`); else System.exit(`&Code&`);`"
 		);
 	}
 
 	@Override
 	protected Output executePlatformCode(Configuration configuration, File directory) throws AssertionError {
+		// Compile and run in warm JVMs instead of starting Maven twice for each test
+		if (JavaWarmBuild.isEnabled()) return JavaWarmBuild.execute(directory);
+		
 		// Run 'mvn install'
 		CommandRunner.executePlatformIndependentCommandIn(directory, "mvn install").check("mvn install");
 		
@@ -76,6 +83,19 @@ public class JavaTestCase extends ThingMLTestCase {
 	protected void tryRunOnCurrentPlatform() throws AssertionError {
 		// Check that we can run Maven (that should mean that Java is also working)
 		CommandRunner.executePlatformIndependentCommand("mvn -v", 10).check("mvn -v");
+		if (JavaWarmBuild.isEnabled() && !JavaWarmBuild.isAvailable())
+			throw new AssertionError("The Java warm build needs a JDK (-DjavaWarmBuild=true)");
+	}
+
+	@Override
+	protected String getToolchainVersion() throws AssertionError {
+		return CommandRunner.executePlatformIndependentCommand("mvn -v", 10).output();
 	}
 
+	@Override
+	protected String getToolchain() { return "maven"; }
+	
+	@Override
+	protected String getExecutionMode() { return JavaWarmBuild.isEnabled() ? "warm" : "maven"; }
+
 }
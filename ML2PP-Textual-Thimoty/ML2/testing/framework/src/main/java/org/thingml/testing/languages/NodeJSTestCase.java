@@ -95,4 +95,13 @@ public class NodeJSTestCase extends ThingMLTestCase {
 		//CommandRunner.executePlatformIndependentCommand("npm list -g state.js").check("npm list -g state.js");
 	}
 
+	@Override
+	protected String getToolchainVersion() throws AssertionError {
+		return CommandRunner.executePlatformIndependentCommand("node -v", 10).output()
+		     + CommandRunner.executePlatformIndependentCommand("npm -v", 10).output();
+	}
+
+	@Override
+	protected String getToolchain() { return "npm"; }
+
 }
@@ -99,4 +99,13 @@ public class PosixTestCase extends ThingMLTestCase {
 		CommandRunner.executePlatformIndependentCommand("make -v", 10).check("make -v");
 		CommandRunner.executePlatformIndependentCommand("gcc -v", 10).check("gcc -v");
 	}
+
+	@Override
+	protected String getToolchainVersion() throws AssertionError {
+		return CommandRunner.executePlatformIndependentCommand("make -v", 10).output()
+		     + CommandRunner.executePlatformIndependentCommand("gcc -v", 10).output();
+	}
+
+	@Override
+	protected String getToolchain() { return "make"; }
 }
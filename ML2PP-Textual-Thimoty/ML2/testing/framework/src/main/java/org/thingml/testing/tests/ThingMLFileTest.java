@@ -21,6 +21,7 @@ import java.io.File;
 import org.junit.internal.runners.model.EachTestNotifier;
 import org.junit.runner.notification.RunNotifier;
 import org.thingml.compilers.ThingMLCompiler;
+import org.thingml.compilers.utils.ThingMLModelLoader;
 import org.thingml.testing.errors.ThingMLLoadModelError;
 import org.thingml.testing.framework.ThingMLTest;
 import org.thingml.utilities.logging.BufferedLogger;
@@ -42,16 +43,16 @@ public class ThingMLFileTest extends ThingMLTest {
 		return Files.getNameWithoutExtension(thingmlFile.getName());
 	}
 	
-	private static final Object loadLock = new Object();
+	@Override
+	public File getSourceFile() {
+		return thingmlFile;
+	}
 	
 	@Override
 	public boolean prepare(RunNotifier notifier) throws InterruptedException {
-		// Load the model from the file
+		// Load the model from the file (shared with other tests of the file, it is flattened before being modified)
 		BufferedLogger log = new BufferedLogger();
-		synchronized (loadLock) {
-			// Since this is not thread-safe, we unfortunately have to do this one at a time
-			model = ThingMLCompiler.loadModel(thingmlFile, log);
-		}
+		model = ThingMLCompiler.loadModel(thingmlFile, log, ThingMLModelLoader.getCaching());
 		if (log.hasError()) {
 			EachTestNotifier not = new EachTestNotifier(notifier, getDescription());
 			not.addFailure(new ThingMLLoadModelError(thingmlFile, log.getError()));
@@ -38,6 +38,13 @@ public class CommandRunner {
 			exception = ex;
 		}
 		
+		Output(int returnValue, String stdout, String stderr) {
+			this.returnValue = returnValue;
+			this.stdout = stdout;
+			this.stderr = stderr;
+			exception = null;
+		}
+		
 		Output(Process p, String command, long timeout) throws Exception {
 			try {
 				if (timeout > 0) {
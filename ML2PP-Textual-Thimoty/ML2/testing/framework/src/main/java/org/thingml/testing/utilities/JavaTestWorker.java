@@ -0,0 +1,161 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.testing.utilities;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/*
+ * Long running JVM that executes the generated Java test programs (see JavaWarmBuild).
+ * Each request is one line on stdin: <directory>\t<classpath>\t<main class>
+ * Each reply is one line on stdout: <exit code>\t<base64 stdout>\t<base64 stderr>\t<clean>
+ * The program runs in its own class loader and thread group.
+ * When threads of the program can't be stopped, 'clean' is false and the worker should not be reused.
+ *
+ * The test programs stop through the IntConsumer stored in the system property EXIT_PROPERTY when there is one
+ * (see JavaTestCase.populateStopExecution), instead of System.exit which would end the worker.
+ * The callback records the exit code and unwinds the calling thread with an ExitTrapped error.
+ */
+public class JavaTestWorker {
+	public static final String EXIT_PROPERTY = "thingml.test.exit";
+	
+	private static final Object lock = new Object();
+	private static volatile Integer exitCode = null;
+	
+	private static class ExitTrapped extends Error {
+		private static final long serialVersionUID = 1L;
+		
+		ExitTrapped(int status) {
+			super("exit("+status+") trapped by the test worker");
+		}
+	}
+	
+	private static void exited(int status) {
+		synchronized (lock) {
+			if (exitCode == null) exitCode = status;
+			lock.notifyAll();
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		PrintStream protocol = new PrintStream(new java.io.FileOutputStream(java.io.FileDescriptor.out), true, "UTF-8");
+		BufferedReader requests = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+		System.getProperties().put(EXIT_PROPERTY, (IntConsumer) status -> {
+			exited(status);
+			throw new ExitTrapped(status);
+		});
+		
+		String request;
+		while ((request = requests.readLine()) != null) {
+			String[] fields = request.split("\t", -1);
+			if (fields.length != 3) {
+				System.err.println("Malformed request: "+request);
+				continue;
+			}
+			protocol.println(run(new File(fields[0]), fields[1], fields[2]));
+		}
+	}
+	
+	private static String run(File directory, String classpath, String mainClass) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		PrintStream stdout = System.out, stderr = System.err;
+		System.setOut(new PrintStream(out, true, "UTF-8"));
+		System.setErr(new PrintStream(err, true, "UTF-8"));
+		System.setProperty("thingml.test.dir", directory.getAbsolutePath());
+		
+		List<URL> urls = new ArrayList<URL>();
+		for (String entry : classpath.split(File.pathSeparator))
+			if (!entry.isEmpty()) urls.add(new File(entry).toURI().toURL());
+		URLClassLoader loader = new URLClassLoader(urls.toArray(new URL[0]), ClassLoader.getSystemClassLoader().getParent());
+		ThreadGroup group = new ThreadGroup("thingml-test") {
+			@Override
+			public void uncaughtException(Thread t, Throwable e) {
+				if (!(e instanceof ExitTrapped)) super.uncaughtException(t, e);
+			}
+		};
+		
+		synchronized (lock) { exitCode = null; }
+		Thread main = new Thread(group, () -> {
+			try {
+				Method entry = loader.loadClass(mainClass).getMethod("main", String[].class);
+				entry.invoke(null, (Object) new String[0]);
+			} catch (InvocationTargetException e) {
+				if (!(e.getCause() instanceof ExitTrapped)) {
+					e.getCause().printStackTrace();
+					exited(1);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				exited(1);
+			}
+		}, "main");
+		main.setContextClassLoader(loader);
+		main.start();
+		
+		// Like 'mvn exec:java', the program ends on System.exit or when all its non-daemon threads are done
+		synchronized (lock) {
+			while (exitCode == null && hasLiveThreads(group)) lock.wait(50);
+			if (exitCode == null) exitCode = 0;
+		}
+		
+		boolean clean = stop(group);
+		loader.close();
+		System.out.flush();
+		System.err.flush();
+		System.setOut(stdout);
+		System.setErr(stderr);
+		
+		Base64.Encoder base64 = Base64.getEncoder();
+		return exitCode+"\t"+base64.encodeToString(out.toByteArray())+"\t"+base64.encodeToString(err.toByteArray())+"\t"+clean;
+	}
+	
+	private static boolean hasLiveThreads(ThreadGroup group) {
+		for (Thread thread : threads(group))
+			if (thread.isAlive() && !thread.isDaemon()) return true;
+		return false;
+	}
+	
+	private static Thread[] threads(ThreadGroup group) {
+		Thread[] threads = new Thread[group.activeCount()+16];
+		int count = group.enumerate(threads, true);
+		return java.util.Arrays.copyOf(threads, count);
+	}
+	
+	@SuppressWarnings("deprecation")
+	private static boolean stop(ThreadGroup group) throws InterruptedException {
+		group.interrupt();
+		for (Thread thread : threads(group)) thread.join(200);
+		for (Thread thread : threads(group)) {
+			try { thread.stop(); } catch (Throwable e) {} // Not supported on recent JVMs
+			thread.join(200);
+		}
+		return threads(group).length == 0;
+	}
+}
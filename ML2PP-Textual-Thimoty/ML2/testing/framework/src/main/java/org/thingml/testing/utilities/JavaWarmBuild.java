@@ -0,0 +1,203 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.testing.utilities;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.thingml.testing.errors.ThingMLTimeoutError;
+import org.thingml.testing.utilities.CommandRunner.Output;
+
+/*
+ * Builds and runs generated Java test programs without starting Maven for each of them.
+ * The dependencies are resolved once per distinct set of dependencies, the sources are compiled
+ * with the compiler of the test JVM, and the programs are run in a pool of warm worker JVMs (see JavaTestWorker).
+ */
+public class JavaWarmBuild {
+	private static final Pattern MAIN_CLASS = Pattern.compile("<mainClass>\\s*([\\w.$]+)\\s*</mainClass>");
+	private static final Pattern DEPENDENCIES = Pattern.compile("<properties>.*</dependencies>", Pattern.DOTALL);
+	
+	private static final Map<String, String> classpaths = new HashMap<String, String>();
+	private static final BlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+	
+	public static boolean isEnabled() {
+		return Boolean.parseBoolean(System.getProperty("javaWarmBuild", "false"));
+	}
+	
+	public static boolean isAvailable() {
+		return ToolProvider.getSystemJavaCompiler() != null;
+	}
+	
+	/* --- Compile and run the Maven project in directory, with the same result as 'mvn install' and 'mvn exec:java' --- */
+	public static Output execute(File directory) throws AssertionError {
+		String pom;
+		try {
+			pom = new String(Files.readAllBytes(new File(directory, "pom.xml").toPath()), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return new Output(e);
+		}
+		Matcher main = MAIN_CLASS.matcher(pom);
+		if (!main.find()) return new Output(new IllegalStateException("No main class in "+directory+"/pom.xml"));
+		
+		String dependencies = dependencies(directory, pom);
+		File classes = new File(directory, "target/classes");
+		compile(directory, dependencies, classes).check("javac");
+		
+		String classpath = classes.getAbsolutePath();
+		File resources = new File(directory, "src/main/resources");
+		if (resources.isDirectory()) classpath += File.pathSeparator+resources.getAbsolutePath();
+		if (!dependencies.isEmpty()) classpath += File.pathSeparator+dependencies;
+		return run(directory, classpath, main.group(1));
+	}
+	
+	/* --- Dependencies are resolved with Maven the first time a set of dependencies is seen --- */
+	private static synchronized String dependencies(File directory, String pom) throws AssertionError {
+		Matcher block = DEPENDENCIES.matcher(pom);
+		String key = block.find() ? block.group() : "";
+		String classpath = classpaths.get(key);
+		if (classpath != null) return classpath;
+		
+		CommandRunner.executePlatformIndependentCommandIn(directory, "mvn -q dependency:build-classpath -Dmdep.outputFile=target/thingml-classpath.txt").check("mvn dependency:build-classpath");
+		try {
+			classpath = new String(Files.readAllBytes(new File(directory, "target/thingml-classpath.txt").toPath()), StandardCharsets.UTF_8).trim();
+		} catch (IOException e) {
+			new Output(e).check("mvn dependency:build-classpath");
+		}
+		classpaths.put(key, classpath);
+		return classpath;
+	}
+	
+	private static Output compile(File directory, String classpath, File classes) {
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if (javac == null) return new Output(new IllegalStateException("No Java compiler available, the tests must run on a JDK"));
+		
+		List<File> sources;
+		try (Stream<Path> files = Files.walk(new File(directory, "src/main/java").toPath())) {
+			sources = files.filter(f -> f.toString().endsWith(".java")).map(Path::toFile).collect(Collectors.toList());
+		} catch (IOException e) {
+			return new Output(e);
+		}
+		classes.mkdirs();
+		
+		List<String> options = new ArrayList<String>();
+		options.add("-nowarn");
+		options.add("-encoding");
+		options.add("UTF-8");
+		options.add("-d");
+		options.add(classes.getAbsolutePath());
+		if (!classpath.isEmpty()) {
+			options.add("-classpath");
+			options.add(classpath);
+		}
+		
+		StringWriter messages = new StringWriter();
+		try (StandardJavaFileManager files = javac.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+			Iterable<? extends JavaFileObject> units = files.getJavaFileObjectsFromFiles(sources);
+			boolean success = javac.getTask(messages, files, null, options, null, units).call();
+			return new Output(success ? 0 : 1, "", messages.toString());
+		} catch (IOException e) {
+			return new Output(e);
+		}
+	}
+	
+	/* --- Runs the program in one of the warm workers --- */
+	private static Output run(File directory, String classpath, String mainClass) throws AssertionError {
+		Worker worker = idle.poll();
+		try {
+			if (worker == null) worker = new Worker();
+			String[] reply = worker.call(directory.getAbsolutePath()+"\t"+classpath+"\t"+mainClass).split("\t", -1);
+			
+			Base64.Decoder base64 = Base64.getDecoder();
+			Output output = new Output(Integer.parseInt(reply[0]),
+				new String(base64.decode(reply[1]), StandardCharsets.UTF_8),
+				new String(base64.decode(reply[2]), StandardCharsets.UTF_8));
+			
+			// Only reuse workers where the program didn't leave anything behind
+			if (Boolean.parseBoolean(reply[3])) idle.add(worker);
+			else worker.destroy();
+			return output;
+		} catch (InterruptedException e) {
+			if (worker != null) worker.destroy();
+			throw new ThingMLTimeoutError("Timeout while executing '"+mainClass+"'");
+		} catch (Exception e) {
+			if (worker != null) worker.destroy();
+			return new Output(e);
+		}
+	}
+	
+	private static class Worker {
+		private final Process process;
+		private final PrintStream requests;
+		private final BlockingQueue<String> replies = new LinkedBlockingQueue<String>();
+		
+		Worker() throws IOException {
+			List<String> command = new ArrayList<String>();
+			command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+			command.add("-cp");
+			command.add(new File(JavaTestWorker.class.getProtectionDomain().getCodeSource().getLocation().getPath()).getAbsolutePath());
+			command.add(JavaTestWorker.class.getName());
+			
+			process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+			requests = new PrintStream(process.getOutputStream(), true, "UTF-8");
+			
+			// Replies are read by a separate thread, so that waiting for them can be interrupted
+			Thread reader = new Thread(() -> {
+				try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+					String line;
+					while ((line = in.readLine()) != null) replies.add(line);
+				} catch (IOException e) {}
+				replies.add("");
+			}, "thingml-java-worker-reader");
+			reader.setDaemon(true);
+			reader.start();
+		}
+		
+		String call(String request) throws InterruptedException, IOException {
+			requests.println(request);
+			String reply = replies.take();
+			if (reply.isEmpty()) throw new IOException("Java test worker died");
+			return reply;
+		}
+		
+		void destroy() {
+			process.destroyForcibly();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ */
+package org.thingml.testing.utilities;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.runner.Description;
+
+/*
+ * Cache of successful test case results, so that unchanged tests are not generated, built and executed again.
+ * A result is keyed by the test file and its (transitive) imports, every entry of the test class path (the compilers,
+ * the testing framework and their dependencies), the version of the platform toolchain, and how the code is built and
+ * run (e.g. with -DjavaWarmBuild).
+ * Only successes are stored, so failures are always run again.
+ * The test cases that were taken from the cache are listed in 'hits.txt' (or 'hits-<index>-of-<count>.txt' with -Dshard) for the report builder.
+ *
+ * The cache is disabled by default, run with -DresultCache=true to enable it (in 'target/thingml-test-cache', see -DresultCacheDir).
+ */
+public class ResultCache {
+	private static final Pattern IMPORT = Pattern.compile("^\\s*import\\s+\"([^\"]+)\"", Pattern.MULTILINE);
+	
+	private static final Map<String, String> codeHashes = new HashMap<String, String>();
+	private static Writer hits = null;
+	
+	public static boolean isEnabled() {
+		if (System.getProperty("noRun", "false").equalsIgnoreCase("true")) return false;
+		return System.getProperty("resultCache", "false").equalsIgnoreCase("true");
+	}
+	
+	public static File getDirectory() {
+		return new File(System.getProperty("resultCacheDir", "target/thingml-test-cache"));
+	}
+	
+	/* --- Keys --- */
+	public static String key(File testFile, String testName, String compilerId, String toolchain, String mode, Class<?>... code) throws IOException {
+		MessageDigest digest = sha256();
+		update(digest, testName);
+		update(digest, compilerId);
+		update(digest, toolchain);
+		update(digest, mode);
+		
+		// The test file and everything it imports
+		Set<File> sources = new LinkedHashSet<File>();
+		addSources(testFile.getCanonicalFile(), sources);
+		for (File source : sources) {
+			update(digest, source.getName());
+			digest.update(Files.readAllBytes(source.toPath()));
+		}
+		
+		// The compiled code of the compilers, the testing framework and all their dependencies (each jar or classes directory once)
+		Set<String> locations = new LinkedHashSet<String>();
+		try {
+			for (Class<?> c : code)
+				locations.add(new File(c.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath());
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+		locations.addAll(classPath());
+		for (String location : locations)
+			update(digest, codeHash(new File(location)));
+		
+		return hex(digest.digest());
+	}
+	
+	// Surefire runs the tests from a manifest-only jar, and gives the actual test class path in a property
+	private static Set<String> classPath() {
+		String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path", ""));
+		Set<String> entries = new LinkedHashSet<String>();
+		for (String entry : classPath.split(Pattern.quote(File.pathSeparator))) {
+			if (!entry.isEmpty()) entries.add(new File(entry).getAbsolutePath());
+		}
+		return entries;
+	}
+	
+	private static void addSources(File file, Set<File> sources) throws IOException {
+		if (!sources.add(file)) return;
+		String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		Matcher imports = IMPORT.matcher(content);
+		while (imports.find()) {
+			File imported = new File(file.getParentFile(), imports.group(1)).getCanonicalFile();
+			if (imported.isFile()) addSources(imported, sources);
+		}
+	}
+	
+	private static synchronized String codeHash(File location) throws IOException {
+		String hash = codeHashes.get(location.getPath());
+		if (hash != null) return hash;
+		
+		MessageDigest digest = sha256();
+		if (!location.exists()) {
+			update(digest, location.getPath());
+		} else if (location.isDirectory()) {
+			List<Path> files;
+			try (Stream<Path> walk = Files.walk(location.toPath())) {
+				files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+			}
+			for (Path file : files) {
+				update(digest, location.toPath().relativize(file).toString());
+				digest.update(Files.readAllBytes(file));
+			}
+		} else {
+			digest.update(Files.readAllBytes(location.toPath()));
+		}
+		hash = hex(digest.digest());
+		codeHashes.put(location.getPath(), hash);
+		return hash;
+	}
+	
+	/* --- Results --- */
+	public static boolean contains(String key) {
+		return key != null && new File(getDirectory(), key).isFile();
+	}
+	
+	public static void store(String key, Description description) {
+		if (key == null) return;
+		try {
+			File dir = getDirectory();
+			dir.mkdirs();
+			Files.write(new File(dir, key).toPath(), (description.getClassName()+"\t"+description.getMethodName()+"\n").getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {} // The result is simply not cached
+	}
+	
+	// The list of hits is started over once in each test run (i.e. JVM)
+	// Shards run in parallel processes, so each one has its own list, and removes the lists of other shardings
+	public static synchronized void startRun() {
+		if (hits != null || !isEnabled()) return;
+		try {
+			File dir = getDirectory();
+			dir.mkdirs();
+			int[] shard = TimeoutThreadPoolExecutor.getShard();
+			String name = (shard == null) ? "hits.txt" : "hits-"+shard[0]+"-of-"+shard[1]+".txt";
+			File[] others = dir.listFiles((d, n) -> n.matches("hits(-\\d+-of-\\d+)?\\.txt") && !n.equals(name) && (shard == null || !n.endsWith("-of-"+shard[1]+".txt")));
+			if (others != null) {
+				for (File other : others) other.delete();
+			}
+			hits = new FileWriter(new File(dir, name), false);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public static synchronized void recordHit(Description description) {
+		startRun();
+		if (hits == null) return;
+		try {
+			hits.write(description.getClassName()+"\t"+description.getMethodName()+"\n");
+			hits.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/* --- Helpers --- */
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static void update(MessageDigest digest, String value) {
+		digest.update(value.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+	
+	private static String hex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder();
+		for (byte b : bytes) builder.append(String.format("%02x", b));
+		return builder.toString();
+	}
+}
@@ -16,30 +16,81 @@
  */
 package org.thingml.testing.utilities;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TimeoutThreadPoolExecutor {
+	// Tasks can tell the scheduler what they are, so that the longest ones can be started first and the toolchains limited
+	public interface Schedulable {
+		// A stable name, used to look up how long the task took in earlier runs
+		public String getScheduleKey();
+		// The toolchain used by the task (e.g. maven, make, go, npm), or null
+		public String getScheduleGroup();
+	}
+	
 	private ExecutorService executor;
 	private ScheduledExecutorService canceller;
 	private boolean isShutdown;
 	private Collection<Future<?>> complexFutures;
 	
+	private int nThreads;
+	private int running;
+	private long submitted;
+	private TreeSet<Cancellable> pending;
+	private Map<String, Integer> groupLimits;
+	private Map<String, Integer> groupRunning;
+	private Properties durations;
+	private Properties measured;
+	
 	public TimeoutThreadPoolExecutor(int nThreads) {
-		executor = Executors.newFixedThreadPool(nThreads > 2 ? nThreads-1 : 1);
+		this.nThreads = nThreads > 2 ? nThreads-1 : 1;
+		executor = Executors.newFixedThreadPool(this.nThreads);
 		canceller = Executors.newSingleThreadScheduledExecutor();
 		isShutdown = false;
 		complexFutures = new ArrayList<Future<?>>();
+		
+		running = 0;
+		submitted = 0;
+		// Tasks that took the longest time before are started first, unknown tasks are assumed to be long
+		pending = new TreeSet<Cancellable>(new Comparator<Cancellable>() {
+			@Override
+			public int compare(Cancellable a, Cancellable b) {
+				if (a.expected != b.expected) return Long.compare(b.expected, a.expected);
+				return Long.compare(a.order, b.order);
+			}
+		});
+		groupLimits = parseGroupLimits(this.nThreads);
+		groupRunning = new HashMap<String, Integer>();
+		durations = loadDurations();
+		measured = new Properties();
 	}
 	
 	public TimeoutThreadPoolExecutor() {
@@ -49,14 +100,18 @@ public class TimeoutThreadPoolExecutor {
 	// Submit a simple task which will be stopped after timeout
 	public Future<?> submit(Runnable task, long timeoutSeconds) {
 		if (isShutdown) throw new RejectedExecutionException("Executor is shutdown");
-		return new Cancellable(task, timeoutSeconds).future();
+		Cancellable cancellable = new Cancellable(task, timeoutSeconds);
+		enqueue(Collections.singleton(cancellable));
+		return cancellable.future();
 	}
 	
 	// Submit a task which will be stopped after timeout - if it returns before, the resulting Runnables will also be scheduled for execution with the same timeout
 	public Future<?> submit(Callable<Collection<Runnable>> task, long timeoutSeconds) {
 		if (isShutdown) throw new RejectedExecutionException("Executor is shutdown");
 		 // We need to keep track of these so that we can let them finish and add new child-tasks before we shutdown the actual executor
-		Future<?> complexFuture = new Cancellable(task, timeoutSeconds).future();
+		Cancellable cancellable = new Cancellable(task, timeoutSeconds);
+		enqueue(Collections.singleton(cancellable));
+		Future<?> complexFuture = cancellable.future();
 		complexFutures.add(complexFuture);
 		return complexFuture;
 	}
@@ -67,43 +122,183 @@ public class TimeoutThreadPoolExecutor {
 		long waittime = ((long)timeoutMinutes)*60*1000;
 		long startWait = System.currentTimeMillis();
 		
-		// Wait for all complex tasks to complete - and possibly add new simple tasks
-		for (Future<?> future : complexFutures) {
-			try {
-				long alreadyWaited = System.currentTimeMillis()-startWait;
-				if (alreadyWaited >= waittime) throw new TimeoutException();
-				
-				future.get(waittime-alreadyWaited, TimeUnit.MILLISECONDS);
+		try {
+			// Wait for all complex tasks to complete - and possibly add new simple tasks
+			for (Future<?> future : complexFutures) {
+				try {
+					long alreadyWaited = System.currentTimeMillis()-startWait;
+					if (alreadyWaited >= waittime) throw new TimeoutException();
+					
+					future.get(waittime-alreadyWaited, TimeUnit.MILLISECONDS);
+				}
+				catch (CancellationException | ExecutionException e) {} // We don't care about these
 			}
-			catch (CancellationException | ExecutionException e) {} // We don't care about these
-			catch (InterruptedException | TimeoutException e) {
-				// Force shutdown of the executors
-				executor.shutdownNow();
-				canceller.shutdownNow();
-				throw e;
+			
+			// Wait for all the simple tasks to be dispatched and completed
+			synchronized (this) {
+				while (running > 0 || !pending.isEmpty()) {
+					long alreadyWaited = System.currentTimeMillis()-startWait;
+					if (alreadyWaited >= waittime) throw new TimeoutException();
+					wait(waittime-alreadyWaited);
+				}
 			}
-		}
-		
-		// Now all complex tasks are completed, so we properly shutdown the executor - and try to wait for completion
-		try {
-			// Stop the executor
+			
+			// Now everything is completed, so we properly shutdown the executors
+			executor.shutdown();
+			canceller.shutdownNow();
 			long alreadyWaited = System.currentTimeMillis()-startWait;
 			if (alreadyWaited >= waittime) throw new TimeoutException();
-			executor.shutdown();
 			if (!executor.awaitTermination(waittime-alreadyWaited, TimeUnit.MILLISECONDS))
 				throw new TimeoutException();
-			
-			// Stop the canceller (since the executor is done - we don't care about running or future cancellations)
-			alreadyWaited = System.currentTimeMillis()-startWait;
-			if (alreadyWaited >= waittime) throw new TimeoutException();
-			canceller.shutdownNow();
-			if (!canceller.awaitTermination(waittime-alreadyWaited, TimeUnit.MILLISECONDS))
-				throw new TimeoutException();
 		} catch (InterruptedException | TimeoutException e) {
 			// Force shutdown of executors
 			executor.shutdownNow();
 			canceller.shutdownNow();
 			throw e;
+		} finally {
+			saveDurations();
+		}
+	}
+	
+	/* --- Dispatching of pending tasks, in order and within the limits of each toolchain --- */
+	private synchronized void enqueue(Collection<Cancellable> tasks) {
+		for (Cancellable task : tasks) {
+			task.order = submitted++;
+			pending.add(task);
+		}
+		dispatch();
+	}
+	
+	private synchronized void dispatch() {
+		while (running < nThreads) {
+			Cancellable next = null;
+			for (Cancellable task : pending) {
+				if (task.group == null || groupRunning.getOrDefault(task.group, 0) < groupLimits.getOrDefault(task.group, nThreads)) {
+					next = task;
+					break;
+				}
+			}
+			if (next == null) return;
+			
+			pending.remove(next);
+			running++;
+			if (next.group != null) groupRunning.put(next.group, groupRunning.getOrDefault(next.group, 0)+1);
+			executor.execute(next.selfFuture);
+		}
+	}
+	
+	private synchronized void finished(Cancellable task, long duration) {
+		running--;
+		if (task.group != null) groupRunning.put(task.group, groupRunning.get(task.group)-1);
+		if (task.key != null) {
+			durations.setProperty(task.key, Long.toString(duration));
+			measured.setProperty(task.key, Long.toString(duration));
+		}
+		dispatch();
+		notifyAll();
+	}
+	
+	// A task cancelled before it started, either still pending or already handed to the executor
+	private synchronized void cancelled(Cancellable task) {
+		if (!pending.remove(task)) {
+			running--;
+			if (task.group != null) groupRunning.put(task.group, groupRunning.get(task.group)-1);
+			dispatch();
+		}
+		notifyAll();
+	}
+	
+	/* --- Limits per toolchain, e.g. -DtoolchainThreads=maven=2,make=4 --- */
+	private static Map<String, Integer> parseGroupLimits(int nThreads) {
+		Map<String, Integer> limits = new HashMap<String, Integer>();
+		// Maven and npm do a lot of disk (and network) I/O, so by default they only get half of the threads
+		limits.put("maven", Math.max(1, nThreads/2));
+		limits.put("npm", Math.max(1, nThreads/2));
+		
+		for (String limit : System.getProperty("toolchainThreads", "").split(",")) {
+			if (limit.isEmpty()) continue;
+			String[] parts = limit.split("=");
+			try {
+				limits.put(parts[0].trim(), Math.max(1, Integer.parseInt(parts[1].trim())));
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				System.err.println("Ignoring invalid toolchain limit '"+limit+"'");
+			}
+		}
+		return limits;
+	}
+	
+	/* --- Durations of the tasks in the previous runs --- */
+	private static File durationsFile() {
+		return new File(System.getProperty("durationsFile", "target/thingml-test-durations.properties"));
+	}
+	
+	private static Properties loadDurations() {
+		Properties properties = new Properties();
+		File file = durationsFile();
+		if (file.isFile()) {
+			try (InputStream in = new FileInputStream(file)) {
+				properties.load(in);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return properties;
+	}
+	
+	// Shards run in parallel processes: the durations measured here are merged into the file, under a lock
+	private synchronized void saveDurations() {
+		if (measured.isEmpty()) return;
+		File file = durationsFile();
+		if (file.getParentFile() != null) file.getParentFile().mkdirs();
+		synchronized (TimeoutThreadPoolExecutor.class) { // The lock is held by the process, not by the thread
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+				 FileLock lock = channel.lock()) {
+				ByteBuffer content = ByteBuffer.allocate((int)channel.size());
+				while (content.hasRemaining() && channel.read(content) >= 0);
+				Properties merged = new Properties();
+				merged.load(new ByteArrayInputStream(content.array(), 0, content.position()));
+				merged.putAll(measured);
+				
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				merged.store(out, "Duration (ms) of each test case in the last run, used to start the longest ones first");
+				channel.truncate(0);
+				ByteBuffer written = ByteBuffer.wrap(out.toByteArray());
+				while (written.hasRemaining()) channel.write(written, written.position());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	private synchronized long expectedDuration(String key) {
+		if (key == null) return Long.MAX_VALUE;
+		try {
+			return Long.parseLong(durations.getProperty(key, ""));
+		} catch (NumberFormatException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+	
+	/* --- Sharding, e.g. -Dshard=2/4 runs the second of four deterministic parts of the tests --- */
+	public static boolean inShard(String key) {
+		int[] shard = getShard();
+		if (shard == null) return true;
+		return Math.floorMod(key.hashCode(), shard[1]) == shard[0]-1;
+	}
+	
+	// The index (from 1) and count of the shard to run, or null to run everything
+	public static int[] getShard() {
+		String shard = System.getProperty("shard", "");
+		if (shard.isEmpty()) return null;
+		try {
+			String[] parts = shard.split("/");
+			int index = Integer.parseInt(parts[0].trim());
+			int count = Integer.parseInt(parts[1].trim());
+			if (index < 1 || index > count) throw new NumberFormatException();
+			return new int[] { index, count };
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			System.err.println("Ignoring invalid shard '"+shard+"', expected <index>/<count>");
+			return null;
 		}
 	}
 	
@@ -111,15 +306,28 @@ public class TimeoutThreadPoolExecutor {
 	private class Cancellable implements Runnable {
 		private boolean isComplex;
 		private long timeout;
-		private Future<?> selfFuture;
+		private FutureTask<Void> selfFuture;
+		private AtomicBoolean started = new AtomicBoolean(false);
 		private Runnable cancel;
 		private Future<?> cancelFuture;
 		private Runnable simple;
 		private Callable<Collection<Runnable>> complex;
 		
-		private Cancellable(boolean isComplex, long timeout) {
+		private String key;
+		private String group;
+		private long expected;
+		private long order;
+		
+		private Cancellable(boolean isComplex, long timeout, Object task) {
 			this.isComplex = isComplex;
 			this.timeout = timeout;
+			this.selfFuture = new FutureTask<Void>(this, null) {
+				@Override
+				protected void done() {
+					// If the task is cancelled before it starts, run() is never called to release its slot
+					if (isCancelled() && started.compareAndSet(false, true)) cancelled(Cancellable.this);
+				}
+			};
 			// Create a canceller to schedule when execution starts
 			this.cancel = new Runnable() {
 				@Override
@@ -127,26 +335,29 @@ public class TimeoutThreadPoolExecutor {
 					selfFuture.cancel(true);
 				}
 			};
+			if (task instanceof Schedulable) {
+				this.key = ((Schedulable)task).getScheduleKey();
+				this.group = ((Schedulable)task).getScheduleGroup();
+			}
+			this.expected = expectedDuration(this.key);
 		}
 
-		/* --- Submit a simple task --- */
+		/* --- A simple task --- */
 		public Cancellable(Runnable task, long timeout) {
-			this(false, timeout);
-			// Submit ourself for execution
+			this(false, timeout, task);
 			this.simple = task;
-			this.selfFuture = executor.submit(this);
 		}
 		
-		/* --- Submit a complex task --- */
+		/* --- A complex task --- */
 		public Cancellable(Callable<Collection<Runnable>> task, long timeout) {
-			this(true, timeout);
-			// Submit ourself for execution
+			this(true, timeout, task);
 			this.complex = task;
-			this.selfFuture = executor.submit(this);
 		}
 
 		@Override
 		public void run() {
+			if (!started.compareAndSet(false, true)) return; // Cancelled meanwhile
+			long start = System.currentTimeMillis();
 			// Schedule our own death
 			this.cancelFuture = canceller.schedule(cancel, this.timeout, TimeUnit.SECONDS);
 			// Run original work
@@ -157,16 +368,20 @@ public class TimeoutThreadPoolExecutor {
 				} else {
 					// For complex tasks, we call the original task to get potential more tasks
 					Collection<Runnable> tasks = this.complex.call();
+					Collection<Cancellable> children = new ArrayList<Cancellable>();
 					for (Runnable task : tasks) {
 						// Submit these tasks for execution - with the original timeout
 						// This bypasses the shutdown of the executor
-						new Cancellable(task, timeout);
+						children.add(new Cancellable(task, timeout));
 					}
+					// All at once, so that they are ordered among themselves
+					enqueue(children);
 				}
 			} catch (Exception e) {} // We cannot really do anything with them
 			// Cancel death
 			finally {
 				this.cancelFuture.cancel(true);
+				finished(this, System.currentTimeMillis()-start);
 			}
 		}
 		
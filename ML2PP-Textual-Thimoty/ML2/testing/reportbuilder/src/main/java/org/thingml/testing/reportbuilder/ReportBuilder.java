@@ -108,6 +108,10 @@ public class ReportBuilder {
 			.addElement("h1").addText("Summary");
 		topRow.addElement("div").addAttribute("class", "col-sm-6 text-right")
 			.addElement("h3").addText(Suite.countTests(results)+" tests in total");
+		Integer cached = Suite.countCachedTestCases(results);
+		if (cached > 0)
+			topRow.addElement("div").addAttribute("class", "col-sm-12 text-right")
+				.addElement("p").addText(cached+" of "+Suite.countTestCases(results)+" test cases were unchanged and taken from the result cache");
 		
 		Element summaryRow = container.addElement("div").addAttribute("class", "row");
 		// Add suite summaries
@@ -180,11 +184,14 @@ public class ReportBuilder {
 				TestCaseResult res = test.getTestCaseFullResult(compiler);
 				String testHasFailure = test.hasFailure() ? " has-failure" : "";
 				String testCaseHasFailure = res.getResult().simplify() == Result.FAILURE ? " has-failure" : "";
+				String title = res.isCached() ? res.getResult().toString()+" (cached)" : res.getResult().toString();
+				String icon = res.isCached() ? "c" : res.getResult().toIcon();
+				String textColor = res.isCached() ? "#ffffff" : res.getResult().toTextColor();
 				
 				row.addElement("td").addAttribute("class", "thingml-test"+testHasFailure)
-			       .addElement("div").addAttribute("style","background-color:"+res.getResult().toColor()+";color:"+res.getResult().toTextColor())
-			   	   .addAttribute("title", res.getResult().toString())
-			   	   .addText(res.getResult().toIcon())
+			       .addElement("div").addAttribute("style","background-color:"+res.getResult().toColor()+";color:"+textColor)
+			   	   .addAttribute("title", title)
+			   	   .addText(icon)
 			   	   .addAttribute("class", "thingml-testcase-result"+testCaseHasFailure)
 			   	   .addAttribute("data-result-message", res.getMessage())
 			   	   .addAttribute("data-result-title", res.getTitle())
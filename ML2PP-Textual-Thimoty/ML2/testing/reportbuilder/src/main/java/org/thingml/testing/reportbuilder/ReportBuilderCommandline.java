@@ -25,7 +25,7 @@ import org.thingml.testing.reportbuilder.parser.Reparser;
 public class ReportBuilderCommandline {
 	public static void main(String[] args) {
 		try {
-			Reparser parser = new Reparser("../target/surefire-reports/", logger);
+			Reparser parser = new Reparser("../target/surefire-reports/", "../target/thingml-test-cache/hits.txt", logger);
 			ReportBuilder builder = new ReportBuilder(parser.getResults(), logger);
 			builder.saveToHTML("target/test.html");
 		} catch (IOException | MavenReportException e) {
@@ -35,7 +35,7 @@ public class ReportBuilderMojo extends AbstractMojo {
 		ConsoleLogger logger = new PluginConsoleLogger(getLog());
 		
 		try {
-			Reparser parser = new Reparser("target/surefire-reports/", logger);
+			Reparser parser = new Reparser("target/surefire-reports/", "target/thingml-test-cache/", logger);
 			ReportBuilder builder = new ReportBuilder(parser.getResults(), logger);
 			builder.saveToHTML("target/thingml-testreport.html");
 		} catch (IOException | MavenReportException e) {
@@ -22,10 +22,16 @@ public class TestCaseResult {
 	private Result result;
 	private String message;
 	private String title;
+	private boolean cached;
 	
 	public TestCaseResult(Result computed, ReportTestCase original, String title) {
+		this(computed, original, title, false);
+	}
+	
+	public TestCaseResult(Result computed, ReportTestCase original, String title, boolean cached) {
 		result = computed;
 		this.title = title;
+		this.cached = cached;
 		if (original != null) {
 			String type = original.getFailureType();
 			if (type == null || type.isEmpty())
@@ -44,4 +50,5 @@ public class TestCaseResult {
 	public Result getResult() { return result; }
 	public String getMessage() { return message; }
 	public String getTitle() { return title; }
+	public boolean isCached() { return cached; }
 }
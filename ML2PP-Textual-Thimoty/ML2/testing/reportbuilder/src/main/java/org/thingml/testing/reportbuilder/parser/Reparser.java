@@ -18,10 +18,13 @@ package org.thingml.testing.reportbuilder.parser;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,10 +38,23 @@ public class Reparser {
 	private ConsoleLogger log;
 	private List<ReportTestSuite> original;
 	private List<Suite> results;
+	private Set<String> cacheHits;
 	
 	public Reparser(String testResultsPath, ConsoleLogger logger) throws IOException, MavenReportException {
+		this(testResultsPath, null, logger);
+	}
+	
+	public Reparser(String testResultsPath, String cacheHitsDirectory, ConsoleLogger logger) throws IOException, MavenReportException {
 		log = logger;
 		
+		// Test cases that were not run because their result was taken from the cache, listed in 'hits.txt' (or 'hits-<index>-of-<count>.txt' for each shard)
+		cacheHits = new HashSet<String>();
+		File[] hitsFiles = (cacheHitsDirectory != null) ? new File(cacheHitsDirectory).listFiles((d, name) -> name.matches("hits(-\\d+-of-\\d+)?\\.txt")) : null;
+		if (hitsFiles != null) {
+			for (File hitsFile : hitsFiles)
+				cacheHits.addAll(Files.readAllLines(hitsFile.toPath()));
+		}
+		
 		List<File> dir = new ArrayList<File>();
 		dir.add(new File(testResultsPath));
 		
@@ -103,6 +119,7 @@ public class Reparser {
 				else {
 					TestCase nTestCase = new TestCase(nTest, testCaseName);
 					nTestCase.setOriginal(test);
+					nTestCase.setCached(cacheHits.contains(suite.getFullClassName()+"\t"+test.getName()));
 					nTest.getTestCases().add(nTestCase);
 				}
 			}
@@ -62,6 +62,15 @@ public class Suite {
 		return count;
 	}
 	
+	public Integer countCachedTestCases() {
+		Integer count = 0;
+		for (Test test : tests)
+			count += test.countCachedTestCases();
+		for (Suite suite : suites)
+			count += suite.countCachedTestCases();
+		return count;
+	}
+	
 	public Summary getSuiteSummary() {
 		Summary result = new Summary();
 		for (Test test : tests)
@@ -101,6 +110,13 @@ public class Suite {
 		return count;
 	}
 	
+	public static Integer countCachedTestCases(Collection<Suite> results) {
+		Integer count = 0;
+		for (Suite suite : results)
+			count += suite.countCachedTestCases();
+		return count;
+	}
+	
 	public static Summary getSummary(Collection<Suite> results) {
 		Summary result = new Summary();
 		for (Suite suite : results)
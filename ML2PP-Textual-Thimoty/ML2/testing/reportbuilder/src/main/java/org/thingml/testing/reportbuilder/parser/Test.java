@@ -66,6 +66,13 @@ public class Test {
 		return testCases.size();
 	}
 	
+	public Integer countCachedTestCases() {
+		Integer count = 0;
+		for (TestCase testCase : testCases)
+			if (testCase.isCached()) count++;
+		return count;
+	}
+	
 	public boolean hasFailure() {
 		if (result.simplify() == Result.FAILURE) return true;
 		for (TestCase testCase : testCases)
@@ -26,6 +26,7 @@ public class TestCase {
 	private Test parent;
 	private String name;
 	private Result result;
+	private boolean cached;
 	
 	public TestCase(Test parent, String name) {		
 		this.parent = parent;
@@ -48,6 +49,9 @@ public class TestCase {
 	
 	public String getName() { return name; }
 	
+	public void setCached(boolean cached) { this.cached = cached; }
+	public boolean isCached() { return cached && getResult() == Result.SUCCESS; }
+	
 	public Result getResult() {
 		if (result == Result.SKIPPED) return parent.getResult();
 		if (parent.getResult() == Result.SUCCESS) return result;
@@ -73,6 +77,6 @@ public class TestCase {
 	}
 	
 	public TestCaseResult getFullResult() {
-		return new TestCaseResult(getResult(), getOriginal(), getResultTitle());
+		return new TestCaseResult(getResult(), getOriginal(), getResultTitle(), isCached());
 	}
 }
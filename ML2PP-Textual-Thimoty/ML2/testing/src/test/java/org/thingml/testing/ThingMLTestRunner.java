@@ -26,6 +26,7 @@ import org.junit.runner.notification.RunNotifier;
 import org.thingml.testing.errors.ThingMLTimeoutError;
 import org.thingml.testing.framework.ThingMLTest;
 import org.thingml.testing.framework.ThingMLTestCase;
+import org.thingml.testing.utilities.ResultCache;
 import org.thingml.testing.utilities.TimeoutThreadPoolExecutor;
 
 public class ThingMLTestRunner extends Runner {
@@ -70,11 +71,12 @@ public class ThingMLTestRunner extends Runner {
 			timeout = Integer.parseUnsignedInt(System.getProperty("timeout", "90"));
 		} catch (NumberFormatException e) {}
 		
-		// There seems to be a bug where the first task submitted is not actually executed?
-		executor.submit(new Runnable() { @Override public void run() {}}, 1);
+		// Start a new list of tests that are taken from the result cache (enabled with -DresultCache=true)
+		ResultCache.startRun();
 		
-		// Submit all the tests
+		// Submit all the tests of this shard (-Dshard=<index>/<count>)
 		for (ThingMLTest test : tests) {
+			if (!TimeoutThreadPoolExecutor.inShard(test.getDescription().getDisplayName())) continue;
 			test.setNotifier(notifier);
 			executor.submit(test, timeout);
 		}